@@ -24,24 +24,89 @@
 //--------------------------------------
 package org.xerial.db;
 
+import java.util.ArrayList;
+
+import org.xerial.db.cache.Buffer;
+
 /**
- * A pool that keeps allocated buffers
+ * A pool that keeps allocated buffers. The number of the page buffers handed out at a time is 
+ * limited, so that an operator such as {@link ExternalMergeSort} works within a fixed amount of
+ * memory. The released buffers are reused by the later allocations.
+ * 
+ * The pool can be shared by multiple threads.
  * 
  * @author leo
  * 
  */
 public class BufferPool
 {
-    private int maximumBufferPage = 64;
+    private final int maximumBufferPage;
+    private final int pageSize;
+    private final ArrayList<Buffer> freeBuffers = new ArrayList<Buffer>();
+    private int numAllocated = 0;
 
-    public BufferPool(int numBufferPage)
+    /**
+     * @param numBufferPage
+     *            the maximum number of the buffers allocated at a time
+     * @param pageSize
+     *            the byte size of each buffer
+     */
+    public BufferPool(int numBufferPage, int pageSize)
     {
+        if (numBufferPage <= 0)
+            throw new IllegalArgumentException("the number of buffer pages must be higher than 0: " + numBufferPage);
         this.maximumBufferPage = numBufferPage;
+        this.pageSize = pageSize;
+    }
+
+    public int getNumBufferPage()
+    {
+        return maximumBufferPage;
+    }
+
+    public int getPageSize()
+    {
+        return pageSize;
+    }
+
+    /**
+     * @return the number of the buffers that can be allocated now
+     */
+    public synchronized int getNumAvailable()
+    {
+        return maximumBufferPage - numAllocated;
+    }
+
+    /**
+     * Allocates a page buffer
+     * 
+     * @return the buffer, whose contents are undefined
+     * @throws DBException
+     *             when all of the buffers are in use
+     */
+    public synchronized Buffer allocate() throws DBException
+    {
+        if (numAllocated >= maximumBufferPage)
+            throw new DBException(DBErrorCode.ExceedsTheCapacity, "all of the " + maximumBufferPage
+                    + " buffers are in use");
+        numAllocated++;
+        if (!freeBuffers.isEmpty())
+            return freeBuffers.remove(freeBuffers.size() - 1);
+        return new Buffer(pageSize);
     }
 
-    public TupleBuffer getTupleBuffer()
+    /**
+     * Returns the buffer to this pool
+     * 
+     * @param buffer
+     *            the buffer obtained by {@link #allocate()}
+     */
+    public synchronized void release(Buffer buffer)
     {
-        return null;
+        if (numAllocated <= 0)
+            throw new IllegalStateException("no buffer is allocated");
+        numAllocated--;
+        freeBuffers.add(buffer);
     }
 
 }
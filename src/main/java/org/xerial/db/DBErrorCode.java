@@ -46,6 +46,8 @@ public enum DBErrorCode implements ErrorCode {
 
     PageIsFull,
 
+    NoFreePageFrame,
+
     UnknownJDBCDriver,
 
     FailureOnConnectionClose, QueryError, UpdateError,
@@ -24,9 +24,21 @@
 //--------------------------------------
 package org.xerial.db;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xerial.db.cache.Buffer;
+import org.xerial.db.storage.PageCodec;
 
 /**
  * External merge sort algorithm.
@@ -35,57 +47,773 @@ import java.util.List;
  * while until no more tuple from the iterator
  *      TupleIterator -&gt; tuple -&gt; container 
  *      if(container is full)
- *          sort the tuples in the contaienr
- *          write the tuples to the disk
- *       
+ *          sort the tuples in the container
+ *          write the tuples to the disk as a sorted run
  * 
+ * while the number of runs exceeds the merge fan-in
+ *      merge every (fan-in) runs into a longer run
  * 
+ * merge the remaining runs into the output
  * </pre>
  * 
+ * The sort works within the given number of page buffers. The tuples of a run are kept in
+ * all but one of the buffers, and the last buffer is used to write out the run. A merge reads
+ * a page of each input run into its own buffer, so that the merge fan-in is the number of
+ * the buffers minus one, that for the output run. If all of the input tuples fit in the
+ * memory, no run is written, and the tuples are sorted in memory.
+ * 
+ * By default, the runs are generated by sorting the memory-sized chunks of the input. With
+ * {@link RunGeneration#REPLACEMENT_SELECTION}, the runs become twice as long on random input,
+ * and a presorted input results in a single run, so that fewer merge passes are needed.
+ * 
+ * The sort is stable: the tuples of the same order are output in their input order.
+ * 
+ * With {@link #setSortKeyEncoder(SortKeyEncoder)}, the tuples are compared by their normalized
+ * keys, which are encoded once when each tuple enters the sort or is read back from a run.
+ * 
+ * With {@link #setPageCodec(PageCodec)}, the pages of the runs are compressed, which trades
+ * the CPU time for the I/O of the runs.
+ * 
+ * With {@link #setParallelism(Executor, int)}, the input is cut into chunks, and the chunks
+ * are sorted and written as runs by the worker threads, while the calling thread goes on reading
+ * the input. The merges load the next page of each run in the background, and the merged pages
+ * are written by another thread while the merge goes on. The comparator is then called from
+ * multiple threads at a time. The sorter itself and the returned iterator are used by a single
+ * thread.
+ * 
+ * The merges themselves are not parallel: the intermediate passes merge the groups of runs one
+ * after another in the calling thread, and the final merge runs in the thread consuming the
+ * returned iterator. Only the page I/O of the merges overlaps with the comparisons, so the merge
+ * phase does not speed up with more threads, and dominates the sort of an input needing several
+ * merge passes.
+ * 
  * @author leo
  * 
  */
 public class ExternalMergeSort
 {
-    private int numBufferPage = 64;
-    private BufferPool bufferPool;
+    public static final int DEFAULT_PAGE_SIZE = 8192;
+    public static final int DEFAULT_NUM_BUFFER_PAGES = 64;
+
+    /**
+     * How the sorted runs are generated from the input
+     */
+    public static enum RunGeneration {
+        /**
+         * fills the memory with the input tuples, and sorts them into a run
+         */
+        LOAD_SORT,
+        /**
+         * outputs the smallest tuple in memory that can extend the current run, and replaces it
+         * with the next input tuple
+         */
+        REPLACEMENT_SELECTION
+    }
+
+    private final TupleFactory tupleFactory;
+    private final int numBufferPage;
+    private final BufferPool bufferPool;
+    private final File tempDir;
+    private RunGeneration runGeneration = RunGeneration.LOAD_SORT;
+    private Executor executor = null;
+    private int numThreads = 1;
+    private SortKeyEncoder sortKeyEncoder = null;
+    private PageCodec pageCodec = null;
+    // attaches the keys to the tuples read from the runs, while sorting with the normalized keys
+    private NormalizedKeyComparator keyComparator = null;
 
+    // the runs not deleted yet
+    private final ArrayList<SortRun> openRuns = new ArrayList<SortRun>();
+    // the runs being read, which hold the buffers
+    private final ArrayList<RunInput> openInputs = new ArrayList<RunInput>();
+    // the tuples sorted in memory, when no run is written
+    private TupleList sortedInMemory = null;
+    private int numRuns = 0;
+    private int numMergePasses = 0;
+    private final AtomicLong numBytesWritten = new AtomicLong(0);
+
+    /**
+     * Creates a sorter that can sort only the tuples fitting in the memory, or merge the
+     * sorted inputs
+     */
     public ExternalMergeSort()
     {
-        bufferPool = new BufferPool(numBufferPage);
+        this(null);
+    }
+
+    /**
+     * @param tupleFactory
+     *            reads the tuples from the spilled runs
+     */
+    public ExternalMergeSort(TupleFactory tupleFactory)
+    {
+        this(tupleFactory, DEFAULT_PAGE_SIZE, DEFAULT_NUM_BUFFER_PAGES, new File(System.getProperty("java.io.tmpdir")));
+    }
+
+    /**
+     * @param tupleFactory
+     *            reads the tuples from the spilled runs. The tuples must not refer to the page
+     *            buffer, which is overwritten by the next page of the run.
+     * @param pageSize
+     *            the byte size of the pages of the runs
+     * @param numBufferPage
+     *            the number of the page buffers used in the sort, which must be 3 or more
+     * @param tempDir
+     *            the directory for the temporary files of the runs
+     */
+    public ExternalMergeSort(TupleFactory tupleFactory, int pageSize, int numBufferPage, File tempDir)
+    {
+        if (numBufferPage < 3)
+            throw new IllegalArgumentException("at least 3 buffer pages are required: " + numBufferPage);
+        this.tupleFactory = tupleFactory;
+        this.numBufferPage = numBufferPage;
+        this.bufferPool = new BufferPool(numBufferPage, pageSize);
+        this.tempDir = tempDir;
+    }
+
+    public RunGeneration getRunGeneration()
+    {
+        return runGeneration;
+    }
+
+    /**
+     * @param runGeneration
+     *            how the runs are generated, {@link RunGeneration#LOAD_SORT} in default
+     */
+    public void setRunGeneration(RunGeneration runGeneration)
+    {
+        this.runGeneration = runGeneration;
+    }
+
+    /**
+     * @return the number of the runs generated from the input by the last sort, excluding those
+     *         of the intermediate merges
+     */
+    public int getNumRuns()
+    {
+        return numRuns;
+    }
+
+    /**
+     * @return the number of the merge passes of the last sort, including the final merge
+     */
+    public int getNumMergePasses()
+    {
+        return numMergePasses;
+    }
+
+    /**
+     * Sorts with multiple threads
+     * 
+     * @param executor
+     *            runs the sort of the chunks, and the reads and writes of the runs
+     * @param numThreads
+     *            the number of the chunks sorted at a time. The sorter needs two buffer pages
+     *            per thread, and six at least.
+     */
+    public void setParallelism(Executor executor, int numThreads)
+    {
+        if (numThreads <= 0)
+            throw new IllegalArgumentException("the number of threads must be higher than 0: " + numThreads);
+        if (numBufferPage < Math.max(6, numThreads * 2))
+            throw new IllegalArgumentException(String.format("%d buffer pages are too few for %d threads",
+                    numBufferPage, numThreads));
+        this.executor = executor;
+        this.numThreads = numThreads;
+    }
+
+    public int getNumThreads()
+    {
+        return numThreads;
+    }
+
+    public SortKeyEncoder getSortKeyEncoder()
+    {
+        return sortKeyEncoder;
+    }
+
+    /**
+     * Sorts the tuples by the normalized keys of the encoder. The comparator given to
+     * {@link #sort(TupleIterator, TupleComparator)} then breaks only the ties of the truncated
+     * keys, and must agree with the order of the keys.
+     * 
+     * @param sortKeyEncoder
+     *            the encoder, or null to compare the tuples with the comparator
+     */
+    public void setSortKeyEncoder(SortKeyEncoder sortKeyEncoder)
+    {
+        this.sortKeyEncoder = sortKeyEncoder;
     }
 
-    public void sort(TupleIterator tupleIterator, TupleComparator tupleComparator)
+    public PageCodec getPageCodec()
     {
-        TupleList tupleList = new TupleList();
+        return pageCodec;
+    }
+
+    /**
+     * @param pageCodec
+     *            compresses the pages of the runs, or null to write them as they are
+     */
+    public void setPageCodec(PageCodec pageCodec)
+    {
+        this.pageCodec = pageCodec;
+    }
+
+    private boolean isParallel()
+    {
+        return executor != null;
+    }
+
+    /**
+     * @return the total byte size of the runs written by the last sort, including those of the
+     *         intermediate merges
+     */
+    public long getNumBytesWritten()
+    {
+        return numBytesWritten.get();
+    }
+
+    private int getMergeFanIn()
+    {
+        // in the parallel mode, each input run and the output have two buffers
+        return isParallel() ? (numBufferPage - 2) / 2 : numBufferPage - 1;
+    }
+
+    /**
+     * Sorts the tuples
+     * 
+     * @param tupleIterator
+     *            the input tuples
+     * @param tupleComparator
+     *            the sort order
+     * @return the iterator of the sorted tuples. The temporary files of the sort are removed when
+     *         the iterator reaches the end, or {@link #close()} is called.
+     * @throws DBException
+     *             when a tuple is larger than a page, or failed to write the runs
+     */
+    public TupleIterator sort(TupleIterator tupleIterator, TupleComparator tupleComparator) throws DBException
+    {
+        close();
+        numRuns = 0;
+        numMergePasses = 0;
+        numBytesWritten.set(0);
+
+        if (sortKeyEncoder == null)
+        {
+            keyComparator = null;
+            return sortTuples(tupleIterator, tupleComparator);
+        }
+
+        keyComparator = new NormalizedKeyComparator(sortKeyEncoder, tupleComparator);
+        return new KeyRemovingIterator(sortTuples(new KeyAttachingIterator(tupleIterator), keyComparator));
+    }
+
+    private TupleIterator sortTuples(TupleIterator tupleIterator, TupleComparator tupleComparator)
+            throws DBException
+    {
+        ArrayList<SortRun> runs;
+        if (isParallel())
+            runs = generateRunsInParallel(tupleIterator, tupleComparator);
+        else
+            runs = generateRuns(tupleIterator, tupleComparator);
+
+        if (runs == null)
+        {
+            TupleIterator result = new TupleListIterator(sortedInMemory.iterator());
+            sortedInMemory = null;
+            return result;
+        }
+        numRuns = runs.size();
+
+        // merge the runs until all of them can be merged at once
+        while (runs.size() > getMergeFanIn())
+        {
+            ArrayList<SortRun> mergedRuns = new ArrayList<SortRun>();
+            for (int i = 0; i < runs.size(); i += getMergeFanIn())
+            {
+                List<SortRun> group = runs.subList(i, Math.min(i + getMergeFanIn(), runs.size()));
+                if (group.size() == 1)
+                    mergedRuns.add(group.get(0));
+                else
+                {
+                    LoserTree merger = merge(group, tupleComparator);
+                    SortRun run = createRun();
+                    writeRun(run, merger, isParallel());
+                    mergedRuns.add(run);
+                }
+            }
+            runs = mergedRuns;
+            numMergePasses++;
+        }
+
+        numMergePasses++;
+        return merge(runs, tupleComparator);
+    }
+
+    /**
+     * Generates the sorted runs in the calling thread
+     * 
+     * @return the runs, or null if all of the tuples are sorted in memory
+     */
+    private ArrayList<SortRun> generateRuns(TupleIterator tupleIterator, TupleComparator tupleComparator)
+            throws DBException
+    {
+        final int memoryCapacity = (numBufferPage - 1) * bufferPool.getPageSize();
+        TupleList tupleList = new TupleList(memoryCapacity);
+        ArrayList<SortRun> runs = new ArrayList<SortRun>();
 
         // retrieve all tuple from the iterator, then store these tuples into the buffer 
         for (; tupleIterator.hasNext();)
         {
             Tuple tuple = tupleIterator.next();
 
-            if (tupleList.hasCapacityFor(tuple))
-                tupleList.add(tuple);
-            else
+            if (!tupleList.hasCapacityFor(tuple))
             {
+                if (tupleList.isEmpty())
+                    throw new DBException(DBErrorCode.ExceedsTheCapacity, "tuple size " + tuple.getByteSize()
+                            + " exceeds the sort buffer");
+                if (runGeneration == RunGeneration.REPLACEMENT_SELECTION)
+                {
+                    // the rest of the input is read by the replacement selection
+                    ReplacementSelection selection = new ReplacementSelection(tupleList, tuple, tupleIterator,
+                            tupleComparator, memoryCapacity);
+                    tupleList.clear();
+                    while (selection.nextRun())
+                        runs.add(writeRun(selection));
+                    break;
+                }
                 // When no more room for accepting the tuple, sort the inserted tuples
                 Collections.sort(tupleList, tupleComparator);
                 // Then, output them to the disk pages
+                runs.add(writeRun(tupleList.iterator()));
+                tupleList.clear();
+            }
+            tupleList.add(tuple);
+        }
 
+        Collections.sort(tupleList, tupleComparator);
+        if (runs.isEmpty())
+        {
+            sortedInMemory = tupleList;
+            return null;
+        }
+
+        if (!tupleList.isEmpty())
+            runs.add(writeRun(tupleList.iterator()));
+        return runs;
+    }
+
+    /**
+     * Generates the sorted runs by the worker threads. The calling thread cuts the input into
+     * chunks, and each chunk is sorted and written as a run by a worker. The replacement
+     * selection is not used in this mode.
+     * 
+     * @return the runs in the order of the chunks, or null if all of the tuples are sorted in
+     *         memory
+     */
+    private ArrayList<SortRun> generateRunsInParallel(TupleIterator tupleIterator,
+            final TupleComparator tupleComparator) throws DBException
+    {
+        // each of the chunks in memory, including the one being filled, has a buffer for writing the run
+        final int chunkCapacity = (numBufferPage - numThreads) / numThreads * bufferPool.getPageSize();
+        final Semaphore freeChunks = new Semaphore(numThreads);
+        ArrayList<FutureTask<SortRun>> tasks = new ArrayList<FutureTask<SortRun>>();
+
+        boolean isInputRead = false;
+        try
+        {
+            acquire(freeChunks);
+            TupleList tupleList = new TupleList(chunkCapacity);
+            for (; tupleIterator.hasNext();)
+            {
+                Tuple tuple = tupleIterator.next();
+
+                if (!tupleList.hasCapacityFor(tuple))
+                {
+                    if (tupleList.isEmpty())
+                        throw new DBException(DBErrorCode.ExceedsTheCapacity, "tuple size " + tuple.getByteSize()
+                                + " exceeds the sort buffer");
+                    tasks.add(submitChunk(tupleList, tupleComparator, freeChunks));
+                    acquire(freeChunks);
+                    tupleList = new TupleList(chunkCapacity);
+                }
+                tupleList.add(tuple);
             }
+
+            if (tasks.isEmpty())
+            {
+                Collections.sort(tupleList, tupleComparator);
+                sortedInMemory = tupleList;
+                return null;
+            }
+            if (!tupleList.isEmpty())
+                tasks.add(submitChunk(tupleList, tupleComparator, freeChunks));
+            isInputRead = true;
+        }
+        finally
+        {
+            // no worker may use the buffers after an error 
+            if (!isInputRead)
+                awaitWorkers(tasks);
         }
 
+        return awaitWorkers(tasks);
     }
 
-    public void mergeSort(Iterable<Tuple> input, Comparator<Tuple> comparator, List<Tuple> output)
+    private void acquire(Semaphore semaphore) throws DBException
+    {
+        try
+        {
+            semaphore.acquire();
+        }
+        catch (InterruptedException e)
+        {
+            throw new DBException(DBErrorCode.ThreadInterruption, e);
+        }
+    }
+
+    /**
+     * Sorts the chunk, and writes it as a run, in a worker thread
+     * 
+     * @param freeChunks
+     *            released when the chunk is written
+     */
+    private FutureTask<SortRun> submitChunk(final TupleList chunk, final TupleComparator tupleComparator,
+            final Semaphore freeChunks) throws DBException
+    {
+        final SortRun run = createRun();
+        FutureTask<SortRun> task = new FutureTask<SortRun>(new Callable<SortRun>() {
+            public SortRun call() throws Exception
+            {
+                try
+                {
+                    Collections.sort(chunk, tupleComparator);
+                    writeRun(run, chunk.iterator(), false);
+                    return run;
+                }
+                finally
+                {
+                    freeChunks.release();
+                }
+            }
+        });
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Waits for all of the workers
+     * 
+     * @return the runs written by the workers
+     * @throws DBException
+     *             the first error thrown in the workers
+     */
+    private ArrayList<SortRun> awaitWorkers(List<FutureTask<SortRun>> tasks) throws DBException
+    {
+        ArrayList<SortRun> runs = new ArrayList<SortRun>(tasks.size());
+        DBException error = null;
+        for (FutureTask<SortRun> task : tasks)
+        {
+            try
+            {
+                runs.add(SortRun.await(task));
+            }
+            catch (DBException e)
+            {
+                if (error == null)
+                    error = e;
+            }
+        }
+        if (error != null)
+            throw error;
+        return runs;
+    }
+
+    private LoserTree merge(List<SortRun> runs, Comparator<Tuple> comparator) throws DBException
+    {
+        ArrayList<RunInput> inputs = new ArrayList<RunInput>(runs.size());
+        for (SortRun run : runs)
+            inputs.add(new RunInput(run));
+        return new LoserTree(inputs, comparator);
+    }
+
+    private SortRun createRun() throws DBException
+    {
+        if (tupleFactory == null)
+            throw new DBException(DBErrorCode.NotSupported,
+                    "the tuples exceeding the memory cannot be sorted without a TupleFactory");
+
+        SortRun run = new SortRun(tempDir, bufferPool.getPageSize(), pageCodec);
+        openRuns.add(run);
+        return run;
+    }
+
+    private SortRun writeRun(Iterator<Tuple> sortedTuples) throws DBException
+    {
+        SortRun run = createRun();
+        writeRun(run, sortedTuples, false);
+        return run;
+    }
+
+    /**
+     * Writes the tuples to the run
+     * 
+     * @param run
+     * @param sortedTuples
+     * @param isAsync
+     *            writes the pages in the background with two buffers
+     */
+    private void writeRun(SortRun run, Iterator<Tuple> sortedTuples, boolean isAsync) throws DBException
+    {
+        Buffer buffer = bufferPool.allocate();
+        Buffer spare = null;
+        SortRun.Writer writer = null;
+        try
+        {
+            if (isAsync)
+            {
+                spare = bufferPool.allocate();
+                writer = run.openWriter(buffer, spare, executor);
+            }
+            else
+                writer = run.openWriter(buffer);
+            for (; sortedTuples.hasNext();)
+            {
+                Tuple tuple = sortedTuples.next();
+                // the normalized keys are not written
+                if (keyComparator != null)
+                    tuple = ((NormalizedKeyComparator.KeyedTuple) tuple).getTuple();
+                writer.append(tuple);
+            }
+            writer.close();
+            numBytesWritten.addAndGet(run.getByteSize());
+        }
+        catch (DBError e)
+        {
+            throw new DBException(e.getErrorCode(), e);
+        }
+        finally
+        {
+            if (writer != null)
+                writer.abort();
+            bufferPool.release(buffer);
+            if (spare != null)
+                bufferPool.release(spare);
+        }
+    }
+
+
+    private void deleteRun(SortRun run) throws DBException
     {
+        openRuns.remove(run);
+        run.delete();
+    }
 
+    /**
+     * Removes the temporary files left by the last sort, whose output has not been read to the
+     * end
+     * 
+     * @throws DBException
+     */
+    public void close() throws DBException
+    {
+        for (RunInput input : new ArrayList<RunInput>(openInputs))
+            input.close();
+        for (SortRun run : new ArrayList<SortRun>(openRuns))
+            deleteRun(run);
     }
 
+    /**
+     * Reads a run with a buffer of the pool, and releases the buffer and the run at the end
+     */
+    private class RunInput implements Iterator<Tuple>
+    {
+        private final SortRun run;
+        private Buffer buffer;
+        private Buffer spare = null;
+        private SortRun.Reader reader;
+
+        public RunInput(SortRun run) throws DBException
+        {
+            this.run = run;
+            this.buffer = bufferPool.allocate();
+            if (isParallel())
+            {
+                try
+                {
+                    spare = bufferPool.allocate();
+                }
+                catch (DBException e)
+                {
+                    bufferPool.release(buffer);
+                    throw e;
+                }
+                this.reader = run.openReader(buffer, spare, executor, tupleFactory);
+            }
+            else
+                this.reader = run.openReader(buffer, tupleFactory);
+            openInputs.add(this);
+        }
+
+        public boolean hasNext()
+        {
+            if (reader == null)
+                return false;
+            if (reader.hasNext())
+                return true;
+
+            try
+            {
+                close();
+            }
+            catch (DBException e)
+            {
+                throw new DBError(e.getErrorCode(), e);
+            }
+            return false;
+        }
+
+        /**
+         * Releases the buffer, and deletes the run
+         */
+        public void close() throws DBException
+        {
+            if (reader == null)
+                return;
+            reader.close();
+            reader = null;
+            openInputs.remove(this);
+            bufferPool.release(buffer);
+            buffer = null;
+            if (spare != null)
+                bufferPool.release(spare);
+            spare = null;
+            deleteRun(run);
+        }
+
+        public Tuple next()
+        {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple tuple = reader.next();
+            return keyComparator == null ? tuple : keyComparator.attachKey(tuple);
+        }
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException("remove");
+        }
+    }
+
+    private class KeyAttachingIterator implements TupleIterator
+    {
+        private final TupleIterator it;
+
+        public KeyAttachingIterator(TupleIterator it)
+        {
+            this.it = it;
+        }
+
+        public boolean hasNext()
+        {
+            return it.hasNext();
+        }
+
+        public Tuple next()
+        {
+            return keyComparator.attachKey(it.next());
+        }
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException("remove");
+        }
+    }
+
+    private static class KeyRemovingIterator implements TupleIterator
+    {
+        private final TupleIterator it;
+
+        public KeyRemovingIterator(TupleIterator it)
+        {
+            this.it = it;
+        }
+
+        public boolean hasNext()
+        {
+            return it.hasNext();
+        }
+
+        public Tuple next()
+        {
+            return ((NormalizedKeyComparator.KeyedTuple) it.next()).getTuple();
+        }
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException("remove");
+        }
+    }
+
+    private static class TupleListIterator implements TupleIterator
+    {
+        private final Iterator<Tuple> it;
+
+        public TupleListIterator(Iterator<Tuple> it)
+        {
+            this.it = it;
+        }
+
+        public boolean hasNext()
+        {
+            return it.hasNext();
+        }
+
+        public Tuple next()
+        {
+            return it.next();
+        }
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException("remove");
+        }
+    }
+
+    /**
+     * Sorts the tuples in memory
+     * 
+     * @param input
+     * @param comparator
+     * @param output
+     *            the list to which the sorted tuples are appended
+     */
+    public void mergeSort(Iterable<Tuple> input, Comparator<Tuple> comparator, List<Tuple> output)
+    {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (Tuple tuple : input)
+            tuples.add(tuple);
+        Collections.sort(tuples, comparator);
+        output.addAll(tuples);
+    }
+
+    /**
+     * Merges the sorted inputs
+     * 
+     * @param inputIterartorList
+     *            the inputs, each of which is sorted in the order of the comparator
+     * @param comparator
+     * @param outputHolder
+     *            the list to which the merged tuples are appended
+     */
     public void mergeSort(List<Iterable<Tuple>> inputIterartorList, Comparator<Tuple> comparator,
             List<Tuple> outputHolder)
     {
-
+        ArrayList<Iterator<Tuple>> inputs = new ArrayList<Iterator<Tuple>>(inputIterartorList.size());
+        for (Iterable<Tuple> input : inputIterartorList)
+            inputs.add(input.iterator());
+        for (LoserTree merger = new LoserTree(inputs, comparator); merger.hasNext();)
+            outputHolder.add(merger.next());
     }
 
 }
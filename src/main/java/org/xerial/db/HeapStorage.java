@@ -24,24 +24,976 @@
 //--------------------------------------
 package org.xerial.db;
 
+import java.util.Iterator;
+
+import org.xerial.db.btree.FreePageBitMap;
+import org.xerial.db.cache.Buffer;
+import org.xerial.db.cache.BufferReader;
+import org.xerial.db.cache.BufferWriter;
+import org.xerial.db.cache.BulkReadRing;
+import org.xerial.db.cache.PageCacheHolder;
+import org.xerial.db.cache.PageFrame;
+import org.xerial.db.cache.PagePrefetcher;
+import org.xerial.db.cache.PrefetchScan;
+import org.xerial.db.datatype.TypeInformation;
+import org.xerial.db.heap.HeapPage;
+import org.xerial.db.heap.RecordID;
+import org.xerial.db.heap.SelectionScan;
 import org.xerial.db.storage.DBFile;
 
 /**
+ * A heap file, which stores tuples in {@link HeapPage}s in the order of
+ * appends. The pages are accessed through a {@link PageCacheHolder}.
+ * 
+ * File Layout:
+ * 
+ * <pre>
+ * page 0           : header (page size, number of pages, tail page, number of records)
+ * page 1           : FreePageBitMap of the following N pages
+ * page 2 .. N+1    : heap pages
+ * page N+2         : FreePageBitMap of the following N pages
+ * ...
+ * </pre>
+ * 
+ * where N is the capacity of a {@link FreePageBitMap} page. Tuples are
+ * appended to the tail page, and a new tail page is allocated when the tail
+ * is full. The bit of a heap page in the {@link FreePageBitMap} is set when
+ * the page has at least a quarter of the page free, so that
+ * {@link #insert(Tuple)} finds a page for a small tuple by looking at the
+ * first bitmap page having a set bit. The bitmap pages preceding it are
+ * remembered, and not visited again until a bit in them is set.
+ * 
+ * The records are located by the {@link RecordID}s. A record updated with a
+ * larger size that does not fit in its page is moved to another page, and its
+ * original slot holds the forwarding pointer to the new location, so that
+ * the record ID never changes. The moved record is marked as relocated in its
+ * new page, and is always reached through the forwarding pointer.
+ * 
+ * The modifications are serialized, and readers of the pages must hold the
+ * shared latch of the frames. The records are scanned in the page order by
+ * {@link #scan(TupleVisitor)}, or by multiple threads with
+ * {@link ParallelHeapScan}. With a {@link PagePrefetcher}, the scans read the
+ * following pages ahead into their bulk-read rings.
+ * 
  * @author leo
  * 
  */
 public class HeapStorage
 {
-    private final DBFile dbFile;
+    public static final int DEFAULT_PAGE_SIZE = 8192;
+    public static final int DEFAULT_NUM_CACHE_PAGES = 256;
+
+    private static final long HEADER_PAGE_ID = 0;
+    private static final int BULK_READ_RING_SIZE = 16;
+    private static final long NO_PAGE = -1;
+
+    // positions of the header page contents
+    private static final int PAGE_SIZE_POS = new CommonPageHeader().getHeaderSize();
+    private static final int NUM_PAGES_POS = PAGE_SIZE_POS + TypeInformation.INT_SIZE;
+    private static final int TAIL_PAGE_POS = NUM_PAGES_POS + TypeInformation.LONG_SIZE;
+    private static final int NUM_RECORDS_POS = TAIL_PAGE_POS + TypeInformation.LONG_SIZE;
+
+    private final PageCacheHolder pageCache;
+    private final int pageSize;
+    private final int pagesPerBitMap;
+    private final int freeSpaceThreshold;
+    private final int maxRecordSize;
+    private TupleFactory tupleFactory = null;
+    private volatile PagePrefetcher prefetcher = null;
+
+    private volatile long numPages;
+    private long tailPageID;
+    private long numRecords;
+    // no bitmap page before this group has a set bit
+    private long firstFreeGroupHint = 0;
+
+    private HeapStorage(PageCacheHolder pageCache)
+    {
+        this.pageCache = pageCache;
+        this.pageSize = pageCache.getPageSize();
+        this.pagesPerBitMap = FreePageBitMap.getCapacity(pageSize);
+        this.freeSpaceThreshold = pageSize / 4;
+        this.maxRecordSize = new HeapPage(pageSize).getFreeSpaceSize();
+    }
+
+    /**
+     * Creates an empty heap file with the default page size
+     * 
+     * @param dbFile
+     * @return the heap storage
+     * @throws DBException
+     */
+    public static HeapStorage create(DBFile dbFile) throws DBException
+    {
+        return create(new PageCacheHolder(dbFile, DEFAULT_PAGE_SIZE, DEFAULT_NUM_CACHE_PAGES));
+    }
+
+    /**
+     * Creates an empty heap file in the file of the page cache
+     * 
+     * @param pageCache
+     * @return the heap storage
+     * @throws DBException
+     */
+    public static HeapStorage create(PageCacheHolder pageCache) throws DBException
+    {
+        HeapStorage storage = new HeapStorage(pageCache);
+        storage.numPages = 1;
+        storage.tailPageID = NO_PAGE;
+        storage.numRecords = 0;
+
+        PageFrame frame = pageCache.pinNew(HEADER_PAGE_ID);
+        try
+        {
+            CommonPageHeader header = new CommonPageHeader();
+            header.setPageID(HEADER_PAGE_ID);
+            header.setPageType(PageType.HeapIndex);
+            header.save(new BufferWriter(frame.getBuffer()));
+            frame.getBuffer().writeInt(PAGE_SIZE_POS, storage.pageSize);
+        }
+        finally
+        {
+            pageCache.unpin(frame, true);
+        }
+        storage.saveHeader();
+        return storage;
+    }
+
+    /**
+     * Opens the heap file written with the default page size
+     * 
+     * @param dbFile
+     * @return the heap storage
+     * @throws DBException
+     */
+    public static HeapStorage open(DBFile dbFile) throws DBException
+    {
+        return open(new PageCacheHolder(dbFile, DEFAULT_PAGE_SIZE, DEFAULT_NUM_CACHE_PAGES));
+    }
+
+    /**
+     * Opens the heap file in the file of the page cache
+     * 
+     * @param pageCache
+     * @return the heap storage
+     * @throws DBException
+     *             when the file is not a heap file, or has another page size
+     */
+    public static HeapStorage open(PageCacheHolder pageCache) throws DBException
+    {
+        HeapStorage storage = new HeapStorage(pageCache);
+        PageFrame frame = pageCache.pin(HEADER_PAGE_ID);
+        try
+        {
+            Buffer page = frame.getBuffer();
+            CommonPageHeader header = new CommonPageHeader();
+            try
+            {
+                header.load(new BufferReader(page));
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new DBException(DBErrorCode.InvalidPageHeader, e.getMessage());
+            }
+            if (header.getPageType() != PageType.HeapIndex)
+                throw new DBException(DBErrorCode.InvalidPageHeader, "not a heap file: " + header.getPageType());
+            if (page.readInt(PAGE_SIZE_POS) != storage.pageSize)
+                throw new DBException(DBErrorCode.InvalidDataFormat, "page size mismatch: "
+                        + page.readInt(PAGE_SIZE_POS));
+
+            storage.numPages = page.readLong(NUM_PAGES_POS);
+            storage.tailPageID = page.readLong(TAIL_PAGE_POS);
+            storage.numRecords = page.readLong(NUM_RECORDS_POS);
+        }
+        finally
+        {
+            pageCache.unpin(frame, false);
+        }
+        return storage;
+    }
+
+    private void saveHeader() throws DBException
+    {
+        PageFrame frame = pageCache.pin(HEADER_PAGE_ID);
+        frame.latchExclusive();
+        try
+        {
+            Buffer page = frame.getBuffer();
+            page.writeLong(NUM_PAGES_POS, numPages);
+            page.writeLong(TAIL_PAGE_POS, tailPageID);
+            page.writeLong(NUM_RECORDS_POS, numRecords);
+        }
+        finally
+        {
+            frame.unlatchExclusive();
+            pageCache.unpin(frame, true);
+        }
+    }
+
+    public void setTupleFactory(TupleFactory tupleFactory)
+    {
+        this.tupleFactory = tupleFactory;
+    }
+
+    public TupleFactory getTupleFactory()
+    {
+        return tupleFactory;
+    }
+
+    public PageCacheHolder getPageCache()
+    {
+        return pageCache;
+    }
+
+    /**
+     * Sets the read-ahead of the scans
+     * 
+     * @param prefetcher
+     *            the prefetcher of the page cache of this storage, or null to
+     *            disable the read-ahead
+     */
+    public void setPagePrefetcher(PagePrefetcher prefetcher)
+    {
+        if (prefetcher != null && prefetcher.getPageCache() != pageCache)
+            throw new IllegalArgumentException("the prefetcher is for another page cache");
+        this.prefetcher = prefetcher;
+    }
+
+    public PagePrefetcher getPagePrefetcher()
+    {
+        return prefetcher;
+    }
+
+    /**
+     * Creates the ring of a scan, enlarged to hold the pages read ahead
+     * 
+     * @param ringSize
+     *            the ring size without the read-ahead
+     * @return the ring
+     */
+    BulkReadRing createBulkReadRing(int ringSize)
+    {
+        PagePrefetcher p = prefetcher;
+        return pageCache.createBulkReadRing(p == null ? ringSize : p.getRingSize(ringSize));
+    }
+
+    public int getPageSize()
+    {
+        return pageSize;
+    }
+
+    /**
+     * @return the number of pages in the file, including the header and the
+     *         bitmap pages
+     */
+    public long getNumPages()
+    {
+        return numPages;
+    }
+
+    public synchronized long getNumRecords()
+    {
+        return numRecords;
+    }
+
+    /**
+     * @param pageID
+     * @return true if the page is a heap page of this file
+     */
+    public boolean isHeapPage(long pageID)
+    {
+        return pageID > HEADER_PAGE_ID && pageID < numPages && (pageID - 1) % (pagesPerBitMap + 1) != 0;
+    }
+
+    private long bitMapPageID(long group)
+    {
+        return 1 + group * (pagesPerBitMap + 1);
+    }
 
-    public HeapStorage(DBFile dbFile)
+    private long allocatePage() throws DBException
     {
-        this.dbFile = dbFile;
+        long pageID = numPages;
+        if ((pageID - 1) % (pagesPerBitMap + 1) == 0)
+        {
+            // the first page of a group holds the bitmap
+            PageFrame frame = pageCache.pinNew(pageID);
+            try
+            {
+                FreePageBitMap.format(frame.getBuffer(), pageID);
+            }
+            finally
+            {
+                pageCache.unpin(frame, true);
+            }
+            pageID++;
+        }
+        numPages = pageID + 1;
+        return pageID;
     }
 
-    public void append(Tuple tuple)
+    /**
+     * Records whether the heap page has enough free space. The tail page is
+     * not recorded, since it is filled by the appends.
+     */
+    private void updateFreeSpace(long pageID, int freeSpace) throws DBException
     {
+        if (pageID == tailPageID)
+            return;
+
+        long group = (pageID - 1) / (pagesPerBitMap + 1);
+        int bit = (int) ((pageID - 1) % (pagesPerBitMap + 1)) - 1;
+        boolean hasFreeSpace = freeSpace >= freeSpaceThreshold;
+        PageFrame frame = pageCache.pin(bitMapPageID(group));
+        boolean isModified = false;
+        frame.latchExclusive();
+        try
+        {
+            isModified = FreePageBitMap.wrap(frame.getBuffer()).set(bit, hasFreeSpace);
+        }
+        finally
+        {
+            frame.unlatchExclusive();
+            pageCache.unpin(frame, isModified);
+        }
+        if (hasFreeSpace && group < firstFreeGroupHint)
+            firstFreeGroupHint = group;
+    }
+
+    /**
+     * @return a heap page having free space, or {@link #NO_PAGE}
+     */
+    private long findFreePage() throws DBException
+    {
+        for (long group = firstFreeGroupHint; bitMapPageID(group) < numPages; group++)
+        {
+            long bitMapPageID = bitMapPageID(group);
+            int bit;
+            PageFrame frame = pageCache.pin(bitMapPageID);
+            frame.latchShared();
+            try
+            {
+                bit = FreePageBitMap.wrap(frame.getBuffer()).findFirstSet(0);
+            }
+            finally
+            {
+                frame.unlatchShared();
+                pageCache.unpin(frame, false);
+            }
+            if (bit >= 0)
+                return bitMapPageID + 1 + bit;
+            firstFreeGroupHint = group + 1;
+        }
+        return NO_PAGE;
+    }
+
+    private void checkRecordSize(int size) throws DBException
+    {
+        if (size > maxRecordSize)
+            throw new DBException(DBErrorCode.ExceedsTheCapacity, "too large record: " + size + " bytes (max "
+                    + maxRecordSize + ")");
+    }
+
+    /**
+     * Puts the tuple, or the record if the tuple is null, into the page. The
+     * record is the one moved by an update, and is marked as relocated.
+     * 
+     * @return the slot, or -1 if the page has no space for the record
+     */
+    private int put(HeapPage page, Tuple tuple, byte[] record, int size) throws DBException
+    {
+        if (!page.hasSpaceFor(size))
+            return -1;
+        if (tuple != null)
+            return page.append(tuple);
+
+        int slot = page.insert(record, 0, size);
+        page.setRelocated(slot);
+        return slot;
+    }
 
+    /**
+     * Puts the record into the page
+     * 
+     * @return the record ID, or {@link RecordID#NULL} if the page has no space
+     */
+    private long putInto(long pageID, boolean isNewPage, Tuple tuple, byte[] record, int size) throws DBException
+    {
+        PageFrame frame = isNewPage ? pageCache.pinNew(pageID) : pageCache.pin(pageID);
+        int slot;
+        int freeSpace;
+        frame.latchExclusive();
+        try
+        {
+            HeapPage page = isNewPage ? new HeapPage(frame.getBuffer(), pageID) : HeapPage.wrap(frame.getBuffer(),
+                    tupleFactory);
+            slot = put(page, tuple, record, size);
+            freeSpace = page.getFreeSpaceSize();
+        }
+        finally
+        {
+            frame.unlatchExclusive();
+            pageCache.unpin(frame, true);
+        }
+        if (slot < 0)
+            return RecordID.NULL;
+        updateFreeSpace(pageID, freeSpace);
+        return RecordID.of(pageID, slot);
+    }
+
+    private int getFreeSpace(long pageID) throws DBException
+    {
+        PageFrame frame = pageCache.pin(pageID);
+        frame.latchShared();
+        try
+        {
+            return HeapPage.wrap(frame.getBuffer(), tupleFactory).getFreeSpaceSize();
+        }
+        finally
+        {
+            frame.unlatchShared();
+            pageCache.unpin(frame, false);
+        }
+    }
+
+    /**
+     * Makes the new page the tail, and records the free space of the previous
+     * tail
+     */
+    private void setTailPage(long pageID, int freeSpaceOfPreviousTail) throws DBException
+    {
+        long previousTail = tailPageID;
+        tailPageID = pageID;
+        if (previousTail != NO_PAGE)
+            updateFreeSpace(previousTail, freeSpaceOfPreviousTail);
+    }
+
+    private long appendRecord(Tuple tuple, byte[] record, int size) throws DBException
+    {
+        if (tailPageID != NO_PAGE)
+        {
+            long recordID = putInto(tailPageID, false, tuple, record, size);
+            if (recordID != RecordID.NULL)
+                return recordID;
+        }
+
+        int freeSpaceOfTail = tailPageID != NO_PAGE ? getFreeSpace(tailPageID) : 0;
+        long pageID = allocatePage();
+        setTailPage(pageID, freeSpaceOfTail);
+        long recordID = putInto(pageID, true, tuple, record, size);
+        saveHeader();
+        return recordID;
+    }
+
+    private long insertRecord(Tuple tuple, byte[] record, int size) throws DBException
+    {
+        if (size <= freeSpaceThreshold)
+        {
+            long pageID = findFreePage();
+            if (pageID != NO_PAGE)
+                return putInto(pageID, false, tuple, record, size);
+        }
+        return appendRecord(tuple, record, size);
+    }
+
+    /**
+     * Appends the tuple to the tail page
+     * 
+     * @param tuple
+     * @return the record ID of the tuple
+     * @throws DBException
+     */
+    public synchronized long append(Tuple tuple) throws DBException
+    {
+        int size = tuple.getByteSize();
+        checkRecordSize(size);
+        long recordID = appendRecord(tuple, null, size);
+        numRecords++;
+        return recordID;
+    }
+
+    /**
+     * Inserts the tuple into a page having free space, which has been left by
+     * deletes or updates. The tuple is appended to the tail page if no such
+     * page is found.
+     * 
+     * @param tuple
+     * @return the record ID of the tuple
+     * @throws DBException
+     */
+    public synchronized long insert(Tuple tuple) throws DBException
+    {
+        int size = tuple.getByteSize();
+        checkRecordSize(size);
+        long recordID = insertRecord(tuple, null, size);
+        numRecords++;
+        return recordID;
+    }
+
+    /**
+     * Appends the tuples. The tail page is filled first, and then the new
+     * pages are filled in a local buffer and written to the file directly, not
+     * through the page cache. The last page, which may have space, becomes the
+     * tail page.
+     * 
+     * @param tupleIterator
+     * @return the number of appended tuples
+     * @throws DBException
+     */
+    public synchronized long appendAll(Iterator<Tuple> tupleIterator) throws DBException
+    {
+        long count = 0;
+        Tuple pending = null;
+        int freeSpaceOfTail = 0;
+        try
+        {
+            if (tailPageID != NO_PAGE)
+            {
+                PageFrame frame = pageCache.pin(tailPageID);
+                frame.latchExclusive();
+                try
+                {
+                    HeapPage page = HeapPage.wrap(frame.getBuffer(), tupleFactory);
+                    while (tupleIterator.hasNext())
+                    {
+                        Tuple tuple = tupleIterator.next();
+                        int size = tuple.getByteSize();
+                        checkRecordSize(size);
+                        if (put(page, tuple, null, size) < 0)
+                        {
+                            pending = tuple;
+                            break;
+                        }
+                        count++;
+                    }
+                    freeSpaceOfTail = page.getFreeSpaceSize();
+                }
+                finally
+                {
+                    frame.unlatchExclusive();
+                    pageCache.unpin(frame, true);
+                }
+            }
+
+            Buffer buffer = null;
+            while (pending != null || tupleIterator.hasNext())
+            {
+                long pageID = allocatePage();
+                setTailPage(pageID, freeSpaceOfTail);
+                if (buffer == null)
+                    buffer = new Buffer(pageSize);
+                HeapPage page = new HeapPage(buffer, pageID);
+                try
+                {
+                    if (pending != null)
+                    {
+                        page.append(pending);
+                        pending = null;
+                        count++;
+                    }
+                    while (tupleIterator.hasNext())
+                    {
+                        Tuple tuple = tupleIterator.next();
+                        int size = tuple.getByteSize();
+                        checkRecordSize(size);
+                        if (put(page, tuple, null, size) < 0)
+                        {
+                            pending = tuple;
+                            break;
+                        }
+                        count++;
+                    }
+                }
+                finally
+                {
+                    // the allocated page is written even when the input fails, since it is
+                    // already the tail page, and its records are counted
+                    freeSpaceOfTail = page.getFreeSpaceSize();
+                    if (pending != null)
+                    {
+                        // the page is full
+                        buffer.save(pageCache.getFile(), pageID * pageSize);
+                    }
+                    else
+                    {
+                        // the last page stays in the cache as the tail page
+                        PageFrame frame = pageCache.pinNew(pageID);
+                        try
+                        {
+                            buffer.copyTo(0, frame.getBuffer(), 0, pageSize);
+                        }
+                        finally
+                        {
+                            pageCache.unpin(frame, true);
+                        }
+                    }
+                }
+            }
+        }
+        finally
+        {
+            numRecords += count;
+            saveHeader();
+        }
+        return count;
+    }
+
+    private static int getSlot(HeapPage page, long recordID) throws DBException
+    {
+        int slot = RecordID.getSlot(recordID);
+        if (slot >= page.getNumSlots() || !page.isUsed(slot))
+            throw new DBException(DBErrorCode.InvalidInput, "no record: " + RecordID.toString(recordID));
+        return slot;
+    }
+
+    /**
+     * Gets the slot of the record ID given by the user. The location of a
+     * relocated record is not a record ID.
+     */
+    private static int getHomeSlot(HeapPage page, long recordID) throws DBException
+    {
+        int slot = getSlot(page, recordID);
+        if (page.isRelocated(slot))
+            throw new DBException(DBErrorCode.InvalidInput, "no record: " + RecordID.toString(recordID)
+                    + " holds a relocated record");
+        return slot;
+    }
+
+    private void checkHeapPage(long recordID) throws DBException
+    {
+        if (!isHeapPage(RecordID.getPageID(recordID)))
+            throw new DBException(DBErrorCode.InvalidInput, "no record: " + RecordID.toString(recordID));
+    }
+
+    /**
+     * Reads the record image
+     * 
+     * @param recordID
+     * @return the record
+     * @throws DBException
+     *             when no record is found
+     */
+    public byte[] read(long recordID) throws DBException
+    {
+        checkHeapPage(recordID);
+        return readRecord(recordID, true);
+    }
+
+    /**
+     * Reads the record image, following the forwarding pointer
+     * 
+     * @param isHome
+     *            false if the record ID is the one of a relocated record
+     */
+    private byte[] readRecord(long recordID, boolean isHome) throws DBException
+    {
+        long forward;
+        PageFrame frame = pageCache.pin(RecordID.getPageID(recordID));
+        frame.latchShared();
+        try
+        {
+            HeapPage page = HeapPage.wrap(frame.getBuffer(), tupleFactory);
+            int slot = isHome ? getHomeSlot(page, recordID) : getSlot(page, recordID);
+            if (!page.isForwarded(slot))
+            {
+                byte[] record = new byte[page.getRecordLength(slot)];
+                page.readRecord(slot, record, 0);
+                return record;
+            }
+            forward = page.getForward(slot);
+        }
+        finally
+        {
+            frame.unlatchShared();
+            pageCache.unpin(frame, false);
+        }
+        return readRecord(forward, false);
+    }
+
+    /**
+     * Reads the tuple. The tuple is decoded from a copy of the record, and
+     * does not refer to the page.
+     * 
+     * @param recordID
+     * @return the tuple
+     * @throws DBException
+     *             when no record is found
+     */
+    public Tuple get(long recordID) throws DBException
+    {
+        if (tupleFactory == null)
+            throw new IllegalStateException("no tuple factory is set");
+        return tupleFactory.createTupleFromBuffer(new BufferReader(new Buffer(read(recordID))));
+    }
+
+    /**
+     * Removes the record at the slot, and returns the forwarding pointer
+     * held in the slot
+     * 
+     * @param isHome
+     *            false if the record ID is the one of a relocated record
+     * @return the record ID of the moved record, or {@link RecordID#NULL}
+     */
+    private long removeRecord(long recordID, boolean isHome) throws DBException
+    {
+        long pageID = RecordID.getPageID(recordID);
+        long forward = RecordID.NULL;
+        int freeSpace;
+        PageFrame frame = pageCache.pin(pageID);
+        frame.latchExclusive();
+        try
+        {
+            HeapPage page = HeapPage.wrap(frame.getBuffer(), tupleFactory);
+            int slot = isHome ? getHomeSlot(page, recordID) : getSlot(page, recordID);
+            if (page.isForwarded(slot))
+                forward = page.getForward(slot);
+            page.delete(slot);
+            freeSpace = page.getFreeSpaceSize();
+        }
+        finally
+        {
+            frame.unlatchExclusive();
+            pageCache.unpin(frame, true);
+        }
+        updateFreeSpace(pageID, freeSpace);
+        return forward;
+    }
+
+    /**
+     * Deletes the record
+     * 
+     * @param recordID
+     * @throws DBException
+     *             when no record is found
+     */
+    public synchronized void delete(long recordID) throws DBException
+    {
+        checkHeapPage(recordID);
+        long forward = removeRecord(recordID, true);
+        if (forward != RecordID.NULL)
+            removeRecord(forward, false);
+        numRecords--;
+    }
+
+    /**
+     * Replaces the record with the tuple. The record ID of the record does not
+     * change.
+     * 
+     * @param recordID
+     * @param tuple
+     * @throws DBException
+     *             when no record is found
+     */
+    public synchronized void update(long recordID, Tuple tuple) throws DBException
+    {
+        checkHeapPage(recordID);
+        int size = tuple.getByteSize();
+        checkRecordSize(size);
+        Buffer buffer = new Buffer(size);
+        tuple.save(new BufferWriter(buffer));
+        byte[] record = buffer.getBytes();
+
+        // update the record in place, or in its page
+        long pageID = RecordID.getPageID(recordID);
+        long forward;
+        boolean isUpdated = false;
+        int freeSpace;
+        PageFrame frame = pageCache.pin(pageID);
+        frame.latchExclusive();
+        try
+        {
+            HeapPage page = HeapPage.wrap(frame.getBuffer(), tupleFactory);
+            int slot = getHomeSlot(page, recordID);
+            forward = page.isForwarded(slot) ? page.getForward(slot) : RecordID.NULL;
+            if (forward == RecordID.NULL)
+                isUpdated = page.update(slot, record, 0, size);
+            freeSpace = page.getFreeSpaceSize();
+        }
+        finally
+        {
+            frame.unlatchExclusive();
+            pageCache.unpin(frame, isUpdated);
+        }
+        if (isUpdated)
+        {
+            updateFreeSpace(pageID, freeSpace);
+            return;
+        }
+
+        if (forward != RecordID.NULL)
+        {
+            // the record has been moved. update it at the current location
+            if (updateInPage(forward, record, size))
+                return;
+        }
+
+        // move the record to another page, and then switch the forwarding pointer
+        long newRecordID = insertRecord(null, record, size);
+        frame = pageCache.pin(pageID);
+        frame.latchExclusive();
+        try
+        {
+            HeapPage page = HeapPage.wrap(frame.getBuffer(), tupleFactory);
+            page.setForward(RecordID.getSlot(recordID), newRecordID);
+            freeSpace = page.getFreeSpaceSize();
+        }
+        finally
+        {
+            frame.unlatchExclusive();
+            pageCache.unpin(frame, true);
+        }
+        updateFreeSpace(pageID, freeSpace);
+        if (forward != RecordID.NULL)
+            removeRecord(forward, false);
+    }
+
+    private boolean updateInPage(long recordID, byte[] record, int size) throws DBException
+    {
+        long pageID = RecordID.getPageID(recordID);
+        boolean isUpdated = false;
+        int freeSpace;
+        PageFrame frame = pageCache.pin(pageID);
+        frame.latchExclusive();
+        try
+        {
+            HeapPage page = HeapPage.wrap(frame.getBuffer(), tupleFactory);
+            isUpdated = page.update(getSlot(page, recordID), record, 0, size);
+            freeSpace = page.getFreeSpaceSize();
+        }
+        finally
+        {
+            frame.unlatchExclusive();
+            pageCache.unpin(frame, isUpdated);
+        }
+        if (isUpdated)
+            updateFreeSpace(pageID, freeSpace);
+        return isUpdated;
+    }
+
+    /**
+     * Scans all of the records in the page order. The records moved to other
+     * pages are visited with the pages holding their forwarding pointers,
+     * under their record IDs. The visitor must not modify this storage.
+     * 
+     * @param visitor
+     * @throws DBException
+     */
+    public void scan(TupleVisitor visitor) throws DBException
+    {
+        scan(null, visitor);
+    }
+
+    /**
+     * Scans the records selected by the {@link SelectionScan} in the page
+     * order. The visitor receives the projected tuples.
+     * 
+     * @param selection
+     * @param visitor
+     * @throws DBException
+     */
+    public void scan(SelectionScan selection, TupleVisitor visitor) throws DBException
+    {
+        scanPages(1, numPages, selection, visitor, createBulkReadRing(BULK_READ_RING_SIZE));
+    }
+
+    /**
+     * Scans the records in the heap pages of the given range
+     * 
+     * @param beginPageID
+     *            the first page (inclusive)
+     * @param endPageID
+     *            the last page (exclusive)
+     * @param selection
+     *            the selection applied to the records, or null to visit all of
+     *            the tuples created by the tuple factory
+     * @param visitor
+     * @param ring
+     *            the ring used by this scan and its read-ahead
+     * @throws DBException
+     */
+    void scanPages(long beginPageID, long endPageID, SelectionScan selection, TupleVisitor visitor, BulkReadRing ring)
+            throws DBException
+    {
+        if (selection == null && tupleFactory == null)
+            throw new IllegalStateException("no tuple factory is set");
+
+        PagePrefetcher p = prefetcher;
+        PrefetchScan readAhead = p == null ? null : p.openScan(endPageID, ring);
+        for (long pageID = beginPageID; pageID < endPageID; pageID++)
+        {
+            if (!isHeapPage(pageID))
+            {
+                // keep the access sequential across the bitmap pages
+                if (readAhead != null)
+                    readAhead.notifyAccess(pageID);
+                continue;
+            }
+
+            PageFrame frame = readAhead != null ? readAhead.pin(pageID) : pageCache.pin(pageID, ring);
+            frame.latchShared();
+            try
+            {
+                HeapPage page = HeapPage.wrap(frame.getBuffer(), tupleFactory);
+                final int numSlots = page.getNumSlots();
+                if (selection != null)
+                    selection.scan(page, pageID, visitor);
+                else
+                {
+                    for (int slot = 0; slot < numSlots; slot++)
+                    {
+                        if (page.isUsed(slot) && !page.isForwarded(slot) && !page.isRelocated(slot))
+                            visitor.visit(RecordID.of(pageID, slot), page.getTuple(slot));
+                    }
+                }
+
+                // the latch of this page keeps the moved records from being moved again
+                for (int slot = 0; slot < numSlots; slot++)
+                {
+                    if (page.isForwarded(slot))
+                        visitRelocated(RecordID.of(pageID, slot), page.getForward(slot), selection, visitor);
+                }
+            }
+            finally
+            {
+                frame.unlatchShared();
+                pageCache.unpin(frame, false);
+            }
+        }
+    }
+
+    /**
+     * Visits the record moved to another page, under the record ID of its
+     * forwarding pointer
+     */
+    private void visitRelocated(long recordID, long forward, SelectionScan selection, TupleVisitor visitor)
+            throws DBException
+    {
+        PageFrame frame = pageCache.pin(RecordID.getPageID(forward));
+        frame.latchShared();
+        try
+        {
+            HeapPage page = HeapPage.wrap(frame.getBuffer(), tupleFactory);
+            int slot = getSlot(page, forward);
+            if (selection != null)
+                selection.scan(page, slot, recordID, visitor);
+            else
+                visitor.visit(recordID, page.getTuple(slot));
+        }
+        finally
+        {
+            frame.unlatchShared();
+            pageCache.unpin(frame, false);
+        }
+    }
+
+    /**
+     * Writes the header and all of the modified pages to the file
+     * 
+     * @throws DBException
+     */
+    public synchronized void flush() throws DBException
+    {
+        saveHeader();
+        pageCache.flushAll();
     }
 
 }
@@ -0,0 +1,150 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// LoserTree.java
+// Since: Oct 18, 2026 3:52:26 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Merges the sorted inputs into a single sorted sequence, by a tournament tree of losers.
+ * 
+ * Each internal node of the tree holds the input that lost the match at the node, and the 
+ * winner of the whole tournament, the input having the smallest tuple, is kept at the top. When 
+ * the winner advances to its next tuple, only the matches on the path from its leaf to the root
+ * are replayed, so that each output tuple costs about log2(k) comparisons for k inputs.
+ * 
+ * The tuples of the same order are output in the order of the inputs, so that merging the runs 
+ * of a stable sort in their input order keeps the sort stable.
+ * 
+ * @author leo
+ * 
+ */
+public class LoserTree implements TupleIterator
+{
+    private final List<? extends Iterator<Tuple>> inputs;
+    private final Comparator<? super Tuple> comparator;
+    private final int numInputs;
+    // the current tuple of each input, or null if the input is exhausted
+    private final Tuple[] head;
+    // tree[0] is the winner, and tree[1 .. numInputs-1] hold the losers of the matches
+    private final int[] tree;
+
+    /**
+     * @param inputs
+     *            the inputs, each of which is sorted in the order of the comparator
+     * @param comparator
+     */
+    public LoserTree(List<? extends Iterator<Tuple>> inputs, Comparator<? super Tuple> comparator)
+    {
+        this.inputs = inputs;
+        this.comparator = comparator;
+        this.numInputs = inputs.size();
+        this.head = new Tuple[numInputs];
+        this.tree = new int[Math.max(numInputs, 1)];
+
+        for (int i = 0; i < numInputs; i++)
+            head[i] = inputs.get(i).hasNext() ? inputs.get(i).next() : null;
+        // the leaves are numbered from numInputs to 2 * numInputs - 1
+        tree[0] = numInputs > 0 ? play(1) : -1;
+    }
+
+    /**
+     * Plays the matches of the subtree, and records the losers
+     * 
+     * @return the winner of the subtree
+     */
+    private int play(int node)
+    {
+        if (node >= numInputs)
+            return node - numInputs;
+        int left = play(node * 2);
+        int right = play(node * 2 + 1);
+        if (beats(left, right))
+        {
+            tree[node] = right;
+            return left;
+        }
+        tree[node] = left;
+        return right;
+    }
+
+    /**
+     * @return true if the input a precedes the input b
+     */
+    private boolean beats(int a, int b)
+    {
+        if (head[a] == null)
+            return head[b] == null && a < b;
+        if (head[b] == null)
+            return true;
+        int cmp = comparator.compare(head[a], head[b]);
+        return cmp < 0 || (cmp == 0 && a < b);
+    }
+
+    /**
+     * @return the number of the inputs
+     */
+    public int getNumInputs()
+    {
+        return numInputs;
+    }
+
+    public boolean hasNext()
+    {
+        return numInputs > 0 && head[tree[0]] != null;
+    }
+
+    public Tuple next()
+    {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        final int winner = tree[0];
+        Tuple result = head[winner];
+        Iterator<Tuple> input = inputs.get(winner);
+        head[winner] = input.hasNext() ? input.next() : null;
+
+        // replay the matches on the path to the root
+        int current = winner;
+        for (int node = (winner + numInputs) / 2; node > 0; node /= 2)
+        {
+            if (beats(tree[node], current))
+            {
+                int loser = current;
+                current = tree[node];
+                tree[node] = loser;
+            }
+        }
+        tree[0] = current;
+        return result;
+    }
+
+    public void remove()
+    {
+        throw new UnsupportedOperationException("remove");
+    }
+}
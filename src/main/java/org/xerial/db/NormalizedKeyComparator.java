@@ -0,0 +1,119 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// NormalizedKeyComparator.java
+// Since: Oct 18, 2026 6:31:48 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db;
+
+import org.xerial.db.cache.BufferReader;
+import org.xerial.db.cache.BufferWriter;
+
+/**
+ * Compares the {@link KeyedTuple}s by their normalized keys, and falls back to the full
+ * comparison of the tuples only if the keys are truncated and tied.
+ * 
+ * @author leo
+ * 
+ */
+class NormalizedKeyComparator implements TupleComparator
+{
+    private final SortKeyEncoder encoder;
+    private final TupleComparator fallback;
+
+    /**
+     * @param encoder
+     * @param fallback
+     *            compares the tuples whose truncated keys are tied
+     */
+    NormalizedKeyComparator(SortKeyEncoder encoder, TupleComparator fallback)
+    {
+        this.encoder = encoder;
+        this.fallback = fallback;
+    }
+
+    /**
+     * Attaches the normalized key to the tuple
+     */
+    KeyedTuple attachKey(Tuple tuple)
+    {
+        return new KeyedTuple(encoder.encode(tuple), tuple);
+    }
+
+    public int compare(Tuple t1, Tuple t2)
+    {
+        KeyedTuple k1 = (KeyedTuple) t1;
+        KeyedTuple k2 = (KeyedTuple) t2;
+        int cmp = SortKeyEncoder.comparePrefix(k1.key, k2.key);
+        if (cmp != 0)
+            return cmp;
+        if (encoder.isTruncating() && fallback != null)
+            return fallback.compare(k1.tuple, k2.tuple);
+        return k1.key.length - k2.key.length;
+    }
+
+    /**
+     * A tuple with its normalized key. The byte size includes the key held in the memory, while
+     * only the tuple is stored in the pages, and the key is computed again when the tuple is read
+     * back.
+     */
+    static class KeyedTuple implements Tuple
+    {
+        final byte[] key;
+        final Tuple tuple;
+
+        KeyedTuple(byte[] key, Tuple tuple)
+        {
+            this.key = key;
+            this.tuple = tuple;
+        }
+
+        public Tuple getTuple()
+        {
+            return tuple;
+        }
+
+        public int getByteSize()
+        {
+            return tuple.getByteSize() + key.length;
+        }
+
+        public Object getValue(int columnIndex)
+        {
+            return tuple.getValue(columnIndex);
+        }
+
+        public void setValue(int columnIndex, Object value)
+        {
+            tuple.setValue(columnIndex, value);
+        }
+
+        public int load(BufferReader reader)
+        {
+            return tuple.load(reader);
+        }
+
+        public int save(BufferWriter writer)
+        {
+            return tuple.save(writer);
+        }
+    }
+}
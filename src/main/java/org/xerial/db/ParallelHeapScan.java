@@ -0,0 +1,251 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// ParallelHeapScan.java
+// Since: Oct 18, 2026 5:06:17 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xerial.db.cache.BulkReadRing;
+import org.xerial.db.heap.SelectionScan;
+
+/**
+ * A scan of a {@link HeapStorage} by multiple threads. The page range of the
+ * storage is split into chunks of adjacent pages, and each worker repeatedly
+ * takes the next chunk and scans it with its own {@link TupleVisitor}. A worker
+ * that finishes early simply takes more chunks, so the load is balanced even if
+ * the pages hold different numbers of records. When the storage has a
+ * {@link org.xerial.db.cache.PagePrefetcher}, each worker reads ahead within
+ * its chunk through its own ring.
+ * 
+ * Aggregations keep a partial result in each visitor, and combine them after
+ * the scan:
+ * 
+ * <pre>
+ * List&lt;SumVisitor&gt; visitors = new ArrayList&lt;SumVisitor&gt;();
+ * for (int i = 0; i &lt; scan.getDefaultParallelism(); i++)
+ *     visitors.add(new SumVisitor());
+ * scan.scan(visitors);
+ * long sum = 0;
+ * for (SumVisitor v : visitors)
+ *     sum += v.getSum();
+ * </pre>
+ * 
+ * The pages appended after the scan has started are not scanned.
+ * 
+ * @author leo
+ * 
+ */
+public class ParallelHeapScan
+{
+    /**
+     * The default number of pages scanned at once by a worker
+     */
+    public static final int DEFAULT_CHUNK_PAGES = 64;
+    private static final int BULK_READ_RING_SIZE = 8;
+
+    private final HeapStorage storage;
+    private final Executor executor;
+    private final int chunkPages;
+
+    public ParallelHeapScan(HeapStorage storage, Executor executor)
+    {
+        this(storage, executor, DEFAULT_CHUNK_PAGES);
+    }
+
+    /**
+     * @param storage
+     *            the heap to scan
+     * @param executor
+     *            runs the workers
+     * @param chunkPages
+     *            the number of pages scanned at once by a worker
+     */
+    public ParallelHeapScan(HeapStorage storage, Executor executor, int chunkPages)
+    {
+        if (chunkPages <= 0)
+            throw new IllegalArgumentException("chunk size must be higher than 0: " + chunkPages);
+        this.storage = storage;
+        this.executor = executor;
+        this.chunkPages = chunkPages;
+    }
+
+    /**
+     * @return the number of available processors
+     */
+    public static int getDefaultParallelism()
+    {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Gets the number of the chunks of the current pages
+     * 
+     * @return the number of chunks
+     */
+    public long getNumChunks()
+    {
+        return (storage.getNumPages() + chunkPages - 1) / chunkPages;
+    }
+
+    /**
+     * Scans all of the records. Each visitor is used by a single worker, and
+     * this method blocks until all of the workers finish. The visitors must not
+     * modify the storage.
+     * 
+     * @param visitors
+     *            the visitors of the workers
+     * @throws DBException
+     *             the first error thrown in the workers. The other workers stop
+     *             at the end of their current chunks.
+     */
+    public void scan(List<? extends TupleVisitor> visitors) throws DBException
+    {
+        scan(null, visitors);
+    }
+
+    /**
+     * Scans the records selected by the {@link SelectionScan}. The visitors
+     * receive the projected tuples.
+     * 
+     * @param selection
+     * @param visitors
+     *            the visitors of the workers
+     * @throws DBException
+     *             the first error thrown in the workers, or
+     *             {@link DBErrorCode#ThreadInterruption} when interrupted. The
+     *             workers have finished in either case.
+     * @throws RejectedExecutionException
+     *             when the executor rejects a worker. The workers already
+     *             submitted are cancelled, and have finished.
+     */
+    public void scan(final SelectionScan selection, List<? extends TupleVisitor> visitors) throws DBException
+    {
+        final long endPageID = storage.getNumPages();
+        final AtomicLong nextChunk = new AtomicLong(0);
+        final CountDownLatch finished = new CountDownLatch(visitors.size());
+        final Throwable[] error = new Throwable[1];
+        // stops the workers at the end of their current chunks
+        final AtomicBoolean isCancelled = new AtomicBoolean(false);
+
+        int numSubmitted = 0;
+        for (final TupleVisitor visitor : visitors)
+        {
+            Runnable worker = new Runnable() {
+                public void run()
+                {
+                    try
+                    {
+                        BulkReadRing ring = storage.createBulkReadRing(BULK_READ_RING_SIZE);
+                        while (!isCancelled.get())
+                        {
+                            synchronized (error)
+                            {
+                                if (error[0] != null)
+                                    break;
+                            }
+                            long begin = nextChunk.getAndIncrement() * chunkPages;
+                            if (begin >= endPageID)
+                                break;
+                            storage.scanPages(begin, Math.min(begin + chunkPages, endPageID), selection, visitor,
+                                    ring);
+                        }
+                    }
+                    catch (Throwable e)
+                    {
+                        synchronized (error)
+                        {
+                            if (error[0] == null)
+                                error[0] = e;
+                        }
+                    }
+                    finally
+                    {
+                        finished.countDown();
+                    }
+                }
+            };
+
+            try
+            {
+                executor.execute(worker);
+            }
+            catch (RejectedExecutionException e)
+            {
+                isCancelled.set(true);
+                for (int i = numSubmitted; i < visitors.size(); i++)
+                    finished.countDown();
+                if (awaitWorkers(finished, isCancelled))
+                    Thread.currentThread().interrupt();
+                throw e;
+            }
+            numSubmitted++;
+        }
+
+        if (awaitWorkers(finished, isCancelled))
+        {
+            Thread.currentThread().interrupt();
+            throw new DBException(DBErrorCode.ThreadInterruption, "the parallel scan is interrupted");
+        }
+
+        Throwable e = error[0];
+        if (e instanceof DBException)
+            throw (DBException) e;
+        if (e instanceof RuntimeException)
+            throw (RuntimeException) e;
+        if (e instanceof Error)
+            throw (Error) e;
+    }
+
+    /**
+     * Waits until all of the workers finish. The workers are cancelled when
+     * this thread is interrupted, and still waited for, so that no worker
+     * uses the visitors after the scan returns.
+     * 
+     * @return true if this thread has been interrupted. The interrupted status
+     *         is cleared.
+     */
+    private static boolean awaitWorkers(CountDownLatch finished, AtomicBoolean isCancelled)
+    {
+        boolean isInterrupted = false;
+        while (true)
+        {
+            try
+            {
+                finished.await();
+                return isInterrupted;
+            }
+            catch (InterruptedException e)
+            {
+                isInterrupted = true;
+                isCancelled.set(true);
+            }
+        }
+    }
+
+}
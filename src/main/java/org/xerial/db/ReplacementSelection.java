@@ -0,0 +1,187 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// ReplacementSelection.java
+// Since: Oct 18, 2026 4:37:52 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Generates the sorted runs of {@link ExternalMergeSort} by replacement selection.
+ * 
+ * The tuples in memory are kept in a heap. The smallest tuple is output to the current run,
+ * and its room is filled with the next input tuple. The new tuple joins the current run if it
+ * is not less than the last output tuple; otherwise it is held for the next run. On random
+ * input, the runs become twice as long as the memory on average, and a presorted input becomes
+ * a single run.
+ * 
+ * The tuples of a run are read through this iterator, which reaches the end at the boundary of
+ * the run. {@link #nextRun()} then starts the next run.
+ * 
+ * <pre>
+ * while (selection.nextRun())
+ * {
+ *     for (; selection.hasNext();)
+ *         writer.append(selection.next());
+ * }
+ * </pre>
+ * 
+ * The tuples of the same order are output in their input order, and are never placed in a run
+ * preceding that of an earlier input tuple, so that merging the runs in their order keeps the
+ * sort stable.
+ * 
+ * @author leo
+ * 
+ */
+class ReplacementSelection implements Iterator<Tuple>
+{
+    private static class Entry
+    {
+        final int run;
+        final long seq;
+        final Tuple tuple;
+
+        Entry(int run, long seq, Tuple tuple)
+        {
+            this.run = run;
+            this.seq = seq;
+            this.tuple = tuple;
+        }
+    }
+
+    private final TupleIterator input;
+    private final TupleComparator comparator;
+    private final int capacity;
+    private final PriorityQueue<Entry> heap;
+    private int heapSizeTotal = 0;
+    // the input tuple waiting for the room in the heap
+    private Tuple pending = null;
+    private long numInput = 0;
+    private int currentRun = 0;
+    private boolean isStarted = false;
+    private Tuple lastOutput = null;
+
+    /**
+     * @param initialTuples
+     *            the tuples already read from the input, which are placed in the first run
+     * @param nextTuple
+     *            the tuple read from the input after the initial tuples, or null
+     * @param input
+     *            the rest of the input
+     * @param comparator
+     * @param capacity
+     *            the total byte size of the tuples kept in memory
+     */
+    ReplacementSelection(Iterable<Tuple> initialTuples, Tuple nextTuple, TupleIterator input,
+            TupleComparator comparator, int capacity)
+    {
+        this.input = input;
+        this.comparator = comparator;
+        this.capacity = capacity;
+        this.heap = new PriorityQueue<Entry>(1024, new Comparator<Entry>() {
+            public int compare(Entry e1, Entry e2)
+            {
+                if (e1.run != e2.run)
+                    return e1.run < e2.run ? -1 : 1;
+                int cmp = ReplacementSelection.this.comparator.compare(e1.tuple, e2.tuple);
+                if (cmp != 0)
+                    return cmp;
+                return e1.seq < e2.seq ? -1 : (e1.seq == e2.seq ? 0 : 1);
+            }
+        });
+
+        for (Tuple tuple : initialTuples)
+            push(0, tuple);
+        pending = nextTuple;
+    }
+
+    private void push(int run, Tuple tuple)
+    {
+        heap.add(new Entry(run, numInput++, tuple));
+        heapSizeTotal += tuple.getByteSize();
+    }
+
+    /**
+     * Fills the heap with the input tuples
+     */
+    private void fill()
+    {
+        while (true)
+        {
+            if (pending == null)
+            {
+                if (!input.hasNext())
+                    return;
+                pending = input.next();
+            }
+            // accepts a tuple larger than the capacity only when the heap is empty 
+            if (!heap.isEmpty() && heapSizeTotal + pending.getByteSize() > capacity)
+                return;
+
+            boolean joinsCurrentRun = lastOutput == null || comparator.compare(pending, lastOutput) >= 0;
+            push(joinsCurrentRun ? currentRun : currentRun + 1, pending);
+            pending = null;
+        }
+    }
+
+    /**
+     * Starts the next run
+     * 
+     * @return false if no more tuple is left
+     */
+    public boolean nextRun()
+    {
+        // all of the tuples left in the heap belong to the next run
+        if (isStarted)
+            currentRun++;
+        isStarted = true;
+        lastOutput = null;
+        fill();
+        return !heap.isEmpty();
+    }
+
+    public boolean hasNext()
+    {
+        return !heap.isEmpty() && heap.peek().run == currentRun;
+    }
+
+    public Tuple next()
+    {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        Entry e = heap.poll();
+        heapSizeTotal -= e.tuple.getByteSize();
+        lastOutput = e.tuple;
+        fill();
+        return e.tuple;
+    }
+
+    public void remove()
+    {
+        throw new UnsupportedOperationException("remove");
+    }
+}
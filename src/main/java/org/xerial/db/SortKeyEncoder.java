@@ -0,0 +1,312 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// SortKeyEncoder.java
+// Since: Oct 18, 2026 6:04:33 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Date;
+import java.util.List;
+
+import org.xerial.db.datatype.DataType;
+import org.xerial.db.datatype.TypeName;
+import org.xerial.db.heap.TupleOnBuffer;
+
+/**
+ * Encodes the sort columns of a tuple into a normalized key, a byte string whose unsigned
+ * lexicographic order is the sort order of the tuples. Sorting by the normalized keys compares
+ * the raw bytes, instead of comparing the boxed column values through {@link Comparable}.
+ * 
+ * Each column is encoded as follows:
+ * 
+ * <pre>
+ * null marker   1 byte, which places the nulls before or after the other values
+ * INTEGER       4 bytes in the big endian, with the sign bit flipped
+ * LONG, DATETIME 8 bytes in the big endian, with the sign bit flipped
+ * DOUBLE        8 bytes of the IEEE 754 bits, with the sign bit flipped for the positive values,
+ *               and all of the bits flipped for the negative values
+ * BOOLEAN       1 byte
+ * STRING, TEXT, PASSWORD
+ *               UTF-8 bytes, in which 0x00 is escaped as 0x00 0xFF, terminated by 0x00 0x00
+ * BLOB          the bytes escaped and terminated in the same manner as the strings
+ * </pre>
+ * 
+ * The terminator makes a string precede the strings extending it, and keeps the following
+ * columns from being compared with the string bytes. The strings are ordered by their code
+ * points, which differs from {@link String#compareTo(String)} only in the characters beyond the
+ * basic multilingual plane.
+ * 
+ * The keys can be truncated to a fixed length, so that long strings do not bloat the keys. Two
+ * tuples whose keys are the same in their common length are then compared by the full
+ * comparator.
+ * 
+ * @author leo
+ * 
+ */
+public class SortKeyEncoder
+{
+    /**
+     * The key length meaning that the keys are not truncated
+     */
+    public static final int NO_LIMIT = 0;
+
+    /**
+     * Where the null values are placed
+     */
+    public static enum NullOrder {
+        NULLS_FIRST, NULLS_LAST
+    }
+
+    private static final byte NULL_FIRST_MARKER = 0x00;
+    private static final byte VALUE_MARKER = 0x01;
+    private static final byte NULL_LAST_MARKER = 0x02;
+
+    private final int[] sortColumns;
+    private final TypeName[] types;
+    private final byte nullMarker;
+    private final int maxKeyLength;
+
+    /**
+     * Creates an encoder of the complete keys, which places the nulls first
+     * 
+     * @param relation
+     *            the relation of the tuples
+     * @param sortColumns
+     *            the column indexes to sort by, in the order of the priority
+     */
+    public SortKeyEncoder(Relation relation, int[] sortColumns)
+    {
+        this(relation, sortColumns, NullOrder.NULLS_FIRST, NO_LIMIT);
+    }
+
+    /**
+     * @param relation
+     *            the relation of the tuples
+     * @param sortColumns
+     *            the column indexes to sort by, in the order of the priority
+     * @param nullOrder
+     * @param maxKeyLength
+     *            the byte length at which the keys are truncated, or {@link #NO_LIMIT}
+     */
+    public SortKeyEncoder(Relation relation, int[] sortColumns, NullOrder nullOrder, int maxKeyLength)
+    {
+        List<DataType> dataTypeList = relation.getDataTypeList();
+        this.sortColumns = sortColumns.clone();
+        this.types = new TypeName[sortColumns.length];
+        for (int i = 0; i < sortColumns.length; i++)
+            types[i] = dataTypeList.get(sortColumns[i]).getType();
+        this.nullMarker = nullOrder == NullOrder.NULLS_FIRST ? NULL_FIRST_MARKER : NULL_LAST_MARKER;
+        this.maxKeyLength = maxKeyLength;
+    }
+
+    /**
+     * @return true if the keys can be truncated, so that the ties of the keys need to be broken
+     *         by the full comparison
+     */
+    public boolean isTruncating()
+    {
+        return maxKeyLength != NO_LIMIT;
+    }
+
+    /**
+     * Encodes the sort columns of the tuple
+     * 
+     * @param tuple
+     * @return the normalized key
+     */
+    public byte[] encode(Tuple tuple)
+    {
+        KeyBuilder key = new KeyBuilder();
+        if (tuple instanceof TupleOnBuffer)
+            encodeColumns((TupleOnBuffer) tuple, key);
+        else
+        {
+            for (int i = 0; i < sortColumns.length; i++)
+                encodeValue(types[i], tuple.getValue(sortColumns[i]), key);
+        }
+        return key.toByteArray(maxKeyLength);
+    }
+
+    /**
+     * Reads the columns from the page buffer without boxing them
+     */
+    private void encodeColumns(TupleOnBuffer tuple, KeyBuilder key)
+    {
+        for (int i = 0; i < sortColumns.length; i++)
+        {
+            final int column = sortColumns[i];
+            key.append(VALUE_MARKER);
+            switch (types[i])
+            {
+            case INTEGER:
+                key.appendInt(tuple.getInt(column) ^ Integer.MIN_VALUE);
+                break;
+            case LONG:
+            case DATETIME:
+                key.appendLong(tuple.getLong(column) ^ Long.MIN_VALUE);
+                break;
+            case DOUBLE:
+                key.appendLong(normalize(tuple.getDouble(column)));
+                break;
+            case BOOLEAN:
+                key.append((byte) (tuple.getBoolean(column) ? 1 : 0));
+                break;
+            default:
+                // the strings are stored in UTF-8
+                key.appendTerminated(tuple.getBytes(column));
+                break;
+            }
+        }
+    }
+
+    private void encodeValue(TypeName type, Object value, KeyBuilder key)
+    {
+        if (value == null)
+        {
+            key.append(nullMarker);
+            return;
+        }
+
+        key.append(VALUE_MARKER);
+        switch (type)
+        {
+        case INTEGER:
+            key.appendInt(((Number) value).intValue() ^ Integer.MIN_VALUE);
+            break;
+        case LONG:
+            key.appendLong(((Number) value).longValue() ^ Long.MIN_VALUE);
+            break;
+        case DATETIME:
+            long time = value instanceof Date ? ((Date) value).getTime() : ((Number) value).longValue();
+            key.appendLong(time ^ Long.MIN_VALUE);
+            break;
+        case DOUBLE:
+            key.appendLong(normalize(((Number) value).doubleValue()));
+            break;
+        case BOOLEAN:
+            key.append((byte) (((Boolean) value).booleanValue() ? 1 : 0));
+            break;
+        case BLOB:
+            key.appendTerminated((byte[]) value);
+            break;
+        default:
+            try
+            {
+                key.appendTerminated(value.toString().getBytes("UTF-8"));
+            }
+            catch (UnsupportedEncodingException e)
+            {
+                throw new DBError(DBErrorCode.NotSupported, e);
+            }
+            break;
+        }
+    }
+
+    /**
+     * Maps the double value to the long value of the same order as {@link Double#compare(double, double)}
+     */
+    private static long normalize(double value)
+    {
+        long bits = Double.doubleToLongBits(value);
+        // flips the magnitude of the negative values, and moves them before the positive ones
+        return bits < 0 ? ~bits : bits ^ Long.MIN_VALUE;
+    }
+
+    /**
+     * Compares the keys as unsigned bytes in their common length
+     * 
+     * @return the order of the keys, or 0 if one of the keys is a prefix of the other
+     */
+    public static int comparePrefix(byte[] key1, byte[] key2)
+    {
+        final int len = Math.min(key1.length, key2.length);
+        for (int i = 0; i < len; i++)
+        {
+            int b1 = key1[i] & 0xFF;
+            int b2 = key2[i] & 0xFF;
+            if (b1 != b2)
+                return b1 - b2;
+        }
+        return 0;
+    }
+
+    private static class KeyBuilder
+    {
+        private byte[] buf = new byte[32];
+        private int length = 0;
+
+        private void ensureCapacity(int extra)
+        {
+            if (length + extra <= buf.length)
+                return;
+            byte[] newBuf = new byte[Math.max(buf.length * 2, length + extra)];
+            System.arraycopy(buf, 0, newBuf, 0, length);
+            buf = newBuf;
+        }
+
+        void append(byte b)
+        {
+            ensureCapacity(1);
+            buf[length++] = b;
+        }
+
+        void appendInt(int value)
+        {
+            ensureCapacity(4);
+            for (int shift = 24; shift >= 0; shift -= 8)
+                buf[length++] = (byte) (value >>> shift);
+        }
+
+        void appendLong(long value)
+        {
+            ensureCapacity(8);
+            for (int shift = 56; shift >= 0; shift -= 8)
+                buf[length++] = (byte) (value >>> shift);
+        }
+
+        void appendTerminated(byte[] value)
+        {
+            int numZeros = 0;
+            for (byte b : value)
+                if (b == 0)
+                    numZeros++;
+            ensureCapacity(value.length + numZeros + 2);
+            for (byte b : value)
+            {
+                buf[length++] = b;
+                if (b == 0)
+                    buf[length++] = (byte) 0xFF;
+            }
+            buf[length++] = 0;
+            buf[length++] = 0;
+        }
+
+        byte[] toByteArray(int maxLength)
+        {
+            int len = maxLength == NO_LIMIT ? length : Math.min(length, maxLength);
+            byte[] key = new byte[len];
+            System.arraycopy(buf, 0, key, 0, len);
+            return key;
+        }
+    }
+}
@@ -0,0 +1,573 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// SortRun.java
+// Since: Oct 18, 2026 3:41:07 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.xerial.db.cache.Buffer;
+import org.xerial.db.heap.HeapPage;
+import org.xerial.db.storage.DBFile;
+import org.xerial.db.storage.DiskFile;
+import org.xerial.db.storage.PageCodec;
+
+/**
+ * A sorted run of tuples spilled to a temporary file by {@link ExternalMergeSort}.
+ * 
+ * The tuples are appended to {@link HeapPage}s in the sorted order, and the pages are written 
+ * sequentially to the file. The run is read back page by page, so that writing or reading a run 
+ * needs only a single page buffer.
+ * 
+ * Given a second buffer and an {@link Executor}, the writer hands each filled page to the 
+ * executor and goes on filling the other buffer, and the reader loads the next page in the 
+ * background while the tuples of the current page are read. At most one page of a run is 
+ * read or written at a time.
+ * 
+ * Given a {@link PageCodec}, each page is compressed into a frame of a variable length:
+ * 
+ * <pre>
+ * header   4 bytes: the compressed length, or RAW_FRAME | the page size if the page is not
+ *          compressed, since the compression does not shrink it
+ * payload
+ * </pre>
+ * 
+ * The frames are written one after another, and their file offsets are kept in memory.
+ * 
+ * @author leo
+ * 
+ */
+class SortRun
+{
+    private final File path;
+    private final DBFile file;
+    private static final int FRAME_HEADER_SIZE = 4;
+    private static final int RAW_FRAME = 0x80000000;
+
+    private final int pageSize;
+    private final PageCodec codec;
+    private long numPages = 0;
+    private long numTuples = 0;
+    // the file offsets of the frames, and the end of the last frame at numPages
+    private long[] frameOffset = new long[] { 0 };
+
+    /**
+     * Creates an empty run in a new temporary file
+     * 
+     * @param tempDir
+     *            the directory of the temporary file
+     * @param pageSize
+     * @param codec
+     *            compresses the pages, or null
+     * @throws DBException
+     *             when failed to create the file
+     */
+    SortRun(File tempDir, int pageSize, PageCodec codec) throws DBException
+    {
+        this.pageSize = pageSize;
+        this.codec = codec;
+        try
+        {
+            tempDir.mkdirs();
+            path = File.createTempFile("sort", ".run", tempDir);
+            file = new DiskFile(path.getPath());
+        }
+        catch (IOException e)
+        {
+            throw new DBException(DBErrorCode.IOError, e);
+        }
+    }
+
+    public long getNumPages()
+    {
+        return numPages;
+    }
+
+    public long getNumTuples()
+    {
+        return numTuples;
+    }
+
+    /**
+     * @return the byte size of the file
+     */
+    public long getByteSize()
+    {
+        return codec == null ? numPages * pageSize : frameOffset[(int) numPages];
+    }
+
+    /**
+     * @return a buffer for the frames of the compressed pages, or null if the pages are not
+     *         compressed
+     */
+    private byte[] newFrameBuffer()
+    {
+        return codec == null ? null : new byte[FRAME_HEADER_SIZE + codec.maxCompressedLength(pageSize)];
+    }
+
+    /**
+     * Writes the page. The pages are written in the order of the page IDs, one at a time.
+     * 
+     * @param buffer
+     * @param pageID
+     * @param frame
+     *            the buffer for the compressed page
+     */
+    private void writePage(Buffer buffer, long pageID, byte[] frame) throws DBException
+    {
+        if (codec == null)
+        {
+            buffer.save(file, pageID * pageSize);
+            return;
+        }
+
+        byte[] page = buffer.getBytes();
+        int frameLength;
+        int compressedLength = codec.compress(page, 0, pageSize, frame, FRAME_HEADER_SIZE);
+        if (compressedLength < pageSize)
+        {
+            writeFrameHeader(frame, compressedLength);
+            frameLength = FRAME_HEADER_SIZE + compressedLength;
+        }
+        else
+        {
+            writeFrameHeader(frame, RAW_FRAME | pageSize);
+            System.arraycopy(page, 0, frame, FRAME_HEADER_SIZE, pageSize);
+            frameLength = FRAME_HEADER_SIZE + pageSize;
+        }
+
+        final int index = (int) pageID;
+        if (index + 1 >= frameOffset.length)
+        {
+            long[] newOffset = new long[frameOffset.length * 2];
+            System.arraycopy(frameOffset, 0, newOffset, 0, frameOffset.length);
+            frameOffset = newOffset;
+        }
+        file.writeAt(frameOffset[index], frame, 0, frameLength);
+        frameOffset[index + 1] = frameOffset[index] + frameLength;
+    }
+
+    private static void writeFrameHeader(byte[] frame, int header)
+    {
+        for (int i = 0; i < FRAME_HEADER_SIZE; i++)
+            frame[i] = (byte) (header >>> (24 - i * 8));
+    }
+
+    /**
+     * Reads the page
+     * 
+     * @param buffer
+     * @param pageID
+     * @param frame
+     *            the buffer for the compressed page
+     */
+    private void readPage(Buffer buffer, long pageID, byte[] frame) throws DBException
+    {
+        if (codec == null)
+        {
+            buffer.load(file, pageID * pageSize);
+            return;
+        }
+
+        final int index = (int) pageID;
+        int frameLength = (int) (frameOffset[index + 1] - frameOffset[index]);
+        file.readAt(frameOffset[index], frame, 0, frameLength);
+        int header = 0;
+        for (int i = 0; i < FRAME_HEADER_SIZE; i++)
+            header = header << 8 | (frame[i] & 0xFF);
+
+        if ((header & RAW_FRAME) != 0)
+        {
+            if ((header & ~RAW_FRAME) != pageSize || frameLength != FRAME_HEADER_SIZE + pageSize)
+                throw new DBException(DBErrorCode.InvalidDataFormat, "broken frame header of page " + pageID);
+            System.arraycopy(frame, FRAME_HEADER_SIZE, buffer.getBytes(), 0, pageSize);
+        }
+        else
+        {
+            if (header != frameLength - FRAME_HEADER_SIZE)
+                throw new DBException(DBErrorCode.InvalidDataFormat, "broken frame header of page " + pageID);
+            codec.decompress(frame, FRAME_HEADER_SIZE, header, buffer.getBytes(), 0, pageSize);
+        }
+    }
+
+    /**
+     * Closes and removes the file of this run
+     * 
+     * @throws DBException
+     */
+    public void delete() throws DBException
+    {
+        file.close();
+        path.delete();
+    }
+
+    /**
+     * Starts appending the tuples to this run
+     * 
+     * @param buffer
+     *            the page buffer used until the writer is closed
+     * @return the writer
+     */
+    public Writer openWriter(Buffer buffer)
+    {
+        return new Writer(buffer, null, null);
+    }
+
+    /**
+     * Starts appending the tuples to this run, writing the pages in the background
+     * 
+     * @param buffer
+     * @param spare
+     *            the buffer filled while the other one is written
+     * @param executor
+     *            writes the pages
+     * @return the writer
+     */
+    public Writer openWriter(Buffer buffer, Buffer spare, Executor executor)
+    {
+        return new Writer(buffer, spare, executor);
+    }
+
+    /**
+     * Reads the tuples of this run from the beginning
+     * 
+     * @param buffer
+     *            the page buffer used by the reader
+     * @param tupleFactory
+     *            creates the tuples from the records
+     * @return the reader
+     */
+    public Reader openReader(Buffer buffer, TupleFactory tupleFactory)
+    {
+        return new Reader(buffer, null, null, tupleFactory);
+    }
+
+    /**
+     * Reads the tuples of this run from the beginning, loading the next page in the background
+     * 
+     * @param buffer
+     * @param spare
+     *            the buffer into which the next page is loaded
+     * @param executor
+     *            loads the pages
+     * @param tupleFactory
+     * @return the reader
+     */
+    public Reader openReader(Buffer buffer, Buffer spare, Executor executor, TupleFactory tupleFactory)
+    {
+        return new Reader(buffer, spare, executor, tupleFactory);
+    }
+
+    /**
+     * Waits for the task to finish
+     * 
+     * @param task
+     * @return the result of the task
+     * @throws DBException
+     *             the error thrown in the task
+     */
+    static <T> T await(Future<T> task) throws DBException
+    {
+        try
+        {
+            return task.get();
+        }
+        catch (InterruptedException e)
+        {
+            throw new DBException(DBErrorCode.ThreadInterruption, e);
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof DBException)
+                throw (DBException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new DBException(DBErrorCode.IOError, cause);
+        }
+    }
+
+    /**
+     * Waits for the task to finish even when the thread is interrupted, and restores the
+     * interrupt status after the wait
+     * 
+     * @param task
+     * @return false if the task has failed
+     */
+    static boolean awaitUninterruptibly(Future<?> task)
+    {
+        boolean isInterrupted = false;
+        try
+        {
+            while (true)
+            {
+                try
+                {
+                    task.get();
+                    return true;
+                }
+                catch (InterruptedException e)
+                {
+                    isInterrupted = true;
+                }
+                catch (ExecutionException e)
+                {
+                    return false;
+                }
+            }
+        }
+        finally
+        {
+            if (isInterrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    private FutureTask<Object> submitWrite(Executor executor, final Buffer buffer, final long pageID,
+            final byte[] frame)
+    {
+        FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+            public Object call() throws Exception
+            {
+                writePage(buffer, pageID, frame);
+                return null;
+            }
+        });
+        executor.execute(task);
+        return task;
+    }
+
+    private FutureTask<Object> submitLoad(Executor executor, final Buffer buffer, final long pageID,
+            final byte[] frame)
+    {
+        FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+            public Object call() throws Exception
+            {
+                readPage(buffer, pageID, frame);
+                return null;
+            }
+        });
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Appends the tuples to the run
+     */
+    public class Writer
+    {
+        private final Executor executor;
+        private Buffer buffer;
+        private Buffer spare;
+        private HeapPage page;
+        private final byte[] frame = newFrameBuffer();
+        private FutureTask<Object> pendingWrite = null;
+
+        private Writer(Buffer buffer, Buffer spare, Executor executor)
+        {
+            this.buffer = buffer;
+            this.spare = spare;
+            this.executor = executor;
+            this.page = new HeapPage(buffer, numPages);
+        }
+
+        /**
+         * Appends the tuple, which must not be less than the previous one
+         * 
+         * @param tuple
+         * @throws DBException
+         *             when the tuple does not fit in a page
+         */
+        public void append(Tuple tuple) throws DBException
+        {
+            int tupleSize = tuple.getByteSize();
+            if (!page.hasSpaceFor(tupleSize))
+            {
+                if (page.getNumRecords() == 0)
+                    throw new DBException(DBErrorCode.ExceedsTheCapacity, "tuple size " + tupleSize
+                            + " exceeds the page size " + pageSize);
+                flushPage();
+            }
+            page.append(tuple);
+            numTuples++;
+        }
+
+        private void flushPage() throws DBException
+        {
+            if (executor == null)
+                writePage(buffer, numPages, frame);
+            else
+            {
+                awaitWrite();
+                pendingWrite = submitWrite(executor, buffer, numPages, frame);
+                Buffer written = buffer;
+                buffer = spare;
+                spare = written;
+            }
+            numPages++;
+            page = new HeapPage(buffer, numPages);
+        }
+
+        private void awaitWrite() throws DBException
+        {
+            if (pendingWrite != null)
+            {
+                FutureTask<Object> task = pendingWrite;
+                pendingWrite = null;
+                await(task);
+            }
+        }
+
+        /**
+         * Writes the last page. The buffers can be reused after the call.
+         * 
+         * @throws DBException
+         */
+        public void close() throws DBException
+        {
+            if (page.getNumRecords() > 0)
+                flushPage();
+            awaitWrite();
+        }
+
+        /**
+         * Waits for the background write without writing the rest, so that the buffers can be
+         * reused after the call
+         */
+        public void abort()
+        {
+            if (pendingWrite != null)
+            {
+                // the run is discarded even if the write fails
+                awaitUninterruptibly(pendingWrite);
+                pendingWrite = null;
+            }
+        }
+    }
+
+    /**
+     * Reads the tuples of the run in the sorted order
+     */
+    public class Reader implements TupleIterator
+    {
+        private final TupleFactory tupleFactory;
+        private final Executor executor;
+        private Buffer buffer;
+        private Buffer spare;
+        private HeapPage page = null;
+        private long pageID = -1;
+        private int slot = 0;
+        private final byte[] frame = newFrameBuffer();
+        // loads the page next to the current one into the spare buffer 
+        private FutureTask<Object> pendingLoad = null;
+
+        private Reader(Buffer buffer, Buffer spare, Executor executor, TupleFactory tupleFactory)
+        {
+            this.buffer = buffer;
+            this.spare = spare;
+            this.executor = executor;
+            this.tupleFactory = tupleFactory;
+            if (executor != null && numPages > 0)
+                pendingLoad = submitLoad(executor, spare, 0, frame);
+        }
+
+        private void loadNextPage() throws DBException
+        {
+            pageID++;
+            if (executor == null)
+                readPage(buffer, pageID, frame);
+            else
+            {
+                FutureTask<Object> task = pendingLoad;
+                pendingLoad = null;
+                await(task);
+                Buffer loaded = spare;
+                spare = buffer;
+                buffer = loaded;
+                if (pageID + 1 < numPages)
+                    pendingLoad = submitLoad(executor, spare, pageID + 1, frame);
+            }
+            page = HeapPage.wrap(buffer, tupleFactory);
+            slot = 0;
+        }
+
+        public boolean hasNext()
+        {
+            try
+            {
+                while (page == null || slot >= page.getNumSlots())
+                {
+                    if (pageID + 1 >= numPages)
+                        return false;
+                    loadNextPage();
+                }
+                return true;
+            }
+            catch (DBException e)
+            {
+                throw new DBError(e.getErrorCode(), e);
+            }
+        }
+
+        public Tuple next()
+        {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            try
+            {
+                return page.getTuple(slot++);
+            }
+            catch (DBException e)
+            {
+                throw new DBError(e.getErrorCode(), e);
+            }
+        }
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException("remove");
+        }
+
+        /**
+         * Waits for the background load, so that the buffers can be reused after the call
+         */
+        public void close()
+        {
+            if (pendingLoad != null)
+            {
+                // the page is no longer needed even if the load fails
+                awaitUninterruptibly(pendingLoad);
+                pendingLoad = null;
+            }
+        }
+    }
+}
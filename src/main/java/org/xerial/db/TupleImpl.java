@@ -74,7 +74,7 @@ public class TupleImpl extends AbstractTuple
                 break;
             case STRING:
                 int strLen = value[relationIndex].length();
-                byteSize += VariableLengthInteger.byteSize(strLen);
+                byteSize += VariableLengthInteger.encodedLength(strLen);
                 byteSize += strLen;
                 break;
             case BOOLEAN:
@@ -47,6 +47,15 @@ public class TupleList extends ArrayList<Tuple> implements TupleContainer
 
     }
 
+    /**
+     * @param capacity
+     *            the total byte size of the tuples that can be stored
+     */
+    public TupleList(int capacity)
+    {
+        this.capacity = capacity;
+    }
+
     @Override
     public boolean add(Tuple tuple)
     {
@@ -54,13 +63,28 @@ public class TupleList extends ArrayList<Tuple> implements TupleContainer
         if (!hasCapacityFor(tuple))
             throw new DBError(DBErrorCode.ExceedsTheCapacity, "exceeds the container capacity");
 
-        capacity -= tupleByteSize;
+        currentTupleSizeTotal += tupleByteSize;
         return super.add(tuple);
     }
 
+    @Override
+    public void clear()
+    {
+        super.clear();
+        currentTupleSizeTotal = 0;
+    }
+
     public boolean hasCapacityFor(Tuple tuple)
     {
-        return currentTupleSizeTotal + tuple.getByteSize() < capacity;
+        return currentTupleSizeTotal + tuple.getByteSize() <= capacity;
+    }
+
+    /**
+     * @return the total byte size of the stored tuples
+     */
+    public int getTupleSizeTotal()
+    {
+        return currentTupleSizeTotal;
     }
 
 }
@@ -0,0 +1,46 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// TupleVisitor.java
+// Since: Oct 18, 2026 4:58:30 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db;
+
+/**
+ * A callback receiving the tuples of a scan
+ * 
+ * @author leo
+ * 
+ */
+public interface TupleVisitor
+{
+    /**
+     * Receives a tuple. The tuple may refer to the page being scanned, and is
+     * valid only during this call.
+     * 
+     * @param recordID
+     *            the record ID of the tuple
+     * @param tuple
+     * @throws DBException
+     *             to abort the scan
+     */
+    public void visit(long recordID, Tuple tuple) throws DBException;
+}
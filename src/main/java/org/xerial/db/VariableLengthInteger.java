@@ -25,13 +25,9 @@
 package org.xerial.db;
 
 import java.io.ByteArrayInputStream;
-import java.math.BigInteger;
-import java.util.Vector;
+import java.nio.ByteBuffer;
 
-import org.xerial.core.XerialException;
-import org.xerial.db.cache.Buffer;
 import org.xerial.db.cache.BufferWriter;
-import org.xerial.db.datatype.TypeInformation;
  
 /**
  * Variable length number representation.
@@ -45,36 +41,37 @@ import org.xerial.db.datatype.TypeInformation;
  * [0, 0 + (2 ^ 7 - 1) = 127]
  * [128, 128 + (2^14 - 1) = 16511]
  * [16512, 16512 + (2^21 - 1) = 2113663]
+ * 
+ * Only non-negative values can be encoded. An int value takes at most {@link #MAX_INT_BYTES} bytes, 
+ * and a long value takes at most {@link #MAX_LONG_BYTES} bytes. The int and long values are encoded 
+ * in the same format.
+ * 
+ * The static methods, {@link #encode(int, byte[], int)}, {@link #decode(byte[], int)} and 
+ * {@link #encodedLength(int)}, read and write the values without allocating objects.  
+ * 
  * @author leo
  *
  */
 public class VariableLengthInteger
 {
-    static private int[] upperBoundByByteSize; 
+    /**
+     * The maximum byte size of the encoded int values
+     */
+    public static final int MAX_INT_BYTES = 5;
+    /**
+     * The maximum byte size of the encoded long values
+     */
+    public static final int MAX_LONG_BYTES = 9;
+    
+    /**
+     * offset[n] is the smallest value encoded with n+1 bytes, that is, 2^7 + 2^14 + ... + 2^(7n) 
+     */
+    static private final long[] offset = new long[MAX_LONG_BYTES];
     static
     {
-        Vector<Integer> upperBoundArray = new Vector<Integer>();
-        BigInteger previousMaximum = BigInteger.ZERO;
-        BigInteger intMax = BigInteger.valueOf(Integer.MAX_VALUE);
-        
-        
-        int byteSize = 1;
-        BigInteger valueRange = BigInteger.ZERO;
-        while(previousMaximum.compareTo(intMax) < 0)
-        {
-            valueRange = BigInteger.ZERO.setBit(byteSize++ * 7);
-            previousMaximum = previousMaximum.add(valueRange);
-            if(previousMaximum.compareTo(intMax) > 0)
-                break;
-            upperBoundArray.add(previousMaximum.subtract(BigInteger.ONE).intValue());
-        }
-        
-        upperBoundByByteSize = new int[upperBoundArray.size()];
-        int i = 0;
-        for(int val : upperBoundArray)
-        {
-            upperBoundByByteSize[i++] = val;
-        }
+        offset[0] = 0;
+        for(int n=1; n<MAX_LONG_BYTES; n++)
+            offset[n] = offset[n-1] + (1L << (7 * n));
     }
 
     byte[] _binaryRepresentation = null;
@@ -104,41 +101,202 @@ public class VariableLengthInteger
     public int intValue()
     {
         assert _binaryRepresentation != null;
-        int value = 0;
-        for(int i=0; i<_binaryRepresentation.length; i++)
+        return decode(_binaryRepresentation, 0);
+    }
+    
+    private void translate(int value)
+    {
+        _binaryRepresentation = new byte[encodedLength(value)];
+        encode(value, _binaryRepresentation, 0);
+    }
+
+    /**
+     * Gets the byte size of the encoded value
+     * 
+     * @param value
+     *            a non-negative value
+     * @return the byte size
+     */
+    public static int encodedLength(int value)
+    {
+        return encodedLength((long) value);
+    }
+
+    /**
+     * Gets the byte size of the encoded value
+     * 
+     * @param value
+     *            a non-negative value
+     * @return the byte size
+     */
+    public static int encodedLength(long value)
+    {
+        if(value < 0)
+            throw new IllegalArgumentException("negative value cannot be encoded: " + value);
+        
+        // a value less than 2^(7n) fits in n bytes, and one of more than 2^(7(n-1)) needs at least n-1 bytes 
+        int bitLength = 64 - Long.numberOfLeadingZeros(value);
+        int byteSize = bitLength == 0 ? 1 : Math.min((bitLength + 6) / 7, MAX_LONG_BYTES);
+        if(byteSize > 1 && value < offset[byteSize-1])
+            byteSize--;
+        return byteSize;
+    }
+
+    /**
+     * Writes the value to the byte array
+     * 
+     * @param value
+     *            a non-negative value
+     * @param dest
+     *            the destination
+     * @param destOffset
+     *            the offset in the destination
+     * @return the written byte size
+     */
+    public static int encode(int value, byte[] dest, int destOffset)
+    {
+        return encode((long) value, dest, destOffset);
+    }
+    
+    /**
+     * Writes the value to the byte array
+     * 
+     * @param value
+     *            a non-negative value
+     * @param dest
+     *            the destination
+     * @param destOffset
+     *            the offset in the destination
+     * @return the written byte size
+     */
+    public static int encode(long value, byte[] dest, int destOffset)
+    {
+        int byteSize = encodedLength(value);
+        long payload = value - offset[byteSize-1];
+        dest[destOffset + byteSize - 1] = (byte) (payload & 0x7F);
+        for(int i=byteSize-2; i>=0; i--)
         {
-            value <<= 7;
-            value |= _binaryRepresentation[i] & 0x7F;            
+            payload >>>= 7;
+            dest[destOffset + i] = (byte) ((payload & 0x7F) | 0x80);
         }
-        if(_binaryRepresentation.length > 1)
-        value += upperBoundByByteSize[_binaryRepresentation.length - 2] + 1;
-        return value;
+        return byteSize;
     }
     
-    private void translate(int value)
+    /**
+     * Writes the value to the {@link ByteBuffer} without changing its position
+     * 
+     * @param value
+     *            a non-negative value
+     * @param dest
+     *            the destination
+     * @param pos
+     *            the byte position in the destination
+     * @return the written byte size
+     */
+    public static int encode(long value, ByteBuffer dest, int pos)
     {
-        int byteSize;
-        for(byteSize = 1; byteSize <= upperBoundByByteSize.length; byteSize++)
+        int byteSize = encodedLength(value);
+        long payload = value - offset[byteSize-1];
+        dest.put(pos + byteSize - 1, (byte) (payload & 0x7F));
+        for(int i=byteSize-2; i>=0; i--)
         {
-            if(value <= upperBoundByByteSize[byteSize-1])
-                break;
+            payload >>>= 7;
+            dest.put(pos + i, (byte) ((payload & 0x7F) | 0x80));
         }
-        
-        if(byteSize > 1)
-            value -= upperBoundByByteSize[byteSize-2] + 1;   // subtract offset
-        
-        _binaryRepresentation = new byte[byteSize];
-        int mask = 0x7F << ((byteSize - 1) * 7);
-        for(int i=0; i<byteSize; i++)
+        return byteSize;
+    }
+    
+    /**
+     * Reads an int value from the byte array
+     * 
+     * @param src
+     *            the encoded data
+     * @param srcOffset
+     *            the offset in the source
+     * @return the decoded value, whose byte size is given by
+     *         {@link #encodedLength(int)}
+     * @throws DBError
+     *             when the data is not an encoded int value
+     */
+    public static int decode(byte[] src, int srcOffset)
+    {
+        long payload = 0;
+        for(int i=0; i<MAX_INT_BYTES; i++)
         {
-            _binaryRepresentation[i] = (byte) ((value & mask) >> ((byteSize - (i + 1)) * 7));
-            mask >>= 7;
+            byte b = src[srcOffset + i];
+            payload = (payload << 7) | (b & 0x7F);
+            if((b & 0x80) == 0)
+                return toInt(payload + offset[i]);
         }
-        for(int i=0; i<_binaryRepresentation.length-1; i++)
+        throw new DBError(DBErrorCode.InvalidDataFormat, "invalid variable length int code at " + srcOffset);
+    }
+    
+    /**
+     * Reads a long value from the byte array
+     * 
+     * @param src
+     *            the encoded data
+     * @param srcOffset
+     *            the offset in the source
+     * @return the decoded value, whose byte size is given by
+     *         {@link #encodedLength(long)}
+     * @throws DBError
+     *             when the data is not an encoded long value
+     */
+    public static long decodeLong(byte[] src, int srcOffset)
+    {
+        long payload = 0;
+        for(int i=0; i<MAX_LONG_BYTES; i++)
         {
-            _binaryRepresentation[i] |= 0x80;
+            byte b = src[srcOffset + i];
+            payload = (payload << 7) | (b & 0x7F);
+            if((b & 0x80) == 0)
+                return payload + offset[i];
         }
-        
+        throw new DBError(DBErrorCode.InvalidDataFormat, "invalid variable length long code at " + srcOffset);
+    }
+    
+    /**
+     * Reads an int value from the {@link ByteBuffer} without changing its position
+     * 
+     * @see #decode(byte[], int)
+     */
+    public static int decode(ByteBuffer src, int pos)
+    {
+        long payload = 0;
+        for(int i=0; i<MAX_INT_BYTES; i++)
+        {
+            byte b = src.get(pos + i);
+            payload = (payload << 7) | (b & 0x7F);
+            if((b & 0x80) == 0)
+                return toInt(payload + offset[i]);
+        }
+        throw new DBError(DBErrorCode.InvalidDataFormat, "invalid variable length int code at " + pos);
+    }
+    
+    /**
+     * Reads a long value from the {@link ByteBuffer} without changing its position
+     * 
+     * @see #decodeLong(byte[], int)
+     */
+    public static long decodeLong(ByteBuffer src, int pos)
+    {
+        long payload = 0;
+        for(int i=0; i<MAX_LONG_BYTES; i++)
+        {
+            byte b = src.get(pos + i);
+            payload = (payload << 7) | (b & 0x7F);
+            if((b & 0x80) == 0)
+                return payload + offset[i];
+        }
+        throw new DBError(DBErrorCode.InvalidDataFormat, "invalid variable length long code at " + pos);
+    }
+    
+    private static int toInt(long value)
+    {
+        if(value > Integer.MAX_VALUE)
+            throw new DBError(DBErrorCode.InvalidDataFormat, "value larger than 2^31-1 cannot be read as int: " + value);
+        return (int) value;
     }
 
     public static int byteSize(byte[] buffer, int offset) throws DBException
@@ -148,9 +306,9 @@ public class VariableLengthInteger
         while((buffer[index++] & 0x80) != 0)
         {
             byteLength++;
-            if(byteLength > upperBoundByByteSize.length)
+            if(byteLength > MAX_INT_BYTES)
             {
-                throw new DBException(DBErrorCode.InvalidDataFormat, "cannot read the variable length integer whose bite size is larger than " + upperBoundByByteSize.length);
+                throw new DBException(DBErrorCode.InvalidDataFormat, "cannot read the variable length integer whose bite size is larger than " + MAX_INT_BYTES);
             }
         }
         return byteLength;
@@ -161,46 +319,40 @@ public class VariableLengthInteger
      * Gets the byte size of the value as an variable length integer
      * @param value
      * @return
+     * @see #encodedLength(int)
      */
     public static int byteSize(int value)
     {
-        int byteSize;
-        for(byteSize = 1; byteSize <= upperBoundByByteSize.length; byteSize++)
-        {
-            if(value <= upperBoundByByteSize[byteSize-1])
-                break;
-        }
-        return byteSize;
+        return encodedLength(value);
     }
     
     public static int readFrom(byte[] buffer, int offset) throws DBException
     {
-        int value = 0;
-        int byteLength = byteSize(buffer, offset);
-        if(byteLength > TypeInformation.INT_SIZE)
+        try
         {
-            if(!(byteLength == (TypeInformation.INT_SIZE + 1) && (buffer[offset] > 0x87)))  // 1000 0111
-                throw new DBException(DBErrorCode.InvalidDataFormat, "value larger than 2^31-1 cannot be read");
+            return decode(buffer, offset);
         }
-        
-        for(int i=0; i<byteLength; i++)
+        catch(DBError e)
         {
-            value <<= 7;
-            value |= buffer[offset+i] & 0x7F;            
+            throw new DBException(DBErrorCode.InvalidDataFormat, e.getMessage());
         }
-        
-        return value;
     }
     
     
     public static VariableLengthInteger readFrom(ByteArrayInputStream buffer) throws DBException
     {
-        byte[] byteArray = new byte[upperBoundByByteSize.length];
+        byte[] byteArray = new byte[MAX_INT_BYTES];
         int size = 0, b;
-        while(((b = buffer.read()) & 0x80) != 0)
+        do
         {
+            if(size >= MAX_INT_BYTES)
+                throw new DBException(DBErrorCode.InvalidDataFormat, "invalid code");
+            b = buffer.read();
+            if(b == -1)
+                throw new DBException(DBErrorCode.InvalidDataFormat, "unexpected end of the stream");
             byteArray[size++] = (byte) b;
         }
+        while((b & 0x80) != 0);
         return new VariableLengthInteger(byteArray, 0);
     }
     
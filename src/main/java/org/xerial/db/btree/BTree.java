@@ -24,12 +24,1246 @@
 //--------------------------------------
 package org.xerial.db.btree;
 
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.xerial.db.CommonPageHeader;
+import org.xerial.db.DBErrorCode;
+import org.xerial.db.DBException;
+import org.xerial.db.PageType;
+import org.xerial.db.Tuple;
+import org.xerial.db.TupleIterator;
+import org.xerial.db.cache.Buffer;
+import org.xerial.db.cache.BufferReader;
+import org.xerial.db.cache.BufferWriter;
+import org.xerial.db.cache.BulkReadRing;
+import org.xerial.db.cache.PageCacheHolder;
+import org.xerial.db.cache.PageFrame;
+import org.xerial.db.cache.PagePrefetcher;
+import org.xerial.db.cache.PageReader;
+import org.xerial.db.cache.PrefetchScan;
+import org.xerial.db.datatype.TypeInformation;
+
+/**
+ * B+-tree index over the pages of a {@link PageCacheHolder}, mapping byte array keys to long values.
+ * 
+ * The page 0 of the file holds the meta data of the tree: the root page, the height of the tree, 
+ * the number of pages and entries, and the head of the free page list. The other pages are 
+ * {@link BTreePage}s, or freed pages waiting for reuse. 
+ * 
+ * The keys are unique, and compared as unsigned bytes. All of the values are held in the leaves, 
+ * which are linked to their right siblings, so that a range of keys can be scanned by a 
+ * {@link BTreeCursor} without going back to the internal nodes. 
+ * 
+ * A full node is split into two nodes of about the same byte size, and a node whose used space 
+ * falls below a quarter of the page is merged with, or borrows entries from, its sibling.
+ * The pages store the key prefix shared by their entries only once, and the separators of the 
+ * leaves in the internal nodes are truncated to the shortest keys separating the leaves, so that 
+ * long keys with common prefixes, such as URLs or paths, make a wide and shallow tree.
+ * 
+ * A tree over sorted input is built much faster by {@link #bulkLoad(PageCacheHolder, TupleIterator, 
+ * BTreeEntryExtractor, double)}, which writes the pages sequentially. 
+ * 
+ * <h3>Concurrency</h3>
+ * 
+ * The tree is a B-link tree: every node has a link to its right sibling and a high key, the upper 
+ * bound of its keys. A split moves the upper half of a node to a new right sibling before the 
+ * separator is added to the parent, and a search that finds its key beyond the high key of a node 
+ * follows the right link. Therefore,
+ * <ul>
+ * <li>the lookups and the scans take no lock nor latch. Each node is read optimistically through 
+ * {@link PageCacheHolder#read(long, PageReader)}, and never waits for the other threads, except 
+ * for a short retry when the node is being modified.</li>
+ * <li>the insertions and the deletions latch only the node they modify, one at a time from the 
+ * bottom, and run concurrently with each other.</li>
+ * </ul>
+ * Only the merges of the underflowed nodes, which free pages, are serialized with the other 
+ * modifications. The readers detect the merges by the structure version of the tree, and retry 
+ * their searches.  
+ * 
+ * @author leo
+ *
+ */
 public class BTree
 {
+    /**
+     * The value returned by {@link #lookup(byte[])} when the key is not found
+     */
+    public static final long NOT_FOUND = Long.MIN_VALUE;
+
+    /**
+     * The default fill factor of the bulk loaded pages, which leaves some room for the later 
+     * insertions
+     */
+    public static final double DEFAULT_FILL_FACTOR = 0.9;
+
+    private static final long META_PAGE_ID = 0;
+    private static final long NO_PAGE = BTreePage.NO_PAGE;
+
+    // positions of the meta page contents
+    private static final int PAGE_SIZE_POS = new CommonPageHeader().getHeaderSize();
+    private static final int ROOT_PAGE_POS = PAGE_SIZE_POS + TypeInformation.INT_SIZE;
+    private static final int HEIGHT_POS = ROOT_PAGE_POS + TypeInformation.LONG_SIZE;
+    private static final int NUM_PAGES_POS = HEIGHT_POS + TypeInformation.INT_SIZE;
+    private static final int FREE_PAGE_POS = NUM_PAGES_POS + TypeInformation.LONG_SIZE;
+    private static final int NUM_ENTRIES_POS = FREE_PAGE_POS + TypeInformation.LONG_SIZE;
+
+    private final PageCacheHolder pageCache;
+    private final int pageSize;
+    private final int pageCapacity;
+    private final int underflowThreshold;
+    private final int maxKeyLength;
+
+    // shared by the insertions and deletions, and exclusively held by the merges 
+    private final ReentrantReadWriteLock structureLock = new ReentrantReadWriteLock();
+    // odd while the nodes are being merged 
+    private final AtomicLong structureVersion = new AtomicLong(0);
+    // guards the page allocation and the root
+    private final Object allocationLock = new Object();
+
+    private volatile Root root;
+    private volatile long numPages;
+    private long freePageID;
+    private final AtomicLong numEntries = new AtomicLong(0);
+    // incremented at every modification, to let the cursors detect the changes of the leaves
+    private final AtomicLong modificationCount = new AtomicLong(0);
+    private volatile PagePrefetcher prefetcher = null;
+
+    /**
+     * The root page and the height of the tree, which are replaced together
+     */
+    private static class Root
+    {
+        final long pageID;
+        final int height;
+
+        Root(long pageID, int height)
+        {
+            this.pageID = pageID;
+            this.height = height;
+        }
+    }
+
+    /**
+     * A split of a node, which will be inserted to the parent
+     */
+    private static class Split
+    {
+        final byte[] separator;
+        final long rightPageID;
+
+        Split(byte[] separator, long rightPageID)
+        {
+            this.separator = separator;
+            this.rightPageID = rightPageID;
+        }
+    }
+
+    private BTree(PageCacheHolder pageCache)
+    {
+        this.pageCache = pageCache;
+        this.pageSize = pageCache.getPageSize();
+        this.pageCapacity = pageSize - BTreePageHeader.HEADER_SIZE;
+        this.underflowThreshold = pageCapacity / 4;
+        // the high key and the prefix take at most two keys, and still four entries fit in a page, 
+        // so that a split leaves entries on both sides  
+        this.maxKeyLength = pageCapacity / 6 - BTreePage.getEntrySize(0) - 4;
+    }
+
+    /**
+     * Creates an empty tree in the file of the page cache
+     * 
+     * @param pageCache
+     * @return the tree
+     * @throws DBException
+     */
+    public static BTree create(PageCacheHolder pageCache) throws DBException
+    {
+        BTree tree = new BTree(pageCache);
+        tree.formatMetaPage();
+
+        tree.numPages = 1;
+        tree.freePageID = NO_PAGE;
+        PageFrame root = tree.allocatePage(PageType.BTreeLeaf);
+        tree.root = new Root(root.getPageID(), 1);
+        tree.releaseExclusive(root);
+        tree.saveMeta();
+        return tree;
+    }
+
+    /**
+     * Builds a tree from the tuples sorted in the key order, with the default fill factor
+     * 
+     * @param pageCache
+     *            the page cache of an empty file
+     * @param sortedInput
+     * @param extractor
+     * @return the tree
+     * @throws DBException
+     * @see #bulkLoad(PageCacheHolder, TupleIterator, BTreeEntryExtractor, double)
+     */
+    public static BTree bulkLoad(PageCacheHolder pageCache, TupleIterator sortedInput, BTreeEntryExtractor extractor)
+            throws DBException
+    {
+        return bulkLoad(pageCache, sortedInput, extractor, DEFAULT_FILL_FACTOR);
+    }
+
+    /**
+     * Builds a tree from the tuples sorted in the key order, such as the output of the 
+     * external merge sort. The leaves are filled up to the fill factor, and written 
+     * sequentially, then the internal nodes are built bottom-up from the first keys of the 
+     * leaves. 
+     * 
+     * The pages are written directly to the file, bypassing the page cache, so that the file 
+     * must not have any page in the cache.
+     * 
+     * @param pageCache
+     *            the page cache of an empty file
+     * @param sortedInput
+     *            the tuples in the ascending order of the keys
+     * @param extractor
+     *            extracts the key and value from each tuple
+     * @param fillFactor
+     *            the fraction of the page space filled with the entries (0 &lt; fillFactor &lt;= 1)
+     * @return the tree
+     * @throws DBException
+     *             when the keys are not unique and sorted, or too long
+     */
+    public static BTree bulkLoad(PageCacheHolder pageCache, TupleIterator sortedInput, BTreeEntryExtractor extractor,
+            double fillFactor) throws DBException
+    {
+        if (!(fillFactor > 0 && fillFactor <= 1))
+            throw new IllegalArgumentException("fill factor must be in (0, 1]: " + fillFactor);
+
+        BTree tree = new BTree(pageCache);
+        tree.formatMetaPage();
+
+        BTreeBulkLoader loader = new BTreeBulkLoader(pageCache.getFile(), tree.pageSize, META_PAGE_ID + 1, fillFactor,
+                tree.maxKeyLength);
+        while (sortedInput.hasNext())
+        {
+            Tuple tuple = sortedInput.next();
+            byte[] key = extractor.getKey(tuple);
+            tree.checkKey(key);
+            loader.add(key, extractor.getValue(tuple));
+        }
+        loader.finish();
+
+        tree.root = new Root(loader.getRootPageID(), loader.getHeight());
+        tree.numPages = loader.getNumPages();
+        tree.numEntries.set(loader.getNumEntries());
+        tree.freePageID = NO_PAGE;
+        tree.saveMeta();
+        return tree;
+    }
+
+    private void formatMetaPage() throws DBException
+    {
+        if (maxKeyLength <= 0)
+            throw new DBException(DBErrorCode.InvalidInput, "too small page size: " + pageSize);
+
+        PageFrame frame = pageCache.pinNew(META_PAGE_ID);
+        try
+        {
+            CommonPageHeader header = new CommonPageHeader();
+            header.setPageID(META_PAGE_ID);
+            header.setPageType(PageType.BTreeRoot);
+            header.save(new BufferWriter(frame.getBuffer()));
+            frame.getBuffer().writeInt(PAGE_SIZE_POS, pageSize);
+        }
+        finally
+        {
+            pageCache.unpin(frame, true);
+        }
+    }
+
+    /**
+     * Opens the tree in the file of the page cache
+     * 
+     * @param pageCache
+     * @return the tree
+     * @throws DBException
+     *             when the file is not a B-tree file, or has another page size
+     */
+    public static BTree open(PageCacheHolder pageCache) throws DBException
+    {
+        BTree tree = new BTree(pageCache);
+        PageFrame frame = pageCache.pin(META_PAGE_ID);
+        try
+        {
+            Buffer page = frame.getBuffer();
+            CommonPageHeader header = new CommonPageHeader();
+            try
+            {
+                header.load(new BufferReader(page));
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new DBException(DBErrorCode.InvalidPageHeader, e.getMessage());
+            }
+            if (header.getPageType() != PageType.BTreeRoot)
+                throw new DBException(DBErrorCode.InvalidPageHeader, "not a B-tree file: " + header.getPageType());
+            if (page.readInt(PAGE_SIZE_POS) != tree.pageSize)
+                throw new DBException(DBErrorCode.InvalidDataFormat, "page size mismatch: "
+                        + page.readInt(PAGE_SIZE_POS));
+
+            tree.root = new Root(page.readLong(ROOT_PAGE_POS), page.readInt(HEIGHT_POS));
+            tree.numPages = page.readLong(NUM_PAGES_POS);
+            tree.freePageID = page.readLong(FREE_PAGE_POS);
+            tree.numEntries.set(page.readLong(NUM_ENTRIES_POS));
+        }
+        finally
+        {
+            pageCache.unpin(frame, false);
+        }
+        return tree;
+    }
+
+    private void saveMeta() throws DBException
+    {
+        PageFrame frame = pinExclusive(META_PAGE_ID);
+        try
+        {
+            Buffer page = frame.getBuffer();
+            synchronized (allocationLock)
+            {
+                page.writeLong(ROOT_PAGE_POS, root.pageID);
+                page.writeInt(HEIGHT_POS, root.height);
+                page.writeLong(NUM_PAGES_POS, numPages);
+                page.writeLong(FREE_PAGE_POS, freePageID);
+            }
+            page.writeLong(NUM_ENTRIES_POS, numEntries.get());
+        }
+        finally
+        {
+            releaseExclusive(frame);
+        }
+    }
+
+    private PageFrame pinExclusive(long pageID) throws DBException
+    {
+        PageFrame frame = pageCache.pin(pageID);
+        frame.latchExclusive();
+        return frame;
+    }
+
+    private void releaseExclusive(PageFrame frame)
+    {
+        release(frame, true);
+    }
+
+    private void release(PageFrame frame, boolean isDirty)
+    {
+        frame.unlatchExclusive();
+        pageCache.unpin(frame, isDirty);
+    }
+
+    /**
+     * Allocates a page from the free page list, or from the end of the file
+     * 
+     * @param pageType
+     * @return the frame of the formatted page, which is exclusively latched
+     * @throws DBException
+     */
+    private PageFrame allocatePage(int pageType) throws DBException
+    {
+        PageFrame frame;
+        synchronized (allocationLock)
+        {
+            if (freePageID != NO_PAGE)
+            {
+                frame = pinExclusive(freePageID);
+                freePageID = new BTreePage(frame.getBuffer()).getNextFreePageID();
+            }
+            else
+            {
+                frame = pageCache.pinNew(numPages);
+                frame.latchExclusive();
+                numPages++;
+            }
+        }
+        BTreePage.format(frame.getBuffer(), frame.getPageID(), pageType);
+        return frame;
+    }
+
+    /**
+     * Frees the page, which must be exclusively latched under the structure lock
+     */
+    private void freePage(PageFrame frame)
+    {
+        synchronized (allocationLock)
+        {
+            new BTreePage(frame.getBuffer()).free(freePageID);
+            freePageID = frame.getPageID();
+        }
+    }
+
+    private void checkKey(byte[] key) throws DBException
+    {
+        if (key == null)
+            throw new NullPointerException("key");
+        if (key.length > maxKeyLength)
+            throw new DBException(DBErrorCode.ExceedsTheCapacity, "key length " + key.length
+                    + " exceeds the limit " + maxKeyLength);
+    }
+
+    /**
+     * @return the maximum byte length of the keys
+     */
+    public int getMaxKeyLength()
+    {
+        return maxKeyLength;
+    }
+
+    public int getPageSize()
+    {
+        return pageSize;
+    }
+
+    /**
+     * Sets the read-ahead of the leaves scanned by the cursors. The read-ahead
+     * is effective for the leaves stored in adjacent pages, e.g., the leaves
+     * of a bulk loaded tree.
+     * 
+     * @param prefetcher
+     *            the prefetcher of the page cache of this tree, or null to
+     *            disable the read-ahead
+     */
+    public void setPagePrefetcher(PagePrefetcher prefetcher)
+    {
+        if (prefetcher != null && prefetcher.getPageCache() != pageCache)
+            throw new IllegalArgumentException("the prefetcher is for another page cache");
+        this.prefetcher = prefetcher;
+    }
+
+    public PagePrefetcher getPagePrefetcher()
+    {
+        return prefetcher;
+    }
+
+    /**
+     * Starts the read-ahead of a leaf scan, which reads the leaves through its
+     * own ring
+     * 
+     * @param ringSize
+     *            the ring size without the read-ahead
+     * @return the read-ahead, or null if no prefetcher is set
+     */
+    PrefetchScan openLeafScan(int ringSize)
+    {
+        PagePrefetcher p = prefetcher;
+        if (p == null)
+            return null;
+        return p.openScan(numPages, pageCache.createBulkReadRing(p.getRingSize(ringSize)));
+    }
+
+    public long getNumEntries()
+    {
+        return numEntries.get();
+    }
+
+    /**
+     * @return the number of levels of the tree, which is 1 when the root is a leaf
+     */
+    public int getHeight()
+    {
+        return root.height;
+    }
+
+    /**
+     * @return the number of pages in the file including the meta page and the free pages
+     */
+    public long getNumPages()
+    {
+        return numPages;
+    }
+
+    /**
+     * @return the number of the modifications made to the tree
+     */
+    long getModificationCount()
+    {
+        return modificationCount.get();
+    }
+
+    // the results of the NodeReader
+    private static final int MOVE_RIGHT = 0;
+    private static final int DESCEND = 1;
+    private static final int FOUND = 2;
+    private static final int NOT_FOUND_IN_LEAF = 3;
+    private static final int NOT_A_NODE = 4;
+
+    /**
+     * Reads a node in the search for a key. Since the reader may run on a page being modified, the 
+     * results are held in this object, and used only after the read is validated.  
+     */
+    private static class NodeReader implements PageReader<Integer>
+    {
+        private final byte[] key;
+        private final Buffer copy;
+        long nextPageID;
+        long value;
+
+        /**
+         * @param key
+         *            the key to search, or null for the leftmost leaf
+         * @param copy
+         *            the buffer to which the leaf image is copied, or null
+         */
+        NodeReader(byte[] key, Buffer copy)
+        {
+            this.key = key;
+            this.copy = copy;
+        }
+
+        public Integer read(Buffer buffer)
+        {
+            BTreePage node = new BTreePage(buffer);
+            int pageType = node.getPageType();
+            if (pageType != PageType.BTreeLeaf && pageType != PageType.BTreeInternalNode)
+                return NOT_A_NODE;
+            if (key != null && node.isBeyondHighKey(key))
+            {
+                nextPageID = node.getRightSiblingPageID();
+                return nextPageID == NO_PAGE ? NOT_A_NODE : MOVE_RIGHT;
+            }
+            if (!node.isLeaf())
+            {
+                nextPageID = node.getChild(key == null ? -1 : node.findChildIndex(key));
+                return DESCEND;
+            }
+
+            if (copy != null)
+                buffer.copyTo(0, copy, 0, buffer.size());
+            if (key == null)
+                return NOT_FOUND_IN_LEAF;
+            int index = node.search(key);
+            if (index < 0)
+                return NOT_FOUND_IN_LEAF;
+            value = node.getValue(index);
+            return FOUND;
+        }
+    }
+
+    /**
+     * Waits until no merge is running, and gets the structure version 
+     */
+    private long getStableStructureVersion()
+    {
+        while (true)
+        {
+            long version = structureVersion.get();
+            if ((version & 1L) == 0)
+                return version;
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Searches the leaf for the key, without any lock. 
+     * 
+     * @param reader
+     * @param path
+     *            receives the node visited at each level, or null
+     * @param version
+     *            the structure version at the beginning of the search
+     * @return the result of the reader at the leaf, or {@link #NOT_A_NODE} if the search must be
+     *         retried because of a merge
+     */
+    private int search(NodeReader reader, long[] path, long version) throws DBException
+    {
+        Root root = this.root;
+        long pageID = root.pageID;
+        int level = root.height - 1;
+        while (true)
+        {
+            int result = pageCache.read(pageID, reader);
+            if (result == NOT_A_NODE || structureVersion.get() != version)
+                return NOT_A_NODE;
+            if (result == MOVE_RIGHT)
+                pageID = reader.nextPageID;
+            else if (level == 0)
+                return result == DESCEND ? NOT_A_NODE : result;
+            else if (result == DESCEND)
+            {
+                if (path != null && level < path.length)
+                    path[level] = pageID;
+                pageID = reader.nextPageID;
+                level--;
+            }
+            else
+                return NOT_A_NODE;
+        }
+    }
+
+    /**
+     * Finds the leaf where the key should be, without any lock 
+     * 
+     * @param key
+     * @param path
+     *            receives the node visited at each level, or null
+     * @return the leaf page ID
+     */
+    private long findLeaf(byte[] key, long[] path) throws DBException
+    {
+        NodeReader reader = new NodeReader(key, null);
+        while (true)
+        {
+            long version = getStableStructureVersion();
+            Root root = this.root;
+            long pageID = root.pageID;
+            int level = root.height - 1;
+            while (level > 0)
+            {
+                int result = pageCache.read(pageID, reader);
+                if (result == NOT_A_NODE || structureVersion.get() != version)
+                    break;
+                if (result == MOVE_RIGHT)
+                    pageID = reader.nextPageID;
+                else if (result == DESCEND)
+                {
+                    if (path != null && level < path.length)
+                        path[level] = pageID;
+                    pageID = reader.nextPageID;
+                    level--;
+                }
+                else
+                    break;
+            }
+            if (level == 0)
+                return pageID;
+        }
+    }
+
+    /**
+     * Looks up the value of the key
+     * 
+     * @param key
+     * @return the value, or {@link #NOT_FOUND} if the key is not in the tree
+     * @throws DBException
+     */
+    public long lookup(byte[] key) throws DBException
+    {
+        checkKey(key);
+        NodeReader reader = new NodeReader(key, null);
+        while (true)
+        {
+            long version = getStableStructureVersion();
+            int result = search(reader, null, version);
+            if (result != NOT_A_NODE)
+                return result == FOUND ? reader.value : NOT_FOUND;
+        }
+    }
+
+    /**
+     * Copies the image of the leaf that may contain the key into the buffer
+     * 
+     * @param key
+     *            the key, or null for the leftmost leaf
+     * @param dest
+     * @return the modification count of the tree before the copy
+     * @throws DBException
+     */
+    long copyLeaf(byte[] key, Buffer dest) throws DBException
+    {
+        NodeReader reader = new NodeReader(key, dest);
+        while (true)
+        {
+            long version = getStableStructureVersion();
+            long count = modificationCount.get();
+            if (search(reader, null, version) != NOT_A_NODE)
+                return count;
+        }
+    }
+
+    /**
+     * Copies the image of the leaf into the buffer, if the tree has not been modified
+     * 
+     * @param pageID
+     * @param expectedModificationCount
+     *            the modification count when the link to the leaf is read
+     * @param dest
+     * @param ring
+     *            the ring of the scan, or null
+     * @return false if the tree has been modified, and the leaf is not copied
+     * @throws DBException
+     */
+    boolean copyLeaf(long pageID, long expectedModificationCount, Buffer dest, BulkReadRing ring) throws DBException
+    {
+        long version = structureVersion.get();
+        if ((version & 1L) != 0 || modificationCount.get() != expectedModificationCount)
+            return false;
+        int result = pageCache.read(pageID, new NodeReader(null, dest), ring);
+        return result == NOT_FOUND_IN_LEAF && structureVersion.get() == version
+                && modificationCount.get() == expectedModificationCount;
+    }
 
-    public void addEntry()
+    /**
+     * Scans the entries in the key range
+     * 
+     * @param fromKey
+     *            the lower bound of the keys (inclusive), or null for no lower bound
+     * @param toKey
+     *            the upper bound of the keys (exclusive), or null for no upper bound
+     * @return the cursor placed before the first entry
+     * @throws DBException
+     */
+    public BTreeCursor scan(byte[] fromKey, byte[] toKey) throws DBException
     {
+        return new BTreeCursor(this, fromKey, toKey);
+    }
+
+    /**
+     * Latches the node covering the key at the level, moving right from the given node
+     * 
+     * @return the exclusively latched frame
+     */
+    private PageFrame latchNode(long pageID, byte[] key) throws DBException
+    {
+        PageFrame frame = pinExclusive(pageID);
+        while (true)
+        {
+            BTreePage node = new BTreePage(frame.getBuffer());
+            if (!node.isBeyondHighKey(key))
+                return frame;
+            // the node has been split after the search
+            PageFrame right = pinExclusive(node.getRightSiblingPageID());
+            release(frame, false);
+            frame = right;
+        }
+    }
+
+    /**
+     * Finds the node at the level covering the key, by searching from the root
+     */
+    private long findNode(int level, byte[] key) throws DBException
+    {
+        long[] path = new long[level + 1];
+        findLeaf(key, path);
+        return path[level];
+    }
+
+    /**
+     * Inserts the entry
+     * 
+     * @param key
+     * @param value
+     * @return false if the key already exists, in which case the tree is not modified
+     * @throws DBException
+     *             when the key is too long
+     */
+    public boolean insert(byte[] key, long value) throws DBException
+    {
+        checkKey(key);
+        structureLock.readLock().lock();
+        try
+        {
+            // the nodes visited at each level, from the leaf
+            long[] path = new long[root.height];
+            long leafPageID = findLeaf(key, path);
+
+            Split split;
+            boolean isModified = false;
+            PageFrame frame = latchNode(leafPageID, key);
+            try
+            {
+                BTreePage leaf = new BTreePage(frame.getBuffer());
+                int index = leaf.search(key);
+                if (index >= 0)
+                    return false;
+                isModified = true;
+                split = insertEntry(leaf, -(index + 1), key, value);
+                numEntries.incrementAndGet();
+                modificationCount.incrementAndGet();
+            }
+            finally
+            {
+                release(frame, isModified);
+            }
+
+            for (int level = 1; split != null; level++)
+                split = insertSeparator(level, path, split);
+            return true;
+        }
+        finally
+        {
+            structureLock.readLock().unlock();
+        }
+    }
 
+    /**
+     * Inserts the separator of a split node into its parent
+     * 
+     * @param level
+     *            the level of the parent
+     * @param path
+     * @param split
+     * @return the split of the parent, or null if not split
+     */
+    private Split insertSeparator(int level, long[] path, Split split) throws DBException
+    {
+        if (level >= root.height && growRoot(level, split))
+            return null;
+
+        long parentPageID = level < path.length ? path[level] : findNode(level, split.separator);
+        PageFrame frame = latchNode(parentPageID, split.separator);
+        try
+        {
+            BTreePage parent = new BTreePage(frame.getBuffer());
+            int index = parent.findChildIndex(split.separator) + 1;
+            return insertEntry(parent, index, split.separator, split.rightPageID);
+        }
+        finally
+        {
+            releaseExclusive(frame);
+        }
+    }
+
+    /**
+     * Adds a new root above the split root
+     * 
+     * @param level
+     *            the level of the new root
+     * @return false if another thread has already added the root
+     */
+    private boolean growRoot(int level, Split split) throws DBException
+    {
+        synchronized (allocationLock)
+        {
+            Root current = root;
+            if (current.height != level)
+                return false;
+
+            PageFrame frame = allocatePage(PageType.BTreeInternalNode);
+            try
+            {
+                BTreePage newRoot = new BTreePage(frame.getBuffer());
+                newRoot.setLowerPageID(current.pageID);
+                newRoot.insert(0, split.separator, split.rightPageID);
+                root = new Root(frame.getPageID(), level + 1);
+            }
+            finally
+            {
+                releaseExclusive(frame);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Inserts the entry to the page, and splits the page if it is full
+     * 
+     * @return the split to be inserted to the parent, or null if not split
+     */
+    private Split insertEntry(BTreePage page, int index, byte[] key, long value) throws DBException
+    {
+        if (page.hasSpaceFor(key))
+        {
+            page.insert(index, key, value);
+            return null;
+        }
+
+        EntryList entries = new EntryList(page);
+        entries.insert(index, key, value);
+        return page.isLeaf() ? splitLeaf(page, entries) : splitInternalNode(page, entries);
+    }
+
+    /**
+     * The entries of the nodes collected in the key order, which are distributed to the nodes
+     * in a split or a rebalance
+     */
+    private class EntryList
+    {
+        final ArrayList<byte[]> keys = new ArrayList<byte[]>();
+        final ArrayList<Long> values = new ArrayList<Long>();
+
+        EntryList(BTreePage page)
+        {
+            addAll(page);
+        }
+
+        void add(byte[] key, long value)
+        {
+            keys.add(key);
+            values.add(value);
+        }
+
+        void insert(int index, byte[] key, long value)
+        {
+            keys.add(index, key);
+            values.add(index, value);
+        }
+
+        void addAll(BTreePage page)
+        {
+            final int numEntries = page.getNumEntries();
+            for (int i = 0; i < numEntries; i++)
+                add(page.getKey(i), page.getValue(i));
+        }
+
+        int size()
+        {
+            return keys.size();
+        }
+
+        boolean fits(int from, int to, byte[] highKey)
+        {
+            int highKeyLength = highKey == null ? 0 : highKey.length;
+            return highKeyLength + BTreePage.getRequiredSpace(keys, from, to) <= pageCapacity;
+        }
+
+        void copyTo(BTreePage page, int from, int to, byte[] highKey)
+        {
+            page.setEntries(keys, values, from, to, highKey);
+        }
+
+        /**
+         * Gets the separator of the split
+         * 
+         * @param split
+         *            the number of entries in the left
+         * @param gap
+         *            0 for leaves, or 1 for internal nodes, whose middle entry moves up
+         */
+        byte[] getSeparator(int split, int gap)
+        {
+            if (gap == 0)
+                return BTreePage.getShortestSeparator(keys.get(split - 1), keys.get(split));
+            return keys.get(split);
+        }
+
+        /**
+         * Finds the split point of the entries, so that the both sides fit in the pages, and have
+         * about the same byte size
+         * 
+         * @param gap
+         *            the number of entries between the sides, which move up to the parent
+         * @param highKey
+         *            the high key of the right side
+         * @return the number of entries in the left
+         */
+        int findSplitPoint(int gap, byte[] highKey)
+        {
+            final int numEntries = size();
+            int total = 0;
+            for (byte[] key : keys)
+                total += BTreePage.getEntrySize(key.length);
+            int size = 0;
+            int middle = 0;
+            while (middle < numEntries && size < total / 2)
+                size += BTreePage.getEntrySize(keys.get(middle++).length);
+
+            // the balanced split may not fit when the shared prefix of a side becomes shorter, 
+            // so the split points nearby are also examined
+            for (int d = 0; d < numEntries; d++)
+            {
+                for (int sign = 1; sign >= -1; sign -= 2)
+                {
+                    int split = middle + sign * d;
+                    if (split >= 1 && split + gap <= numEntries - 1 && fits(0, split, getSeparator(split, gap))
+                            && fits(split + gap, numEntries, highKey))
+                        return split;
+                }
+            }
+            throw new IllegalStateException("no split point for " + numEntries + " entries");
+        }
+    }
+
+    /**
+     * Splits the leaf. The new right sibling is completed before the link to it is written to the 
+     * left, so that the searches never see an incomplete node. 
+     */
+    private Split splitLeaf(BTreePage left, EntryList entries) throws DBException
+    {
+        final byte[] highKey = left.getHighKey();
+        final int numLeft = entries.findSplitPoint(0, highKey);
+        final byte[] separator = entries.getSeparator(numLeft, 0);
+        PageFrame rightFrame = allocatePage(PageType.BTreeLeaf);
+        final long rightPageID = rightFrame.getPageID();
+        try
+        {
+            BTreePage right = new BTreePage(rightFrame.getBuffer());
+            entries.copyTo(right, numLeft, entries.size(), highKey);
+            right.setRightSiblingPageID(left.getRightSiblingPageID());
+        }
+        finally
+        {
+            releaseExclusive(rightFrame);
+        }
+        entries.copyTo(left, 0, numLeft, separator);
+        left.setRightSiblingPageID(rightPageID);
+        return new Split(separator, rightPageID);
+    }
+
+    private Split splitInternalNode(BTreePage left, EntryList entries) throws DBException
+    {
+        // the middle entry moves up to the parent
+        final byte[] highKey = left.getHighKey();
+        final int middle = entries.findSplitPoint(1, highKey);
+        final byte[] separator = entries.getSeparator(middle, 1);
+        PageFrame rightFrame = allocatePage(PageType.BTreeInternalNode);
+        final long rightPageID = rightFrame.getPageID();
+        try
+        {
+            BTreePage right = new BTreePage(rightFrame.getBuffer());
+            right.setLowerPageID(entries.values.get(middle));
+            entries.copyTo(right, middle + 1, entries.size(), highKey);
+            right.setRightSiblingPageID(left.getRightSiblingPageID());
+        }
+        finally
+        {
+            releaseExclusive(rightFrame);
+        }
+        entries.copyTo(left, 0, middle, separator);
+        left.setRightSiblingPageID(rightPageID);
+        return new Split(separator, rightPageID);
+    }
+
+    /**
+     * Deletes the entry of the key
+     * 
+     * @param key
+     * @return false if the key is not found
+     * @throws DBException
+     */
+    public boolean delete(byte[] key) throws DBException
+    {
+        checkKey(key);
+        boolean isUnderflow;
+        structureLock.readLock().lock();
+        try
+        {
+            PageFrame frame = latchNode(findLeaf(key, null), key);
+            boolean isModified = false;
+            try
+            {
+                BTreePage leaf = new BTreePage(frame.getBuffer());
+                int index = leaf.search(key);
+                if (index < 0)
+                    return false;
+                isModified = true;
+                leaf.remove(index);
+                numEntries.decrementAndGet();
+                modificationCount.incrementAndGet();
+                isUnderflow = leaf.getUsedSpace() < underflowThreshold;
+            }
+            finally
+            {
+                release(frame, isModified);
+            }
+        }
+        finally
+        {
+            structureLock.readLock().unlock();
+        }
+
+        if (isUnderflow && root.height > 1)
+            rebalance(key);
+        return true;
+    }
+
+    /**
+     * Merges or redistributes the underflowed nodes on the path to the key, while no other 
+     * modification is running
+     */
+    private void rebalance(byte[] key) throws DBException
+    {
+        structureLock.writeLock().lock();
+        structureVersion.incrementAndGet();
+        try
+        {
+            // the path from the root, and the child index chosen at each internal node
+            final int height = root.height;
+            long[] path = new long[height];
+            int[] childIndex = new int[height];
+            long pageID = root.pageID;
+            for (int level = 0; level < height - 1; level++)
+            {
+                path[level] = pageID;
+                PageFrame frame = pageCache.pin(pageID);
+                try
+                {
+                    BTreePage node = new BTreePage(frame.getBuffer());
+                    childIndex[level] = node.findChildIndex(key);
+                    pageID = node.getChild(childIndex[level]);
+                }
+                finally
+                {
+                    pageCache.unpin(frame, false);
+                }
+            }
+
+            // the leaf may have been rebalanced by another deletion
+            boolean isUnderflow;
+            PageFrame frame = pageCache.pin(pageID);
+            try
+            {
+                isUnderflow = new BTreePage(frame.getBuffer()).getUsedSpace() < underflowThreshold;
+            }
+            finally
+            {
+                pageCache.unpin(frame, false);
+            }
+            for (int level = height - 2; isUnderflow && level >= 0; level--)
+                isUnderflow = rebalance(path[level], childIndex[level]) && level > 0;
+
+            collapseRoot();
+        }
+        finally
+        {
+            structureVersion.incrementAndGet();
+            structureLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the root having no entry, and makes its only child the new root
+     */
+    private void collapseRoot() throws DBException
+    {
+        while (root.height > 1)
+        {
+            PageFrame frame = pinExclusive(root.pageID);
+            try
+            {
+                BTreePage node = new BTreePage(frame.getBuffer());
+                if (node.getNumEntries() > 0)
+                    return;
+                root = new Root(node.getLowerPageID(), root.height - 1);
+                modificationCount.incrementAndGet();
+                freePage(frame);
+            }
+            finally
+            {
+                releaseExclusive(frame);
+            }
+        }
+    }
+
+    /**
+     * Merges the underflowed child with its sibling, or redistributes the entries of the two nodes
+     * 
+     * @param parentPageID
+     * @param childIndex
+     *            the index of the underflowed child in the parent
+     * @return true if the parent underflows
+     */
+    private boolean rebalance(long parentPageID, int childIndex) throws DBException
+    {
+        PageFrame parentFrame = pinExclusive(parentPageID);
+        try
+        {
+            BTreePage parent = new BTreePage(parentFrame.getBuffer());
+            // the separator between the left and right nodes
+            int separatorIndex;
+            if (childIndex + 1 < parent.getNumEntries())
+                separatorIndex = childIndex + 1;
+            else if (childIndex >= 0)
+                separatorIndex = childIndex;
+            else
+                return false;
+
+            PageFrame leftFrame = pinExclusive(parent.getChild(separatorIndex - 1));
+            try
+            {
+                PageFrame rightFrame = pinExclusive(parent.getChild(separatorIndex));
+                try
+                {
+                    BTreePage left = new BTreePage(leftFrame.getBuffer());
+                    BTreePage right = new BTreePage(rightFrame.getBuffer());
+                    // the cursors holding the copies of the two nodes find the entries again
+                    modificationCount.incrementAndGet();
+                    if (rebalance(parent, separatorIndex, left, right))
+                    {
+                        left.setRightSiblingPageID(right.getRightSiblingPageID());
+                        parent.remove(separatorIndex);
+                        freePage(rightFrame);
+                    }
+                }
+                finally
+                {
+                    releaseExclusive(rightFrame);
+                }
+            }
+            finally
+            {
+                releaseExclusive(leftFrame);
+            }
+            return parent.getUsedSpace() < underflowThreshold;
+        }
+        finally
+        {
+            releaseExclusive(parentFrame);
+        }
+    }
+
+    /**
+     * @return true if the right node is merged into the left, and should be removed
+     */
+    private boolean rebalance(BTreePage parent, int separatorIndex, BTreePage left, BTreePage right)
+    {
+        EntryList entries = new EntryList(left);
+        if (!left.isLeaf())
+        {
+            // pull down the separator
+            entries.add(parent.getKey(separatorIndex), right.getLowerPageID());
+        }
+        entries.addAll(right);
+
+        final byte[] highKey = right.getHighKey();
+        if (entries.fits(0, entries.size(), highKey))
+        {
+            entries.copyTo(left, 0, entries.size(), highKey);
+            return true;
+        }
+
+        int gap = left.isLeaf() ? 0 : 1;
+        int split = entries.findSplitPoint(gap, highKey);
+        byte[] separator = entries.getSeparator(split, gap);
+        if (replaceSeparator(parent, separatorIndex, separator))
+        {
+            entries.copyTo(left, 0, split, separator);
+            if (gap == 1)
+                right.setLowerPageID(entries.values.get(split));
+            entries.copyTo(right, split + gap, entries.size(), highKey);
+        }
+        return false;
+    }
+
+    /**
+     * Replaces the separator key in the parent, if the new key fits in the parent
+     * 
+     * @return false if the parent has no space for the new separator
+     */
+    private static boolean replaceSeparator(BTreePage parent, int separatorIndex, byte[] separator)
+    {
+        byte[] oldSeparator = parent.getKey(separatorIndex);
+        long child = parent.getValue(separatorIndex);
+        parent.remove(separatorIndex);
+        boolean hasSpace = parent.hasSpaceFor(separator);
+        parent.insert(separatorIndex, hasSpace ? separator : oldSeparator, child);
+        return hasSpace;
+    }
+
+    /**
+     * Writes the meta data and the modified pages back to the file. The modifications running 
+     * concurrently wait for the completion. 
+     * 
+     * @throws DBException
+     */
+    public void flush() throws DBException
+    {
+        structureLock.writeLock().lock();
+        try
+        {
+            saveMeta();
+            pageCache.flushAll();
+        }
+        finally
+        {
+            structureLock.writeLock().unlock();
+        }
     }
 
 }
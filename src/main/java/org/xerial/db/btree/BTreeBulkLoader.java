@@ -0,0 +1,216 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// BTreeBulkLoader.java
+// Since: Oct 18, 2026 6:22:10 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.btree;
+
+import java.util.ArrayList;
+
+import org.xerial.db.DBErrorCode;
+import org.xerial.db.DBException;
+import org.xerial.db.PageType;
+import org.xerial.db.cache.Buffer;
+import org.xerial.db.storage.DBFile;
+
+/**
+ * Builds the pages of a {@link BTree} from the entries given in the key order. 
+ * 
+ * The tree is built bottom-up, holding only the rightmost page of each level in memory. 
+ * An entry is appended to the current leaf until the leaf is filled up to the fill factor; 
+ * then the leaf is written to the file, and the shortest key separating it from the next leaf 
+ * is added to the parent level. The internal levels are filled in the same manner.  
+ * 
+ * Each page but the rightmost one of its level gets the separator to its right sibling as the high 
+ * key, so that the room for the longest key is kept in every page until it is written. 
+ * 
+ * The page IDs are assigned in the order of the page creation, and each page is written once, 
+ * directly to the file without going through the page cache, so that the file is written almost 
+ * sequentially. 
+ * 
+ * @author leo
+ *
+ */
+class BTreeBulkLoader
+{
+    private final DBFile file;
+    private final int pageSize;
+    private final int fillLimit;
+    private final int maxKeyLength;
+    // the rightmost page of each level, from the leaves to the root
+    private final ArrayList<BTreePage> levels = new ArrayList<BTreePage>();
+    private long numPages;
+    private long numEntries = 0;
+    private byte[] lastKey = null;
+
+    /**
+     * @param file
+     * @param pageSize
+     * @param firstPageID
+     *            the first page ID to use
+     * @param fillFactor
+     *            the fraction of the page space to fill
+     * @param maxKeyLength
+     *            the maximum byte length of the keys
+     */
+    BTreeBulkLoader(DBFile file, int pageSize, long firstPageID, double fillFactor, int maxKeyLength)
+    {
+        this.maxKeyLength = maxKeyLength;
+        this.file = file;
+        this.pageSize = pageSize;
+        this.numPages = firstPageID;
+        this.fillLimit = (int) ((pageSize - BTreePageHeader.HEADER_SIZE) * fillFactor);
+    }
+
+    /**
+     * Appends the entry
+     * 
+     * @param key
+     *            the key, which must be greater than that of the previous entry
+     * @param value
+     * @throws DBException
+     *             when the keys are not in the ascending order
+     */
+    void add(byte[] key, long value) throws DBException
+    {
+        if (lastKey != null && BTreePage.compareKeys(lastKey, key) >= 0)
+            throw new DBException(DBErrorCode.InvalidInput, "the keys are not sorted in the ascending order at entry "
+                    + numEntries);
+
+        BTreePage leaf = levels.isEmpty() ? startPage(0, BTreePage.NO_PAGE, null) : levels.get(0);
+        if (!fits(leaf, key))
+        {
+            long leftPageID = leaf.getPageID();
+            byte[] separator = BTreePage.getShortestSeparator(lastKey, key);
+            leaf = startPage(0, BTreePage.NO_PAGE, separator);
+            addSeparator(1, separator, leaf.getPageID(), leftPageID);
+        }
+        leaf.insert(leaf.getNumEntries(), key, value);
+        lastKey = key;
+        numEntries++;
+    }
+
+    private boolean fits(BTreePage page, byte[] key)
+    {
+        int usedSpace = page.getUsedSpaceWith(key);
+        // leaves the room for the high key
+        return usedSpace + maxKeyLength <= page.getCapacity() && (page.getNumEntries() == 0 || usedSpace <= fillLimit);
+    }
+
+    /**
+     * Adds the separator of the child page to the level
+     * 
+     * @param level
+     * @param separator
+     * @param childPageID
+     * @param leftChildPageID
+     *            the child page preceding the separator, which becomes the lower page if the level
+     *            is new
+     */
+    private void addSeparator(int level, byte[] separator, long childPageID, long leftChildPageID) throws DBException
+    {
+        if (level == levels.size())
+            startPage(level, leftChildPageID, null);
+
+        BTreePage node = levels.get(level);
+        if (fits(node, separator))
+            node.insert(node.getNumEntries(), separator, childPageID);
+        else
+        {
+            // the separator moves up to the parent, and the child becomes the lower page of the new node 
+            long leftPageID = node.getPageID();
+            node = startPage(level, childPageID, separator);
+            addSeparator(level + 1, separator, node.getPageID(), leftPageID);
+        }
+    }
+
+    /**
+     * Starts a new page at the level, after writing the current page of the level
+     * 
+     * @param level
+     * @param lowerPageID
+     * @param highKey
+     *            the high key of the current page, that is, the separator to the new page
+     */
+    private BTreePage startPage(int level, long lowerPageID, byte[] highKey) throws DBException
+    {
+        final long pageID = numPages++;
+        Buffer buffer;
+        if (level < levels.size())
+        {
+            BTreePage previous = levels.get(level);
+            previous.setRightSiblingPageID(pageID);
+            previous.setHighKey(highKey);
+            write(previous);
+            buffer = previous.getBuffer();
+        }
+        else
+        {
+            buffer = new Buffer(pageSize);
+            levels.add(null);
+        }
+
+        BTreePage page = BTreePage.format(buffer, pageID, level == 0 ? PageType.BTreeLeaf
+                : PageType.BTreeInternalNode);
+        page.setLowerPageID(lowerPageID);
+        levels.set(level, page);
+        return page;
+    }
+
+    private void write(BTreePage page) throws DBException
+    {
+        page.getBuffer().save(file, page.getPageID() * pageSize);
+    }
+
+    /**
+     * Writes the rightmost pages of the levels
+     * 
+     * @throws DBException
+     */
+    void finish() throws DBException
+    {
+        if (levels.isEmpty())
+            startPage(0, BTreePage.NO_PAGE, null);
+        for (BTreePage page : levels)
+            write(page);
+    }
+
+    long getRootPageID()
+    {
+        return levels.get(levels.size() - 1).getPageID();
+    }
+
+    int getHeight()
+    {
+        return levels.size();
+    }
+
+    long getNumPages()
+    {
+        return numPages;
+    }
+
+    long getNumEntries()
+    {
+        return numEntries;
+    }
+}
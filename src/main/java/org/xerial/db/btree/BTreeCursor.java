@@ -0,0 +1,164 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// BTreeCursor.java
+// Since: Oct 18, 2026 5:12:40 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.btree;
+
+import org.xerial.db.DBException;
+import org.xerial.db.cache.Buffer;
+import org.xerial.db.cache.BulkReadRing;
+import org.xerial.db.cache.PrefetchScan;
+
+/**
+ * A cursor over the entries of a {@link BTree} in the key order. 
+ * 
+ * The cursor holds a copy of the current leaf, so that no page of the cache is pinned between 
+ * the calls of {@link #next()}. The modifications of the tree made during the scan are 
+ * tolerated: when the tree has been modified, the leaf is searched again from the root by the 
+ * last key returned, so that {@link #next()} sees the entries inserted after the last key.
+ * The leaves are copied without any latch, and the scan never blocks the modifications running in 
+ * the other threads. When the tree has a {@link org.xerial.db.cache.PagePrefetcher}, the 
+ * leaves following the right links are read ahead through a ring of the cursor.
+ * 
+ * <pre>
+ * BTreeCursor cursor = tree.scan(fromKey, toKey);
+ * while (cursor.next())
+ * {
+ *     byte[] key = cursor.getKey();
+ *     long value = cursor.getValue();
+ * }
+ * </pre>
+ * 
+ * @author leo
+ *
+ */
+public class BTreeCursor
+{
+    private static final int BULK_READ_RING_SIZE = 16;
+
+    private final BTree tree;
+    private final byte[] fromKey;
+    private final byte[] toKey;
+    private final Buffer leafImage;
+    private final BTreePage leaf;
+    private final PrefetchScan readAhead;
+    private final BulkReadRing ring;
+    private long modificationCount;
+    private int index;
+    private byte[] key = null;
+    private long value;
+    private boolean isFinished = false;
+
+    BTreeCursor(BTree tree, byte[] fromKey, byte[] toKey) throws DBException
+    {
+        this.tree = tree;
+        this.fromKey = fromKey;
+        this.toKey = toKey;
+        this.leafImage = new Buffer(tree.getPageSize());
+        this.leaf = new BTreePage(leafImage);
+        this.readAhead = tree.openLeafScan(BULK_READ_RING_SIZE);
+        this.ring = readAhead == null ? null : readAhead.getRing();
+        modificationCount = tree.copyLeaf(fromKey, leafImage);
+        index = fromKey == null ? 0 : insertionPoint(fromKey);
+    }
+
+    private int insertionPoint(byte[] key)
+    {
+        int pos = leaf.search(key);
+        return pos >= 0 ? pos : -(pos + 1);
+    }
+
+    /**
+     * Moves to the next entry 
+     * @return false if no more entry is in the range
+     * @throws DBException
+     */
+    public boolean next() throws DBException
+    {
+        if (isFinished)
+            return false;
+
+        if (tree.getModificationCount() != modificationCount)
+            reload();
+        while (index >= leaf.getNumEntries())
+        {
+            long rightPageID = leaf.getRightSiblingPageID();
+            if (rightPageID == BTreePage.NO_PAGE)
+                return finish();
+            if (readAhead != null)
+                readAhead.notifyAccess(rightPageID);
+            if (tree.copyLeaf(rightPageID, modificationCount, leafImage, ring))
+                index = 0;
+            else
+                reload();
+        }
+
+        if (toKey != null && leaf.compareKey(index, toKey) >= 0)
+            return finish();
+
+        key = leaf.getKey(index);
+        value = leaf.getValue(index);
+        index++;
+        return true;
+    }
+
+    /**
+     * Finds the leaf again from the root, and places the cursor after the last key, since the 
+     * tree has been modified
+     */
+    private void reload() throws DBException
+    {
+        byte[] lastKey = key != null ? key : fromKey;
+        modificationCount = tree.copyLeaf(lastKey, leafImage);
+        index = lastKey == null ? 0 : insertionPoint(lastKey);
+        if (key != null && index < leaf.getNumEntries() && leaf.compareKey(index, key) == 0)
+            index++;
+    }
+
+    private boolean finish()
+    {
+        isFinished = true;
+        return false;
+    }
+
+    /**
+     * @return the key of the current entry
+     */
+    public byte[] getKey()
+    {
+        if (key == null)
+            throw new IllegalStateException("next() is not called");
+        return key;
+    }
+
+    /**
+     * @return the value of the current entry
+     */
+    public long getValue()
+    {
+        if (key == null)
+            throw new IllegalStateException("next() is not called");
+        return value;
+    }
+
+}
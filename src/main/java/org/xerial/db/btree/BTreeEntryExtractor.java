@@ -0,0 +1,50 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// BTreeEntryExtractor.java
+// Since: Oct 18, 2026 6:20:31 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.btree;
+
+import org.xerial.db.Tuple;
+
+/**
+ * Extracts the index entry of a {@link BTree} from a tuple
+ * 
+ * @author leo
+ *
+ */
+public interface BTreeEntryExtractor
+{
+    /**
+     * Gets the key of the tuple, whose unsigned byte order must agree with the order of the tuples
+     * @param tuple
+     * @return the key bytes
+     */
+    public byte[] getKey(Tuple tuple);
+
+    /**
+     * Gets the value associated with the key, such as the record ID of the tuple 
+     * @param tuple
+     * @return the value
+     */
+    public long getValue(Tuple tuple);
+}
@@ -24,25 +24,776 @@
 //--------------------------------------
 package org.xerial.db.btree;
 
+import java.util.List;
+
+import org.xerial.db.CommonPageHeader;
+import org.xerial.db.DBErrorCode;
+import org.xerial.db.DBException;
+import org.xerial.db.PageType;
+import org.xerial.db.VariableLengthInteger;
 import org.xerial.db.cache.Buffer;
 import org.xerial.db.cache.BufferReader;
+import org.xerial.db.cache.BufferWriter;
+import org.xerial.db.datatype.TypeInformation;
 
+/**
+ * A node of the {@link BTree}, which works directly on the page buffer.
+ * 
+ * Page Layout:
+ * <pre>
+ * ----------------------
+ * |BTreePageHeader
+ * |high key (highKeyLength bytes)
+ * |key prefix (prefixLength bytes)
+ * |slots: (entry offset:int) ...   (in the key order)
+ * |  ....
+ * |
+ * | (entries: [key suffix length:VariableLengthInteger, key suffix, value:long] ...)
+ * ----------------------
+ * </pre>
+ * 
+ * The keys are byte arrays compared as unsigned bytes. The value of a leaf entry is the value 
+ * associated with the key, and the value of an internal entry is the child page holding the keys 
+ * greater than or equal to the key. The keys less than the first key are held in the lower page 
+ * ({@link #getLowerPageID()}).
+ * 
+ * The prefix shared by all of the keys in the page is stored only once, and each entry holds 
+ * the rest of its key. Since the keys are sorted, a key inserted between the first and the last 
+ * keys always has the prefix; the prefix is shortened only when a key is added to either end 
+ * of the page. {@link #setEntries(List, List, int, int, byte[])} stores the entries with their 
+ * longest common prefix. 
+ * 
+ * The high key of a page is the upper bound (exclusive) of the keys in the page, and equals to
+ * the separator of the right sibling in the parent. A search for a key not less than the high key 
+ * moves to the right sibling, which allows a page to be split while other threads are searching 
+ * the tree (B-link tree). The rightmost page of each level has no high key.
+ * 
+ * @author leo
+ *
+ */
 public class BTreePage
 {
+    public static final long NO_PAGE = -1;
+
+    private static final int SLOT_SIZE = TypeInformation.INT_SIZE;
+    private static final int PAGE_TYPE_POS = TypeInformation.LONG_SIZE;
+    private static final int HIGH_KEY_POS = BTreePageHeader.HEADER_SIZE;
+
     private final Buffer buffer; 
     private final BTreePageHeader header = new BTreePageHeader();
-    
+
+    /**
+     * Wraps the buffer holding a B-tree page
+     * @param buffer
+     */
     public BTreePage(Buffer buffer)
     {
         this.buffer = buffer;
-        header.load(new BufferReader(buffer));
     }
-    
+
+    /**
+     * Formats the buffer as an empty page
+     * @param buffer
+     * @param pageID
+     * @param pageType {@link PageType#BTreeLeaf} or {@link PageType#BTreeInternalNode}
+     * @return the page
+     */
+    public static BTreePage format(Buffer buffer, long pageID, int pageType)
+    {
+        if (pageType != PageType.BTreeLeaf && pageType != PageType.BTreeInternalNode)
+            throw new IllegalArgumentException("not a B-tree node type: " + pageType);
+
+        BTreePageHeader header = new BTreePageHeader();
+        header.setPageID(pageID);
+        header.setPageType(pageType);
+        header.setDataStart(buffer.size());
+        header.save(new BufferWriter(buffer));
+        return new BTreePage(buffer);
+    }
+
+    /**
+     * Wraps the buffer after validating the page type
+     * @param buffer
+     * @return the page
+     * @throws DBException when the page is not a B-tree node
+     */
+    public static BTreePage wrap(Buffer buffer) throws DBException
+    {
+        int pageType = buffer.readInt(PAGE_TYPE_POS);
+        if (pageType != PageType.BTreeLeaf && pageType != PageType.BTreeInternalNode)
+            throw new DBException(DBErrorCode.InvalidPageHeader, "not a B-tree node: " + pageType);
+        return new BTreePage(buffer);
+    }
+
+    /**
+     * Loads the header contents 
+     * @return the header
+     */
     public BTreePageHeader getHeader()
     {
+        header.load(new BufferReader(buffer));
         return header;
     }
-    
-    
-    
+
+    public Buffer getBuffer()
+    {
+        return buffer;
+    }
+
+    public long getPageID()
+    {
+        return buffer.readLong(0);
+    }
+
+    public int getPageType()
+    {
+        return buffer.readInt(PAGE_TYPE_POS);
+    }
+
+    public boolean isLeaf()
+    {
+        return getPageType() == PageType.BTreeLeaf;
+    }
+
+    public int getNumEntries()
+    {
+        return buffer.readInt(BTreePageHeader.NUM_ENTRIES_POS);
+    }
+
+    private void setNumEntries(int numEntries)
+    {
+        buffer.writeInt(BTreePageHeader.NUM_ENTRIES_POS, numEntries);
+    }
+
+    public long getRightSiblingPageID()
+    {
+        return buffer.readLong(BTreePageHeader.RIGHT_SIBLING_POS);
+    }
+
+    public void setRightSiblingPageID(long pageID)
+    {
+        buffer.writeLong(BTreePageHeader.RIGHT_SIBLING_POS, pageID);
+    }
+
+    public long getLowerPageID()
+    {
+        return buffer.readLong(BTreePageHeader.LOWER_PAGE_POS);
+    }
+
+    public void setLowerPageID(long pageID)
+    {
+        buffer.writeLong(BTreePageHeader.LOWER_PAGE_POS, pageID);
+    }
+
+    private int getDataStart()
+    {
+        return buffer.readInt(BTreePageHeader.DATA_START_POS);
+    }
+
+    private void setDataStart(int dataStart)
+    {
+        buffer.writeInt(BTreePageHeader.DATA_START_POS, dataStart);
+    }
+
+    private int getFragmentedBytes()
+    {
+        return buffer.readInt(BTreePageHeader.FRAGMENTED_BYTES_POS);
+    }
+
+    private void setFragmentedBytes(int fragmentedBytes)
+    {
+        buffer.writeInt(BTreePageHeader.FRAGMENTED_BYTES_POS, fragmentedBytes);
+    }
+
+    /**
+     * @return the length of the key prefix shared by all entries in this page
+     */
+    public int getPrefixLength()
+    {
+        return buffer.readInt(BTreePageHeader.PREFIX_LENGTH_POS);
+    }
+
+    private int getHighKeyLength()
+    {
+        return buffer.readInt(BTreePageHeader.HIGH_KEY_LENGTH_POS);
+    }
+
+    /**
+     * @return the upper bound (exclusive) of the keys in this page, or null if unbounded 
+     */
+    public byte[] getHighKey()
+    {
+        int highKeyLength = getHighKeyLength();
+        if (highKeyLength < 0)
+            return null;
+        byte[] highKey = new byte[highKeyLength];
+        buffer.get(HIGH_KEY_POS, highKey, 0, highKeyLength);
+        return highKey;
+    }
+
+    /**
+     * Sets the upper bound of the keys in this page
+     * @param highKey the high key, or null for no upper bound
+     * @throws IllegalStateException when no space is left for the high key
+     */
+    public void setHighKey(byte[] highKey)
+    {
+        final int numEntries = getNumEntries();
+        final int oldLength = Math.max(getHighKeyLength(), 0);
+        final int newLength = highKey == null ? 0 : highKey.length;
+        if (newLength - oldLength > getDataStart() - slotPos(numEntries))
+        {
+            if (newLength - oldLength > getFreeSpace())
+                throw new IllegalStateException("no space in page " + getPageID());
+            compact();
+        }
+
+        // move the prefix and the slots
+        byte[] prefixAndSlots = new byte[slotPos(numEntries) - prefixPos()];
+        buffer.get(prefixPos(), prefixAndSlots, 0, prefixAndSlots.length);
+        if (highKey != null)
+            buffer.put(HIGH_KEY_POS, highKey, 0, highKey.length);
+        buffer.writeInt(BTreePageHeader.HIGH_KEY_LENGTH_POS, highKey == null ? -1 : highKey.length);
+        buffer.put(prefixPos(), prefixAndSlots, 0, prefixAndSlots.length);
+    }
+
+    /**
+     * @param key
+     * @return true if the key is not less than the high key, that is, the key is in the right 
+     * sibling or further right   
+     */
+    public boolean isBeyondHighKey(byte[] key)
+    {
+        int highKeyLength = getHighKeyLength();
+        return highKeyLength >= 0 && compareBytes(HIGH_KEY_POS, highKeyLength, key, 0) <= 0;
+    }
+
+    private int prefixPos()
+    {
+        return HIGH_KEY_POS + Math.max(getHighKeyLength(), 0);
+    }
+
+    private int slotPos(int index)
+    {
+        return prefixPos() + getPrefixLength() + index * SLOT_SIZE;
+    }
+
+    private int entryPos(int index)
+    {
+        return buffer.readInt(slotPos(index));
+    }
+
+    private void checkIndex(int index)
+    {
+        if (index < 0 || index >= getNumEntries())
+            throw new IndexOutOfBoundsException("entry " + index);
+    }
+
+    private int getSuffixLength(int index)
+    {
+        checkIndex(index);
+        return buffer.readVarInt(entryPos(index));
+    }
+
+    /**
+     * @param index
+     * @return the length of the key including the prefix
+     */
+    public int getKeyLength(int index)
+    {
+        return getPrefixLength() + getSuffixLength(index);
+    }
+
+    private int suffixPos(int index, int suffixLength)
+    {
+        return entryPos(index) + VariableLengthInteger.encodedLength(suffixLength);
+    }
+
+    public byte[] getKey(int index)
+    {
+        int prefixLength = getPrefixLength();
+        int suffixLength = getSuffixLength(index);
+        byte[] key = new byte[prefixLength + suffixLength];
+        buffer.get(prefixPos(), key, 0, prefixLength);
+        buffer.get(suffixPos(index, suffixLength), key, prefixLength, suffixLength);
+        return key;
+    }
+
+    public long getValue(int index)
+    {
+        int suffixLength = getSuffixLength(index);
+        return buffer.readLong(suffixPos(index, suffixLength) + suffixLength);
+    }
+
+    public void setValue(int index, long value)
+    {
+        int suffixLength = getSuffixLength(index);
+        buffer.writeLong(suffixPos(index, suffixLength) + suffixLength, value);
+    }
+
+    /**
+     * Gets the child page of the internal page
+     * @param index the entry index, or -1 for the lower page
+     * @return the child page ID
+     */
+    public long getChild(int index)
+    {
+        return index < 0 ? getLowerPageID() : getValue(index);
+    }
+
+    /**
+     * Compares the bytes in the buffer with the key from the given offset 
+     */
+    private int compareBytes(int pos, int length, byte[] key, int keyOffset)
+    {
+        final int len = Math.min(length, key.length - keyOffset);
+        for (int i = 0; i < len; i++)
+        {
+            int b1 = buffer.readByte(pos + i) & 0xFF;
+            int b2 = key[keyOffset + i] & 0xFF;
+            if (b1 != b2)
+                return b1 - b2;
+        }
+        return length - (key.length - keyOffset);
+    }
+
+    /**
+     * Compares the key suffix of the entry with the key after the prefix
+     */
+    private int compareSuffix(int index, byte[] key, int prefixLength)
+    {
+        int suffixLength = getSuffixLength(index);
+        return compareBytes(suffixPos(index, suffixLength), suffixLength, key, prefixLength);
+    }
+
+    /**
+     * @return true if the key starts with the prefix of this page
+     */
+    private boolean hasPrefix(byte[] key)
+    {
+        return getCommonPrefixLength(key) == getPrefixLength();
+    }
+
+    /**
+     * @return the length of the common prefix of the key and the prefix of this page
+     */
+    private int getCommonPrefixLength(byte[] key)
+    {
+        final int len = Math.min(getPrefixLength(), key.length);
+        int i = 0;
+        while (i < len && buffer.readByte(prefixPos() + i) == key[i])
+            i++;
+        return i;
+    }
+
+    /**
+     * Compares the key of the entry with the given key 
+     * @param index
+     * @param key
+     * @return negative, zero or positive value if the key of the entry is less than, equal to, 
+     * or greater than the given key
+     */
+    public int compareKey(int index, byte[] key)
+    {
+        checkIndex(index);
+        int prefixLength = getPrefixLength();
+        int common = getCommonPrefixLength(key);
+        if (common < prefixLength)
+            return compareWithPrefix(key, common);
+        return compareSuffix(index, key, prefixLength);
+    }
+
+    /**
+     * Compares the keys in this page with the key not having the prefix 
+     * @param key
+     * @param common the length of the common prefix of the key and the prefix  
+     * @return positive value if the keys in this page are greater than the key, otherwise negative value
+     */
+    private int compareWithPrefix(byte[] key, int common)
+    {
+        if (common == key.length)
+            return 1;
+        return (buffer.readByte(prefixPos() + common) & 0xFF) - (key[common] & 0xFF);
+    }
+
+    /**
+     * Compares the keys as unsigned bytes
+     */
+    public static int compareKeys(byte[] key1, byte[] key2)
+    {
+        final int len = Math.min(key1.length, key2.length);
+        for (int i = 0; i < len; i++)
+        {
+            int b1 = key1[i] & 0xFF;
+            int b2 = key2[i] & 0xFF;
+            if (b1 != b2)
+                return b1 - b2;
+        }
+        return key1.length - key2.length;
+    }
+
+    /**
+     * @return the length of the common prefix of the keys
+     */
+    public static int getCommonPrefixLength(byte[] key1, byte[] key2)
+    {
+        final int len = Math.min(key1.length, key2.length);
+        int i = 0;
+        while (i < len && key1[i] == key2[i])
+            i++;
+        return i;
+    }
+
+    /**
+     * Gets the shortest key that separates the two keys, that is, lower &lt; separator &lt;= upper.
+     * Since the internal pages only need to direct the searches, the separators of the leaves 
+     * can be shorter than the keys.   
+     * @param lower
+     * @param upper must be greater than the lower key
+     * @return the separator, which is a prefix of the upper key
+     */
+    public static byte[] getShortestSeparator(byte[] lower, byte[] upper)
+    {
+        int length = getCommonPrefixLength(lower, upper) + 1;
+        if (length >= upper.length)
+            return upper;
+        byte[] separator = new byte[length];
+        System.arraycopy(upper, 0, separator, 0, length);
+        return separator;
+    }
+
+    /**
+     * Searches the key with binary search
+     * @param key
+     * @return the index of the key, or (-(insertion point) - 1) if the key is not found
+     */
+    public int search(byte[] key)
+    {
+        final int numEntries = getNumEntries();
+        final int prefixLength = getPrefixLength();
+        if (numEntries > 0)
+        {
+            int common = getCommonPrefixLength(key);
+            if (common < prefixLength)
+            {
+                // the key is less than or greater than all of the entries
+                return compareWithPrefix(key, common) > 0 ? -1 : -(numEntries + 1);
+            }
+        }
+
+        int low = 0;
+        int high = numEntries - 1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            int cmp = compareSuffix(mid, key, prefixLength);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Finds the entry of the internal page whose child covers the key
+     * @param key
+     * @return the entry index, or -1 for the lower page
+     */
+    public int findChildIndex(byte[] key)
+    {
+        int index = search(key);
+        return index >= 0 ? index : -(index + 1) - 1;
+    }
+
+    /**
+     * Gets the space used by an entry including its slot
+     * @param keyLength the length of the key stored in the entry, excluding the prefix 
+     * @return the byte size
+     */
+    public static int getEntrySize(int keyLength)
+    {
+        return VariableLengthInteger.encodedLength(keyLength) + keyLength + TypeInformation.LONG_SIZE + SLOT_SIZE;
+    }
+
+    private int getEntrySizeAt(int index)
+    {
+        return getEntrySize(getSuffixLength(index));
+    }
+
+    /**
+     * Gets the space required to store the sorted keys in a page, including the prefix 
+     * shared by the keys 
+     * @param keys the keys in the ascending order
+     * @param from the first index of the keys
+     * @param to the last index (exclusive)
+     * @return the byte size
+     */
+    public static int getRequiredSpace(List<byte[]> keys, int from, int to)
+    {
+        if (from >= to)
+            return 0;
+        int prefixLength = getCommonPrefixLength(keys.get(from), keys.get(to - 1));
+        int size = prefixLength;
+        for (int i = from; i < to; i++)
+            size += getEntrySize(keys.get(i).length - prefixLength);
+        return size;
+    }
+
+    /**
+     * @return the space for the entries in a page
+     */
+    public int getCapacity()
+    {
+        return buffer.size() - BTreePageHeader.HEADER_SIZE;
+    }
+
+    public int getFreeSpace()
+    {
+        return getDataStart() - slotPos(getNumEntries()) + getFragmentedBytes();
+    }
+
+    /**
+     * @return the space used by the high key, the prefix and the entries
+     */
+    public int getUsedSpace()
+    {
+        return getCapacity() - getFreeSpace();
+    }
+
+    /**
+     * Gets the used space after inserting the key, which may shorten the prefix of this page 
+     * @param key
+     * @return the byte size
+     */
+    public int getUsedSpaceWith(byte[] key)
+    {
+        final int numEntries = getNumEntries();
+        final int highKeyLength = Math.max(getHighKeyLength(), 0);
+        if (numEntries == 0)
+            return highKeyLength + key.length + getEntrySize(0);
+
+        int prefixLength = getPrefixLength();
+        int newPrefixLength = getCommonPrefixLength(key);
+        if (newPrefixLength == prefixLength)
+            return getUsedSpace() + getEntrySize(key.length - prefixLength);
+
+        int size = highKeyLength + newPrefixLength + getEntrySize(key.length - newPrefixLength);
+        for (int i = 0; i < numEntries; i++)
+            size += getEntrySize(getSuffixLength(i) + prefixLength - newPrefixLength);
+        return size;
+    }
+
+    public boolean hasSpaceFor(byte[] key)
+    {
+        return getUsedSpaceWith(key) <= getCapacity();
+    }
+
+    /**
+     * Inserts the entry at the given index 
+     * @param index
+     * @param key
+     * @param value
+     * @throws IllegalStateException when no space is left in this page
+     */
+    public void insert(int index, byte[] key, long value)
+    {
+        final int numEntries = getNumEntries();
+        if (index < 0 || index > numEntries)
+            throw new IndexOutOfBoundsException("entry " + index);
+
+        if (numEntries == 0)
+        {
+            // the longest prefix for the single entry 
+            resetPrefix(key, key.length);
+        }
+        else if (!hasPrefix(key))
+        {
+            if (!hasSpaceFor(key))
+                throw new IllegalStateException("no space in page " + getPageID());
+            rebuild(key, getCommonPrefixLength(key));
+        }
+        insertEntry(index, key, value);
+    }
+
+    /**
+     * Inserts the entry having the prefix of this page
+     */
+    private void insertEntry(int index, byte[] key, long value)
+    {
+        final int numEntries = getNumEntries();
+        final int prefixLength = getPrefixLength();
+        final int suffixLength = key.length - prefixLength;
+        int entrySize = getEntrySize(suffixLength);
+        int dataSize = entrySize - SLOT_SIZE;
+        if (getDataStart() - slotPos(numEntries + 1) < dataSize)
+        {
+            if (getFreeSpace() < entrySize)
+                throw new IllegalStateException("no space in page " + getPageID());
+            compact();
+        }
+
+        int pos = getDataStart() - dataSize;
+        setDataStart(pos);
+        int suffixPos = pos + buffer.writeVarInt(pos, suffixLength);
+        buffer.put(suffixPos, key, prefixLength, suffixLength);
+        buffer.writeLong(suffixPos + suffixLength, value);
+
+        for (int i = numEntries; i > index; i--)
+            buffer.writeInt(slotPos(i), buffer.readInt(slotPos(i - 1)));
+        buffer.writeInt(slotPos(index), pos);
+        setNumEntries(numEntries + 1);
+    }
+
+    /**
+     * Removes all entries, and sets the prefix
+     */
+    private void resetPrefix(byte[] prefix, int prefixLength)
+    {
+        setNumEntries(0);
+        setDataStart(buffer.size());
+        setFragmentedBytes(0);
+        buffer.writeInt(BTreePageHeader.PREFIX_LENGTH_POS, prefixLength);
+        buffer.put(prefixPos(), prefix, 0, prefixLength);
+    }
+
+    /**
+     * Stores the entries again with the new prefix
+     */
+    private void rebuild(byte[] prefix, int prefixLength)
+    {
+        final int numEntries = getNumEntries();
+        byte[][] keys = new byte[numEntries][];
+        long[] values = new long[numEntries];
+        for (int i = 0; i < numEntries; i++)
+        {
+            keys[i] = getKey(i);
+            values[i] = getValue(i);
+        }
+        resetPrefix(prefix, prefixLength);
+        for (int i = 0; i < numEntries; i++)
+            insertEntry(i, keys[i], values[i]);
+    }
+
+    /**
+     * Replaces the entries of this page with the given ones, which are stored with their 
+     * longest common prefix 
+     * @param keys the keys in the ascending order
+     * @param values
+     * @param from the first index of the entries
+     * @param to the last index (exclusive)
+     * @param highKey the new high key of this page, or null for no upper bound
+     * @throws IllegalStateException when the entries do not fit in this page
+     */
+    public void setEntries(List<byte[]> keys, List<Long> values, int from, int to, byte[] highKey)
+    {
+        int highKeyLength = highKey == null ? 0 : highKey.length;
+        if (highKeyLength + getRequiredSpace(keys, from, to) > getCapacity())
+            throw new IllegalStateException("no space in page " + getPageID());
+
+        resetPrefix(new byte[0], 0);
+        setHighKey(highKey);
+        if (from < to)
+            resetPrefix(keys.get(from), getCommonPrefixLength(keys.get(from), keys.get(to - 1)));
+        for (int i = from; i < to; i++)
+            insertEntry(i - from, keys.get(i), values.get(i));
+    }
+
+    private void releaseEntry(int index)
+    {
+        int pos = entryPos(index);
+        int dataSize = getEntrySizeAt(index) - SLOT_SIZE;
+        if (pos == getDataStart())
+            setDataStart(pos + dataSize);
+        else
+            setFragmentedBytes(getFragmentedBytes() + dataSize);
+    }
+
+    /**
+     * Removes the entry 
+     * @param index
+     */
+    public void remove(int index)
+    {
+        checkIndex(index);
+        releaseEntry(index);
+        final int numEntries = getNumEntries();
+        for (int i = index; i < numEntries - 1; i++)
+            buffer.writeInt(slotPos(i), buffer.readInt(slotPos(i + 1)));
+        setNumEntries(numEntries - 1);
+    }
+
+    /**
+     * Removes the entries at and after the given index 
+     * @param numEntries the number of entries to keep
+     */
+    public void truncate(int numEntries)
+    {
+        final int currentNumEntries = getNumEntries();
+        for (int i = numEntries; i < currentNumEntries; i++)
+            releaseEntry(i);
+        setNumEntries(Math.min(numEntries, currentNumEntries));
+    }
+
+    /**
+     * Appends the entries at and after the given index to the tail of the destination, 
+     * and removes them from this page
+     * @param fromIndex
+     * @param dest
+     */
+    public void moveEntriesTo(int fromIndex, BTreePage dest)
+    {
+        final int numEntries = getNumEntries();
+        for (int i = fromIndex; i < numEntries; i++)
+            dest.insert(dest.getNumEntries(), getKey(i), getValue(i));
+        truncate(fromIndex);
+    }
+
+    /**
+     * Packs the entries to the tail of the page
+     */
+    public void compact()
+    {
+        final int pageSize = buffer.size();
+        final int dataStart = getDataStart();
+        byte[] data = new byte[pageSize - dataStart];
+        buffer.get(dataStart, data, 0, data.length);
+
+        final int numEntries = getNumEntries();
+        int[] dataSize = new int[numEntries];
+        for (int i = 0; i < numEntries; i++)
+            dataSize[i] = getEntrySizeAt(i) - SLOT_SIZE;
+
+        int cursor = pageSize;
+        for (int i = 0; i < numEntries; i++)
+        {
+            int pos = entryPos(i);
+            cursor -= dataSize[i];
+            buffer.put(cursor, data, pos - dataStart, dataSize[i]);
+            buffer.writeInt(slotPos(i), cursor);
+        }
+        setDataStart(cursor);
+        setFragmentedBytes(0);
+    }
+
+    /**
+     * Marks the page as a freed page, and links it to the next free page 
+     * @param nextFreePageID
+     */
+    void free(long nextFreePageID)
+    {
+        buffer.writeInt(PAGE_TYPE_POS, PageType.Unknown);
+        buffer.writeLong(new CommonPageHeader().getHeaderSize(), nextFreePageID);
+    }
+
+    /**
+     * @return the next free page linked by {@link #free(long)}
+     */
+    long getNextFreePageID()
+    {
+        return buffer.readLong(new CommonPageHeader().getHeaderSize());
+    }
+
 }
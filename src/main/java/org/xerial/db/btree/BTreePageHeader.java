@@ -26,21 +26,52 @@ package org.xerial.db.btree;
 
 import org.xerial.db.CommonPageHeader;
 import org.xerial.db.PageHeader;
-import org.xerial.db.cache.Buffer;
 import org.xerial.db.cache.BufferReader;
 import org.xerial.db.cache.BufferWriter;
 import org.xerial.db.datatype.TypeInformation;
 
 /**
  * Header of the page
+ * 
+ * <pre>
+ * |CommonPageHeader
+ * |numEntries
+ * |isDirty
+ * |rightSiblingPageID  (the next page in the same level, or -1)
+ * |lowerPageID         (the child page of the keys less than the first key in an internal page)
+ * |dataStart           (the beginning of the entry area, which grows from the tail of the page)
+ * |fragmentedBytes     (the bytes of the holes in the entry area)
+ * |prefixLength        (the length of the key prefix shared by all entries)
+ * |highKeyLength       (the length of the upper bound of the keys in the page, or -1 if unbounded)
+ * </pre>
+ * 
+ * {@link BTreePage} reads and writes the header fields in the page buffer at the positions 
+ * defined in this class. 
+ * 
  * @author leo
  *
  */
 public class BTreePageHeader implements PageHeader
 {
+    static final int NUM_ENTRIES_POS = new CommonPageHeader().getHeaderSize();
+    static final int IS_DIRTY_POS = NUM_ENTRIES_POS + TypeInformation.INT_SIZE;
+    static final int RIGHT_SIBLING_POS = IS_DIRTY_POS + TypeInformation.BOOLEAN_SIZE;
+    static final int LOWER_PAGE_POS = RIGHT_SIBLING_POS + TypeInformation.LONG_SIZE;
+    static final int DATA_START_POS = LOWER_PAGE_POS + TypeInformation.LONG_SIZE;
+    static final int FRAGMENTED_BYTES_POS = DATA_START_POS + TypeInformation.INT_SIZE;
+    static final int PREFIX_LENGTH_POS = FRAGMENTED_BYTES_POS + TypeInformation.INT_SIZE;
+    static final int HIGH_KEY_LENGTH_POS = PREFIX_LENGTH_POS + TypeInformation.INT_SIZE;
+    static final int HEADER_SIZE = HIGH_KEY_LENGTH_POS + TypeInformation.INT_SIZE;
+
     private final CommonPageHeader defaultHeader = new CommonPageHeader();
     private int numEntries = 0;
     private boolean isDirty = false;
+    private long rightSiblingPageID = -1;
+    private long lowerPageID = -1;
+    private int dataStart = 0;
+    private int fragmentedBytes = 0;
+    private int prefixLength = 0;
+    private int highKeyLength = -1;
     
     public BTreePageHeader()
     {
@@ -55,6 +86,15 @@ public class BTreePageHeader implements PageHeader
         defaultHeader.setPageID(pageID);
     }
     
+    public int getPageType()
+    {
+        return defaultHeader.getPageType();
+    }
+    
+    public void setPageType(int pageType)
+    {
+        defaultHeader.setPageType(pageType);
+    }
 
     public int getNumEntries()
     {
@@ -78,12 +118,77 @@ public class BTreePageHeader implements PageHeader
         this.isDirty = isDirty;
     }
 
+    public long getRightSiblingPageID()
+    {
+        return rightSiblingPageID;
+    }
+
+    public void setRightSiblingPageID(long rightSiblingPageID)
+    {
+        this.rightSiblingPageID = rightSiblingPageID;
+    }
+
+    public long getLowerPageID()
+    {
+        return lowerPageID;
+    }
+
+    public void setLowerPageID(long lowerPageID)
+    {
+        this.lowerPageID = lowerPageID;
+    }
+
+    public int getDataStart()
+    {
+        return dataStart;
+    }
+
+    public void setDataStart(int dataStart)
+    {
+        this.dataStart = dataStart;
+    }
+
+    public int getFragmentedBytes()
+    {
+        return fragmentedBytes;
+    }
+
+    public void setFragmentedBytes(int fragmentedBytes)
+    {
+        this.fragmentedBytes = fragmentedBytes;
+    }
+
+    public int getPrefixLength()
+    {
+        return prefixLength;
+    }
+
+    public void setPrefixLength(int prefixLength)
+    {
+        this.prefixLength = prefixLength;
+    }
+
+    public int getHighKeyLength()
+    {
+        return highKeyLength;
+    }
+
+    public void setHighKeyLength(int highKeyLength)
+    {
+        this.highKeyLength = highKeyLength;
+    }
     
     public void save(BufferWriter writer)
     {
         defaultHeader.save(writer);
         writer.writeInt(numEntries);
         writer.writeBoolean(isDirty);
+        writer.writeLong(rightSiblingPageID);
+        writer.writeLong(lowerPageID);
+        writer.writeInt(dataStart);
+        writer.writeInt(fragmentedBytes);
+        writer.writeInt(prefixLength);
+        writer.writeInt(highKeyLength);
     }
     
     public void load(BufferReader reader)
@@ -91,12 +196,17 @@ public class BTreePageHeader implements PageHeader
         defaultHeader.load(reader);
         numEntries = reader.readInt();
         isDirty = reader.readBoolean();
+        rightSiblingPageID = reader.readLong();
+        lowerPageID = reader.readLong();
+        dataStart = reader.readInt();
+        fragmentedBytes = reader.readInt();
+        prefixLength = reader.readInt();
+        highKeyLength = reader.readInt();
     }
 
     public int getHeaderSize()
     {
-        final int size = TypeInformation.INT_SIZE + TypeInformation.BOOLEAN_SIZE;
-        return defaultHeader.getHeaderSize() + size;
+        return HEADER_SIZE;
     }
     
 
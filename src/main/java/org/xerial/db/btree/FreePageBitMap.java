@@ -24,8 +24,148 @@
 //--------------------------------------
 package org.xerial.db.btree;
 
+import org.xerial.db.CommonPageHeader;
+import org.xerial.db.DBErrorCode;
+import org.xerial.db.DBException;
+import org.xerial.db.PageType;
+import org.xerial.db.cache.Buffer;
+import org.xerial.db.cache.BufferReader;
+import org.xerial.db.cache.BufferWriter;
+import org.xerial.db.datatype.TypeInformation;
+
+/**
+ * A page holding one bit per page of a range of the file. A set bit denotes
+ * that the page has free space. The bitmap works directly on the page buffer.
+ * 
+ * Page Layout:
+ * <pre>
+ * ----------------------
+ * |CommonPageHeader 
+ * |numSetBits
+ * |bitmap (long words; the bit i is the (i % 64)-th lowest bit of the word i / 64)
+ * ----------------------
+ * </pre>
+ * 
+ * @author leo
+ *
+ */
 public class FreePageBitMap {
 
-    
-    
+    private static final int NUM_SET_BITS_POS = new CommonPageHeader().getHeaderSize();
+    private static final int BITMAP_POS = NUM_SET_BITS_POS + TypeInformation.INT_SIZE;
+    private static final int BITS_PER_WORD = 64;
+
+    private final Buffer buffer;
+    private final int numWords;
+
+    private FreePageBitMap(Buffer buffer) {
+        this.buffer = buffer;
+        this.numWords = (buffer.size() - BITMAP_POS) / TypeInformation.LONG_SIZE;
+    }
+
+    /**
+     * Gets the number of bits held in a bitmap page
+     * @param pageSize
+     * @return the number of bits
+     */
+    public static int getCapacity(int pageSize) {
+        return ((pageSize - BITMAP_POS) / TypeInformation.LONG_SIZE) * BITS_PER_WORD;
+    }
+
+    /**
+     * Formats the buffer as an empty bitmap page
+     * @param buffer
+     * @param pageID
+     * @return the bitmap
+     */
+    public static FreePageBitMap format(Buffer buffer, long pageID) {
+        if (getCapacity(buffer.size()) <= 0)
+            throw new IllegalArgumentException("too small page size: " + buffer.size());
+
+        CommonPageHeader header = new CommonPageHeader();
+        header.setPageID(pageID);
+        header.setPageType(PageType.FreePageBitMap);
+        buffer.fill((byte) 0);
+        header.save(new BufferWriter(buffer));
+        return new FreePageBitMap(buffer);
+    }
+
+    /**
+     * Wraps the buffer holding a bitmap page
+     * @param buffer
+     * @return the bitmap
+     * @throws DBException when the page type is not the bitmap
+     */
+    public static FreePageBitMap wrap(Buffer buffer) throws DBException {
+        CommonPageHeader header = new CommonPageHeader();
+        try {
+            header.load(new BufferReader(buffer));
+        }
+        catch (IllegalArgumentException e) {
+            throw new DBException(DBErrorCode.InvalidPageHeader, e.getMessage());
+        }
+        if (header.getPageType() != PageType.FreePageBitMap)
+            throw new DBException(DBErrorCode.InvalidPageHeader, "not a free page bitmap: " + header.getPageType());
+        return new FreePageBitMap(buffer);
+    }
+
+    public int getCapacity() {
+        return numWords * BITS_PER_WORD;
+    }
+
+    /**
+     * @return the number of the set bits
+     */
+    public int getNumSet() {
+        return buffer.readInt(NUM_SET_BITS_POS);
+    }
+
+    private int wordPos(int index) {
+        if (index < 0 || index >= getCapacity())
+            throw new IndexOutOfBoundsException("bit " + index);
+        return BITMAP_POS + (index / BITS_PER_WORD) * TypeInformation.LONG_SIZE;
+    }
+
+    public boolean isSet(int index) {
+        return (buffer.readLong(wordPos(index)) & (1L << (index % BITS_PER_WORD))) != 0;
+    }
+
+    /**
+     * Sets or clears the bit
+     * @param index
+     * @param value
+     * @return true if the bit is changed
+     */
+    public boolean set(int index, boolean value) {
+        int pos = wordPos(index);
+        long word = buffer.readLong(pos);
+        long mask = 1L << (index % BITS_PER_WORD);
+        if (((word & mask) != 0) == value)
+            return false;
+
+        buffer.writeLong(pos, value ? word | mask : word & ~mask);
+        buffer.writeInt(NUM_SET_BITS_POS, getNumSet() + (value ? 1 : -1));
+        return true;
+    }
+
+    /**
+     * Finds the first set bit at or after the given index
+     * @param fromIndex
+     * @return the index of the set bit, or -1 if no bit is set
+     */
+    public int findFirstSet(int fromIndex) {
+        if (getNumSet() == 0 || fromIndex >= getCapacity())
+            return -1;
+
+        int w = fromIndex / BITS_PER_WORD;
+        long word = buffer.readLong(BITMAP_POS + w * TypeInformation.LONG_SIZE) & (-1L << (fromIndex % BITS_PER_WORD));
+        while (true) {
+            if (word != 0)
+                return w * BITS_PER_WORD + Long.numberOfTrailingZeros(word);
+            if (++w >= numWords)
+                return -1;
+            word = buffer.readLong(BITMAP_POS + w * TypeInformation.LONG_SIZE);
+        }
+    }
+
 }
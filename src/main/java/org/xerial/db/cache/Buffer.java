@@ -25,40 +25,113 @@
 package org.xerial.db.cache;
 
 import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 
 import org.xerial.db.DBException;
 import org.xerial.db.VariableLengthInteger;
+import org.xerial.db.datatype.TypeInformation;
 import org.xerial.db.storage.DBFile;
 
 /**
  * Buffer to read/write raw memory data
  * 
+ * The contents are held in a {@link ByteBuffer}, and the primitive values are
+ * read and written in the big-endian order with the absolute accessors of the
+ * {@link ByteBuffer}, each of which is a single memory access. Since no
+ * accessor changes the position of the underlying buffer, the concurrent
+ * reads of a {@link Buffer} are safe.
+ * 
+ * A buffer is allocated either in the Java heap, or off-heap by
+ * {@link #allocateDirect(int)}. Only the heap buffers have the backing byte
+ * array returned by {@link #getBytes()}.
+ * 
  * @author leo
  * 
  */
 public class Buffer
 {
 
-    private final byte[] buffer;
+    private final ByteBuffer buffer;
 
     public Buffer(final int bufferByteSize)
     {
-        buffer = new byte[bufferByteSize];
+        this(ByteBuffer.allocate(bufferByteSize));
     }
 
     public Buffer(final byte[] buffer)
     {
-        this.buffer = buffer;
+        this(ByteBuffer.wrap(buffer));
+    }
+
+    /**
+     * Creates a buffer sharing the contents between the position and the limit
+     * of the given {@link ByteBuffer}
+     * 
+     * @param buffer
+     */
+    public Buffer(final ByteBuffer buffer)
+    {
+        this.buffer = buffer.slice().order(ByteOrder.BIG_ENDIAN);
     }
 
+    /**
+     * Allocates a buffer outside of the Java heap
+     * 
+     * @param bufferByteSize
+     * @return the direct buffer
+     */
+    public static Buffer allocateDirect(final int bufferByteSize)
+    {
+        return new Buffer(ByteBuffer.allocateDirect(bufferByteSize));
+    }
+
+    /**
+     * Gets the backing byte array of the heap buffer
+     * 
+     * @return the byte array
+     * @throws UnsupportedOperationException
+     *             if this buffer is not a heap buffer covering the whole array
+     */
     public byte[] getBytes()
     {
-        return buffer;
+        if (!hasArray())
+            throw new UnsupportedOperationException("this buffer is not backed by a byte array");
+        return buffer.array();
+    }
+
+    /**
+     * @return true if the contents are the whole of the byte array returned by
+     *         {@link #getBytes()}
+     */
+    public boolean hasArray()
+    {
+        return buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.array().length == buffer.capacity();
+    }
+
+    /**
+     * @return true if this buffer is allocated outside of the Java heap
+     */
+    public boolean isDirect()
+    {
+        return buffer.isDirect();
+    }
+
+    /**
+     * Gets a view of the contents. The position and the limit of the view can
+     * be changed without affecting this buffer.
+     * 
+     * @return the big-endian view of the contents
+     */
+    public ByteBuffer getByteBuffer()
+    {
+        return buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
     }
 
     public int size()
     {
-        return buffer.length;
+        return buffer.capacity();
     }
 
     /**
@@ -69,24 +142,17 @@ public class Buffer
      */
     public int readInt(int pos)
     {
-        int b1 = (buffer[pos] & 0xFF) << 24;
-        int b2 = (buffer[pos + 1] & 0xFF) << 16;
-        int b3 = (buffer[pos + 2] & 0xFF) << 8;
-        int b4 = buffer[pos + 3] & 0xFF;
-        return b1 | b2 | b3 | b4;
+        return buffer.getInt(pos);
     }
 
     public byte readByte(int pos)
     {
-        return buffer[pos];
+        return buffer.get(pos);
     }
 
     public long readLong(int pos)
     {
-        return (((long) (buffer[pos] & 0xff) << 56) | ((long) (buffer[pos + 1] & 0xff) << 48)
-                | ((long) (buffer[pos + 2] & 0xff) << 40) | ((long) (buffer[pos + 3] & 0xff) << 32)
-                | ((long) (buffer[pos + 4] & 0xff) << 24) | ((long) (buffer[pos + 5] & 0xff) << 16)
-                | ((long) (buffer[pos + 6] & 0xff) << 8) | ((long) (buffer[pos + 7] & 0xff)));
+        return buffer.getLong(pos);
     }
 
     public boolean readBoolean(int pos)
@@ -96,47 +162,67 @@ public class Buffer
 
     public VariableLengthInteger readVariableLengthInteger(int pos) throws DBException
     {
-        return new VariableLengthInteger(buffer, pos);
+        if (hasArray())
+            return new VariableLengthInteger(buffer.array(), pos);
+
+        byte[] code = new byte[Math.min(VariableLengthInteger.MAX_INT_BYTES, size() - pos)];
+        get(pos, code, 0, code.length);
+        return new VariableLengthInteger(code, 0);
+    }
+
+    /**
+     * Reads a variable length int value
+     * 
+     * @param pos
+     * @return the value, whose byte size is given by
+     *         {@link VariableLengthInteger#encodedLength(int)}
+     */
+    public int readVarInt(int pos)
+    {
+        return VariableLengthInteger.decode(buffer, pos);
+    }
+
+    /**
+     * Reads a variable length long value
+     * 
+     * @param pos
+     * @return the value, whose byte size is given by
+     *         {@link VariableLengthInteger#encodedLength(long)}
+     */
+    public long readVarLong(int pos)
+    {
+        return VariableLengthInteger.decodeLong(buffer, pos);
     }
 
     public boolean isSet(int bytePos, int bitPositionFromMSB)
     {
         assert (bitPositionFromMSB >= 0 && bitPositionFromMSB < 8);
-        return (buffer[bytePos] & (0x80 >> bitPositionFromMSB)) != 0;
+        return (buffer.get(bytePos) & (0x80 >> bitPositionFromMSB)) != 0;
     }
 
     public void set(int bytePos, int bitPositionFromMSB, boolean value)
     {
         assert (bitPositionFromMSB >= 0 && bitPositionFromMSB < 8);
+        byte b = buffer.get(bytePos);
         if (value)
-            buffer[bytePos] = (byte) (buffer[bytePos] | (0x80 >> bitPositionFromMSB));
+            buffer.put(bytePos, (byte) (b | (0x80 >> bitPositionFromMSB)));
         else
-            buffer[bytePos] = (byte) (buffer[bytePos] & ~(0x80 >> bitPositionFromMSB));
+            buffer.put(bytePos, (byte) (b & ~(0x80 >> bitPositionFromMSB)));
     }
 
     public void writeByte(int pos, int b)
     {
-        buffer[pos] = (byte) b;
+        buffer.put(pos, (byte) b);
     }
 
     public void writeInt(int pos, int value)
     {
-        buffer[pos++] = (byte) ((value >> 24) & 0xFF);
-        buffer[pos++] = (byte) ((value >> 16) & 0xFF);
-        buffer[pos++] = (byte) ((value >> 8) & 0xFF);
-        buffer[pos++] = (byte) ((value >> 0) & 0xFF);
+        buffer.putInt(pos, value);
     }
 
     public void writeLong(int pos, long value)
     {
-        buffer[pos++] = (byte) (0xff & (value >> 56));
-        buffer[pos++] = (byte) (0xff & (value >> 48));
-        buffer[pos++] = (byte) (0xff & (value >> 40));
-        buffer[pos++] = (byte) (0xff & (value >> 32));
-        buffer[pos++] = (byte) (0xff & (value >> 24));
-        buffer[pos++] = (byte) (0xff & (value >> 16));
-        buffer[pos++] = (byte) (0xff & (value >> 8));
-        buffer[pos++] = (byte) (0xff & value);
+        buffer.putLong(pos, value);
     }
 
     public void writeBoolean(int pos, boolean value)
@@ -144,15 +230,127 @@ public class Buffer
         writeByte(pos, value ? 1 : 0);
     }
 
+    /**
+     * Writes a non-negative value in the variable length format
+     * 
+     * @param pos
+     * @param value
+     * @return the written byte size
+     */
+    public int writeVarInt(int pos, int value)
+    {
+        return VariableLengthInteger.encode(value, buffer, pos);
+    }
+
+    /**
+     * Writes a non-negative value in the variable length format
+     * 
+     * @param pos
+     * @param value
+     * @return the written byte size
+     */
+    public int writeVarLong(int pos, long value)
+    {
+        return VariableLengthInteger.encode(value, buffer, pos);
+    }
+
     public void writeVariablenLengthInteger(int pos, VariableLengthInteger value)
     {
         byte[] rawBytes = value.getByte();
-        for (int i = 0; i < rawBytes.length; i++)
+        put(pos, rawBytes, 0, rawBytes.length);
+    }
+
+    /**
+     * Copies the contents into the byte array
+     * 
+     * @param pos
+     *            the byte position in this buffer
+     * @param dest
+     *            the destination
+     * @param offset
+     *            the offset in the destination
+     * @param length
+     *            the byte length to copy
+     */
+    public void get(int pos, byte[] dest, int offset, int length)
+    {
+        if (buffer.hasArray())
+            System.arraycopy(buffer.array(), buffer.arrayOffset() + pos, dest, offset, length);
+        else
+        {
+            ByteBuffer view = buffer.duplicate();
+            view.position(pos);
+            view.get(dest, offset, length);
+        }
+    }
+
+    /**
+     * Copies the byte array into this buffer
+     * 
+     * @param pos
+     *            the byte position in this buffer
+     * @param src
+     *            the source
+     * @param offset
+     *            the offset in the source
+     * @param length
+     *            the byte length to copy
+     */
+    public void put(int pos, byte[] src, int offset, int length)
+    {
+        if (buffer.hasArray())
+            System.arraycopy(src, offset, buffer.array(), buffer.arrayOffset() + pos, length);
+        else
         {
-            buffer[pos + i] = rawBytes[i];
+            ByteBuffer view = buffer.duplicate();
+            view.position(pos);
+            view.put(src, offset, length);
         }
     }
 
+    /**
+     * Copies a range of this buffer into another buffer
+     * 
+     * @param pos
+     *            the byte position in this buffer
+     * @param dest
+     *            the destination
+     * @param destPos
+     *            the byte position in the destination
+     * @param length
+     *            the byte length to copy
+     */
+    public void copyTo(int pos, Buffer dest, int destPos, int length)
+    {
+        ByteBuffer src = buffer.duplicate();
+        src.position(pos);
+        src.limit(pos + length);
+        ByteBuffer view = dest.buffer.duplicate();
+        view.position(destPos);
+        view.put(src);
+    }
+
+    /**
+     * Fills the whole buffer with the given value
+     * 
+     * @param value
+     */
+    public void fill(byte value)
+    {
+        if (hasArray())
+        {
+            Arrays.fill(buffer.array(), value);
+            return;
+        }
+
+        long wideValue = (value & 0xFFL) * 0x0101010101010101L;
+        int pos = 0;
+        for (; pos + TypeInformation.LONG_SIZE <= size(); pos += TypeInformation.LONG_SIZE)
+            buffer.putLong(pos, wideValue);
+        for (; pos < size(); pos++)
+            buffer.put(pos, value);
+    }
+
     /**
      * Writes an utf-8 data
      * 
@@ -191,11 +389,64 @@ public class Buffer
 
     public void save(DBFile dbFile) throws DBException
     {
-        dbFile.write(buffer, 0, buffer.length);
+        if (hasArray())
+            dbFile.write(buffer.array(), 0, size());
+        else
+            dbFile.write(toByteArray(), 0, size());
     }
 
     public void load(DBFile dbFile) throws DBException
     {
-        dbFile.read(buffer, 0, buffer.length);
+        if (hasArray())
+            dbFile.read(buffer.array(), 0, size());
+        else
+        {
+            byte[] data = new byte[size()];
+            dbFile.read(data, 0, data.length);
+            put(0, data, 0, data.length);
+        }
+    }
+
+    /**
+     * Writes the buffer contents at the specified file position. The file
+     * cursor is not changed.
+     *
+     * @param dbFile
+     * @param filePos
+     * @throws DBException
+     */
+    public void save(DBFile dbFile, long filePos) throws DBException
+    {
+        if (hasArray())
+            dbFile.writeAt(filePos, buffer.array(), 0, size());
+        else
+            dbFile.writeAt(filePos, toByteArray(), 0, size());
+    }
+
+    /**
+     * Reads the buffer contents from the specified file position. The file
+     * cursor is not changed.
+     *
+     * @param dbFile
+     * @param filePos
+     * @throws DBException
+     */
+    public void load(DBFile dbFile, long filePos) throws DBException
+    {
+        if (hasArray())
+            dbFile.readAt(filePos, buffer.array(), 0, size());
+        else
+        {
+            byte[] data = new byte[size()];
+            dbFile.readAt(filePos, data, 0, data.length);
+            put(0, data, 0, data.length);
+        }
+    }
+
+    private byte[] toByteArray()
+    {
+        byte[] data = new byte[size()];
+        get(0, data, 0, data.length);
+        return data;
     }
 }
@@ -24,6 +24,7 @@
 //--------------------------------------
 package org.xerial.db.cache;
 
+import org.xerial.db.VariableLengthInteger;
 import org.xerial.db.datatype.TypeInformation;
 
 /**
@@ -47,6 +48,25 @@ public class BufferReader
         this.offset = offset; 
     }
     
+    public Buffer getBuffer()
+    {
+        return buffer;
+    }
+    
+    public int getCursorPosition()
+    {
+        return offset;
+    }
+    
+    /**
+     * Advances the read cursor
+     * @param byteSize
+     */
+    public void skip(int byteSize)
+    {
+        offset += byteSize;
+    }
+    
     public int readInt()
     {
         int value = buffer.readInt(offset);
@@ -75,4 +95,18 @@ public class BufferReader
         return value;
     }
     
+    public int readVarInt()
+    {
+        int value = buffer.readVarInt(offset);
+        offset += VariableLengthInteger.encodedLength(value);
+        return value;
+    }
+    
+    public long readVarLong()
+    {
+        long value = buffer.readVarLong(offset);
+        offset += VariableLengthInteger.encodedLength(value);
+        return value;
+    }
+    
 }
@@ -65,6 +65,27 @@ public class BufferWriter
     public int getCursorPosition() {
         return offset;
     }
+
+    public Buffer getBuffer()
+    {
+        return buffer;
+    }
+
+    /**
+     * Copies the data in the source buffer
+     * 
+     * @param src
+     *            the source buffer
+     * @param pos
+     *            the byte position in the source
+     * @param length
+     *            the byte length to copy
+     */
+    public void write(Buffer src, int pos, int length)
+    {
+        src.copyTo(pos, buffer, offset, length);
+        offset += length;
+    }
     
     public void writeInt(int value)
     {
@@ -90,5 +111,15 @@ public class BufferWriter
         offset += TypeInformation.BOOLEAN_SIZE;
     }
 
+    public void writeVarInt(int value)
+    {
+        offset += buffer.writeVarInt(offset, value);
+    }
+
+    public void writeVarLong(long value)
+    {
+        offset += buffer.writeVarLong(offset, value);
+    }
+
 
 }
@@ -0,0 +1,100 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// BulkReadRing.java
+// Since: Oct 18, 2026 3:27:44 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.cache;
+
+import java.util.Arrays;
+
+/**
+ * An access hint for bulk reads, e.g., sequential scans of a heap file or the
+ * inputs of an external sort. The pages read through a {@link BulkReadRing}
+ * recycle a small ring of frames, instead of evicting the frames of the whole
+ * {@link PageCacheHolder}. A large scan therefore displaces at most the ring
+ * size of pages from the cache.
+ * 
+ * A ring is used by a single scan at a time. The read-ahead of the scan may
+ * load pages through the same ring (see
+ * {@link PageCacheHolder#prefetch(long, int, BulkReadRing)}), since the ring is
+ * updated only under the replacement lock of the {@link PageCacheHolder}.
+ * 
+ * <pre>
+ * BulkReadRing ring = pageCache.createBulkReadRing(16);
+ * for (long pageID = begin; pageID &lt; end; pageID++)
+ * {
+ *     PageFrame frame = pageCache.pin(pageID, ring);
+ *     ...
+ *     pageCache.unpin(frame, false);
+ * }
+ * </pre>
+ * 
+ * @author leo
+ * 
+ */
+public class BulkReadRing
+{
+    private final int[] frameIndex;
+    private final long[] pageID;
+    private int cursor = 0;
+
+    BulkReadRing(int ringSize)
+    {
+        if (ringSize <= 0)
+            throw new IllegalArgumentException("ring size must be higher than 0: " + ringSize);
+        frameIndex = new int[ringSize];
+        pageID = new long[ringSize];
+        Arrays.fill(frameIndex, -1);
+        Arrays.fill(pageID, PageFrame.NO_PAGE);
+    }
+
+    public int size()
+    {
+        return frameIndex.length;
+    }
+
+    /**
+     * @return the frame to be recycled next, or -1 if the current slot is empty
+     */
+    int currentFrame()
+    {
+        return frameIndex[cursor];
+    }
+
+    /**
+     * @return the page that this ring loaded to the current frame
+     */
+    long currentPage()
+    {
+        return pageID[cursor];
+    }
+
+    /**
+     * Records the frame used for the page, and advances the ring
+     */
+    void put(int frame, long page)
+    {
+        frameIndex[cursor] = frame;
+        pageID[cursor] = page;
+        cursor = (cursor + 1) % frameIndex.length;
+    }
+}
@@ -0,0 +1,112 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// ClockReplacementPolicy.java
+// Since: Oct 18, 2026 1:24:51 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.cache;
+
+/**
+ * CLOCK (second chance) replacement policy. The frames are arranged in a
+ * circle, and each access sets the reference bit of the frame. The clock hand
+ * sweeps the evictable frames, clears their reference bits, and evicts the
+ * first frame found without the reference bit.
+ * 
+ * @author leo
+ * 
+ */
+public class ClockReplacementPolicy implements PageCacheReplacementPolicy
+{
+    private boolean[] isTracked;
+    private boolean[] isEvictable;
+    private boolean[] referenceBit;
+    private int numEvictable = 0;
+    private int clockHand = 0;
+
+    public ClockReplacementPolicy()
+    {}
+
+    public void init(int numFrames)
+    {
+        isTracked = new boolean[numFrames];
+        isEvictable = new boolean[numFrames];
+        referenceBit = new boolean[numFrames];
+        numEvictable = 0;
+        clockHand = 0;
+    }
+
+    public void recordAccess(int frameIndex, long pageID)
+    {
+        isTracked[frameIndex] = true;
+        referenceBit[frameIndex] = true;
+    }
+
+    public void setEvictable(int frameIndex, boolean evictable)
+    {
+        if (!isTracked[frameIndex] || isEvictable[frameIndex] == evictable)
+            return;
+
+        isEvictable[frameIndex] = evictable;
+        numEvictable += evictable ? 1 : -1;
+    }
+
+    public int evict()
+    {
+        if (numEvictable == 0)
+            return -1;
+
+        // at most two rounds are sufficient, since the first round clears all reference bits
+        final int numFrames = isTracked.length;
+        for (int step = 0; step < numFrames * 2; step++)
+        {
+            int frame = clockHand;
+            clockHand = (clockHand + 1) % numFrames;
+
+            if (!isEvictable[frame])
+                continue;
+            if (referenceBit[frame])
+            {
+                referenceBit[frame] = false;
+                continue;
+            }
+
+            remove(frame);
+            return frame;
+        }
+        return -1;
+    }
+
+    public void reinstate(int frameIndex, long pageID)
+    {
+        // the reference bit stays cleared
+        isTracked[frameIndex] = true;
+    }
+
+    public void remove(int frameIndex)
+    {
+        if (isEvictable[frameIndex])
+            numEvictable--;
+        isTracked[frameIndex] = false;
+        isEvictable[frameIndex] = false;
+        referenceBit[frameIndex] = false;
+    }
+
+}
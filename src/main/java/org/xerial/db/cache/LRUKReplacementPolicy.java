@@ -0,0 +1,156 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// LRUKReplacementPolicy.java
+// Since: Oct 18, 2026 1:41:07 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.cache;
+
+/**
+ * LRU-K replacement policy. The victim is the evictable frame whose K-th most
+ * recent access is the oldest (the largest backward K-distance). Frames
+ * accessed less than K times have infinite backward K-distance, and among them
+ * the frame with the oldest access is evicted first, as in the plain LRU.
+ * 
+ * Compared to LRU, a page touched only once by a scan does not outlive the
+ * pages that are accessed repeatedly.
+ * 
+ * @author leo
+ * 
+ */
+public class LRUKReplacementPolicy implements PageCacheReplacementPolicy
+{
+    private final int k;
+    private long currentTime = 0;
+
+    private long[][] accessHistory; // ring buffer of the last K access times for each frame 
+    private int[] numAccesses;
+    private boolean[] isTracked;
+    private boolean[] isEvictable;
+    private int numEvictable = 0;
+
+    /**
+     * LRU-2 policy
+     */
+    public LRUKReplacementPolicy()
+    {
+        this(2);
+    }
+
+    public LRUKReplacementPolicy(int k)
+    {
+        if (k <= 0)
+            throw new IllegalArgumentException("k must be higher than 0: " + k);
+        this.k = k;
+    }
+
+    public void init(int numFrames)
+    {
+        accessHistory = new long[numFrames][k];
+        numAccesses = new int[numFrames];
+        isTracked = new boolean[numFrames];
+        isEvictable = new boolean[numFrames];
+        numEvictable = 0;
+        currentTime = 0;
+    }
+
+    public void recordAccess(int frameIndex, long pageID)
+    {
+        if (!isTracked[frameIndex])
+        {
+            // a new page in the frame
+            isTracked[frameIndex] = true;
+            numAccesses[frameIndex] = 0;
+        }
+        accessHistory[frameIndex][numAccesses[frameIndex] % k] = ++currentTime;
+        numAccesses[frameIndex]++;
+    }
+
+    public void setEvictable(int frameIndex, boolean evictable)
+    {
+        if (!isTracked[frameIndex] || isEvictable[frameIndex] == evictable)
+            return;
+
+        isEvictable[frameIndex] = evictable;
+        numEvictable += evictable ? 1 : -1;
+    }
+
+    /**
+     * @return the time of the K-th most recent access, or the time of the oldest
+     *         access if the frame is accessed less than K times
+     */
+    private long kthRecentAccess(int frame)
+    {
+        int n = numAccesses[frame];
+        if (n < k)
+            return accessHistory[frame][0];
+        return accessHistory[frame][n % k];
+    }
+
+    public int evict()
+    {
+        if (numEvictable == 0)
+            return -1;
+
+        int victim = -1;
+        boolean victimHasKAccesses = true;
+        long victimTime = Long.MAX_VALUE;
+        for (int frame = 0; frame < isTracked.length; frame++)
+        {
+            if (!isEvictable[frame])
+                continue;
+
+            boolean hasKAccesses = numAccesses[frame] >= k;
+            long t = kthRecentAccess(frame);
+            // frames with infinite K-distance precede the others
+            if ((victimHasKAccesses && !hasKAccesses) || (victimHasKAccesses == hasKAccesses && t < victimTime))
+            {
+                victim = frame;
+                victimHasKAccesses = hasKAccesses;
+                victimTime = t;
+            }
+        }
+
+        if (victim >= 0)
+        {
+            // keep the access history until a new page is recorded, in case the frame is reinstated
+            isTracked[victim] = false;
+            isEvictable[victim] = false;
+            numEvictable--;
+        }
+        return victim;
+    }
+
+    public void reinstate(int frameIndex, long pageID)
+    {
+        isTracked[frameIndex] = true;
+    }
+
+    public void remove(int frameIndex)
+    {
+        if (isEvictable[frameIndex])
+            numEvictable--;
+        isTracked[frameIndex] = false;
+        isEvictable[frameIndex] = false;
+        numAccesses[frameIndex] = 0;
+    }
+
+}
@@ -25,67 +25,1024 @@
 package org.xerial.db.cache;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Stack;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
+import org.xerial.db.DBErrorCode;
+import org.xerial.db.DBException;
+import org.xerial.db.storage.DBFile;
 
 /**
- * {@link Buffer} holder
+ * {@link Buffer} holder, that is, the buffer pool of the pages in a
+ * {@link DBFile}.
+ * 
+ * The holder keeps a fixed number of {@link PageFrame}s, and maps page IDs to
+ * the frames. A page is read from the file when it is pinned for the first
+ * time, and stays in its frame until the {@link PageCacheReplacementPolicy}
+ * chooses the frame as a victim. Pinned frames are never evicted. Dirty frames
+ * are written back to the file before they are reused.
+ * 
+ * Usage:
+ * 
+ * <pre>
+ * PageFrame frame = pageCache.pin(pageID);
+ * try
+ * {
+ *     Buffer page = frame.getBuffer();
+ *     // read or modify the page
+ * }
+ * finally
+ * {
+ *     pageCache.unpin(frame, isModified);
+ * }
+ * </pre>
+ * 
+ * Sequential scans should read pages through a {@link BulkReadRing}, which
+ * recycles a small ring of frames so that the scan does not flush the hot pages
+ * out of the cache.
+ * 
+ * The holder can be used from multiple threads. The pages are looked up in a
+ * lock-striped {@link PageTable}, and cache hits only increment the pin count
+ * of the frame with an atomic operation. The replacement lock is taken only
+ * for the misses, in which a frame is chosen and assigned to the page; the
+ * file I/O of the misses runs outside of the lock. Accesses recorded to the
+ * replacement policy on cache hits are skipped while the replacement lock is
+ * held by others, so the policy sees an approximation of the access history.
+ * 
+ * Pinning does not latch the page. Threads sharing a page must latch the frame
+ * (see {@link PageFrame}), and writers must hold the exclusive latch for the
+ * optimistic reads of {@link #read(long, PageReader)} to be validated.
+ * 
+ * Dirty pages are written back when their frames are reused, or by
+ * {@link #flushAll()}, which sorts the dirty pages in the page ID order and
+ * writes each run of adjacent pages with a single write. While a
+ * {@link PageWriter} is running, the eviction passes over the dirty frames and
+ * lets the writer clean them in the background, like the WSClock algorithm, so
+ * that a miss rarely has to wait for a write.
+ * 
+ * The page with ID p is located at the file position p * pageSize.
  * 
  * @author leo
- *
+ * 
  */
-public class PageCacheHolder {
-
-    private int pageSize;
-	private int numPageCacheMax;
-	private ArrayList<Buffer> pageCacheList = new ArrayList<Buffer>();
-	private Stack<Buffer> freePageCacheHolder = new Stack<Buffer>();
-	
-
-	public PageCacheHolder(int pageSize, int numPageCacheMax)
-	{
-		if(numPageCacheMax <= 0)
-			throw new IllegalArgumentException("num page cache must be higher than 0: " + numPageCacheMax);
-		if(pageSize <= 0)
-		    throw new IllegalArgumentException("page size must be higher than 0: " + pageSize);
-			
-		this.numPageCacheMax = numPageCacheMax;
-		
-		preparePageCache();
-		
-	}
-	
-	private void preparePageCache()
-	{
-	    pageCacheList.clear();
-	    freePageCacheHolder.clear();
-	    
-	    for(int i=0; i<numPageCacheMax; i++)
-	    {
-	        pageCacheList.add(new Buffer(pageSize));
-	    }
-	    for(Buffer pageCache : pageCacheList)
-	    {
-	        freePageCacheHolder.add(pageCache);
-	    }
-	}
-	
-	public Buffer getPageCache()
-	{
-	    if(freePageCacheHolder.empty())
-	    {
-	        
-	        return null;	        
-	    }
-	    else
-	    {
-	        return freePageCacheHolder.pop();
-	    }
-	}
-	
-	
-	
-}
+public class PageCacheHolder
+{
+    private static final int NUM_OPTIMISTIC_READ_TRIALS = 3;
+
+    /**
+     * The default maximum number of adjacent pages written at once
+     */
+    public static final int DEFAULT_MAX_WRITE_RUN_PAGES = 32;
+
+    private static final Comparator<PageFrame> PAGE_ID_ORDER = new Comparator<PageFrame>() {
+        public int compare(PageFrame f1, PageFrame f2)
+        {
+            long p1 = f1.getPageID();
+            long p2 = f2.getPageID();
+            return p1 < p2 ? -1 : (p1 == p2 ? 0 : 1);
+        }
+    };
+
+    private final DBFile file;
+    private final int pageSize;
+    private final PageFrame[] frameList;
+    private final PageTable pageTable;
+
+    // guarded by replacementLock
+    private final Stack<PageFrame> freeFrameHolder = new Stack<PageFrame>();
+    private final PageCacheReplacementPolicy replacementPolicy;
+    private final ReentrantLock replacementLock = new ReentrantLock();
+
+    // serializes the flushes, so that a flush returns after the pages written
+    // by a concurrent flush reach the file
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private volatile PageWriter pageWriter = null;
+
+    private final AtomicLong hitCount = new AtomicLong(0);
+    private final AtomicLong missCount = new AtomicLong(0);
+
+    /**
+     * Creates a page cache with the {@link ClockReplacementPolicy}
+     * 
+     * @param file
+     *            the file holding the pages
+     * @param pageSize
+     *            the byte size of a page
+     * @param numPageCacheMax
+     *            the number of page frames
+     */
+    public PageCacheHolder(DBFile file, int pageSize, int numPageCacheMax)
+    {
+        this(file, pageSize, numPageCacheMax, new ClockReplacementPolicy());
+    }
+
+    public PageCacheHolder(DBFile file, int pageSize, int numPageCacheMax, PageCacheReplacementPolicy replacementPolicy)
+    {
+        if (numPageCacheMax <= 0)
+            throw new IllegalArgumentException("num page cache must be higher than 0: " + numPageCacheMax);
+        if (pageSize <= 0)
+            throw new IllegalArgumentException("page size must be higher than 0: " + pageSize);
+
+        this.file = file;
+        this.pageSize = pageSize;
+        this.replacementPolicy = replacementPolicy;
+        this.frameList = new PageFrame[numPageCacheMax];
+        this.pageTable = new PageTable(numPageCacheMax, Runtime.getRuntime().availableProcessors() * 16);
+
+        replacementPolicy.init(numPageCacheMax);
+        for (int i = 0; i < numPageCacheMax; i++)
+        {
+            frameList[i] = new PageFrame(i, pageSize);
+        }
+        for (int i = numPageCacheMax - 1; i >= 0; i--)
+        {
+            freeFrameHolder.push(frameList[i]);
+        }
+    }
+
+    public DBFile getFile()
+    {
+        return file;
+    }
+
+    public int getPageSize()
+    {
+        return pageSize;
+    }
+
+    public int getNumFrames()
+    {
+        return frameList.length;
+    }
+
+    private long filePosition(long pageID)
+    {
+        return pageID * pageSize;
+    }
+
+    /**
+     * Pins the page. The page is read from the file unless it is already in the
+     * cache.
+     * 
+     * @param pageID
+     *            the page to pin
+     * @return the frame holding the page
+     * @throws DBException
+     *             when all frames are pinned, or failed to read the page
+     */
+    public PageFrame pin(long pageID) throws DBException
+    {
+        return pinPage(pageID, null);
+    }
+
+    /**
+     * Creates an access hint for a bulk read
+     * 
+     * @param ringSize
+     *            the number of frames recycled by the bulk read
+     * @return the ring
+     */
+    public BulkReadRing createBulkReadRing(int ringSize)
+    {
+        return new BulkReadRing(Math.min(ringSize, frameList.length));
+    }
+
+    /**
+     * Pins the page for a bulk read. When the page is not in the cache, the
+     * page is read into the frame recycled from the ring, if the frame is not
+     * used by others.
+     * 
+     * @param pageID
+     *            the page to pin
+     * @param ring
+     *            the ring of the bulk read
+     * @return the frame holding the page
+     * @throws DBException
+     *             when all frames are pinned, or failed to read the page
+     */
+    public PageFrame pin(long pageID, BulkReadRing ring) throws DBException
+    {
+        return pinPage(pageID, ring);
+    }
+
+    /**
+     * Pins a new page without reading the file. The page image is filled with
+     * zeros, and the frame is marked dirty, so that the page will be written
+     * to the file.
+     * 
+     * @param pageID
+     *            the page to create
+     * @return the frame holding the page
+     * @throws DBException
+     *             when all frames are pinned
+     */
+    public PageFrame pinNew(long pageID) throws DBException
+    {
+        if (pageID < 0)
+            throw new IllegalArgumentException("invalid page ID: " + pageID);
+
+        while (true)
+        {
+            PageFrame frame = pinIfCached(pageID);
+            if (frame != null)
+            {
+                frame.latchExclusive();
+                try
+                {
+                    frame.getBuffer().fill((byte) 0);
+                    frame.setDirty(true);
+                }
+                finally
+                {
+                    frame.unlatchExclusive();
+                }
+                return frame;
+            }
+
+            frame = loadPage(pageID, null, true);
+            if (frame != null)
+                return frame;
+        }
+    }
+
+    private PageFrame pinPage(long pageID, BulkReadRing ring) throws DBException
+    {
+        if (pageID < 0)
+            throw new IllegalArgumentException("invalid page ID: " + pageID);
+
+        while (true)
+        {
+            PageFrame frame = pinIfCached(pageID);
+            if (frame != null)
+            {
+                hitCount.incrementAndGet();
+                return frame;
+            }
+
+            frame = loadPage(pageID, ring, false);
+            if (frame != null)
+                return frame;
+            // another thread has started loading the page
+        }
+    }
+
+    /**
+     * Reads the page through the given reader. The page is first read
+     * optimistically, without pinning nor latching the frame, and the result
+     * is returned if the frame has not been modified during the read.
+     * Otherwise, the page is read again under the shared latch.
+     * 
+     * @param <T>
+     * @param pageID
+     *            the page to read
+     * @param reader
+     *            the read operation
+     * @return the result of the reader
+     * @throws DBException
+     *             when all frames are pinned, or failed to read the page
+     */
+    public <T> T read(long pageID, PageReader<T> reader) throws DBException
+    {
+        return read(pageID, reader, null);
+    }
+
+    /**
+     * Reads the page through the given reader, as {@link #read(long, PageReader)}
+     * does. When the page is not in the cache, the page is read into the frame
+     * recycled from the ring of the bulk read.
+     * 
+     * @param <T>
+     * @param pageID
+     *            the page to read
+     * @param reader
+     *            the read operation
+     * @param ring
+     *            the ring of the bulk read, or null
+     * @return the result of the reader
+     * @throws DBException
+     *             when all frames are pinned, or failed to read the page
+     */
+    public <T> T read(long pageID, PageReader<T> reader, BulkReadRing ring) throws DBException
+    {
+        PageFrame frame = pageTable.get(pageID);
+        if (frame != null)
+        {
+            for (int trial = 0; trial < NUM_OPTIMISTIC_READ_TRIALS; trial++)
+            {
+                long version = frame.getVersion();
+                // a busy frame may be mapped to the page before the page is loaded
+                if (frame.getPageID() != pageID || frame.getPinCount() == PageFrame.BUSY)
+                    break;
+
+                T result;
+                try
+                {
+                    result = reader.read(frame.getBuffer());
+                }
+                catch (RuntimeException e)
+                {
+                    if (frame.validate(version))
+                        throw e;
+                    // the page has been read in the middle of a modification
+                    continue;
+                }
+                catch (Error e)
+                {
+                    // e.g., OutOfMemoryError by a length read from a torn page image
+                    if (frame.validate(version))
+                        throw e;
+                    continue;
+                }
+
+                if (frame.getPageID() == pageID && frame.validate(version))
+                {
+                    hitCount.incrementAndGet();
+                    recordHit(frame, pageID);
+                    return result;
+                }
+            }
+        }
+
+        frame = pinPage(pageID, ring);
+        frame.latchShared();
+        try
+        {
+            return reader.read(frame.getBuffer());
+        }
+        finally
+        {
+            frame.unlatchShared();
+            unpin(frame, false);
+        }
+    }
+
+    /**
+     * Releases the pin of the frame
+     * 
+     * @param frame
+     *            the frame returned by {@link #pin(long)}
+     * @param isDirty
+     *            true if the page image has been modified
+     */
+    public void unpin(PageFrame frame, boolean isDirty)
+    {
+        if (frame.getPinCount() <= 0)
+            throw new IllegalStateException("the frame is not pinned: " + frame);
+
+        if (isDirty)
+            frame.setDirty(true);
+        frame.unpin();
+    }
+
+    /**
+     * Writes the page back to the file if it is dirty
+     * 
+     * @param pageID
+     * @throws DBException
+     */
+    public void flush(long pageID) throws DBException
+    {
+        flushLock.lock();
+        try
+        {
+            PageFrame frame = pageTable.get(pageID);
+            if (frame != null && frame.tryPin(pageID))
+            {
+                try
+                {
+                    writeBack(frame);
+                }
+                finally
+                {
+                    frame.unpin();
+                }
+            }
+        }
+        finally
+        {
+            flushLock.unlock();
+        }
+    }
 
+    /**
+     * Writes all of the dirty pages back to the file
+     * 
+     * @throws DBException
+     */
+    public void flushAll() throws DBException
+    {
+        writeDirtyPages(true, DEFAULT_MAX_WRITE_RUN_PAGES);
+    }
 
+    /**
+     * Writes all of the dirty pages back, and syncs the file, so that all of
+     * the modifications made before this call become durable
+     * 
+     * @throws DBException
+     */
+    public void checkpoint() throws DBException
+    {
+        flushAll();
+        file.sync();
+    }
 
+    /**
+     * Writes the dirty pages back to the file in the page ID order. Each run
+     * of adjacent pages is written with a single write of the file.
+     * 
+     * @param includePinned
+     *            false if the pages pinned by others are skipped, since they
+     *            are likely to be modified again
+     * @param maxRunPages
+     *            the maximum number of pages written at once
+     * @return the number of written pages
+     * @throws DBException
+     */
+    int writeDirtyPages(boolean includePinned, int maxRunPages) throws DBException
+    {
+        flushLock.lock();
+        try
+        {
+            // pin the dirty frames, so that they are not evicted until the
+            // pages reach the file
+            ArrayList<PageFrame> dirtyFrameList = new ArrayList<PageFrame>();
+            try
+            {
+                for (PageFrame frame : frameList)
+                {
+                    long pageID = frame.getPageID();
+                    if (pageID == PageFrame.NO_PAGE || !frame.isDirty())
+                        continue;
+                    if (!includePinned && frame.getPinCount() != 0)
+                        continue;
+                    if (frame.tryPin(pageID))
+                        dirtyFrameList.add(frame);
+                    else if (includePinned)
+                    {
+                        // wait for the write back of the evicted page
+                        try
+                        {
+                            frame.awaitNotBusy();
+                        }
+                        catch (InterruptedException e)
+                        {
+                            throw new DBException(DBErrorCode.ThreadInterruption, e);
+                        }
+                    }
+                }
+
+                Collections.sort(dirtyFrameList, PAGE_ID_ORDER);
+                int numWrittenPages = 0;
+                for (int begin = 0; begin < dirtyFrameList.size();)
+                {
+                    int end = begin + 1;
+                    while (end < dirtyFrameList.size() && end - begin < maxRunPages
+                            && dirtyFrameList.get(end).getPageID() == dirtyFrameList.get(end - 1).getPageID() + 1)
+                        end++;
+
+                    writeRun(dirtyFrameList.subList(begin, end));
+                    numWrittenPages += end - begin;
+                    begin = end;
+                }
+                return numWrittenPages;
+            }
+            finally
+            {
+                for (PageFrame frame : dirtyFrameList)
+                    frame.unpin();
+            }
+        }
+        finally
+        {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the pinned frames of adjacent pages at once
+     */
+    private void writeRun(List<PageFrame> run) throws DBException
+    {
+        if (run.size() == 1)
+        {
+            writeBack(run.get(0));
+            return;
+        }
+
+        byte[] runBuffer = new byte[run.size() * pageSize];
+        for (int i = 0; i < run.size(); i++)
+        {
+            PageFrame frame = run.get(i);
+            frame.latchShared();
+            try
+            {
+                frame.setDirty(false);
+                frame.getBuffer().get(0, runBuffer, i * pageSize, pageSize);
+            }
+            finally
+            {
+                frame.unlatchShared();
+            }
+        }
+
+        try
+        {
+            file.writeAt(filePosition(run.get(0).getPageID()), runBuffer, 0, runBuffer.length);
+        }
+        catch (DBException e)
+        {
+            for (PageFrame frame : run)
+                frame.setDirty(true);
+            throw e;
+        }
+    }
+
+    /**
+     * Drops the page from the cache without writing it back
+     * 
+     * @param pageID
+     */
+    public void discard(long pageID)
+    {
+        replacementLock.lock();
+        try
+        {
+            PageFrame frame = pageTable.get(pageID);
+            if (frame == null)
+                return;
+            if (!frame.tryClaim())
+                throw new IllegalStateException("cannot discard a pinned page: " + frame);
+
+            replacementPolicy.remove(frame.getFrameIndex());
+            pageTable.remove(pageID, frame);
+            frame.setPageID(PageFrame.NO_PAGE);
+            frame.setDirty(false);
+            freeFrameHolder.push(frame);
+            frame.release(0);
+        }
+        finally
+        {
+            replacementLock.unlock();
+        }
+    }
+
+    public long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+    public long getMissCount()
+    {
+        return missCount.get();
+    }
+
+    /**
+     * Gets the number of the dirty frames
+     * 
+     * @return the number of dirty frames
+     */
+    public int getNumDirtyFrames()
+    {
+        int count = 0;
+        for (PageFrame frame : frameList)
+        {
+            if (frame.isDirty())
+                count++;
+        }
+        return count;
+    }
+
+    void setPageWriter(PageWriter pageWriter)
+    {
+        this.pageWriter = pageWriter;
+    }
+
+    private PageFrame pinIfCached(long pageID) throws DBException
+    {
+        while (true)
+        {
+            PageFrame frame = pageTable.get(pageID);
+            if (frame == null)
+                return null;
+
+            if (frame.tryPin(pageID))
+            {
+                recordHit(frame, pageID);
+                return frame;
+            }
+
+            // the frame is being loaded or evicted
+            try
+            {
+                frame.awaitNotBusy();
+            }
+            catch (InterruptedException e)
+            {
+                throw new DBException(DBErrorCode.ThreadInterruption, e);
+            }
+        }
+    }
+
+    private void recordHit(PageFrame frame, long pageID)
+    {
+        if (!replacementLock.tryLock())
+            return;
+        try
+        {
+            // the frame might have been reused in the meantime
+            if (frame.getPageID() == pageID)
+                replacementPolicy.recordAccess(frame.getFrameIndex(), pageID);
+        }
+        finally
+        {
+            replacementLock.unlock();
+        }
+    }
+
+    /**
+     * Assigns a frame to the page, and reads the page into the frame
+     * 
+     * @return the pinned frame, or null if another thread has started loading
+     *         the same page
+     */
+    private PageFrame loadPage(long pageID, BulkReadRing ring, boolean isNew) throws DBException
+    {
+        PageFrame frame = reserveFrame(pageID, ring);
+        if (frame == null)
+            return null;
+
+        if (!isNew)
+            missCount.incrementAndGet();
+        frame.latchExclusive();
+        try
+        {
+            if (isNew)
+                frame.getBuffer().fill((byte) 0);
+            else
+                frame.getBuffer().load(file, filePosition(pageID));
+        }
+        catch (DBException e)
+        {
+            abandonFrame(frame, pageID);
+            throw e;
+        }
+        finally
+        {
+            frame.unlatchExclusive();
+        }
+
+        publishFrame(frame, pageID, isNew, 1);
+        return frame;
+    }
+
+    /**
+     * Reads the pages that are not in the cache, without pinning them. Each
+     * run of the adjacent missing pages is read with a single read of the
+     * file. Prefetching stops when no frame can be reused.
+     * 
+     * @param firstPageID
+     *            the first page to read
+     * @param numPages
+     *            the number of pages to read
+     * @return the number of pages read into the cache
+     * @throws DBException
+     *             when failed to read the file
+     */
+    public int prefetch(long firstPageID, int numPages) throws DBException
+    {
+        return prefetch(firstPageID, numPages, null);
+    }
+
+    /**
+     * Reads the pages that are not in the cache into the frames recycled from
+     * the ring of a bulk read, so that the read-ahead of a scan does not evict
+     * the frames of the whole cache
+     * 
+     * @param firstPageID
+     *            the first page to read
+     * @param numPages
+     *            the number of pages to read
+     * @param ring
+     *            the ring of the bulk read, or null
+     * @return the number of pages read into the cache
+     * @throws DBException
+     *             when failed to read the file
+     */
+    public int prefetch(long firstPageID, int numPages, BulkReadRing ring) throws DBException
+    {
+        if (firstPageID < 0)
+            throw new IllegalArgumentException("invalid page ID: " + firstPageID);
+
+        int numReadPages = 0;
+        ArrayList<PageFrame> run = new ArrayList<PageFrame>();
+        long runStart = firstPageID;
+        boolean hasFreeFrame = true;
+        for (long pageID = firstPageID; pageID < firstPageID + numPages && hasFreeFrame; pageID++)
+        {
+            PageFrame frame = null;
+            try
+            {
+                frame = reserveFrame(pageID, ring);
+            }
+            catch (DBException e)
+            {
+                if (e.getErrorCode() != DBErrorCode.NoFreePageFrame)
+                {
+                    readRun(runStart, run);
+                    throw e;
+                }
+                hasFreeFrame = false;
+            }
+
+            if (frame == null)
+            {
+                numReadPages += readRun(runStart, run);
+                runStart = pageID + 1;
+            }
+            else
+                run.add(frame);
+        }
+        numReadPages += readRun(runStart, run);
+        return numReadPages;
+    }
+
+    /**
+     * Reads the pages into the reserved frames with a single read, and clears
+     * the given run
+     */
+    private int readRun(long runStart, List<PageFrame> run) throws DBException
+    {
+        int numPages = run.size();
+        if (numPages == 0)
+            return 0;
+
+        try
+        {
+            byte[] runBuffer = new byte[numPages * pageSize];
+            try
+            {
+                file.readAt(filePosition(runStart), runBuffer, 0, runBuffer.length);
+            }
+            catch (DBException e)
+            {
+                for (int i = 0; i < numPages; i++)
+                    abandonFrame(run.get(i), runStart + i);
+                throw e;
+            }
+
+            missCount.addAndGet(numPages);
+            for (int i = 0; i < numPages; i++)
+            {
+                PageFrame frame = run.get(i);
+                frame.latchExclusive();
+                try
+                {
+                    frame.getBuffer().put(0, runBuffer, i * pageSize, pageSize);
+                }
+                finally
+                {
+                    frame.unlatchExclusive();
+                }
+                publishFrame(frame, runStart + i, false, 0);
+            }
+            return numPages;
+        }
+        finally
+        {
+            run.clear();
+        }
+    }
+
+    /**
+     * Chooses a frame for the page, writes back the previous page in the
+     * frame, and maps the page to the frame. The frame stays busy until
+     * {@link #publishFrame(PageFrame, long, boolean, int)} or
+     * {@link #abandonFrame(PageFrame, long)} is called, so the other threads
+     * wait for the page to be loaded.
+     * 
+     * @return the busy frame, or null if the page is already in the cache
+     */
+    private PageFrame reserveFrame(long pageID, BulkReadRing ring) throws DBException
+    {
+        PageFrame frame = null;
+        replacementLock.lock();
+        try
+        {
+            if (pageTable.get(pageID) != null)
+                return null;
+            if (ring != null)
+                frame = recycleRingFrame(ring);
+            if (frame == null)
+                frame = allocateFrame();
+        }
+        finally
+        {
+            replacementLock.unlock();
+        }
+
+        // the frame is busy now. Write back the previous page outside of the lock
+        try
+        {
+            writeBack(frame);
+        }
+        catch (DBException e)
+        {
+            // keep the victim in the cache
+            replacementLock.lock();
+            try
+            {
+                replacementPolicy.reinstate(frame.getFrameIndex(), frame.getPageID());
+                replacementPolicy.setEvictable(frame.getFrameIndex(), true);
+            }
+            finally
+            {
+                replacementLock.unlock();
+            }
+            frame.release(0);
+            throw e;
+        }
+
+        replacementLock.lock();
+        try
+        {
+            if (frame.getPageID() != PageFrame.NO_PAGE)
+                pageTable.remove(frame.getPageID(), frame);
+            frame.setPageID(PageFrame.NO_PAGE);
+            if (pageTable.putIfAbsent(pageID, frame) != null)
+            {
+                // another thread has loaded the page during the write back
+                freeFrameHolder.push(frame);
+                frame.release(0);
+                return null;
+            }
+            frame.setPageID(pageID);
+            // advance the ring now, since the read-ahead reserves several
+            // frames of the ring before loading them
+            if (ring != null)
+                ring.put(frame.getFrameIndex(), pageID);
+        }
+        finally
+        {
+            replacementLock.unlock();
+        }
+        return frame;
+    }
+
+    /**
+     * Makes the loaded page available to the other threads
+     */
+    private void publishFrame(PageFrame frame, long pageID, boolean isDirty, int pinCount)
+    {
+        frame.setDirty(isDirty);
+        replacementLock.lock();
+        try
+        {
+            replacementPolicy.recordAccess(frame.getFrameIndex(), pageID);
+            replacementPolicy.setEvictable(frame.getFrameIndex(), true);
+        }
+        finally
+        {
+            replacementLock.unlock();
+        }
+
+        frame.release(pinCount);
+    }
+
+    /**
+     * Returns the reserved frame to the free list, when failed to load the
+     * page
+     */
+    private void abandonFrame(PageFrame frame, long pageID)
+    {
+        replacementLock.lock();
+        try
+        {
+            pageTable.remove(pageID, frame);
+            frame.setPageID(PageFrame.NO_PAGE);
+            freeFrameHolder.push(frame);
+        }
+        finally
+        {
+            replacementLock.unlock();
+        }
+        frame.release(0);
+    }
+
+    /**
+     * Takes back the current frame of the ring from the cache, if the frame
+     * still holds the page loaded through the ring, and no one pins it
+     */
+    private PageFrame recycleRingFrame(BulkReadRing ring)
+    {
+        int frameIndex = ring.currentFrame();
+        if (frameIndex < 0)
+            return null;
+
+        PageFrame frame = frameList[frameIndex];
+        if (frame.getPageID() != ring.currentPage() || !frame.tryClaim())
+            return null;
+
+        replacementPolicy.remove(frameIndex);
+        return frame;
+    }
+
+    /**
+     * Gets a free frame, or evicts a frame chosen by the replacement policy.
+     * The returned frame is busy.
+     */
+    private PageFrame allocateFrame() throws DBException
+    {
+        while (!freeFrameHolder.empty())
+        {
+            PageFrame frame = freeFrameHolder.pop();
+            if (frame.tryClaim())
+                return frame;
+        }
+
+        // The policy is not notified of pins, so the victim may have been
+        // pinned since its last access. Such a frame is held aside until a
+        // victim is found, and then reinstated without counting an access,
+        // in the reverse order so that the frames regain their ranks.
+        // Dirty frames are also passed over while the page writer is running,
+        // unless all of the other frames are pinned.
+        final PageWriter writer = pageWriter;
+        List<Integer> passedOver = new ArrayList<Integer>();
+        boolean hasSkippedDirtyFrames = false;
+        try
+        {
+            int victimIndex;
+            while ((victimIndex = replacementPolicy.evict()) >= 0)
+            {
+                PageFrame victim = frameList[victimIndex];
+                boolean skipDirty = writer != null && victim.isDirty();
+                if (skipDirty)
+                    hasSkippedDirtyFrames = true;
+                else if (victim.tryClaim())
+                {
+                    if (hasSkippedDirtyFrames)
+                        writer.wakeUp();
+                    return victim;
+                }
+                passedOver.add(victimIndex);
+            }
+
+            if (hasSkippedDirtyFrames)
+            {
+                for (int i = 0; i < passedOver.size(); i++)
+                {
+                    PageFrame victim = frameList[passedOver.get(i)];
+                    if (victim.isDirty() && victim.tryClaim())
+                    {
+                        passedOver.remove(i);
+                        writer.wakeUp();
+                        return victim;
+                    }
+                }
+            }
+        }
+        finally
+        {
+            for (int i = passedOver.size() - 1; i >= 0; i--)
+            {
+                int frameIndex = passedOver.get(i);
+                replacementPolicy.reinstate(frameIndex, frameList[frameIndex].getPageID());
+                replacementPolicy.setEvictable(frameIndex, true);
+            }
+        }
+
+        throw new DBException(DBErrorCode.NoFreePageFrame, "all of the " + frameList.length
+                + " page frames are pinned");
+    }
+
+    private void writeBack(PageFrame frame) throws DBException
+    {
+        if (!frame.isDirty())
+            return;
+
+        frame.latchShared();
+        try
+        {
+            // clear the flag before the write; the frames modified after this
+            // point are marked dirty again when unpinned
+            frame.setDirty(false);
+            try
+            {
+                frame.getBuffer().save(file, filePosition(frame.getPageID()));
+            }
+            catch (DBException e)
+            {
+                frame.setDirty(true);
+                throw e;
+            }
+        }
+        finally
+        {
+            frame.unlatchShared();
+        }
+    }
+
+}
@@ -24,15 +24,78 @@
 //--------------------------------------
 package org.xerial.db.cache;
 
-
+/**
+ * A policy that chooses the page frame to be reused when no free frame is left
+ * in the {@link PageCacheHolder}.
+ * 
+ * The frames are identified by their indexes, [0, numFrames). A frame becomes
+ * a candidate of the eviction only while it is evictable. The
+ * {@link PageCacheHolder} calls the methods of the policy while holding its
+ * replacement lock, so the implementations need no synchronization.
+ * 
+ * Pinning a cached page does not go through the policy, so an evictable frame
+ * may be pinned when {@link #evict()} chooses it. The {@link PageCacheHolder}
+ * then reinstates the frame, makes it evictable again, and asks for another
+ * victim. Accesses on cache hits may also be skipped under contention.
+ * 
+ * @author leo
+ * 
+ */
 public interface PageCacheReplacementPolicy
 {
-    enum PageCacheOperation
-    {
-        WriteBackToDisk
-    }
+    /**
+     * Initializes the policy
+     * 
+     * @param numFrames
+     *            the number of frames in the page cache
+     */
+    public void init(int numFrames);
+
+    /**
+     * Records an access to the frame
+     * 
+     * @param frameIndex
+     *            the accessed frame
+     * @param pageID
+     *            the page held in the frame
+     */
+    public void recordAccess(int frameIndex, long pageID);
+
+    /**
+     * Sets whether the frame can be evicted
+     * 
+     * @param frameIndex
+     * @param isEvictable
+     */
+    public void setEvictable(int frameIndex, boolean isEvictable);
+
+    /**
+     * Chooses an evictable frame, and stops tracking it
+     * 
+     * @return the index of the victim frame, or -1 if no frame is evictable
+     */
+    public int evict();
+
+    /**
+     * Puts back a frame chosen by {@link #evict()} whose page stays in the
+     * cache, e.g., because the frame has been pinned. Unlike
+     * {@link #recordAccess(int, long)}, this is not counted as an access to the
+     * page, and the frame regains its rank in the eviction order. The frames
+     * evicted one after another are reinstated in the reverse order of their
+     * eviction.
+     * 
+     * @param frameIndex
+     *            the frame returned by {@link #evict()}
+     * @param pageID
+     *            the page held in the frame
+     */
+    public void reinstate(int frameIndex, long pageID);
+
+    /**
+     * Stops tracking the frame, since its page has been discarded
+     * 
+     * @param frameIndex
+     */
+    public void remove(int frameIndex);
 
-    
-    public PageCacheOperation whenNoMorePageCacheIsAvailable();
-    
 }
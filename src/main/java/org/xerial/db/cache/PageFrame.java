@@ -0,0 +1,258 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// PageFrame.java
+// Since: Oct 18, 2026 1:10:22 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.cache;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A slot of the {@link PageCacheHolder} that holds a page image in its
+ * {@link Buffer}. A frame is pinned while it is used, and can be reused for
+ * another page only after all of the pins are released.
+ *
+ * The page image is protected by the latch of the frame. Readers of the page
+ * hold the shared latch, and writers hold the exclusive latch. Each exclusive
+ * latch, and each replacement of the page in the frame, advances the version
+ * of the frame. A reader can therefore read the page optimistically without
+ * any latch, and validate the result afterwards:
+ *
+ * <pre>
+ * long version = frame.getVersion();
+ * // read the page
+ * if (!frame.validate(version))
+ *     // retry, or fall back to the shared latch
+ * </pre>
+ *
+ * The version is odd while the page is being modified.
+ *
+ * @author leo
+ *
+ */
+public class PageFrame
+{
+    /**
+     * The page ID of the frames holding no page
+     */
+    public static final long NO_PAGE = -1;
+
+    /**
+     * The pin count of the frames being loaded or evicted
+     */
+    static final int BUSY = -1;
+
+    private final int frameIndex;
+    private final Buffer buffer;
+    private volatile long pageID = NO_PAGE;
+    private final AtomicInteger pinCount = new AtomicInteger(0);
+    private volatile boolean isDirty = false;
+    private final ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
+    private final AtomicLong version = new AtomicLong(0);
+
+    PageFrame(int frameIndex, int pageSize)
+    {
+        this.frameIndex = frameIndex;
+        this.buffer = new Buffer(pageSize);
+    }
+
+    /**
+     * Gets the index of this frame in the {@link PageCacheHolder}
+     *
+     * @return the frame index
+     */
+    public int getFrameIndex()
+    {
+        return frameIndex;
+    }
+
+    /**
+     * Gets the page image
+     *
+     * @return the buffer holding the page contents
+     */
+    public Buffer getBuffer()
+    {
+        return buffer;
+    }
+
+    /**
+     * Gets the page ID held in this frame
+     *
+     * @return the page ID, or {@link #NO_PAGE} if this frame is empty
+     */
+    public long getPageID()
+    {
+        return pageID;
+    }
+
+    public int getPinCount()
+    {
+        return pinCount.get();
+    }
+
+    /**
+     * @return true if the page image has been modified since it is loaded from
+     *         the file
+     */
+    public boolean isDirty()
+    {
+        return isDirty;
+    }
+
+    /**
+     * Acquires the shared latch to read the page
+     */
+    public void latchShared()
+    {
+        latch.readLock().lock();
+    }
+
+    public void unlatchShared()
+    {
+        latch.readLock().unlock();
+    }
+
+    /**
+     * Acquires the exclusive latch to modify the page
+     */
+    public void latchExclusive()
+    {
+        latch.writeLock().lock();
+        version.incrementAndGet();
+    }
+
+    public void unlatchExclusive()
+    {
+        version.incrementAndGet();
+        latch.writeLock().unlock();
+    }
+
+    /**
+     * Gets the current version of the page image for an optimistic read
+     *
+     * @return the version, which is odd while the page is being modified
+     */
+    public long getVersion()
+    {
+        return version.get();
+    }
+
+    /**
+     * Validates an optimistic read started at the given version
+     *
+     * @param startVersion
+     *            the version obtained by {@link #getVersion()} before the read
+     * @return true if the page has not been modified nor replaced during the
+     *         read
+     */
+    public boolean validate(long startVersion)
+    {
+        // compareAndSet, instead of a plain volatile read, keeps the reads of
+        // the page from being reordered after the validation
+        return (startVersion & 1L) == 0 && version.compareAndSet(startVersion, startVersion);
+    }
+
+    void setPageID(long pageID)
+    {
+        this.pageID = pageID;
+    }
+
+    void setDirty(boolean isDirty)
+    {
+        this.isDirty = isDirty;
+    }
+
+    /**
+     * Pins this frame if it holds the page, and is not busy
+     *
+     * @param expectedPageID
+     * @return true if pinned
+     */
+    boolean tryPin(long expectedPageID)
+    {
+        while (true)
+        {
+            int count = pinCount.get();
+            if (count == BUSY)
+                return false;
+            if (pinCount.compareAndSet(count, count + 1))
+                break;
+        }
+        if (pageID == expectedPageID)
+            return true;
+
+        // the frame has been reused for another page
+        unpin();
+        return false;
+    }
+
+    int unpin()
+    {
+        while (true)
+        {
+            int count = pinCount.get();
+            if (count <= 0)
+                throw new IllegalStateException("the frame is not pinned: " + this);
+            if (pinCount.compareAndSet(count, count - 1))
+                return count - 1;
+        }
+    }
+
+    /**
+     * Makes this frame busy for loading or evicting the page, if no one pins it
+     *
+     * @return true if this frame becomes busy
+     */
+    boolean tryClaim()
+    {
+        return pinCount.compareAndSet(0, BUSY);
+    }
+
+    /**
+     * Ends the busy state with the given pin count, and wakes up the threads
+     * waiting for this frame
+     */
+    synchronized void release(int newPinCount)
+    {
+        pinCount.set(newPinCount);
+        notifyAll();
+    }
+
+    /**
+     * Blocks while this frame is busy
+     */
+    synchronized void awaitNotBusy() throws InterruptedException
+    {
+        while (pinCount.get() == BUSY)
+            wait();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("frame %d (page:%d, pin:%d%s)", frameIndex, pageID, pinCount.get(), isDirty ? ", dirty"
+                : "");
+    }
+}
@@ -0,0 +1,218 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// PagePrefetcher.java
+// Since: Oct 18, 2026 6:25:40 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.cache;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xerial.db.DBException;
+import org.xerial.util.log.Logger;
+
+/**
+ * Read-ahead of the pages for sequential scans, e.g., the heap pages or the
+ * linked B-tree leaves.
+ * 
+ * Each scan pins pages through its own {@link PrefetchScan}, which watches the
+ * page IDs accessed by the scan. Once the scan reads consecutive pages, the
+ * following pages are read into the {@link PageCacheHolder} asynchronously by
+ * the given {@link Executor}, so that the scan finds them in the cache. The
+ * missing pages are read with a single read of the file for each run of
+ * adjacent pages (see {@link PageCacheHolder#prefetch(long, int)}).
+ * 
+ * A scan opened with a {@link BulkReadRing} pins its pages and reads ahead
+ * through the ring, so that neither the scan nor its read-ahead displaces the
+ * other pages in the cache. The read-ahead of such a scan is limited to half of
+ * the ring size, so that the pages read ahead are not recycled before the scan
+ * reaches them. A ring of {@link #getRingSize(int)} frames allows the full
+ * read-ahead.
+ * 
+ * <pre>
+ * PagePrefetcher prefetcher = new PagePrefetcher(pageCache, executor);
+ * PrefetchScan scan = prefetcher.openScan(numPages);
+ * for (long pageID = 0; pageID &lt; numPages; pageID++)
+ * {
+ *     PageFrame frame = scan.pin(pageID);
+ *     ...
+ *     pageCache.unpin(frame, false);
+ * }
+ * </pre>
+ * 
+ * @author leo
+ * 
+ */
+public class PagePrefetcher
+{
+    private static Logger _logger = Logger.getLogger(PagePrefetcher.class);
+
+    /**
+     * The default number of pages read ahead at once
+     */
+    public static final int DEFAULT_READ_AHEAD_PAGES = 32;
+    /**
+     * The number of consecutive accesses to start the read-ahead
+     */
+    public static final int SEQUENTIAL_ACCESS_THRESHOLD = 2;
+
+    private final PageCacheHolder pageCache;
+    private final Executor executor;
+    private final int readAheadPages;
+
+    private final AtomicLong numPrefetchRequests = new AtomicLong(0);
+    private final AtomicLong numPrefetchedPages = new AtomicLong(0);
+
+    public PagePrefetcher(PageCacheHolder pageCache, Executor executor)
+    {
+        this(pageCache, executor, DEFAULT_READ_AHEAD_PAGES);
+    }
+
+    /**
+     * @param pageCache
+     *            the page cache into which the pages are read
+     * @param executor
+     *            the executor of the asynchronous reads
+     * @param readAheadPages
+     *            the number of pages read ahead at once. At most a quarter of
+     *            the frames in the page cache are used.
+     */
+    public PagePrefetcher(PageCacheHolder pageCache, Executor executor, int readAheadPages)
+    {
+        if (readAheadPages <= 0)
+            throw new IllegalArgumentException("read-ahead pages must be higher than 0: " + readAheadPages);
+
+        this.pageCache = pageCache;
+        this.executor = executor;
+        this.readAheadPages = Math.max(1, Math.min(readAheadPages, pageCache.getNumFrames() / 4));
+    }
+
+    public PageCacheHolder getPageCache()
+    {
+        return pageCache;
+    }
+
+    public int getReadAheadPages()
+    {
+        return readAheadPages;
+    }
+
+    /**
+     * Gets the size of the ring for the scans reading ahead through the ring
+     * 
+     * @param minRingSize
+     *            the ring size used without the read-ahead
+     * @return the ring size
+     */
+    public int getRingSize(int minRingSize)
+    {
+        return Math.max(minRingSize, readAheadPages * 2);
+    }
+
+    /**
+     * Starts a scan that may read any page
+     * 
+     * @return the scan
+     */
+    public PrefetchScan openScan()
+    {
+        return openScan(Long.MAX_VALUE);
+    }
+
+    /**
+     * Starts a scan of the pages before the given page ID. The pages at or
+     * after the end are never read ahead.
+     * 
+     * @param endPageID
+     *            the end of the pages (exclusive)
+     * @return the scan
+     */
+    public PrefetchScan openScan(long endPageID)
+    {
+        return new PrefetchScan(this, endPageID, null, readAheadPages);
+    }
+
+    /**
+     * Starts a scan of the pages before the given page ID, which pins the pages
+     * and reads ahead through the ring
+     * 
+     * @param endPageID
+     *            the end of the pages (exclusive)
+     * @param ring
+     *            the ring of the scan
+     * @return the scan
+     */
+    public PrefetchScan openScan(long endPageID, BulkReadRing ring)
+    {
+        return new PrefetchScan(this, endPageID, ring, Math.max(1, Math.min(readAheadPages, ring.size() / 2)));
+    }
+
+    /**
+     * Reads the pages asynchronously
+     */
+    void submit(final long firstPageID, final int numPages, final BulkReadRing ring)
+    {
+        numPrefetchRequests.incrementAndGet();
+        try
+        {
+            executor.execute(new Runnable() {
+                public void run()
+                {
+                    try
+                    {
+                        numPrefetchedPages.addAndGet(pageCache.prefetch(firstPageID, numPages, ring));
+                    }
+                    catch (DBException e)
+                    {
+                        // the scan will read the page by itself
+                        _logger.debug(e);
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            _logger.debug(e);
+        }
+    }
+
+    /**
+     * Gets the number of the issued read-ahead requests
+     * 
+     * @return the number of requests
+     */
+    public long getNumPrefetchRequests()
+    {
+        return numPrefetchRequests.get();
+    }
+
+    /**
+     * Gets the number of the pages read into the cache by the read-ahead
+     * 
+     * @return the number of the prefetched pages
+     */
+    public long getNumPrefetchedPages()
+    {
+        return numPrefetchedPages.get();
+    }
+}
@@ -0,0 +1,54 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// PageReader.java
+// Since: Oct 18, 2026 4:32:10 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.cache;
+
+/**
+ * A read-only operation on a page image, used for the optimistic reads of the
+ * {@link PageCacheHolder}.
+ * 
+ * An optimistic read runs without any latch, so the page image may be modified
+ * by other threads during the read. In that case the result is discarded, and
+ * the read is retried. The implementation therefore must not leak the page
+ * contents (or objects referring to them) out of {@link #read(Buffer)} other
+ * than through the result, and must tolerate inconsistent contents, e.g., a
+ * corrupted length field. Runtime exceptions thrown from an inconsistent image
+ * are also discarded.
+ * 
+ * @author leo
+ * 
+ * @param <T>
+ *            the result type
+ */
+public interface PageReader<T>
+{
+    /**
+     * Reads the page
+     * 
+     * @param page
+     *            the page image
+     * @return the result of the read
+     */
+    public T read(Buffer page);
+}
@@ -0,0 +1,236 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// PageTable.java
+// Since: Oct 18, 2026 4:05:36 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.cache;
+
+import java.util.Arrays;
+
+/**
+ * A lock-striped hash table from page IDs to {@link PageFrame}s. The table is
+ * divided into stripes, each of which is an open-addressing hash table guarded
+ * by its own lock, so that the lookups of different pages rarely contend. The
+ * page IDs are stored in primitive arrays to avoid boxing on the lookup path.
+ * 
+ * @author leo
+ * 
+ */
+public class PageTable
+{
+    private static final long EMPTY = PageFrame.NO_PAGE;
+
+    private static class Stripe
+    {
+        long[] key;
+        PageFrame[] value;
+        int size = 0;
+
+        Stripe(int capacity)
+        {
+            key = new long[capacity];
+            value = new PageFrame[capacity];
+            Arrays.fill(key, EMPTY);
+        }
+    }
+
+    private final Stripe[] stripeList;
+    private final int stripeMask;
+
+    /**
+     * @param expectedSize
+     *            the expected number of entries, e.g., the number of frames
+     * @param numStripes
+     *            the number of stripes (rounded up to a power of two)
+     */
+    public PageTable(int expectedSize, int numStripes)
+    {
+        int n = 1;
+        while (n < numStripes)
+            n <<= 1;
+        stripeList = new Stripe[n];
+        stripeMask = n - 1;
+
+        int stripeCapacity = 4;
+        while (stripeCapacity < (expectedSize / n + 1) * 2)
+            stripeCapacity <<= 1;
+        for (int i = 0; i < n; i++)
+            stripeList[i] = new Stripe(stripeCapacity);
+    }
+
+    private static long mix(long pageID)
+    {
+        long h = pageID * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    private Stripe stripeOf(long h)
+    {
+        return stripeList[(int) (h >>> 48) & stripeMask];
+    }
+
+    /**
+     * Gets the frame mapped from the page
+     * 
+     * @param pageID
+     * @return the frame, or null if the page is not in the table
+     */
+    public PageFrame get(long pageID)
+    {
+        long h = mix(pageID);
+        Stripe s = stripeOf(h);
+        synchronized (s)
+        {
+            int mask = s.key.length - 1;
+            for (int i = (int) h & mask;; i = (i + 1) & mask)
+            {
+                long k = s.key[i];
+                if (k == pageID)
+                    return s.value[i];
+                if (k == EMPTY)
+                    return null;
+            }
+        }
+    }
+
+    /**
+     * Maps the page to the frame unless the page is already in the table
+     * 
+     * @param pageID
+     * @param frame
+     * @return the frame already mapped from the page, or null if the given
+     *         frame is registered
+     */
+    public PageFrame putIfAbsent(long pageID, PageFrame frame)
+    {
+        if (pageID == EMPTY)
+            throw new IllegalArgumentException("invalid page ID: " + pageID);
+
+        long h = mix(pageID);
+        Stripe s = stripeOf(h);
+        synchronized (s)
+        {
+            if ((s.size + 1) * 4 > s.key.length * 3)
+                rehash(s);
+
+            int mask = s.key.length - 1;
+            for (int i = (int) h & mask;; i = (i + 1) & mask)
+            {
+                long k = s.key[i];
+                if (k == pageID)
+                    return s.value[i];
+                if (k == EMPTY)
+                {
+                    s.key[i] = pageID;
+                    s.value[i] = frame;
+                    s.size++;
+                    return null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the entry if the page is mapped to the given frame
+     * 
+     * @param pageID
+     * @param frame
+     * @return true if the entry is removed
+     */
+    public boolean remove(long pageID, PageFrame frame)
+    {
+        long h = mix(pageID);
+        Stripe s = stripeOf(h);
+        synchronized (s)
+        {
+            int mask = s.key.length - 1;
+            int i = (int) h & mask;
+            for (;; i = (i + 1) & mask)
+            {
+                long k = s.key[i];
+                if (k == EMPTY)
+                    return false;
+                if (k == pageID)
+                {
+                    if (s.value[i] != frame)
+                        return false;
+                    break;
+                }
+            }
+
+            // backward shift deletion keeps the probe sequences unbroken
+            int hole = i;
+            for (int j = (hole + 1) & mask; s.key[j] != EMPTY; j = (j + 1) & mask)
+            {
+                int home = (int) mix(s.key[j]) & mask;
+                // move the entry j to the hole if its home is not in (hole, j]
+                boolean movable = (hole <= j) ? (home <= hole || home > j) : (home <= hole && home > j);
+                if (movable)
+                {
+                    s.key[hole] = s.key[j];
+                    s.value[hole] = s.value[j];
+                    hole = j;
+                }
+            }
+            s.key[hole] = EMPTY;
+            s.value[hole] = null;
+            s.size--;
+            return true;
+        }
+    }
+
+    private static void rehash(Stripe s)
+    {
+        long[] oldKey = s.key;
+        PageFrame[] oldValue = s.value;
+        s.key = new long[oldKey.length * 2];
+        s.value = new PageFrame[oldKey.length * 2];
+        Arrays.fill(s.key, EMPTY);
+        int mask = s.key.length - 1;
+        for (int i = 0; i < oldKey.length; i++)
+        {
+            if (oldKey[i] == EMPTY)
+                continue;
+            int j = (int) mix(oldKey[i]) & mask;
+            while (s.key[j] != EMPTY)
+                j = (j + 1) & mask;
+            s.key[j] = oldKey[i];
+            s.value[j] = oldValue[i];
+        }
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public int size()
+    {
+        int size = 0;
+        for (Stripe s : stripeList)
+        {
+            synchronized (s)
+            {
+                size += s.size;
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,276 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// PageWriter.java
+// Since: Oct 18, 2026 5:40:12 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.cache;
+
+import org.xerial.db.DBErrorCode;
+import org.xerial.db.DBException;
+import org.xerial.util.log.Logger;
+
+/**
+ * A background thread that writes the dirty pages of a {@link PageCacheHolder}
+ * back to the file.
+ * 
+ * At every write interval, the writer trickles the dirty pages that are not
+ * pinned to the file in the page ID order, coalescing adjacent pages into a
+ * single write. The writer is also woken up when a miss in the cache finds
+ * only dirty frames to be reused. Since the cache passes over the dirty frames
+ * while the writer is running, the misses rarely wait for a write.
+ * 
+ * At every checkpoint interval, the writer flushes all of the dirty pages,
+ * including the pinned ones, and syncs the file. The modifications older than
+ * the last checkpoint are therefore durable, which bounds the amount of work
+ * lost, or to be redone, after a crash.
+ * 
+ * <pre>
+ * PageWriter writer = new PageWriter(pageCache);
+ * writer.start();
+ * ...
+ * writer.shutdown(); // performs the last checkpoint
+ * </pre>
+ * 
+ * @author leo
+ * 
+ */
+public class PageWriter
+{
+    private static Logger _logger = Logger.getLogger(PageWriter.class);
+
+    /**
+     * The default write interval (200 ms)
+     */
+    public static final long DEFAULT_WRITE_INTERVAL = 200;
+    /**
+     * The default checkpoint interval (30 sec.)
+     */
+    public static final long DEFAULT_CHECKPOINT_INTERVAL = 30 * 1000;
+
+    private final PageCacheHolder pageCache;
+    private final long writeInterval;
+    private final long checkpointInterval;
+    private final int maxRunPages;
+
+    private final Object lock = new Object();
+    private boolean isWakeUpRequested = false;
+    private boolean isShutdownRequested = false;
+    private Thread writerThread = null;
+
+    private volatile long numWrittenPages = 0;
+    private volatile long checkpointCount = 0;
+    private volatile DBException lastError = null;
+
+    public PageWriter(PageCacheHolder pageCache)
+    {
+        this(pageCache, DEFAULT_WRITE_INTERVAL, DEFAULT_CHECKPOINT_INTERVAL,
+                PageCacheHolder.DEFAULT_MAX_WRITE_RUN_PAGES);
+    }
+
+    /**
+     * @param pageCache
+     *            the page cache to be cleaned
+     * @param writeInterval
+     *            the interval of the dirty page writes in milliseconds
+     * @param checkpointInterval
+     *            the interval of the checkpoints in milliseconds
+     * @param maxRunPages
+     *            the maximum number of adjacent pages written at once
+     */
+    public PageWriter(PageCacheHolder pageCache, long writeInterval, long checkpointInterval, int maxRunPages)
+    {
+        if (writeInterval <= 0)
+            throw new IllegalArgumentException("write interval must be higher than 0: " + writeInterval);
+        if (checkpointInterval <= 0)
+            throw new IllegalArgumentException("checkpoint interval must be higher than 0: " + checkpointInterval);
+        if (maxRunPages <= 0)
+            throw new IllegalArgumentException("max run pages must be higher than 0: " + maxRunPages);
+
+        this.pageCache = pageCache;
+        this.writeInterval = writeInterval;
+        this.checkpointInterval = checkpointInterval;
+        this.maxRunPages = maxRunPages;
+    }
+
+    /**
+     * Starts the writer thread
+     */
+    public void start()
+    {
+        synchronized (lock)
+        {
+            if (writerThread != null)
+                throw new IllegalStateException("the page writer is already started");
+
+            isShutdownRequested = false;
+            writerThread = new Thread("page writer") {
+                @Override
+                public void run()
+                {
+                    writeLoop();
+                }
+            };
+            writerThread.setDaemon(true);
+        }
+        pageCache.setPageWriter(this);
+        writerThread.start();
+    }
+
+    /**
+     * Stops the writer thread, then performs the last checkpoint
+     * 
+     * @throws DBException
+     *             when failed to perform the checkpoint
+     */
+    public void shutdown() throws DBException
+    {
+        Thread thread;
+        synchronized (lock)
+        {
+            thread = writerThread;
+            if (thread == null)
+                return;
+            isShutdownRequested = true;
+            lock.notifyAll();
+        }
+
+        pageCache.setPageWriter(null);
+        try
+        {
+            thread.join();
+        }
+        catch (InterruptedException e)
+        {
+            throw new DBException(DBErrorCode.ThreadInterruption, e);
+        }
+        finally
+        {
+            synchronized (lock)
+            {
+                writerThread = null;
+            }
+        }
+
+        checkpoint();
+    }
+
+    /**
+     * Requests the writer to write the dirty pages without waiting for the
+     * next interval
+     */
+    void wakeUp()
+    {
+        synchronized (lock)
+        {
+            isWakeUpRequested = true;
+            lock.notifyAll();
+        }
+    }
+
+    private void writeLoop()
+    {
+        long lastCheckpointTime = System.currentTimeMillis();
+        while (true)
+        {
+            synchronized (lock)
+            {
+                try
+                {
+                    if (!isWakeUpRequested && !isShutdownRequested)
+                        lock.wait(writeInterval);
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+                if (isShutdownRequested)
+                    return;
+                isWakeUpRequested = false;
+            }
+
+            try
+            {
+                long now = System.currentTimeMillis();
+                if (now - lastCheckpointTime >= checkpointInterval)
+                {
+                    checkpoint();
+                    lastCheckpointTime = now;
+                }
+                else
+                    numWrittenPages += pageCache.writeDirtyPages(false, maxRunPages);
+            }
+            catch (DBException e)
+            {
+                _logger.error(e);
+                lastError = e;
+            }
+        }
+    }
+
+    private void checkpoint() throws DBException
+    {
+        numWrittenPages += pageCache.writeDirtyPages(true, maxRunPages);
+        pageCache.getFile().sync();
+        checkpointCount++;
+    }
+
+    /**
+     * @return true if the writer thread is running
+     */
+    public boolean isRunning()
+    {
+        synchronized (lock)
+        {
+            return writerThread != null;
+        }
+    }
+
+    /**
+     * Gets the number of the pages written by this writer
+     * 
+     * @return the number of written pages
+     */
+    public long getNumWrittenPages()
+    {
+        return numWrittenPages;
+    }
+
+    /**
+     * Gets the number of the checkpoints performed
+     * 
+     * @return the number of checkpoints
+     */
+    public long getCheckpointCount()
+    {
+        return checkpointCount;
+    }
+
+    /**
+     * Gets the last error occurred in the writer thread
+     * 
+     * @return the error, or null if no error has occurred
+     */
+    public DBException getLastError()
+    {
+        return lastError;
+    }
+}
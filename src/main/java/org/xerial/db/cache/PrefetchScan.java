@@ -0,0 +1,116 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// PrefetchScan.java
+// Since: Oct 18, 2026 6:31:02 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.cache;
+
+import org.xerial.db.DBException;
+
+/**
+ * The access history of a scan, used to detect sequential reads for the
+ * {@link PagePrefetcher}. When the scan has read
+ * {@link PagePrefetcher#SEQUENTIAL_ACCESS_THRESHOLD} consecutive pages, the
+ * next pages are read ahead. The next read-ahead is issued when the scan has
+ * consumed half of the pages read ahead, so that the reads overlap with the
+ * scan. A jump to a non-consecutive page resets the detection.
+ * 
+ * A scan is used by a single thread.
+ * 
+ * @author leo
+ * 
+ */
+public class PrefetchScan
+{
+    private final PagePrefetcher prefetcher;
+    private final long endPageID;
+    private final BulkReadRing ring;
+    private final int readAheadPages;
+
+    private long lastPageID = PageFrame.NO_PAGE;
+    private int numSequentialAccesses = 0;
+    private long prefetchEnd = 0; // the end of the pages requested to be read ahead (exclusive)
+
+    PrefetchScan(PagePrefetcher prefetcher, long endPageID, BulkReadRing ring, int readAheadPages)
+    {
+        this.prefetcher = prefetcher;
+        this.endPageID = endPageID;
+        this.ring = ring;
+        this.readAheadPages = readAheadPages;
+    }
+
+    /**
+     * @return the ring of this scan, or null if the scan uses the whole cache
+     */
+    public BulkReadRing getRing()
+    {
+        return ring;
+    }
+
+    /**
+     * Pins the page through the ring of the scan, if any, and reads the
+     * following pages ahead if the scan is sequential
+     * 
+     * @param pageID
+     *            the page to pin
+     * @return the frame holding the page
+     * @throws DBException
+     *             when all frames are pinned, or failed to read the page
+     */
+    public PageFrame pin(long pageID) throws DBException
+    {
+        notifyAccess(pageID);
+        return prefetcher.getPageCache().pin(pageID, ring);
+    }
+
+    /**
+     * Records an access of the scan, for the scans pinning the pages by
+     * themselves
+     * 
+     * @param pageID
+     *            the accessed page
+     */
+    public void notifyAccess(long pageID)
+    {
+        if (lastPageID != PageFrame.NO_PAGE && pageID == lastPageID + 1)
+            numSequentialAccesses++;
+        else
+        {
+            numSequentialAccesses = 1;
+            prefetchEnd = pageID + 1;
+        }
+        lastPageID = pageID;
+
+        if (numSequentialAccesses < PagePrefetcher.SEQUENTIAL_ACCESS_THRESHOLD)
+            return;
+
+        if (prefetchEnd - pageID > readAheadPages / 2)
+            return;
+
+        long first = Math.max(prefetchEnd, pageID + 1);
+        long end = Math.min(first + readAheadPages, endPageID);
+        if (end <= first)
+            return;
+        prefetcher.submit(first, (int) (end - first), ring);
+        prefetchEnd = end;
+    }
+}
@@ -0,0 +1,212 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// TwoQueueReplacementPolicy.java
+// Since: Oct 18, 2026 3:02:18 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Scan-resistant 2Q replacement policy (Johnson and Shasha, VLDB 1994).
+ * 
+ * <ul>
+ * <li>A1in: a FIFO queue of the frames whose pages are read for the first time</li>
+ * <li>A1out: a FIFO queue of the page IDs recently evicted from A1in (ghost
+ * entries, holding no frame)</li>
+ * <li>Am: an LRU queue of the frames whose pages are referenced again after
+ * they have left A1in</li>
+ * </ul>
+ * 
+ * A page read only once, e.g., by a large sequential scan, passes through A1in
+ * and is evicted without touching the hot pages in Am. A page is promoted to
+ * Am only when it is read again while its ID is remembered in A1out.
+ * 
+ * @author leo
+ * 
+ */
+public class TwoQueueReplacementPolicy implements PageCacheReplacementPolicy
+{
+    private final double a1inRatio;
+    private final double a1outRatio;
+    private int a1inSize;
+    private int a1outSize;
+
+    private final LinkedHashSet<Integer> a1in = new LinkedHashSet<Integer>();
+    private final LinkedHashSet<Long> a1out = new LinkedHashSet<Long>();
+    private final LinkedHashSet<Integer> am = new LinkedHashSet<Integer>();
+    private final HashMap<Integer, Long> frameToPage = new HashMap<Integer, Long>();
+    private boolean[] isEvictable;
+    private boolean[] isEvictedFromA1in;
+    private int numEvictable = 0;
+
+    /**
+     * Creates a 2Q policy with the recommended parameters, A1in = 25% and A1out
+     * = 50% of the frames
+     */
+    public TwoQueueReplacementPolicy()
+    {
+        this(0.25, 0.5);
+    }
+
+    /**
+     * @param a1inRatio
+     *            the size of A1in relative to the number of frames
+     * @param a1outRatio
+     *            the number of ghost entries relative to the number of frames
+     */
+    public TwoQueueReplacementPolicy(double a1inRatio, double a1outRatio)
+    {
+        if (a1inRatio <= 0 || a1inRatio >= 1)
+            throw new IllegalArgumentException("A1in ratio must be in (0, 1): " + a1inRatio);
+        if (a1outRatio < 0)
+            throw new IllegalArgumentException("A1out ratio cannot be less than 0: " + a1outRatio);
+        this.a1inRatio = a1inRatio;
+        this.a1outRatio = a1outRatio;
+    }
+
+    public void init(int numFrames)
+    {
+        a1inSize = Math.max(1, (int) (numFrames * a1inRatio));
+        a1outSize = (int) (numFrames * a1outRatio);
+        a1in.clear();
+        a1out.clear();
+        am.clear();
+        frameToPage.clear();
+        isEvictable = new boolean[numFrames];
+        isEvictedFromA1in = new boolean[numFrames];
+        numEvictable = 0;
+    }
+
+    public void recordAccess(int frameIndex, long pageID)
+    {
+        Long current = frameToPage.get(frameIndex);
+        if (current != null && current == pageID)
+        {
+            // the page is already in the cache
+            if (am.remove(frameIndex))
+                am.add(frameIndex); // move to the MRU end
+            return;
+        }
+
+        if (current != null)
+            remove(frameIndex);
+
+        frameToPage.put(frameIndex, pageID);
+        if (a1out.remove(pageID))
+            am.add(frameIndex);
+        else
+            a1in.add(frameIndex);
+    }
+
+    public void setEvictable(int frameIndex, boolean evictable)
+    {
+        if (!frameToPage.containsKey(frameIndex) || isEvictable[frameIndex] == evictable)
+            return;
+
+        isEvictable[frameIndex] = evictable;
+        numEvictable += evictable ? 1 : -1;
+    }
+
+    public int evict()
+    {
+        if (numEvictable == 0)
+            return -1;
+
+        int victim = -1;
+        if (a1in.size() > a1inSize || am.isEmpty())
+            victim = firstEvictable(a1in);
+        if (victim < 0)
+            victim = firstEvictable(am);
+        if (victim < 0)
+            victim = firstEvictable(a1in);
+        if (victim < 0)
+            return -1;
+
+        boolean fromA1in = a1in.contains(victim);
+        long pageID = frameToPage.get(victim);
+        remove(victim);
+        isEvictedFromA1in[victim] = fromA1in;
+        if (fromA1in && a1outSize > 0)
+        {
+            // remember the page as a ghost entry
+            a1out.add(pageID);
+            if (a1out.size() > a1outSize)
+            {
+                Iterator<Long> oldest = a1out.iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        }
+        return victim;
+    }
+
+    public void reinstate(int frameIndex, long pageID)
+    {
+        if (frameToPage.containsKey(frameIndex))
+            return;
+
+        // return the frame to the head of its queue, where it was the first evictable frame,
+        // without the promotion from A1out to Am
+        frameToPage.put(frameIndex, pageID);
+        if (isEvictedFromA1in[frameIndex])
+        {
+            a1out.remove(pageID);
+            addFirst(a1in, frameIndex);
+        }
+        else
+            addFirst(am, frameIndex);
+    }
+
+    private static void addFirst(LinkedHashSet<Integer> queue, int frameIndex)
+    {
+        ArrayList<Integer> rest = new ArrayList<Integer>(queue);
+        queue.clear();
+        queue.add(frameIndex);
+        queue.addAll(rest);
+    }
+
+    private int firstEvictable(LinkedHashSet<Integer> queue)
+    {
+        for (int frame : queue)
+        {
+            if (isEvictable[frame])
+                return frame;
+        }
+        return -1;
+    }
+
+    public void remove(int frameIndex)
+    {
+        if (frameToPage.remove(frameIndex) == null)
+            return;
+        if (isEvictable[frameIndex])
+            numEvictable--;
+        isEvictable[frameIndex] = false;
+        a1in.remove(frameIndex);
+        am.remove(frameIndex);
+    }
+
+}
@@ -0,0 +1,201 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// ColumnPredicate.java
+// Since: Oct 18, 2026 5:52:03 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.heap;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Date;
+
+import org.xerial.db.Relation;
+import org.xerial.db.VariableLengthInteger;
+import org.xerial.db.cache.Buffer;
+import org.xerial.db.datatype.TypeName;
+
+/**
+ * A comparison of a column with a constant, e.g., <code>score &gt;= 0.5</code>.
+ * The predicate is evaluated on the encoded column value in the page buffer,
+ * without decoding the value into an object.
+ * 
+ * Strings are compared by their UTF-8 bytes, that is, in the code point order.
+ * Blobs are compared by their unsigned bytes.
+ * 
+ * @author leo
+ * 
+ */
+public class ColumnPredicate
+{
+    public static enum Operator {
+        EQ, NE, LT, LE, GT, GE
+    }
+
+    private final int column;
+    private final Operator operator;
+    private final TypeName type;
+
+    // the constant in the encoded form
+    private long longValue;
+    private double doubleValue;
+    private byte[] bytesValue;
+
+    /**
+     * @param relation
+     *            the relation of the tuples
+     * @param column
+     *            the column index
+     * @param operator
+     * @param value
+     *            the constant, whose class must match the column type
+     */
+    public ColumnPredicate(Relation relation, int column, Operator operator, Object value)
+    {
+        this.column = column;
+        this.operator = operator;
+        this.type = relation.getDataType(column).getType();
+        if (value == null)
+            throw new IllegalArgumentException("null constant");
+
+        try
+        {
+            switch (type)
+            {
+            case INTEGER:
+            case LONG:
+                longValue = ((Number) value).longValue();
+                break;
+            case DATETIME:
+                longValue = ((Date) value).getTime();
+                break;
+            case DOUBLE:
+                doubleValue = ((Number) value).doubleValue();
+                break;
+            case BOOLEAN:
+                longValue = ((Boolean) value) ? 1 : 0;
+                break;
+            case BLOB:
+                bytesValue = (byte[]) value;
+                break;
+            default:
+                bytesValue = ((String) value).getBytes("UTF-8");
+                break;
+            }
+        }
+        catch (ClassCastException e)
+        {
+            throw new IllegalArgumentException(String.format("column %d is %s: %s", column, type, value));
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public int getColumn()
+    {
+        return column;
+    }
+
+    public Operator getOperator()
+    {
+        return operator;
+    }
+
+    /**
+     * Evaluates this predicate on the tuple
+     * 
+     * @param tuple
+     *            the tuple of the relation given to the constructor
+     * @return true if the tuple satisfies this predicate
+     */
+    public boolean evaluate(TupleOnBuffer tuple)
+    {
+        Buffer buffer = tuple.getBuffer();
+        int pos = tuple.getColumnPosition(column);
+        int cmp;
+        switch (type)
+        {
+        case INTEGER:
+            cmp = compare(buffer.readInt(pos), longValue);
+            break;
+        case LONG:
+        case DATETIME:
+            cmp = compare(buffer.readLong(pos), longValue);
+            break;
+        case DOUBLE:
+            cmp = Double.compare(Double.longBitsToDouble(buffer.readLong(pos)), doubleValue);
+            break;
+        case BOOLEAN:
+            cmp = compare(buffer.readBoolean(pos) ? 1 : 0, longValue);
+            break;
+        default:
+        {
+            int length = buffer.readVarInt(pos);
+            if (length != bytesValue.length && (operator == Operator.EQ || operator == Operator.NE))
+                return operator == Operator.NE;
+            cmp = compareBytes(buffer, pos + VariableLengthInteger.encodedLength(length), length);
+            break;
+        }
+        }
+
+        switch (operator)
+        {
+        case EQ:
+            return cmp == 0;
+        case NE:
+            return cmp != 0;
+        case LT:
+            return cmp < 0;
+        case LE:
+            return cmp <= 0;
+        case GT:
+            return cmp > 0;
+        default:
+            return cmp >= 0;
+        }
+    }
+
+    private static int compare(long v1, long v2)
+    {
+        return v1 < v2 ? -1 : (v1 == v2 ? 0 : 1);
+    }
+
+    private int compareBytes(Buffer buffer, int pos, int length)
+    {
+        final int len = Math.min(length, bytesValue.length);
+        for (int i = 0; i < len; i++)
+        {
+            int b1 = buffer.readByte(pos + i) & 0xFF;
+            int b2 = bytesValue[i] & 0xFF;
+            if (b1 != b2)
+                return b1 - b2;
+        }
+        return length - bytesValue.length;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("column %d %s %s", column, operator, type == TypeName.DOUBLE ? doubleValue
+                : (bytesValue != null ? new String(bytesValue) : longValue));
+    }
+}
@@ -26,7 +26,9 @@ package org.xerial.db.heap;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 
 import org.xerial.db.CommonPageHeader;
@@ -45,150 +47,760 @@ import org.xerial.db.datatype.TypeInformation;
 /**
  * Heap pages support sequential data appends to the database.
  * 
+ * A heap page is a slotted page, which works directly on the page {@link Buffer}. 
+ * The records grow from the head of the page, and the slot directory grows from the tail. 
+ * Each slot holds the offset and the length of its record, so a record can be read 
+ * without deserializing the other records.
  * 
  * Page Layout:
  * <pre>
  * ----------------------
  * |CommonPageHeader 
- * |numEntries       
- * |entrySizeTotal
- * | (entries: ([entry size:VariableLengthInteger, entry data ...]) )
+ * |numSlots       
+ * |dataEnd         (the end of the record area)
+ * |fragmentedBytes (the bytes of the holes left in the record area)
+ * |numFreeSlots
+ * | (records ...)
  * |  ....
  * | 
  * |
- * | [ pointers to entries (in sorted order) ]
+ * | [ slot directory: (record offset:int, record length:int) ..., slot 1, slot 0 ]
  * ----------------------
  * </pre>
+ * 
+ * A deleted record leaves a tombstone slot (offset 0), which is reused by the later inserts, 
+ * so that the slot numbers, that is, the {@link RecordID}s of the other records do not change. 
+ * A record updated with a larger size is moved within the page if possible. Otherwise, the caller 
+ * moves the record to another page, and leaves a forwarding pointer, the {@link RecordID} of the 
+ * new location, by {@link #setForward(int, long)}. The moved record is marked by 
+ * {@link #setRelocated(int)}, so that the scans visit it only through the forwarding pointer. 
+ * The holes in the record area are compacted on demand, when an insert or an update cannot 
+ * find a contiguous space.
+ * 
  * @author leo
  *
  */
 public class HeapPage implements Iterable<Tuple> 
 {
-    // header contents 
-    private final CommonPageHeader header = new CommonPageHeader();
-    private int numEntries = 0;     // the number of entries in this heap page
-    private int entrySizeTotal = 0;
-
+    public static final int SLOT_SIZE = TypeInformation.INT_SIZE * 2;
     
+    // each record occupies at least the size of a forwarding pointer
+    private static final int MIN_RECORD_SPACE = TypeInformation.LONG_SIZE;
+    private static final int FORWARD_FLAG = 0x40000000;
+    private static final int RELOCATED_FLAG = 0x20000000;
+    private static final int EMPTY_SLOT = 0;
+    
+    private final CommonPageHeader header = new CommonPageHeader();
     private final int bufferSize;
-    private int freeSpaceSize;    // free space for entries and entry pointers 
-    private final ArrayList<Tuple> tupleList = new ArrayList<Tuple>();
+    private Buffer buffer;
+    private TupleFactory tupleFactory = null;
     
+    // positions of the header contents
+    private final int numSlotsPos;
+    private final int dataEndPos;
+    private final int fragmentedBytesPos;
+    private final int numFreeSlotsPos;
 
-    
+    /**
+     * Creates an empty heap page on a new buffer
+     * @param bufferSize the page size
+     */
     public HeapPage(int bufferSize)
     {
+        this(new Buffer(bufferSize), 0);
+    }
+    
+    /**
+     * Formats the buffer as an empty heap page
+     * @param pageBuffer the page buffer
+     * @param pageID the page ID
+     */
+    public HeapPage(Buffer pageBuffer, long pageID)
+    {
+        this(pageBuffer);
+        if(bufferSize < getHeaderSize() + SLOT_SIZE + MIN_RECORD_SPACE)
+            throw new IllegalArgumentException("too small page size: " + bufferSize);
+        
         header.setPageType(PageType.Heap);
-        this.bufferSize = bufferSize;
-        this.freeSpaceSize = bufferSize - getHeaderSize(); 
+        header.setPageID(pageID);
+        header.save(new BufferWriter(buffer));
+        setNumSlots(0);
+        setDataEnd(getHeaderSize());
+        setFragmentedBytes(0);
+        setNumFreeSlots(0);
+    }
+    
+    private HeapPage(Buffer pageBuffer)
+    {
+        this.bufferSize = pageBuffer.size();
+        this.buffer = pageBuffer;
+        
+        numSlotsPos = header.getHeaderSize();
+        dataEndPos = numSlotsPos + TypeInformation.INT_SIZE;
+        fragmentedBytesPos = dataEndPos + TypeInformation.INT_SIZE;
+        numFreeSlotsPos = fragmentedBytesPos + TypeInformation.INT_SIZE;
+    }
+    
+    /**
+     * Wraps the buffer holding a heap page, without copying the page contents
+     * @param pageBuffer the buffer
+     * @param tupleFactory factory that creates tuples from the records 
+     * @return the heap page
+     * @throws DBException when page type is not heap
+     */
+    public static HeapPage wrap(final Buffer pageBuffer, final TupleFactory tupleFactory) throws DBException
+    {
+        HeapPage page = new HeapPage(pageBuffer);
+        page.loadFrom(pageBuffer, tupleFactory);
+        return page;
     }
     
     public int getHeaderSize()
     {
-        return header.getHeaderSize() + TypeInformation.LONG_SIZE + TypeInformation.INT_SIZE * 2;        
+        return header.getHeaderSize() + TypeInformation.INT_SIZE * 4;        
+    }
+    
+    public long getPageID()
+    {
+        return header.getPageID();
+    }
+    
+    public void setPageID(long pageID)
+    {
+        header.setPageID(pageID);
+        header.save(new BufferWriter(buffer));
+    }
+    
+    /**
+     * Gets the page buffer on which this page works
+     * @return the buffer
+     */
+    public Buffer getBuffer()
+    {
+        return buffer;
+    }
+    
+    public void setTupleFactory(TupleFactory tupleFactory)
+    {
+        this.tupleFactory = tupleFactory;
+    }
+    
+    public int getNumSlots()
+    {
+        return buffer.readInt(numSlotsPos);
+    }
+    
+    /**
+     * @return the number of the slots holding records or forwarding pointers
+     */
+    public int getNumRecords()
+    {
+        return getNumSlots() - getNumFreeSlots();
+    }
+    
+    private int getDataEnd()
+    {
+        return buffer.readInt(dataEndPos);
+    }
+    
+    private int getFragmentedBytes()
+    {
+        return buffer.readInt(fragmentedBytesPos);
+    }
+    
+    private int getNumFreeSlots()
+    {
+        return buffer.readInt(numFreeSlotsPos);
+    }
+    
+    private void setNumSlots(int numSlots)
+    {
+        buffer.writeInt(numSlotsPos, numSlots);
+    }
+    
+    private void setDataEnd(int dataEnd)
+    {
+        buffer.writeInt(dataEndPos, dataEnd);
+    }
+    
+    private void setFragmentedBytes(int fragmentedBytes)
+    {
+        buffer.writeInt(fragmentedBytesPos, fragmentedBytes);
+    }
+    
+    private void setNumFreeSlots(int numFreeSlots)
+    {
+        buffer.writeInt(numFreeSlotsPos, numFreeSlots);
+    }
+    
+    private int slotPos(int slot)
+    {
+        return bufferSize - (slot + 1) * SLOT_SIZE;
+    }
+    
+    private int slotOffset(int slot)
+    {
+        return buffer.readInt(slotPos(slot));
+    }
+    
+    private int slotLength(int slot)
+    {
+        return buffer.readInt(slotPos(slot) + TypeInformation.INT_SIZE);
+    }
+    
+    /**
+     * @return the record length in the slot, without the relocated flag
+     */
+    private int recordLength(int slot)
+    {
+        return slotLength(slot) & ~RELOCATED_FLAG;
+    }
+    
+    private void setSlot(int slot, int offset, int length)
+    {
+        int pos = slotPos(slot);
+        buffer.writeInt(pos, offset);
+        buffer.writeInt(pos + TypeInformation.INT_SIZE, length);
+    }
+    
+    private static int recordSpace(int length)
+    {
+        return Math.max(length, MIN_RECORD_SPACE);
+    }
+    
+    /**
+     * @return the space occupied by the record or the forwarding pointer in the slot
+     */
+    private int occupiedSpace(int slot)
+    {
+        int length = slotLength(slot);
+        return (length & FORWARD_FLAG) != 0 ? MIN_RECORD_SPACE : recordSpace(length & ~RELOCATED_FLAG);
+    }
+    
+    private int contiguousFreeSpace()
+    {
+        return slotPos(getNumSlots() - 1) - getDataEnd();
+    }
+
+    /**
+     * Gets the largest record size that can be inserted into this page
+     * @return the byte size
+     */
+    public int getFreeSpaceSize()
+    {
+        int free = contiguousFreeSpace() + getFragmentedBytes();
+        if(getNumFreeSlots() == 0)
+            free -= SLOT_SIZE;
+        return Math.max(free, 0);
+    }
+    
+    /**
+     * @param length the record size
+     * @return true if the record can be inserted into this page
+     */
+    public boolean hasSpaceFor(int length)
+    {
+        if(getNumFreeSlots() == 0 && getNumSlots() >= RecordID.MAX_SLOTS)
+            return false;
+        return recordSpace(length) <= getFreeSpaceSize();
+    }
+    
+    private void checkSlot(int slot)
+    {
+        if(slot < 0 || slot >= getNumSlots())
+            throw new IllegalArgumentException("invalid slot: " + slot);
+    }
+    
+    /**
+     * @param slot
+     * @return true if the slot holds a record or a forwarding pointer
+     */
+    public boolean isUsed(int slot)
+    {
+        checkSlot(slot);
+        return slotOffset(slot) != EMPTY_SLOT;
+    }
+    
+    /**
+     * @param slot
+     * @return true if the record of the slot has been moved to another page
+     */
+    public boolean isForwarded(int slot)
+    {
+        return isUsed(slot) && (slotLength(slot) & FORWARD_FLAG) != 0;
+    }
+    
+    /**
+     * @param slot
+     * @return true if the slot holds a record moved from another page
+     */
+    public boolean isRelocated(int slot)
+    {
+        return isUsed(slot) && (slotLength(slot) & RELOCATED_FLAG) != 0;
     }
     
+    /**
+     * Marks the record as moved from another page, where its forwarding pointer is held
+     * @param slot
+     */
+    public void setRelocated(int slot)
+    {
+        checkRecord(slot);
+        setSlot(slot, slotOffset(slot), slotLength(slot) | RELOCATED_FLAG);
+    }
+    
+    /**
+     * Gets the forwarding pointer
+     * @param slot
+     * @return the {@link RecordID} of the moved record
+     */
+    public long getForward(int slot)
+    {
+        if(!isForwarded(slot))
+            throw new IllegalStateException("slot " + slot + " is not forwarded");
+        return buffer.readLong(slotOffset(slot));
+    }
+    
+    private void checkRecord(int slot)
+    {
+        checkSlot(slot);
+        if(slotOffset(slot) == EMPTY_SLOT)
+            throw new IllegalStateException("slot " + slot + " is deleted");
+        if((slotLength(slot) & FORWARD_FLAG) != 0)
+            throw new IllegalStateException("slot " + slot + " is forwarded");
+    }
+    
+    /**
+     * Gets the byte position of the record in the page buffer
+     * @param slot
+     * @return the byte offset
+     */
+    public int getRecordOffset(int slot)
+    {
+        checkRecord(slot);
+        return slotOffset(slot);
+    }
+    
+    public int getRecordLength(int slot)
+    {
+        checkRecord(slot);
+        return recordLength(slot);
+    }
+    
+    /**
+     * Copies the record to the byte array
+     * @param slot
+     * @param dest
+     * @param destOffset
+     * @return the record length
+     */
+    public int readRecord(int slot, byte[] dest, int destOffset)
+    {
+        checkRecord(slot);
+        int length = recordLength(slot);
+        buffer.get(slotOffset(slot), dest, destOffset, length);
+        return length;
+    }
+    
+    /**
+     * Reserves a space in the record area, compacting the page if necessary
+     * @return the byte position of the reserved space  
+     */
+    private int allocate(int length, boolean needsNewSlot) throws DBException
+    {
+        int space = recordSpace(length);
+        int required = space + (needsNewSlot ? SLOT_SIZE : 0);
+        if(contiguousFreeSpace() < required)
+        {
+            if(contiguousFreeSpace() + getFragmentedBytes() < required)
+                throw new DBException(DBErrorCode.PageIsFull, "no enough space");
+            compact();
+        }
+        int pos = getDataEnd();
+        setDataEnd(pos + space);
+        return pos;
+    }
+    
+    /**
+     * Releases the space of the record in the slot 
+     */
+    private void release(int slot)
+    {
+        int offset = slotOffset(slot);
+        int space = occupiedSpace(slot);
+        if(offset + space == getDataEnd())
+            setDataEnd(offset);
+        else
+            setFragmentedBytes(getFragmentedBytes() + space);
+    }
+    
+    private int findFreeSlot()
+    {
+        if(getNumFreeSlots() == 0)
+            return -1;
+        final int numSlots = getNumSlots();
+        for(int slot=0; slot<numSlots; slot++)
+        {
+            if(slotOffset(slot) == EMPTY_SLOT)
+                return slot;
+        }
+        throw new IllegalStateException("broken heap page: no free slot is found");
+    }
+    
+    /**
+     * Inserts the record into this heap page
+     * @param data
+     * @param offset
+     * @param length
+     * @return the slot of the record
+     * @throws DBException when the page has no sufficient space for this record
+     */
+    public int insert(byte[] data, int offset, int length) throws DBException
+    {
+        int slot = reserveSlot(length);
+        buffer.put(slotOffset(slot), data, offset, length);
+        return slot;
+    }
+    
+    private int reserveSlot(int length) throws DBException
+    {
+        int numSlots = getNumSlots();
+        int slot = findFreeSlot();
+        if(slot < 0 && numSlots >= RecordID.MAX_SLOTS)
+            throw new DBException(DBErrorCode.PageIsFull, "no more slot");
         
+        int pos = allocate(length, slot < 0);
+        if(slot < 0)
+        {
+            slot = numSlots;
+            setNumSlots(numSlots + 1);
+        }
+        else
+            setNumFreeSlots(getNumFreeSlots() - 1);
+        setSlot(slot, pos, length);
+        return slot;
+    }
+    
     /**
      * Appends the tuple to this heap page
      * @param tuple
+     * @return the slot of the tuple
      * @throws DBException when the page has no sufficient space for this tuple
      */
-    public void append(Tuple tuple) throws DBException
+    public int append(Tuple tuple) throws DBException
     {
-        int tupleSize = tuple.getByteSize();
-        int requiredByteSizeForTheTuple = (tupleSize + TypeInformation.INT_SIZE); // tuple size + pointer size
-        if(freeSpaceSize < requiredByteSizeForTheTuple)
+        int slot = reserveSlot(tuple.getByteSize());
+        tuple.save(new BufferWriter(buffer, slotOffset(slot)));
+        return slot;
+    }
+    
+    /**
+     * Deletes the record, and leaves the tombstone in the slot
+     * @param slot
+     */
+    public void delete(int slot)
+    {
+        if(!isUsed(slot))
+            throw new IllegalStateException("slot " + slot + " is already deleted");
+        
+        release(slot);
+        setSlot(slot, EMPTY_SLOT, 0);
+        
+        // trailing tombstones are removed from the slot directory
+        int numSlots = getNumSlots();
+        int numFreeSlots = getNumFreeSlots() + 1;
+        while(numSlots > 0 && slotOffset(numSlots - 1) == EMPTY_SLOT)
         {
-            throw new DBException(DBErrorCode.PageIsFull, "no enough space");
+            numSlots--;
+            numFreeSlots--;
         }
-        tupleList.add(tuple);
-        numEntries++;
-        freeSpaceSize -= requiredByteSizeForTheTuple;
+        setNumSlots(numSlots);
+        setNumFreeSlots(numFreeSlots);
     }
     
     /**
-     * Sort the tuple in this heap page according to the given comparator 
+     * Replaces the record. The record is updated in place if the new record fits 
+     * in the current space, or moved within this page if the page has enough space. 
+     * The relocated mark of the record is kept.
+     * 
+     * @param slot
+     * @param data
+     * @param offset
+     * @param length
+     * @return false if the page has no space for the new record. The record is not changed in that case.
+     * @throws DBException
+     */
+    public boolean update(int slot, byte[] data, int offset, int length) throws DBException
+    {
+        checkRecord(slot);
+        int relocatedFlag = slotLength(slot) & RELOCATED_FLAG;
+        int currentSpace = recordSpace(recordLength(slot));
+        int newSpace = recordSpace(length);
+        if(newSpace <= currentSpace)
+        {
+            int pos = slotOffset(slot);
+            buffer.put(pos, data, offset, length);
+            setSlot(slot, pos, relocatedFlag | length);
+            if(pos + currentSpace == getDataEnd())
+                setDataEnd(pos + newSpace);
+            else
+                setFragmentedBytes(getFragmentedBytes() + currentSpace - newSpace);
+            return true;
+        }
+        
+        if(contiguousFreeSpace() + getFragmentedBytes() + currentSpace < newSpace)
+            return false;
+        
+        // move the record within this page
+        release(slot);
+        setSlot(slot, EMPTY_SLOT, 0);
+        int pos = allocate(length, false);
+        buffer.put(pos, data, offset, length);
+        setSlot(slot, pos, relocatedFlag | length);
+        return true;
+    }
+    
+    /**
+     * Replaces the record in the slot with the forwarding pointer to the moved record
+     * @param slot
+     * @param recordID the new location of the record
+     */
+    public void setForward(int slot, long recordID)
+    {
+        if(!isUsed(slot))
+            throw new IllegalStateException("slot " + slot + " is deleted");
+        
+        int pos = slotOffset(slot);
+        int space = occupiedSpace(slot);
+        buffer.writeLong(pos, recordID);
+        setSlot(slot, pos, FORWARD_FLAG | MIN_RECORD_SPACE);
+        if(pos + space == getDataEnd())
+            setDataEnd(pos + MIN_RECORD_SPACE);
+        else
+            setFragmentedBytes(getFragmentedBytes() + space - MIN_RECORD_SPACE);
+    }
+    
+    /**
+     * Packs the records to the head of the record area, and removes the holes 
+     */
+    public void compact()
+    {
+        final int headerSize = getHeaderSize();
+        final int dataEnd = getDataEnd();
+        byte[] data = new byte[dataEnd - headerSize];
+        buffer.get(headerSize, data, 0, data.length);
+        
+        int cursor = headerSize;
+        final int numSlots = getNumSlots();
+        for(int slot=0; slot<numSlots; slot++)
+        {
+            int offset = slotOffset(slot);
+            if(offset == EMPTY_SLOT)
+                continue;
+            int space = occupiedSpace(slot);
+            buffer.put(cursor, data, offset - headerSize, space);
+            setSlot(slot, cursor, slotLength(slot));
+            cursor += space;
+        }
+        setDataEnd(cursor);
+        setFragmentedBytes(0);
+    }
+    
+    /**
+     * Creates the tuple of the record
+     * @param slot
+     * @return the tuple
+     * @throws DBException
+     */
+    public Tuple getTuple(int slot) throws DBException
+    {
+        if(tupleFactory == null)
+            throw new IllegalStateException("no tuple factory is set");
+        return tupleFactory.createTupleFromBuffer(new BufferReader(buffer, getRecordOffset(slot)));
+    }
+    
+    /**
+     * Sort the tuple in this heap page according to the given comparator. 
+     * The slot directory is rewritten in the sorted order, so the slot numbers of the records change, 
+     * and the tombstones are removed.  
      * @param comparator {@link TupleComparator} defines total order of the tuples
+     * @throws DBException
      */
-    public void sortTuples(TupleComparator comparator)
+    public void sortTuples(TupleComparator comparator) throws DBException
     {
-        Collections.sort(tupleList, comparator);
+        final int numSlots = getNumSlots();
+        final ArrayList<Tuple> tupleList = new ArrayList<Tuple>();
+        ArrayList<Integer> recordSlot = new ArrayList<Integer>();
+        ArrayList<Integer> forwardSlot = new ArrayList<Integer>();
+        for(int slot=0; slot<numSlots; slot++)
+        {
+            tupleList.add(null);
+            if(slotOffset(slot) == EMPTY_SLOT)
+                continue;
+            if((slotLength(slot) & FORWARD_FLAG) != 0)
+                forwardSlot.add(slot);
+            else
+            {
+                tupleList.set(slot, getTuple(slot));
+                recordSlot.add(slot);
+            }
+        }
+        
+        final Comparator<Tuple> tupleComparator = comparator;
+        Collections.sort(recordSlot, new Comparator<Integer>() {
+            public int compare(Integer s1, Integer s2)
+            {
+                return tupleComparator.compare(tupleList.get(s1), tupleList.get(s2));
+            }
+        });
+        recordSlot.addAll(forwardSlot);
+        
+        int[] offset = new int[recordSlot.size()];
+        int[] length = new int[recordSlot.size()];
+        for(int i=0; i<offset.length; i++)
+        {
+            offset[i] = slotOffset(recordSlot.get(i));
+            length[i] = slotLength(recordSlot.get(i));
+        }
+        for(int i=0; i<offset.length; i++)
+            setSlot(i, offset[i], length[i]);
+        setNumSlots(offset.length);
+        setNumFreeSlots(0);
     }
     
     /**
-     * Loads the heap contents from the buffer 
+     * Loads the heap page in the buffer. This page works on the given buffer afterwards, 
+     * and no record is deserialized until it is accessed.  
      * @param pageBuffer the buffer
      * @param tupleFactory factory that creates tuples from raw byte arrays
      * @throws DBException when page type is not heap
      */
     public void loadFrom(final Buffer pageBuffer, final TupleFactory tupleFactory) throws DBException
     {
-        assert(pageBuffer.size() == bufferSize);
-
-        tupleList.clear();
+        if(pageBuffer.size() != bufferSize)
+            throw new DBException(DBErrorCode.InvalidInput, "page size mismatch: " + pageBuffer.size() + " (expected " + bufferSize + ")");
         
         BufferReader reader = new BufferReader(pageBuffer);
-        
-        // load the header
-        header.load(reader);
-        numEntries = reader.readInt();
-        entrySizeTotal = reader.readInt();
-        
-        int pointerDataAddress = pageBuffer.size() - TypeInformation.INT_SIZE;
-        // load tuples in the sorted order
-        for(int i=0; i<numEntries; i++)
+        try
         {
-            int pointerToTuple = pageBuffer.readInt(pointerDataAddress);
-            Tuple tuple = tupleFactory.createTupleFromBuffer(new BufferReader(pageBuffer, pointerToTuple));
-            tupleList.add(tuple);
-            
-            pointerDataAddress -= TypeInformation.INT_SIZE;
+            header.load(reader);
         }
-
+        catch(IllegalArgumentException e)
+        {
+            throw new DBException(DBErrorCode.InvalidPageHeader, e.getMessage());
+        }
+        
         // validation
         if(header.getPageType() != PageType.Heap)
             throw new DBException(DBErrorCode.InvalidPageHeader, "not the heap page type: " + header.getPageType());
         
+        this.buffer = pageBuffer;
+        this.tupleFactory = tupleFactory;
     }
     
     /**
-     * Marshaling the heap contents, and write them to the page buffer
+     * Writes the page image to the page buffer
      * @param pageBuffer
      */
     public void saveTo(final Buffer pageBuffer)
     {
         assert(pageBuffer.size() == bufferSize);
+        if(pageBuffer == buffer)
+            return;
         
-        BufferWriter writer = new BufferWriter(pageBuffer);
-        
-        // write out the header
-        header.save(writer);
-        writer.writeInt(numEntries);
-        writer.writeInt(entrySizeTotal);
-        
-        int pointerDataAddress = bufferSize - TypeInformation.INT_SIZE;
-        // write out tuples
-        for(Tuple t : tupleList)
-        {
-            int pointerToTuple = writer.getCursorPosition();
-            t.save(writer);
-            pageBuffer.writeInt(pointerDataAddress, pointerToTuple);
-            pointerDataAddress -= TypeInformation.INT_SIZE;
-        }
-        
+        byte[] image = new byte[bufferSize];
+        buffer.get(0, image, 0, bufferSize);
+        pageBuffer.put(0, image, 0, bufferSize);
     }
 
-    /* (non-Javadoc)
+    /**
+     * Iterates the tuples of the records in this page, in the slot order. The forwarding pointers 
+     * are skipped, since the moved records are found in the pages they are moved to.   
+     * 
      * @see java.lang.Iterable#iterator()
      */
     public Iterator<Tuple> iterator()
     {
-        return tupleList.iterator();
+        if(tupleFactory == null)
+            throw new IllegalStateException("no tuple factory is set");
+        
+        return new Iterator<Tuple>() {
+            private int nextSlot = findRecord(0);
+            
+            public boolean hasNext()
+            {
+                return nextSlot < getNumSlots();
+            }
+
+            public Tuple next()
+            {
+                if(!hasNext())
+                    throw new NoSuchElementException();
+                try
+                {
+                    return getTuple(nextSlot);
+                }
+                catch(DBException e)
+                {
+                    throw new IllegalStateException(e);
+                }
+                finally
+                {
+                    nextSlot = findRecord(nextSlot + 1);
+                }
+            }
+
+            public void remove()
+            {
+                throw new UnsupportedOperationException("remove");
+            }
+        };
+    }
+    
+    /**
+     * Iterates the records in this page by moving the given tuple view, so that no tuple 
+     * is created per record. The forwarding pointers are skipped. 
+     * @param tuple the view reused for all of the records
+     * @return the records
+     */
+    public Iterable<TupleOnBuffer> scan(final TupleOnBuffer tuple)
+    {
+        return new Iterable<TupleOnBuffer>() {
+            public Iterator<TupleOnBuffer> iterator()
+            {
+                return new Iterator<TupleOnBuffer>() {
+                    private int nextSlot = findRecord(0);
+                    
+                    public boolean hasNext()
+                    {
+                        return nextSlot < getNumSlots();
+                    }
+                    
+                    public TupleOnBuffer next()
+                    {
+                        if(!hasNext())
+                            throw new NoSuchElementException();
+                        tuple.moveTo(buffer, slotOffset(nextSlot));
+                        nextSlot = findRecord(nextSlot + 1);
+                        return tuple;
+                    }
+                    
+                    public void remove()
+                    {
+                        throw new UnsupportedOperationException("remove");
+                    }
+                };
+            }
+        };
+    }
+    
+    private int findRecord(int fromSlot)
+    {
+        final int numSlots = getNumSlots();
+        int slot = fromSlot;
+        while(slot < numSlots && (slotOffset(slot) == EMPTY_SLOT || (slotLength(slot) & FORWARD_FLAG) != 0))
+            slot++;
+        return slot;
     }
     
 }
-
-
-
-
@@ -0,0 +1,115 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// ProjectedTuple.java
+// Since: Oct 18, 2026 6:04:48 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.heap;
+
+import org.xerial.db.Tuple;
+import org.xerial.db.cache.BufferReader;
+import org.xerial.db.cache.BufferWriter;
+
+/**
+ * A view of the subset of the columns of a {@link TupleOnBuffer}. The column i
+ * of this tuple is the column projection[i] of the underlying tuple, and is
+ * decoded when it is requested.
+ * 
+ * @author leo
+ * 
+ */
+public class ProjectedTuple implements Tuple
+{
+    private final TupleOnBuffer tuple;
+    private final int[] projection;
+
+    /**
+     * @param tuple
+     *            the underlying tuple
+     * @param projection
+     *            the column indexes of the underlying tuple
+     */
+    public ProjectedTuple(TupleOnBuffer tuple, int[] projection)
+    {
+        final int numColumns = tuple.getLayout().getNumColumns();
+        for (int column : projection)
+        {
+            if (column < 0 || column >= numColumns)
+                throw new IllegalArgumentException("invalid column: " + column);
+        }
+        this.tuple = tuple;
+        this.projection = projection;
+    }
+
+    /**
+     * @return the underlying tuple
+     */
+    public TupleOnBuffer getTuple()
+    {
+        return tuple;
+    }
+
+    public int getNumColumns()
+    {
+        return projection.length;
+    }
+
+    public Object getValue(int columnIndex)
+    {
+        return tuple.getValue(projection[columnIndex]);
+    }
+
+    public void setValue(int columnIndex, Object value)
+    {
+        tuple.setValue(projection[columnIndex], value);
+    }
+
+    public int getByteSize()
+    {
+        int byteSize = 0;
+        for (int column : projection)
+            byteSize += tuple.getLayout().getFieldSize(tuple.getBuffer(), tuple.getColumnPosition(column), column);
+        return byteSize;
+    }
+
+    public int load(BufferReader reader)
+    {
+        throw new UnsupportedOperationException("load");
+    }
+
+    /**
+     * Writes the projected columns in the {@link TupleLayout} of the projected
+     * relation
+     */
+    public int save(BufferWriter writer)
+    {
+        int byteSize = 0;
+        for (int column : projection)
+        {
+            int pos = tuple.getColumnPosition(column);
+            int size = tuple.getLayout().getFieldSize(tuple.getBuffer(), pos, column);
+            writer.write(tuple.getBuffer(), pos, size);
+            byteSize += size;
+        }
+        return byteSize;
+    }
+
+}
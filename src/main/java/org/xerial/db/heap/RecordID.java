@@ -0,0 +1,73 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// RecordID.java
+// Since: Oct 18, 2026 8:12:45 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.heap;
+
+/**
+ * Record IDs locate the records in the heap pages. A record ID is a long
+ * value, which holds the page ID in the upper 48 bits and the slot number in
+ * the lower 16 bits.
+ * 
+ * @author leo
+ * 
+ */
+public class RecordID
+{
+    /**
+     * The maximum number of slots in a page
+     */
+    public static final int MAX_SLOTS = 1 << 16;
+
+    /**
+     * The invalid record ID
+     */
+    public static final long NULL = -1;
+
+    private RecordID()
+    {}
+
+    public static long of(long pageID, int slot)
+    {
+        if (pageID < 0 || pageID >= (1L << 47))
+            throw new IllegalArgumentException("invalid page ID: " + pageID);
+        if (slot < 0 || slot >= MAX_SLOTS)
+            throw new IllegalArgumentException("invalid slot: " + slot);
+        return (pageID << 16) | slot;
+    }
+
+    public static long getPageID(long recordID)
+    {
+        return recordID >>> 16;
+    }
+
+    public static int getSlot(long recordID)
+    {
+        return (int) (recordID & 0xFFFF);
+    }
+
+    public static String toString(long recordID)
+    {
+        return String.format("(%d, %d)", getPageID(recordID), getSlot(recordID));
+    }
+}
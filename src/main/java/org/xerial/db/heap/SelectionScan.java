@@ -0,0 +1,133 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// SelectionScan.java
+// Since: Oct 18, 2026 6:15:26 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.heap;
+
+import org.xerial.db.DBException;
+import org.xerial.db.Relation;
+import org.xerial.db.TupleVisitor;
+
+/**
+ * A scan of heap pages with a selection and a projection pushed down. The
+ * predicates are evaluated on the encoded columns in the page buffer, and only
+ * the records satisfying all of the predicates are passed to the visitor, as
+ * {@link ProjectedTuple}s showing the projected columns. Neither the rejected
+ * records nor the columns outside of the projection are decoded.
+ * 
+ * A {@link SelectionScan} has no state of a scan, and can be used by multiple
+ * threads, e.g., by {@link org.xerial.db.ParallelHeapScan}.
+ * 
+ * @author leo
+ * 
+ */
+public class SelectionScan
+{
+    private final TupleLayout layout;
+    private final int[] projection;
+    private final ColumnPredicate[] predicates;
+
+    /**
+     * @param relation
+     *            the relation of the records
+     * @param projection
+     *            the column indexes of the output
+     * @param predicates
+     *            the conjunction of the predicates. All of the records are
+     *            selected if no predicate is given.
+     */
+    public SelectionScan(Relation relation, int[] projection, ColumnPredicate... predicates)
+    {
+        this.layout = new TupleLayout(relation);
+        this.projection = projection.clone();
+        this.predicates = predicates.clone();
+        for (int column : projection)
+        {
+            if (column < 0 || column >= layout.getNumColumns())
+                throw new IllegalArgumentException("invalid column: " + column);
+        }
+    }
+
+    /**
+     * Scans the records in the page. The forwarding pointers and the records
+     * relocated from other pages are skipped, since the relocated records are
+     * scanned through their forwarding pointers by
+     * {@link #scan(HeapPage, int, long, TupleVisitor)}.
+     * 
+     * @param page
+     *            the page
+     * @param pageID
+     *            the page ID used for the record IDs
+     * @param visitor
+     *            receives the selected records
+     * @throws DBException
+     */
+    public void scan(HeapPage page, long pageID, TupleVisitor visitor) throws DBException
+    {
+        TupleOnBuffer tuple = new TupleOnBuffer(layout);
+        ProjectedTuple output = new ProjectedTuple(tuple, projection);
+        final int numSlots = page.getNumSlots();
+        for (int slot = 0; slot < numSlots; slot++)
+        {
+            if (!page.isUsed(slot) || page.isForwarded(slot) || page.isRelocated(slot))
+                continue;
+
+            tuple.moveTo(page.getBuffer(), page.getRecordOffset(slot));
+            if (isSelected(tuple))
+                visitor.visit(RecordID.of(pageID, slot), output);
+        }
+    }
+
+    /**
+     * Scans a single record, e.g., a record relocated from its home page
+     * 
+     * @param page
+     *            the page holding the record
+     * @param slot
+     *            the slot of the record
+     * @param recordID
+     *            the record ID passed to the visitor, i.e., the record ID of
+     *            the forwarding pointer
+     * @param visitor
+     *            receives the record if selected
+     * @throws DBException
+     */
+    public void scan(HeapPage page, int slot, long recordID, TupleVisitor visitor) throws DBException
+    {
+        TupleOnBuffer tuple = new TupleOnBuffer(layout);
+        tuple.moveTo(page.getBuffer(), page.getRecordOffset(slot));
+        if (isSelected(tuple))
+            visitor.visit(recordID, new ProjectedTuple(tuple, projection));
+    }
+
+    private boolean isSelected(TupleOnBuffer tuple)
+    {
+        for (ColumnPredicate predicate : predicates)
+        {
+            if (!predicate.evaluate(tuple))
+                return false;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,212 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// TupleLayout.java
+// Since: Oct 18, 2026 3:02:41 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.heap;
+
+import java.util.List;
+
+import org.xerial.db.Relation;
+import org.xerial.db.VariableLengthInteger;
+import org.xerial.db.cache.Buffer;
+import org.xerial.db.datatype.DataType;
+import org.xerial.db.datatype.TypeInformation;
+import org.xerial.db.datatype.TypeName;
+
+/**
+ * The byte layout of the tuples of a {@link Relation}. The columns are stored
+ * in the order of the relation:
+ * 
+ * <pre>
+ * INTEGER                  : int (4 bytes)
+ * LONG, DATETIME, DOUBLE   : long (8 bytes). DATETIME is milliseconds since the epoch, 
+ *                            and DOUBLE is the raw long bits  
+ * BOOLEAN                  : 1 byte
+ * STRING, TEXT, PASSWORD   : length:VariableLengthInteger, UTF-8 bytes
+ * BLOB                     : length:VariableLengthInteger, bytes
+ * </pre>
+ * 
+ * The offsets of the columns preceding the first variable-length column are
+ * fixed, and computed in advance. The others are found by skipping the
+ * preceding columns.
+ * 
+ * @author leo
+ * 
+ */
+public class TupleLayout
+{
+    /**
+     * The fixed size and the fixed offset of variable-length columns
+     */
+    public static final int VARIABLE_LENGTH = -1;
+
+    private final Relation relation;
+    private final TypeName[] type;
+    private final int[] fixedSize;
+    private final int[] fixedOffset;
+    private final int numFixedOffsetColumns;
+
+    public TupleLayout(Relation relation)
+    {
+        this.relation = relation;
+        List<DataType> dataTypeList = relation.getDataTypeList();
+        final int numColumns = dataTypeList.size();
+        type = new TypeName[numColumns];
+        fixedSize = new int[numColumns];
+        fixedOffset = new int[numColumns + 1];
+
+        int offset = 0;
+        int numFixed = -1;
+        for (int i = 0; i < numColumns; i++)
+        {
+            type[i] = dataTypeList.get(i).getType();
+            fixedSize[i] = getFixedSize(type[i]);
+            if (numFixed < 0)
+            {
+                fixedOffset[i] = offset;
+                if (fixedSize[i] == VARIABLE_LENGTH)
+                    numFixed = i + 1;
+                else
+                    offset += fixedSize[i];
+            }
+            else
+                fixedOffset[i] = VARIABLE_LENGTH;
+        }
+        if (numFixed < 0)
+        {
+            // all columns have fixed sizes
+            fixedOffset[numColumns] = offset;
+            numFixed = numColumns + 1;
+        }
+        else
+            fixedOffset[numColumns] = VARIABLE_LENGTH;
+        numFixedOffsetColumns = numFixed;
+    }
+
+    /**
+     * Gets the byte size of the given type
+     * 
+     * @param typeName
+     * @return the byte size, or {@link #VARIABLE_LENGTH}
+     */
+    public static int getFixedSize(TypeName typeName)
+    {
+        switch (typeName)
+        {
+        case INTEGER:
+            return TypeInformation.INT_SIZE;
+        case LONG:
+        case DATETIME:
+        case DOUBLE:
+            return TypeInformation.LONG_SIZE;
+        case BOOLEAN:
+            return TypeInformation.BOOLEAN_SIZE;
+        default:
+            return VARIABLE_LENGTH;
+        }
+    }
+
+    public Relation getRelation()
+    {
+        return relation;
+    }
+
+    public int getNumColumns()
+    {
+        return type.length;
+    }
+
+    public TypeName getType(int column)
+    {
+        return type[column];
+    }
+
+    public int getFixedSize(int column)
+    {
+        return fixedSize[column];
+    }
+
+    /**
+     * Gets the number of the leading offsets that do not depend on the tuple
+     * contents. The offset of the column i is fixed if i is less than this
+     * value, where the column {@link #getNumColumns()} denotes the end of the
+     * tuple.
+     * 
+     * @return the number of fixed offsets
+     */
+    public int getNumFixedOffsets()
+    {
+        return numFixedOffsetColumns;
+    }
+
+    /**
+     * Gets the offset of the column from the tuple head
+     * 
+     * @param column
+     * @return the offset, or {@link #VARIABLE_LENGTH} if the offset depends on
+     *         the preceding variable-length columns
+     */
+    public int getFixedOffset(int column)
+    {
+        return fixedOffset[column];
+    }
+
+    /**
+     * Gets the byte size of the column value stored in the buffer, including
+     * the length header of the variable-length columns
+     * 
+     * @param buffer
+     * @param pos
+     *            the byte position of the column value
+     * @param column
+     * @return the byte size
+     */
+    public int getFieldSize(Buffer buffer, int pos, int column)
+    {
+        if (fixedSize[column] != VARIABLE_LENGTH)
+            return fixedSize[column];
+        int length = buffer.readVarInt(pos);
+        return VariableLengthInteger.encodedLength(length) + length;
+    }
+
+    /**
+     * Gets the byte size of the tuple stored in the buffer
+     * 
+     * @param buffer
+     * @param pos
+     *            the byte position of the tuple
+     * @return the byte size
+     */
+    public int getTupleSize(Buffer buffer, int pos)
+    {
+        final int numColumns = type.length;
+        if (numFixedOffsetColumns > numColumns)
+            return fixedOffset[numColumns];
+
+        int cursor = pos + fixedOffset[numFixedOffsetColumns - 1];
+        for (int i = numFixedOffsetColumns - 1; i < numColumns; i++)
+            cursor += getFieldSize(buffer, cursor, i);
+        return cursor - pos;
+    }
+
+}
@@ -24,68 +24,322 @@
 //--------------------------------------
 package org.xerial.db.heap;
 
-import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Date;
 
 import org.xerial.db.AbstractTuple;
+import org.xerial.db.DBException;
 import org.xerial.db.Relation;
+import org.xerial.db.Tuple;
+import org.xerial.db.TupleFactory;
+import org.xerial.db.VariableLengthInteger;
 import org.xerial.db.cache.Buffer;
 import org.xerial.db.cache.BufferReader;
 import org.xerial.db.cache.BufferWriter;
+import org.xerial.db.datatype.TypeName;
 
 /**
+ * A view of the tuple stored in a page buffer. No column is decoded until it is
+ * requested, and only the requested column is decoded. The tuple layout is
+ * given by {@link TupleLayout}.
  * 
+ * The offsets of the variable-length columns are found by skipping the
+ * preceding columns, and are cached until this view is moved to another tuple
+ * by {@link #moveTo(Buffer, int)}. A scan can reuse a single view for all of
+ * the tuples in the pages, so that no object is created per tuple:
+ * 
+ * <pre>
+ * TupleOnBuffer tuple = new TupleOnBuffer(relation);
+ * for (TupleOnBuffer t : heapPage.scan(tuple))
+ *     sum += t.getInt(3);
+ * </pre>
+ * 
+ * A view is valid only while the page buffer holds the tuple, e.g., while the
+ * page is pinned in the cache.
  * 
  * @author leo
- *
+ * 
  */
-public class TupleOnBuffer extends AbstractTuple 
+public class TupleOnBuffer extends AbstractTuple
 {
-    private final WeakReference<Buffer> bufferRef; 
-    private int offset; 
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final TupleLayout layout;
+    private Buffer buffer;
+    private int offset;
+
+    // the column offsets from the tuple head. The first numResolvedOffsets entries are valid.
+    private final int[] columnOffset;
+    private int numResolvedOffsets;
+
+    /**
+     * Creates a view that is not placed on any tuple yet
+     * 
+     * @param relation
+     *            the relation structure of the tuple
+     */
+    public TupleOnBuffer(Relation relation)
+    {
+        this(new TupleLayout(relation));
+    }
+
+    public TupleOnBuffer(TupleLayout layout)
+    {
+        super(layout.getRelation());
+        this.layout = layout;
+        this.columnOffset = new int[layout.getNumColumns() + 1];
+        for (int i = 0; i < layout.getNumFixedOffsets(); i++)
+            columnOffset[i] = layout.getFixedOffset(i);
+        this.numResolvedOffsets = layout.getNumFixedOffsets();
+    }
 
     /**
      * Constrctor
-     * @param relation the relation structure of the tuple
-     * @param buffer the buffer to which the tuple is stored
-     * @param offset the tuple location offset from the beginning of the buffer
+     * 
+     * @param relation
+     *            the relation structure of the tuple
+     * @param buffer
+     *            the buffer to which the tuple is stored
+     * @param offset
+     *            the tuple location offset from the beginning of the buffer
      */
     public TupleOnBuffer(Relation relation, final Buffer buffer, int offset)
     {
-        super(relation);
-        this.bufferRef = new WeakReference<Buffer>(buffer);
+        this(relation);
+        moveTo(buffer, offset);
+    }
+
+    /**
+     * Creates a {@link TupleFactory} that returns the views of the tuples in
+     * the buffer
+     * 
+     * @param relation
+     * @return the factory
+     */
+    public static TupleFactory newFactory(Relation relation)
+    {
+        final TupleLayout layout = new TupleLayout(relation);
+        return new TupleFactory() {
+            public Tuple createTupleFromBuffer(BufferReader reader) throws DBException
+            {
+                TupleOnBuffer tuple = new TupleOnBuffer(layout);
+                tuple.load(reader);
+                return tuple;
+            }
+        };
+    }
+
+    /**
+     * Places this view on another tuple
+     * 
+     * @param buffer
+     *            the buffer holding the tuple
+     * @param offset
+     *            the tuple location offset from the beginning of the buffer
+     */
+    public void moveTo(Buffer buffer, int offset)
+    {
+        this.buffer = buffer;
         this.offset = offset;
+        this.numResolvedOffsets = layout.getNumFixedOffsets();
+    }
+
+    public TupleLayout getLayout()
+    {
+        return layout;
+    }
+
+    public Buffer getBuffer()
+    {
+        return buffer;
+    }
+
+    public int getOffset()
+    {
+        return offset;
+    }
+
+    /**
+     * Gets the byte position of the column value in the buffer. A
+     * variable-length value begins with its length.
+     * 
+     * @param column
+     *            the column index, or the number of columns for the end of
+     *            the tuple
+     * @return the byte position
+     */
+    public int getColumnPosition(int column)
+    {
+        if (column < numResolvedOffsets)
+            return offset + columnOffset[column];
+        if (column > layout.getNumColumns())
+            throw new IndexOutOfBoundsException("column " + column);
+
+        int i = numResolvedOffsets - 1;
+        int pos = offset + columnOffset[i];
+        while (i < column)
+        {
+            pos += layout.getFieldSize(buffer, pos, i);
+            columnOffset[++i] = pos - offset;
+        }
+        numResolvedOffsets = column + 1;
+        return pos;
+    }
+
+    private int position(int column, TypeName expected)
+    {
+        if (layout.getType(column) != expected)
+            throw new IllegalArgumentException(String.format("column %d is %s, not %s", column, layout
+                    .getType(column), expected));
+        return getColumnPosition(column);
+    }
+
+    private int variableLengthPosition(int column)
+    {
+        if (layout.getFixedSize(column) != TupleLayout.VARIABLE_LENGTH)
+            throw new IllegalArgumentException(String.format("column %d is %s, not a variable-length type", column,
+                    layout.getType(column)));
+        return getColumnPosition(column);
+    }
+
+    public int getInt(int column)
+    {
+        return buffer.readInt(position(column, TypeName.INTEGER));
+    }
+
+    /**
+     * Reads a LONG or DATETIME column
+     */
+    public long getLong(int column)
+    {
+        if (layout.getType(column) == TypeName.DATETIME)
+            return buffer.readLong(getColumnPosition(column));
+        return buffer.readLong(position(column, TypeName.LONG));
+    }
+
+    public double getDouble(int column)
+    {
+        return Double.longBitsToDouble(buffer.readLong(position(column, TypeName.DOUBLE)));
+    }
+
+    public boolean getBoolean(int column)
+    {
+        return buffer.readBoolean(position(column, TypeName.BOOLEAN));
+    }
+
+    /**
+     * Gets the byte length of the variable-length column value, excluding its
+     * length header
+     */
+    public int getLength(int column)
+    {
+        return buffer.readVarInt(variableLengthPosition(column));
+    }
+
+    /**
+     * Decodes a STRING, TEXT or PASSWORD column
+     */
+    public String getString(int column)
+    {
+        int pos = variableLengthPosition(column);
+        int length = buffer.readVarInt(pos);
+        pos += VariableLengthInteger.encodedLength(length);
+        ByteBuffer view = buffer.getByteBuffer().duplicate();
+        view.position(pos);
+        view.limit(pos + length);
+        return UTF8.decode(view).toString();
+    }
+
+    /**
+     * Copies the value of the variable-length column
+     */
+    public byte[] getBytes(int column)
+    {
+        int pos = variableLengthPosition(column);
+        int length = buffer.readVarInt(pos);
+        byte[] value = new byte[length];
+        buffer.get(pos + VariableLengthInteger.encodedLength(length), value, 0, length);
+        return value;
     }
 
     @Override
     public Object getValue(int relationIndex)
     {
-        // TODO Auto-generated method stub
-        return null;
+        switch (layout.getType(relationIndex))
+        {
+        case INTEGER:
+            return getInt(relationIndex);
+        case LONG:
+            return getLong(relationIndex);
+        case DATETIME:
+            return new Date(getLong(relationIndex));
+        case DOUBLE:
+            return getDouble(relationIndex);
+        case BOOLEAN:
+            return getBoolean(relationIndex);
+        case BLOB:
+            return getBytes(relationIndex);
+        default:
+            return getString(relationIndex);
+        }
     }
 
+    /**
+     * Overwrites the fixed-size column value in the buffer. The
+     * variable-length columns cannot be updated in place.
+     */
     @Override
     public void setValue(int relationIndex, Object value)
     {
-        // TODO Auto-generated method stub
-        
+        int pos = getColumnPosition(relationIndex);
+        switch (layout.getType(relationIndex))
+        {
+        case INTEGER:
+            buffer.writeInt(pos, ((Number) value).intValue());
+            break;
+        case LONG:
+            buffer.writeLong(pos, ((Number) value).longValue());
+            break;
+        case DATETIME:
+            buffer.writeLong(pos, ((Date) value).getTime());
+            break;
+        case DOUBLE:
+            buffer.writeLong(pos, Double.doubleToLongBits(((Number) value).doubleValue()));
+            break;
+        case BOOLEAN:
+            buffer.writeBoolean(pos, (Boolean) value);
+            break;
+        default:
+            throw new UnsupportedOperationException("setValue to the variable-length column: " + relationIndex);
+        }
     }
 
     public int getByteSize()
     {
-        // TODO Auto-generated method stub
-        return 0;
+        return getColumnPosition(layout.getNumColumns()) - offset;
     }
 
+    /**
+     * Places this view on the tuple at the reader cursor, and advances the
+     * cursor to the next tuple. No data is copied.
+     */
     public int load(BufferReader reader)
     {
-        // TODO Auto-generated method stub
-        return 0;
+        moveTo(reader.getBuffer(), reader.getCursorPosition());
+        int byteSize = getByteSize();
+        reader.skip(byteSize);
+        return byteSize;
     }
 
+    /**
+     * Copies the tuple image to the writer
+     */
     public int save(BufferWriter writer)
     {
-        // TODO Auto-generated method stub
-        return 0;
+        int byteSize = getByteSize();
+        writer.write(buffer, offset, byteSize);
+        return byteSize;
     }
 
 }
@@ -29,10 +29,14 @@ import org.xerial.db.DBException;
 /**
  * An interface to access disk files, or main memory buffers.
  * 
- * Accesses to the {@link DBFile} are not guaranteed to be thread-safe, that is, 
+ * Accesses to the {@link DBFile} through the file cursor ({@link #seek(long)}, {@link #read(byte[], int, int)} and 
+ * {@link #write(byte[], int, int)}) are not guaranteed to be thread-safe, that is, 
  * concurrent accesses to the {@link DBFile} may cause undesired effects; for example,  
  * contiguous write requests may overwrite the previous write results because 
  * the second write request can be performed before the file cursor is properly updated. 
+ * 
+ * The positional accesses, {@link #readAt(long, byte[], int, int)} and {@link #writeAt(long, byte[], int, int)}, 
+ * neither use nor update the file cursor, and can be issued from multiple threads at the same time.  
  *
  * @author leo
  *
@@ -56,6 +60,26 @@ public interface DBFile {
 	 * @throws DBFileException when failed to write the data
 	 */
 	public void write(byte[] buffer, int offset, int byteSize) throws DBException; 
+
+	/**
+	 * Reads data at the specified file position, without changing the file cursor. This method is thread-safe.   
+	 * @param fileBytePos the file position from which the data is read
+	 * @param buffer the buffer into which the data is read
+	 * @param offset the start offset in the buffer at which the data is written
+	 * @param byteSize the bytes to read
+	 * @throws DBFileException when failed to read the data
+	 */
+	public void readAt(long fileBytePos, byte[] buffer, int offset, int byteSize) throws DBException;
+	
+	/**
+	 * Writes the given data at the specified file position, without changing the file cursor. This method is thread-safe.
+	 * @param fileBytePos the file position to which the data is written
+	 * @param buffer the data
+	 * @param offset the start offset in the data
+	 * @param byteSize the bytes to write
+	 * @throws DBFileException when failed to write the data
+	 */
+	public void writeAt(long fileBytePos, byte[] buffer, int offset, int byteSize) throws DBException; 
 	
 	/**
 	 * Sets the file pointer offset, measured from the beginning of the file, at which the next read/write request 
@@ -67,6 +91,12 @@ public interface DBFile {
 	public void seek(long fileBytePos) throws DBException;
 
 	
+	/**
+	 * Blocks until the data written to the file reach the storage device.   
+	 * @throws DBFileException
+	 */
+	public void sync() throws DBException;
+	
 	/**
 	 * Closes the file.
 	 * @throws DBFileException
@@ -0,0 +1,150 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// DeflatePageCodec.java
+// Since: Oct 18, 2026 7:38:52 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.storage;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.xerial.db.DBErrorCode;
+import org.xerial.db.DBException;
+
+/**
+ * A codec of the zlib format by {@link Deflater}. The compression is several times slower than
+ * {@link LZPageCodec}, but the output is smaller.
+ * 
+ * Each thread reuses a {@link Deflater} of each level and an {@link Inflater}, shared by all of
+ * the codecs and reset after every page, since their native buffers are expensive to allocate
+ * for each page. The native memory is bounded by the number of threads, however many codecs are
+ * created.
+ * 
+ * @author leo
+ * 
+ */
+public class DeflatePageCodec implements PageCodec
+{
+    private final int level;
+    // the deflaters of the levels from -1 (the default level) to 9, created on demand
+    private static final ThreadLocal<Deflater[]> deflaters = new ThreadLocal<Deflater[]>() {
+        @Override
+        protected Deflater[] initialValue()
+        {
+            return new Deflater[Deflater.BEST_COMPRESSION + 2];
+        }
+    };
+    private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue()
+        {
+            return new Inflater();
+        }
+    };
+
+    /**
+     * Creates a codec of the fastest compression level
+     */
+    public DeflatePageCodec()
+    {
+        this(Deflater.BEST_SPEED);
+    }
+
+    /**
+     * @param level
+     *            the compression level from 0 to 9, or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public DeflatePageCodec(int level)
+    {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException("invalid compression level: " + level);
+        this.level = level;
+    }
+
+    public int maxCompressedLength(int length)
+    {
+        // the overhead of the stored blocks and the zlib header
+        return length + (length >> 12) * 5 + 64;
+    }
+
+    public int compress(byte[] src, int srcOffset, int length, byte[] dest, int destOffset)
+    {
+        Deflater[] cached = deflaters.get();
+        Deflater deflater = cached[level + 1];
+        if (deflater == null)
+        {
+            deflater = new Deflater(level);
+            cached[level + 1] = deflater;
+        }
+        try
+        {
+            deflater.setInput(src, srcOffset, length);
+            deflater.finish();
+            int op = destOffset;
+            final int destEnd = destOffset + maxCompressedLength(length);
+            while (!deflater.finished())
+            {
+                if (op >= destEnd)
+                    throw new IllegalStateException("the compressed data exceeds " + maxCompressedLength(length));
+                op += deflater.deflate(dest, op, destEnd - op);
+            }
+            return op - destOffset;
+        }
+        finally
+        {
+            deflater.reset();
+        }
+    }
+
+    public void decompress(byte[] src, int srcOffset, int srcLength, byte[] dest, int destOffset, int length)
+            throws DBException
+    {
+        Inflater inflater = inflaters.get();
+        try
+        {
+            inflater.setInput(src, srcOffset, srcLength);
+            int decompressed = 0;
+            // reads past the length to find the end of the stream, or the excess data
+            byte[] excess = new byte[1];
+            while (!inflater.finished() && decompressed <= length)
+            {
+                int n = decompressed < length ? inflater.inflate(dest, destOffset + decompressed, length
+                        - decompressed) : inflater.inflate(excess);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                decompressed += n;
+            }
+            if (decompressed != length || !inflater.finished())
+                throw new DBException(DBErrorCode.InvalidDataFormat, String.format(
+                        "decompressed length %d differs from %d", decompressed, length));
+        }
+        catch (DataFormatException e)
+        {
+            throw new DBException(DBErrorCode.InvalidDataFormat, e);
+        }
+        finally
+        {
+            inflater.reset();
+        }
+    }
+}
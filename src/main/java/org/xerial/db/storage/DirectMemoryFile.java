@@ -0,0 +1,255 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// DirectMemoryFile.java
+// Since: Oct 18, 2026 12:05:31 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.storage;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.xerial.db.DBErrorCode;
+import org.xerial.db.DBException;
+
+/**
+ * An off-heap variant of the {@link MemoryFile}. The data are held in large
+ * direct {@link ByteBuffer}s allocated outside of the Java heap, so that a
+ * large in-memory database does not produce millions of small objects to be
+ * scanned by the garbage collector.
+ *
+ * The chunks are indexed sparsely; seeking or writing far beyond the end of
+ * the file allocates only the chunk actually written. Reading a region that has
+ * never been written returns zeros without allocating a chunk.
+ *
+ * The positional accesses can be issued from multiple threads. Concurrent
+ * writes to the same region are not ordered.
+ *
+ * @author leo
+ *
+ */
+public class DirectMemoryFile implements DBFile
+{
+    /**
+     * The default chunk size (1MB)
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    private final int chunkSize;
+    private final ConcurrentHashMap<Integer, ByteBuffer> chunkTable = new ConcurrentHashMap<Integer, ByteBuffer>();
+    private volatile long fileSize = 0;
+    private long fileCursor = 0;
+
+    public DirectMemoryFile()
+    {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize
+     *            the byte size of each direct buffer
+     */
+    public DirectMemoryFile(int chunkSize)
+    {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("chunk size must be higher than 0: " + chunkSize);
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Gets the byte size of the file, that is, the end position of the data
+     * written so far
+     *
+     * @return the file size
+     */
+    public long length()
+    {
+        return fileSize;
+    }
+
+    /**
+     * Gets the number of the allocated chunks
+     *
+     * @return the number of chunks
+     */
+    public int getNumChunks()
+    {
+        return chunkTable.size();
+    }
+
+    private int chunkIndex(long cursor)
+    {
+        return (int) (cursor / chunkSize);
+    }
+
+    private int chunkOffset(long cursor)
+    {
+        return (int) (cursor % chunkSize);
+    }
+
+    /**
+     * Gets the chunk of the given index, or allocates a new one if not exists
+     */
+    private ByteBuffer getOrAllocateChunk(int chunkIndex)
+    {
+        ByteBuffer chunk = chunkTable.get(chunkIndex);
+        if (chunk == null)
+        {
+            ByteBuffer newChunk = ByteBuffer.allocateDirect(chunkSize);
+            chunk = chunkTable.putIfAbsent(chunkIndex, newChunk);
+            if (chunk == null)
+                chunk = newChunk;
+        }
+        return chunk;
+    }
+
+    private synchronized void updateFileSize(long endPos)
+    {
+        if (endPos > fileSize)
+            fileSize = endPos;
+    }
+
+    /**
+     * Reads the contents of the given file, and writes them from the current
+     * cursor position. The file contents are transferred directly into the
+     * chunks.
+     *
+     * @param fileName
+     * @throws IOException
+     * @throws DBException
+     */
+    public void loadFromFile(String fileName) throws IOException, DBException
+    {
+        FileInputStream in = new FileInputStream(fileName);
+        try
+        {
+            FileChannel channel = in.getChannel();
+            while (true)
+            {
+                ByteBuffer view = getOrAllocateChunk(chunkIndex(fileCursor)).duplicate();
+                view.position(chunkOffset(fileCursor));
+                int readBytes = channel.read(view);
+                if (readBytes == -1)
+                    break;
+                fileCursor += readBytes;
+                updateFileSize(fileCursor);
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    public void read(byte[] buffer, int offset, int byteSize) throws DBException
+    {
+        readAt(fileCursor, buffer, offset, byteSize);
+        fileCursor += byteSize;
+    }
+
+    public void write(byte[] buffer, int offset, int byteSize) throws DBException
+    {
+        writeAt(fileCursor, buffer, offset, byteSize);
+        fileCursor += byteSize;
+    }
+
+    public void readAt(long fileBytePos, byte[] buffer, int offset, int byteSize) throws DBException
+    {
+        if ((buffer.length - offset) < byteSize)
+            throw new DBException(DBErrorCode.InvalidInput, "insufficient read buffer size:" + buffer.length
+                    + "(offset: " + offset + "), byteSize = " + byteSize);
+
+        long cursor = fileBytePos;
+        int remainingBytesToRead = byteSize;
+        while (remainingBytesToRead > 0)
+        {
+            int offsetInChunk = chunkOffset(cursor);
+            int readBytes = Math.min(chunkSize - offsetInChunk, remainingBytesToRead);
+            ByteBuffer chunk = chunkTable.get(chunkIndex(cursor));
+            if (chunk == null)
+            {
+                // not written yet
+                Arrays.fill(buffer, offset, offset + readBytes, (byte) 0);
+            }
+            else
+            {
+                ByteBuffer view = chunk.duplicate();
+                view.position(offsetInChunk);
+                view.get(buffer, offset, readBytes);
+            }
+
+            cursor += readBytes;
+            offset += readBytes;
+            remainingBytesToRead -= readBytes;
+        }
+    }
+
+    public void writeAt(long fileBytePos, byte[] buffer, int offset, int byteSize) throws DBException
+    {
+        if ((buffer.length - offset) < byteSize)
+            throw new DBException(DBErrorCode.InvalidInput, "insufficient data buffer size:" + buffer.length
+                    + "(offset: " + offset + "), byteSize = " + byteSize);
+
+        long cursor = fileBytePos;
+        int remainingBytesToWrite = byteSize;
+        while (remainingBytesToWrite > 0)
+        {
+            int offsetInChunk = chunkOffset(cursor);
+            int wroteBytes = Math.min(chunkSize - offsetInChunk, remainingBytesToWrite);
+            ByteBuffer view = getOrAllocateChunk(chunkIndex(cursor)).duplicate();
+            view.position(offsetInChunk);
+            view.put(buffer, offset, wroteBytes);
+
+            cursor += wroteBytes;
+            offset += wroteBytes;
+            remainingBytesToWrite -= wroteBytes;
+        }
+
+        updateFileSize(cursor);
+    }
+
+    public void seek(long fileBytePos) throws DBException
+    {
+        if (fileBytePos < 0)
+            throw new DBException(DBErrorCode.InvalidInput, "the cursor cannot be less than 0: " + fileBytePos);
+
+        fileCursor = fileBytePos;
+    }
+
+    public void sync() throws DBException
+    {
+    // do nothing
+    }
+
+    /**
+     * Releases the chunks. The off-heap memory is returned when the chunks are
+     * garbage collected.
+     */
+    public void close() throws DBException
+    {
+        chunkTable.clear();
+    }
+
+}
@@ -27,6 +27,8 @@ package org.xerial.db.storage;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 import org.xerial.db.DBErrorCode;
 import org.xerial.db.DBException;
@@ -34,20 +36,57 @@ import org.xerial.db.DBException;
 /**
  * The {@link DiskFile} wraps read/write accesses to files
  * 
+ * In the default {@link Durability#GROUP_COMMIT} mode, written data stay in the
+ * OS cache until {@link #sync()} is called. Concurrent {@link #sync()} calls are
+ * coalesced into a single fsync. In the {@link Durability#STRICT} mode, every
+ * write is synchronously flushed to the device.
+ * 
  * @author leo
  * 
  */
 public class DiskFile implements DBFile
 {
+    /**
+     * Durability mode of the file
+     * 
+     * @author leo
+     * 
+     */
+    public static enum Durability {
+        /**
+         * Each write request updates the file content and its metadata
+         * synchronously ("rws" mode)
+         */
+        STRICT,
+        /**
+         * Writes go to the OS cache, and {@link DiskFile#sync()} flushes them in
+         * a batch
+         */
+        GROUP_COMMIT
+    }
 
     private RandomAccessFile file;
+    private FileChannel channel;
+    private final boolean isSynchronousWrite;
+    private final GroupCommit groupCommit = new GroupCommit() {
+        @Override
+        protected void flush() throws IOException {
+            channel.force(true);
+        }
+    };
 
     public DiskFile(String filePath) throws FileNotFoundException {
-        file = new RandomAccessFile(filePath, "rws");
+        this(filePath, Durability.GROUP_COMMIT);
+    }
+
+    public DiskFile(String filePath, Durability durability) throws FileNotFoundException {
+        this(filePath, durability == Durability.STRICT ? "rws" : "rw");
     }
 
     public DiskFile(String filePath, String mode) throws FileNotFoundException {
         file = new RandomAccessFile(filePath, mode);
+        channel = file.getChannel();
+        isSynchronousWrite = mode.equals("rws") || mode.equals("rwd");
     }
 
     public void read(byte[] buffer, int offset, int byteSize) throws DBException {
@@ -79,6 +118,63 @@ public class DiskFile implements DBFile
         }
     }
 
+    public void readAt(long filePos, byte[] buffer, int offset, int byteSize) throws DBException {
+        ByteBuffer dest = ByteBuffer.wrap(buffer, offset, byteSize);
+        try {
+            long pos = filePos;
+            while (dest.hasRemaining()) {
+                int readBytes = channel.read(dest, pos);
+                if (readBytes < 0)
+                    throw new DBException(DBErrorCode.IOError, "read beyond the end of file: " + (filePos + byteSize));
+                pos += readBytes;
+            }
+        }
+        catch (IOException e) {
+            throw new DBException(DBErrorCode.IOError, e);
+        }
+    }
+
+    public void writeAt(long filePos, byte[] buffer, int offset, int byteSize) throws DBException {
+        ByteBuffer src = ByteBuffer.wrap(buffer, offset, byteSize);
+        try {
+            long pos = filePos;
+            while (src.hasRemaining()) {
+                pos += channel.write(src, pos);
+            }
+        }
+        catch (IOException e) {
+            throw new DBException(DBErrorCode.IOError, e);
+        }
+    }
+
+    /**
+     * Blocks until the data written so far reach the storage device. The
+     * concurrent sync requests are flushed together.
+     */
+    public void sync() throws DBException {
+        if (isSynchronousWrite)
+            return;
+
+        try {
+            groupCommit.sync();
+        }
+        catch (IOException e) {
+            throw new DBException(DBErrorCode.IOError, e);
+        }
+        catch (InterruptedException e) {
+            throw new DBException(DBErrorCode.ThreadInterruption, e);
+        }
+    }
+
+    /**
+     * Gets the number of fsyncs actually issued by {@link #sync()}
+     * 
+     * @return the number of fsyncs
+     */
+    public long getSyncCount() {
+        return groupCommit.getFlushCount();
+    }
+
     public void close() throws DBException {
         try {
             file.close();
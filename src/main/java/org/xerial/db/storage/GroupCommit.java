@@ -0,0 +1,117 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// GroupCommit.java
+// Since: Oct 18, 2026 11:20:05 AM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.storage;
+
+import java.io.IOException;
+
+/**
+ * {@link GroupCommit} coalesces the sync requests issued from concurrent
+ * committers into a single flush of the storage device.
+ *
+ * Each call of {@link #sync()} takes a ticket. The first committer that finds
+ * no flush in progress becomes the leader, and flushes the device on behalf of
+ * all of the tickets issued so far. The other committers wait until a flush
+ * that started after their ticket has completed. When a flush fails, the
+ * waiting committers retry the flush by themselves.
+ *
+ * @author leo
+ *
+ */
+abstract class GroupCommit
+{
+    private final Object lock = new Object();
+    private long issuedTicket = 0;
+    private long syncedTicket = 0;
+    private boolean isFlushing = false;
+    private long flushCount = 0;
+
+    /**
+     * Flushes the storage device
+     *
+     * @throws IOException
+     */
+    protected abstract void flush() throws IOException;
+
+    /**
+     * Blocks until all of the data written before this call reach the storage
+     * device
+     *
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void sync() throws IOException, InterruptedException
+    {
+        long flushTarget;
+        synchronized (lock)
+        {
+            final long ticket = ++issuedTicket;
+            while (true)
+            {
+                if (syncedTicket >= ticket)
+                    return;
+                if (!isFlushing)
+                    break;
+                lock.wait();
+            }
+            // become the leader of this group
+            isFlushing = true;
+            flushTarget = issuedTicket;
+        }
+
+        boolean success = false;
+        try
+        {
+            flush();
+            success = true;
+        }
+        finally
+        {
+            synchronized (lock)
+            {
+                isFlushing = false;
+                if (success)
+                {
+                    flushCount++;
+                    if (syncedTicket < flushTarget)
+                        syncedTicket = flushTarget;
+                }
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of flushes actually performed
+     *
+     * @return the number of flushes
+     */
+    public long getFlushCount()
+    {
+        synchronized (lock)
+        {
+            return flushCount;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// LZPageCodec.java
+// Since: Oct 18, 2026 7:21:05 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.storage;
+
+import java.util.Arrays;
+
+import org.xerial.db.DBErrorCode;
+import org.xerial.db.DBException;
+
+/**
+ * A fast LZ77 codec in the block format of LZ4. The data is encoded as the sequences of the
+ * literals followed by a match, a copy of the preceding bytes:
+ * 
+ * <pre>
+ * token          1 byte: (the literal length : 4 bits, the match length - 4 : 4 bits)
+ * literal length the bytes of 255 added to the length, when the 4 bits are 15
+ * literals
+ * offset         2 bytes in the little endian, the distance to the match
+ * match length   the bytes of 255 added to the length, when the 4 bits are 15
+ * </pre>
+ * 
+ * The last sequence has only the literals. A match may overlap the bytes it produces, so that a
+ * run of the same byte, such as the free space of a page, is encoded in a few bytes.
+ * 
+ * The matches are found by a hash table of the 4-byte sequences, without any search for
+ * longer matches, so that the compression runs at a speed close to the memory copy. Each thread
+ * reuses its own hash table, which is cleared before every page.
+ * 
+ * @author leo
+ * 
+ */
+public class LZPageCodec implements PageCodec
+{
+    private static final int MIN_MATCH = 4;
+    // the last bytes are always encoded as literals
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int MAX_OFFSET = 65535;
+    private static final int HASH_LOG = 12;
+    // the number of failures to find a match, after which the search step increases
+    private static final int SKIP_TRIGGER = 6;
+
+    // the position + 1 of the last sequence of each hash, or 0, shared by the codecs in each thread
+    private static final ThreadLocal<int[]> hashTable = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue()
+        {
+            return new int[1 << HASH_LOG];
+        }
+    };
+
+    public int maxCompressedLength(int length)
+    {
+        return length + length / 255 + 16;
+    }
+
+    private static int readInt(byte[] b, int pos)
+    {
+        return (b[pos] & 0xFF) | (b[pos + 1] & 0xFF) << 8 | (b[pos + 2] & 0xFF) << 16 | (b[pos + 3] & 0xFF) << 24;
+    }
+
+    private static int hash(int sequence)
+    {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    public int compress(byte[] src, int srcOffset, int length, byte[] dest, int destOffset)
+    {
+        final int srcEnd = srcOffset + length;
+        final int matchLimit = srcEnd - LAST_LITERALS;
+        final int matchStartLimit = srcEnd - MATCH_FIND_LIMIT;
+        final int[] table = hashTable.get();
+        Arrays.fill(table, 0);
+
+        int op = destOffset;
+        int anchor = srcOffset;
+        int ip = srcOffset;
+        int searchCount = 1 << SKIP_TRIGGER;
+        while (ip < matchStartLimit)
+        {
+            int sequence = readInt(src, ip);
+            int h = hash(sequence);
+            int ref = table[h] - 1;
+            table[h] = ip + 1;
+            if (ref < srcOffset || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence)
+            {
+                // skips faster over the incompressible data
+                ip += searchCount++ >>> SKIP_TRIGGER;
+                continue;
+            }
+
+            int matchLength = MIN_MATCH;
+            while (ip + matchLength < matchLimit && src[ip + matchLength] == src[ref + matchLength])
+                matchLength++;
+
+            op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLength, dest, op);
+            ip += matchLength;
+            anchor = ip;
+            searchCount = 1 << SKIP_TRIGGER;
+        }
+
+        op = writeLastLiterals(src, anchor, srcEnd - anchor, dest, op);
+        return op - destOffset;
+    }
+
+    private static int writeLength(int length, byte[] dest, int op)
+    {
+        while (length >= 255)
+        {
+            dest[op++] = (byte) 255;
+            length -= 255;
+        }
+        dest[op++] = (byte) length;
+        return op;
+    }
+
+    private static int writeSequence(byte[] src, int literalPos, int literalLength, int offset, int matchLength,
+            byte[] dest, int op)
+    {
+        int matchCode = matchLength - MIN_MATCH;
+        int token = Math.min(literalLength, 15) << 4 | Math.min(matchCode, 15);
+        dest[op++] = (byte) token;
+        if (literalLength >= 15)
+            op = writeLength(literalLength - 15, dest, op);
+        System.arraycopy(src, literalPos, dest, op, literalLength);
+        op += literalLength;
+        dest[op++] = (byte) offset;
+        dest[op++] = (byte) (offset >>> 8);
+        if (matchCode >= 15)
+            op = writeLength(matchCode - 15, dest, op);
+        return op;
+    }
+
+    private static int writeLastLiterals(byte[] src, int literalPos, int literalLength, byte[] dest, int op)
+    {
+        dest[op++] = (byte) (Math.min(literalLength, 15) << 4);
+        if (literalLength >= 15)
+            op = writeLength(literalLength - 15, dest, op);
+        System.arraycopy(src, literalPos, dest, op, literalLength);
+        return op + literalLength;
+    }
+
+    public void decompress(byte[] src, int srcOffset, int srcLength, byte[] dest, int destOffset, int length)
+            throws DBException
+    {
+        final int srcEnd = srcOffset + srcLength;
+        final int destEnd = destOffset + length;
+        int ip = srcOffset;
+        int op = destOffset;
+        try
+        {
+            while (true)
+            {
+                int token = src[ip++] & 0xFF;
+
+                int literalLength = token >>> 4;
+                if (literalLength == 15)
+                {
+                    int b;
+                    do
+                    {
+                        b = src[ip++] & 0xFF;
+                        literalLength += b;
+                    }
+                    while (b == 255);
+                }
+                if (ip + literalLength > srcEnd || op + literalLength > destEnd)
+                    throw broken(ip);
+                System.arraycopy(src, ip, dest, op, literalLength);
+                ip += literalLength;
+                op += literalLength;
+                if (ip == srcEnd)
+                    break;
+
+                int offset = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+                ip += 2;
+                int matchLength = (token & 0x0F) + MIN_MATCH;
+                if ((token & 0x0F) == 15)
+                {
+                    int b;
+                    do
+                    {
+                        b = src[ip++] & 0xFF;
+                        matchLength += b;
+                    }
+                    while (b == 255);
+                }
+                int ref = op - offset;
+                if (offset == 0 || ref < destOffset || op + matchLength > destEnd)
+                    throw broken(ip);
+                if (offset >= matchLength)
+                    System.arraycopy(dest, ref, dest, op, matchLength);
+                else
+                {
+                    // the match overlaps the output
+                    for (int i = 0; i < matchLength; i++)
+                        dest[op + i] = dest[ref + i];
+                }
+                op += matchLength;
+            }
+        }
+        catch (ArrayIndexOutOfBoundsException e)
+        {
+            throw broken(ip);
+        }
+
+        if (op != destEnd)
+            throw new DBException(DBErrorCode.InvalidDataFormat, String.format(
+                    "decompressed length %d differs from %d", op - destOffset, length));
+    }
+
+    private static DBException broken(int pos)
+    {
+        return new DBException(DBErrorCode.InvalidDataFormat, "broken compressed data at " + pos);
+    }
+}
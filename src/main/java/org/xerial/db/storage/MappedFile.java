@@ -0,0 +1,275 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// MappedFile.java
+// Since: Oct 18, 2026 10:12:40 AM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.storage;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.xerial.db.DBErrorCode;
+import org.xerial.db.DBException;
+
+/**
+ * {@link MappedFile} maps a database file into the memory with
+ * {@link FileChannel#map(FileChannel.MapMode, long, long)}, and serves
+ * read/write requests by copying from/to the mapped region. Hot pages are
+ * served from the OS page cache without issuing a system call per read.
+ *
+ * The file is mapped in fixed-size segments. When a write goes beyond the
+ * mapped region, the file is extended to the next segment boundary and the new
+ * segments are mapped. The file is truncated to its logical size when closed,
+ * except on the platforms refusing to truncate a file whose mapped buffers are
+ * not garbage collected yet, such as Windows. There the file keeps the size of
+ * the mapped segments, and the zero-filled tail is seen as a part of the file
+ * when reopened.
+ *
+ * Written data reach the disk asynchronously; use {@link #force()} to make them
+ * durable.
+ *
+ * The positional accesses can be issued from multiple threads. Extending the
+ * mapping is serialized by the lock of this object, and replaces the segment
+ * array so that the concurrent readers always see a consistent array.
+ *
+ * @author leo
+ *
+ */
+public class MappedFile implements DBFile
+{
+    /**
+     * The default segment size (64MB)
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int segmentSize;
+    private volatile MappedByteBuffer[] segment = new MappedByteBuffer[0];
+    private volatile long fileSize;
+    private long fileCursor = 0;
+
+    public MappedFile(String filePath) throws DBException
+    {
+        this(filePath, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens the file in the mapped mode
+     *
+     * @param filePath
+     *            the file path
+     * @param segmentSize
+     *            the byte size of each mapped segment
+     * @throws DBException
+     *             when failed to open or map the file
+     */
+    public MappedFile(String filePath, int segmentSize) throws DBException
+    {
+        if (segmentSize <= 0)
+            throw new DBException(DBErrorCode.InvalidInput, "segment size must be higher than 0: " + segmentSize);
+
+        this.segmentSize = segmentSize;
+        try
+        {
+            file = new RandomAccessFile(filePath, "rw");
+            channel = file.getChannel();
+            fileSize = channel.size();
+            extendMapping(fileSize);
+        }
+        catch (IOException e)
+        {
+            throw new DBException(DBErrorCode.IOError, e);
+        }
+    }
+
+    /**
+     * Gets the logical byte size of the file
+     *
+     * @return the file size
+     */
+    public long length()
+    {
+        return fileSize;
+    }
+
+    /**
+     * Maps new segments so that the mapped region covers [0, requiredSize)
+     */
+    private synchronized void extendMapping(long requiredSize) throws IOException
+    {
+        MappedByteBuffer[] current = segment;
+        if (requiredSize <= (long) current.length * segmentSize)
+            return;
+
+        int numSegments = (int) ((requiredSize + segmentSize - 1) / segmentSize);
+        long newSize = (long) numSegments * segmentSize;
+        if (file.length() < newSize)
+            file.setLength(newSize);
+
+        MappedByteBuffer[] extended = new MappedByteBuffer[numSegments];
+        System.arraycopy(current, 0, extended, 0, current.length);
+        for (int i = current.length; i < numSegments; i++)
+        {
+            extended[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i * segmentSize, segmentSize);
+        }
+        segment = extended;
+    }
+
+    private synchronized void updateFileSize(long endPos)
+    {
+        if (endPos > fileSize)
+            fileSize = endPos;
+    }
+
+    private ByteBuffer segmentAt(long filePos)
+    {
+        ByteBuffer view = segment[(int) (filePos / segmentSize)].duplicate();
+        view.position((int) (filePos % segmentSize));
+        return view;
+    }
+
+    public void read(byte[] buffer, int offset, int byteSize) throws DBException
+    {
+        readAt(fileCursor, buffer, offset, byteSize);
+        fileCursor += byteSize;
+    }
+
+    public void write(byte[] buffer, int offset, int byteSize) throws DBException
+    {
+        writeAt(fileCursor, buffer, offset, byteSize);
+        fileCursor += byteSize;
+    }
+
+    public void readAt(long fileBytePos, byte[] buffer, int offset, int byteSize) throws DBException
+    {
+        if ((buffer.length - offset) < byteSize)
+            throw new DBException(DBErrorCode.InvalidInput, "insufficient read buffer size:" + buffer.length
+                    + "(offset: " + offset + "), byteSize = " + byteSize);
+        if (fileBytePos + byteSize > fileSize)
+            throw new DBException(DBErrorCode.IOError, "read beyond the end of file: " + (fileBytePos + byteSize)
+                    + " > " + fileSize);
+
+        long cursor = fileBytePos;
+        int remainingBytesToRead = byteSize;
+        while (remainingBytesToRead > 0)
+        {
+            ByteBuffer view = segmentAt(cursor);
+            int readBytes = Math.min(view.remaining(), remainingBytesToRead);
+            view.get(buffer, offset, readBytes);
+
+            cursor += readBytes;
+            offset += readBytes;
+            remainingBytesToRead -= readBytes;
+        }
+    }
+
+    public void writeAt(long fileBytePos, byte[] buffer, int offset, int byteSize) throws DBException
+    {
+        if ((buffer.length - offset) < byteSize)
+            throw new DBException(DBErrorCode.InvalidInput, "insufficient data buffer size:" + buffer.length
+                    + "(offset: " + offset + "), byteSize = " + byteSize);
+
+        try
+        {
+            extendMapping(fileBytePos + byteSize);
+        }
+        catch (IOException e)
+        {
+            throw new DBException(DBErrorCode.IOError, e);
+        }
+
+        long cursor = fileBytePos;
+        int remainingBytesToWrite = byteSize;
+        while (remainingBytesToWrite > 0)
+        {
+            ByteBuffer view = segmentAt(cursor);
+            int wroteBytes = Math.min(view.remaining(), remainingBytesToWrite);
+            view.put(buffer, offset, wroteBytes);
+
+            cursor += wroteBytes;
+            offset += wroteBytes;
+            remainingBytesToWrite -= wroteBytes;
+        }
+
+        updateFileSize(cursor);
+    }
+
+    public void seek(long fileBytePos) throws DBException
+    {
+        if (fileBytePos < 0)
+            throw new DBException(DBErrorCode.InvalidInput, "the cursor cannot be less than 0: " + fileBytePos);
+
+        fileCursor = fileBytePos;
+    }
+
+    /**
+     * Writes the modified contents of the mapped segments to the storage device
+     */
+    public void force()
+    {
+        for (MappedByteBuffer each : segment)
+        {
+            each.force();
+        }
+    }
+
+    /**
+     * Same as {@link #force()}
+     */
+    public void sync() throws DBException
+    {
+        force();
+    }
+
+    /**
+     * Closes the file. The file is truncated to its logical size, since the
+     * mapped region is extended in units of segments, if the platform allows
+     * truncating the region that may still be mapped.
+     */
+    public void close() throws DBException
+    {
+        try
+        {
+            force();
+            // the buffers are unmapped only when they are garbage collected
+            segment = new MappedByteBuffer[0];
+            try
+            {
+                channel.truncate(fileSize);
+            }
+            catch (IOException e)
+            {
+                // the mapped region cannot be truncated on Windows
+            }
+            file.close();
+        }
+        catch (IOException e)
+        {
+            throw new DBException(DBErrorCode.IOError, e);
+        }
+    }
+
+}
@@ -24,16 +24,19 @@
 //--------------------------------------
 package org.xerial.db.storage;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 
 import org.xerial.db.DBErrorCode;
 import org.xerial.db.DBException;
 
 /**
- * {@link MemoryFile} is a class to handle main memory as if it is a file
+ * {@link MemoryFile} is a class to handle main memory as if it is a file.
+ * 
+ * All of the accesses are serialized by the lock of this object.
  * 
  * @author leo
  * 
@@ -42,6 +45,7 @@ public class MemoryFile implements DBFile
 {
 
     private final int chunkSize = 1024;
+    private static final int LOAD_BUFFER_SIZE = 64 * 1024;
     private ArrayList<MemoryChunk> chunkList = new ArrayList<MemoryChunk>();
     private long fileCursor = 0;
 
@@ -73,10 +77,7 @@ public class MemoryFile implements DBFile
             int availableBytesInThisChunk = chunkSize - offsetInChunk;
             int readBytesFromThisChunk = (availableBytesInThisChunk > readBytes) ? readBytes
                     : availableBytesInThisChunk;
-            for (int i = 0; i < readBytesFromThisChunk; i++)
-            {
-                outputBuffer[offsetInOutputBuffer + i] = buffer[offsetInChunk + i];
-            }
+            System.arraycopy(buffer, offsetInChunk, outputBuffer, offsetInOutputBuffer, readBytesFromThisChunk);
             return readBytesFromThisChunk;
         }
 
@@ -85,10 +86,7 @@ public class MemoryFile implements DBFile
             int availableBytesInThisChunk = chunkSize - offsetInChunk;
             int writeBytesToThisChunk = (availableBytesInThisChunk > writeBytes) ? writeBytes
                     : availableBytesInThisChunk;
-            for (int i = 0; i < writeBytesToThisChunk; i++)
-            {
-                buffer[offsetInChunk + i] = inputBuffer[offsetInInputBuffer + i];
-            }
+            System.arraycopy(inputBuffer, offsetInInputBuffer, buffer, offsetInChunk, writeBytesToThisChunk);
             return writeBytesToThisChunk;
         }
     }
@@ -96,15 +94,30 @@ public class MemoryFile implements DBFile
     public MemoryFile()
     {}
 
+    /**
+     * Reads the contents of the given file, and writes them from the current
+     * cursor position
+     * 
+     * @param fileName
+     * @throws IOException
+     * @throws DBException
+     */
     public void loadFromFile(String fileName) throws IOException, DBException
     {
-        BufferedReader reader = new BufferedReader(new FileReader(fileName));
-        int data;
-        byte[] buf = new byte[1];
-        while ((data = reader.read()) != -1)
+        FileInputStream in = new FileInputStream(fileName);
+        try
         {
-            buf[0] = (byte) data;
-            write(buf, 0, 1);
+            FileChannel channel = in.getChannel();
+            ByteBuffer buf = ByteBuffer.allocate(LOAD_BUFFER_SIZE);
+            while (channel.read(buf) != -1)
+            {
+                write(buf.array(), 0, buf.position());
+                buf.clear();
+            }
+        }
+        finally
+        {
+            in.close();
         }
     }
 
@@ -132,27 +145,34 @@ public class MemoryFile implements DBFile
         }
     }
 
-    public void read(byte[] buffer, int offset, int byteSize) throws DBException
+    public synchronized void read(byte[] buffer, int offset, int byteSize) throws DBException
+    {
+        readAt(fileCursor, buffer, offset, byteSize);
+        fileCursor += byteSize;
+    }
+
+    public synchronized void readAt(long fileBytePos, byte[] buffer, int offset, int byteSize) throws DBException
     {
         if ((buffer.length - offset) < byteSize)
             throw new DBException(DBErrorCode.InvalidInput, "insufficient read buffer size:" + buffer.length
                     + "(offset: " + offset + "), byteSize = " + byteSize);
 
+        long cursor = fileBytePos;
         int remainingBytesToRead = byteSize;
         while (remainingBytesToRead > 0)
         {
-            int currentChunkIndex = chunkIndex(fileCursor);
-            int offsetInChunk = chunkOffset(fileCursor);
+            int currentChunkIndex = chunkIndex(cursor);
+            int offsetInChunk = chunkOffset(cursor);
             MemoryChunk chunk = getChunk(currentChunkIndex);
             int readBytes = chunk.read(buffer, offset, offsetInChunk, remainingBytesToRead);
 
-            fileCursor += readBytes;
+            cursor += readBytes;
             offset += readBytes;
             remainingBytesToRead -= readBytes;
         }
     }
 
-    public void seek(long fileBytePos) throws DBException
+    public synchronized void seek(long fileBytePos) throws DBException
     {
         if (fileBytePos < 0)
             throw new DBException(DBErrorCode.InvalidInput, "the cursor cannot be less than 0: " + fileBytePos);
@@ -160,26 +180,38 @@ public class MemoryFile implements DBFile
         fileCursor = fileBytePos;
     }
 
-    public void write(byte[] buffer, int offset, int byteSize) throws DBException
+    public synchronized void write(byte[] buffer, int offset, int byteSize) throws DBException
+    {
+        writeAt(fileCursor, buffer, offset, byteSize);
+        fileCursor += byteSize;
+    }
+
+    public synchronized void writeAt(long fileBytePos, byte[] buffer, int offset, int byteSize) throws DBException
     {
         if ((buffer.length - offset) < byteSize)
             throw new DBException(DBErrorCode.InvalidInput, "insufficient data buffer size:" + buffer.length
                     + "(offset: " + offset + "), byteSize = " + byteSize);
 
+        long cursor = fileBytePos;
         int remainingBytesToWrite = byteSize;
         while (remainingBytesToWrite > 0)
         {
-            int currentChunkIndex = chunkIndex(fileCursor);
-            int offsetInChunk = chunkOffset(fileCursor);
+            int currentChunkIndex = chunkIndex(cursor);
+            int offsetInChunk = chunkOffset(cursor);
             MemoryChunk chunk = getChunk(currentChunkIndex);
             int wroteBytes = chunk.write(buffer, offset, offsetInChunk, remainingBytesToWrite);
 
-            fileCursor += wroteBytes;
+            cursor += wroteBytes;
             offset += wroteBytes;
             remainingBytesToWrite -= wroteBytes;
         }
     }
 
+    public void sync() throws DBException
+    {
+    // do nothing
+    }
+
     public void close() throws DBException
     {
     // do nothing
@@ -0,0 +1,76 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// PageCodec.java
+// Since: Oct 18, 2026 7:15:40 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.storage;
+
+import org.xerial.db.DBException;
+
+/**
+ * Compresses the page images written to the temporary files, such as the sorted runs of the
+ * external sort. A codec is called from multiple threads at a time, and may keep only the
+ * state confined to each thread, such as the work area reused by the calls of the thread.
+ * 
+ * @author leo
+ * 
+ */
+public interface PageCodec
+{
+    /**
+     * @param length
+     *            the byte length of the input
+     * @return the upper bound of the compressed length of the input
+     */
+    public int maxCompressedLength(int length);
+
+    /**
+     * Compresses the data
+     * 
+     * @param src
+     * @param srcOffset
+     * @param length
+     *            the byte length of the data
+     * @param dest
+     *            the output, which has the room of {@link #maxCompressedLength(int)} bytes
+     * @param destOffset
+     * @return the compressed length
+     */
+    public int compress(byte[] src, int srcOffset, int length, byte[] dest, int destOffset);
+
+    /**
+     * Decompresses the data
+     * 
+     * @param src
+     * @param srcOffset
+     * @param srcLength
+     *            the compressed length
+     * @param dest
+     * @param destOffset
+     * @param length
+     *            the byte length of the original data
+     * @throws DBException
+     *             when the compressed data is broken
+     */
+    public void decompress(byte[] src, int srcOffset, int srcLength, byte[] dest, int destOffset, int length)
+            throws DBException;
+}
@@ -25,29 +25,54 @@
 package org.xerial.db;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.junit.After;
 import org.junit.Before;
-import org.junit.Ignore;
 import org.junit.Test;
+import org.xerial.db.cache.Buffer;
 import org.xerial.db.cache.BufferReader;
 import org.xerial.db.cache.BufferWriter;
+import org.xerial.db.storage.DeflatePageCodec;
+import org.xerial.db.storage.LZPageCodec;
+import org.xerial.db.storage.PageCodec;
 
 public class ExternalMergeSortTest
 {
 
+    private File tempDir = new File("target/sort");
+
     @Before
     public void setUp() throws Exception
-    {}
+    {
+        tempDir.mkdirs();
+        for (File file : tempDir.listFiles())
+            file.delete();
+    }
 
     @After
     public void tearDown() throws Exception
     {}
 
-    class IntOnlyTuple implements Tuple
+    static TupleFactory factory = new TupleFactory() {
+        public Tuple createTupleFromBuffer(BufferReader reader) throws DBException
+        {
+            return new IntOnlyTuple(reader.readInt());
+        }
+    };
+
+    static class IntOnlyTuple implements Tuple
     {
         int value;
 
@@ -97,7 +122,6 @@ public class ExternalMergeSortTest
 
     }
 
-    @Ignore
     @Test
     public void mergeSortTest()
     {
@@ -122,4 +146,246 @@ public class ExternalMergeSortTest
             assertEquals(0, comparator.compare(outputTuple, new IntOnlyTuple(result[i])));
         }
     }
+
+    @Test
+    public void mergeSortedInputs()
+    {
+        int[][] input = new int[][] { { 1, 4, 7 }, {}, { 2, 2, 9 }, { 0, 3, 5, 8 }, { 6 } };
+
+        List<Iterable<Tuple>> inputList = new ArrayList<Iterable<Tuple>>();
+        for (int[] sortedInput : input)
+        {
+            ArrayList<Tuple> tupleList = new ArrayList<Tuple>();
+            for (int e : sortedInput)
+                tupleList.add(new IntOnlyTuple(e));
+            inputList.add(tupleList);
+        }
+
+        ArrayList<Tuple> outputList = new ArrayList<Tuple>();
+        new ExternalMergeSort().mergeSort(inputList, new PrimaryKeyComparator(), outputList);
+
+        int[] result = new int[] { 0, 1, 2, 2, 3, 4, 5, 6, 7, 8, 9 };
+        assertEquals(result.length, outputList.size());
+        for (int i = 0; i < result.length; i++)
+            assertEquals(result[i], ((IntOnlyTuple) outputList.get(i)).value);
+    }
+
+    private TupleIterator randomInput(final int numTuples)
+    {
+        final Random random = new Random(0);
+        return new TupleIterator() {
+            int count = 0;
+
+            public boolean hasNext()
+            {
+                return count < numTuples;
+            }
+
+            public Tuple next()
+            {
+                count++;
+                return new IntOnlyTuple(random.nextInt());
+            }
+
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private void assertSorted(TupleIterator it, int numTuples)
+    {
+        int count = 0;
+        int prev = Integer.MIN_VALUE;
+        for (; it.hasNext(); count++)
+        {
+            int value = ((IntOnlyTuple) it.next()).value;
+            assertTrue(prev <= value);
+            prev = value;
+        }
+        assertEquals(numTuples, count);
+    }
+
+    @Test
+    public void externalSort() throws Exception
+    {
+        final int numTuples = 100000;
+        ExternalMergeSort sorter = new ExternalMergeSort(factory, 1024, 4, tempDir);
+        TupleIterator it = sorter.sort(randomInput(numTuples), new PrimaryKeyComparator());
+
+        // the runs exceed the merge fan-in, so that they are merged in multiple passes 
+        assertTrue(sorter.getNumRuns() > 3);
+        assertTrue(sorter.getNumMergePasses() > 1);
+        assertSorted(it, numTuples);
+
+        // the runs are removed after the merge
+        assertEquals(0, tempDir.listFiles().length);
+    }
+
+    @Test
+    public void inMemorySort() throws Exception
+    {
+        ExternalMergeSort sorter = new ExternalMergeSort(factory);
+        TupleIterator it = sorter.sort(randomInput(1000), new PrimaryKeyComparator());
+        assertEquals(0, sorter.getNumRuns());
+        assertEquals(0, sorter.getNumMergePasses());
+        assertSorted(it, 1000);
+    }
+
+    @Test
+    public void close() throws Exception
+    {
+        ExternalMergeSort sorter = new ExternalMergeSort(factory, 1024, 4, tempDir);
+        TupleIterator it = sorter.sort(randomInput(10000), new PrimaryKeyComparator());
+        assertTrue(it.hasNext());
+        assertFalse(tempDir.listFiles().length == 0);
+
+        sorter.close();
+        assertEquals(0, tempDir.listFiles().length);
+    }
+
+    @Test
+    public void closeInterruptedReader() throws Exception
+    {
+        SortRun run = new SortRun(tempDir, 1024, null);
+        SortRun.Writer writer = run.openWriter(new Buffer(1024));
+        for (int i = 0; i < 1000; i++)
+            writer.append(new IntOnlyTuple(i));
+        writer.close();
+
+        // the load of the first page starts after a while
+        final CountDownLatch start = new CountDownLatch(1);
+        Executor delayedExecutor = new Executor() {
+            public void execute(final Runnable command)
+            {
+                new Thread() {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            Thread.sleep(100);
+                        }
+                        catch (InterruptedException e)
+                        {}
+                        start.countDown();
+                        command.run();
+                    }
+                }.start();
+            }
+        };
+        SortRun.Reader reader = run.openReader(new Buffer(1024), new Buffer(1024), delayedExecutor, factory);
+
+        // the interrupted close still waits for the load into the spare buffer
+        Thread.currentThread().interrupt();
+        reader.close();
+        assertTrue(Thread.interrupted());
+        assertEquals(0, start.getCount());
+        run.delete();
+    }
+
+    @Test
+    public void replacementSelection() throws Exception
+    {
+        final int numTuples = 200000;
+        ExternalMergeSort sorter = new ExternalMergeSort(factory, 1024, 4, tempDir);
+        sorter.sort(randomInput(numTuples), new PrimaryKeyComparator());
+        int numLoadSortRuns = sorter.getNumRuns();
+        sorter.close();
+
+        sorter.setRunGeneration(ExternalMergeSort.RunGeneration.REPLACEMENT_SELECTION);
+        TupleIterator it = sorter.sort(randomInput(numTuples), new PrimaryKeyComparator());
+        // the runs become about twice as long as the memory
+        assertTrue(sorter.getNumRuns() < numLoadSortRuns * 0.6);
+        assertSorted(it, numTuples);
+        assertEquals(0, tempDir.listFiles().length);
+    }
+
+    @Test
+    public void replacementSelectionOfSortedInput() throws Exception
+    {
+        final int numTuples = 100000;
+        ExternalMergeSort sorter = new ExternalMergeSort(factory, 1024, 4, tempDir);
+        sorter.setRunGeneration(ExternalMergeSort.RunGeneration.REPLACEMENT_SELECTION);
+        TupleIterator it = sorter.sort(new TupleIterator() {
+            int count = 0;
+
+            public boolean hasNext()
+            {
+                return count < numTuples;
+            }
+
+            public Tuple next()
+            {
+                return new IntOnlyTuple(count++);
+            }
+
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        }, new PrimaryKeyComparator());
+
+        assertEquals(1, sorter.getNumRuns());
+        assertEquals(1, sorter.getNumMergePasses());
+        assertSorted(it, numTuples);
+    }
+
+    @Test
+    public void parallelSort() throws Exception
+    {
+        final int numTuples = 200000;
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            ExternalMergeSort sorter = new ExternalMergeSort(factory, 1024, 8, tempDir);
+            sorter.setParallelism(executor, 4);
+            TupleIterator it = sorter.sort(randomInput(numTuples), new PrimaryKeyComparator());
+
+            // the runs are merged in multiple passes with the fan-in 3
+            assertTrue(sorter.getNumRuns() > 3);
+            assertTrue(sorter.getNumMergePasses() > 1);
+            assertSorted(it, numTuples);
+            assertEquals(0, tempDir.listFiles().length);
+
+            // fits in memory
+            it = sorter.sort(randomInput(100), new PrimaryKeyComparator());
+            assertEquals(0, sorter.getNumRuns());
+            assertSorted(it, 100);
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void compressedRuns() throws Exception
+    {
+        final int numTuples = 100000;
+        ExternalMergeSort sorter = new ExternalMergeSort(factory, 1024, 8, tempDir);
+        assertSorted(sorter.sort(randomInput(numTuples), new PrimaryKeyComparator()), numTuples);
+        long uncompressedSize = sorter.getNumBytesWritten();
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try
+        {
+            for (PageCodec codec : new PageCodec[] { new LZPageCodec(), new DeflatePageCodec() })
+            {
+                sorter = new ExternalMergeSort(factory, 1024, 8, tempDir);
+                sorter.setPageCodec(codec);
+                assertSorted(sorter.sort(randomInput(numTuples), new PrimaryKeyComparator()), numTuples);
+                assertTrue(sorter.getNumBytesWritten() < uncompressedSize);
+
+                sorter.setParallelism(executor, 2);
+                assertSorted(sorter.sort(randomInput(numTuples), new PrimaryKeyComparator()), numTuples);
+                assertEquals(0, tempDir.listFiles().length);
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
 }
@@ -0,0 +1,441 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// HeapStorageTest.java
+// Since: Oct 18, 2026 4:25:09 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xerial.db.btree.FreePageBitMap;
+import org.xerial.db.cache.Buffer;
+import org.xerial.db.cache.BufferReader;
+import org.xerial.db.cache.BufferWriter;
+import org.xerial.db.cache.PageCacheHolder;
+import org.xerial.db.heap.RecordID;
+import org.xerial.db.storage.MemoryFile;
+
+public class HeapStorageTest
+{
+    /**
+     * (id:int, payload:byte[])
+     */
+    static class RecordTuple implements Tuple
+    {
+        int id;
+        int payloadSize;
+
+        public RecordTuple(int id, int payloadSize)
+        {
+            this.id = id;
+            this.payloadSize = payloadSize;
+        }
+
+        public Object getValue(int columnIndex)
+        {
+            return columnIndex == 0 ? id : payloadSize;
+        }
+
+        public void setValue(int columnIndex, Object value)
+        {
+            throw new DBError(DBErrorCode.NotSupported);
+        }
+
+        public int getByteSize()
+        {
+            return 8 + payloadSize;
+        }
+
+        public int load(BufferReader reader)
+        {
+            id = reader.readInt();
+            payloadSize = reader.readInt();
+            for (int i = 0; i < payloadSize; i++)
+                assertEquals((byte) (id + i), reader.readByte());
+            return getByteSize();
+        }
+
+        public int save(BufferWriter writer)
+        {
+            writer.writeInt(id);
+            writer.writeInt(payloadSize);
+            for (int i = 0; i < payloadSize; i++)
+                writer.writeByte((byte) (id + i));
+            return getByteSize();
+        }
+    }
+
+    static TupleFactory factory = new TupleFactory() {
+        public Tuple createTupleFromBuffer(BufferReader reader) throws DBException
+        {
+            RecordTuple t = new RecordTuple(0, 0);
+            t.load(reader);
+            return t;
+        }
+    };
+
+    PageCacheHolder cache;
+    HeapStorage storage;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        cache = new PageCacheHolder(new MemoryFile(), 1024, 16);
+        storage = HeapStorage.create(cache);
+        storage.setTupleFactory(factory);
+    }
+
+    static void assertTuple(Tuple t, int id, int payloadSize)
+    {
+        assertEquals(id, t.getValue(0));
+        assertEquals(payloadSize, t.getValue(1));
+    }
+
+    @Test
+    public void appendAndGet() throws Exception
+    {
+        ArrayList<Long> rids = new ArrayList<Long>();
+        for (int i = 0; i < 500; i++)
+            rids.add(storage.append(new RecordTuple(i, i % 50)));
+
+        assertEquals(500, storage.getNumRecords());
+        assertTrue(storage.getNumPages() > 10);
+        for (int i = 0; i < 500; i++)
+            assertTuple(storage.get(rids.get(i)), i, i % 50);
+        // appended in order
+        for (int i = 1; i < 500; i++)
+            assertTrue(rids.get(i - 1) < rids.get(i));
+
+        // reopen
+        storage.flush();
+        HeapStorage reopened = HeapStorage.open(new PageCacheHolder(cache.getFile(), 1024, 4));
+        reopened.setTupleFactory(factory);
+        assertEquals(500, reopened.getNumRecords());
+        assertEquals(storage.getNumPages(), reopened.getNumPages());
+        assertTuple(reopened.get(rids.get(123)), 123, 123 % 50);
+        long rid = reopened.append(new RecordTuple(1000, 10));
+        assertTuple(reopened.get(rid), 1000, 10);
+    }
+
+    @Test
+    public void bitMapPages() throws Exception
+    {
+        int capacity = FreePageBitMap.getCapacity(1024);
+        // fill more than one bitmap range
+        for (int i = 0; i < capacity + 10; i++)
+            storage.append(new RecordTuple(i, 900));
+
+        assertFalse(storage.isHeapPage(0));
+        assertFalse(storage.isHeapPage(1));
+        assertTrue(storage.isHeapPage(2));
+        assertFalse(storage.isHeapPage(capacity + 2));
+        assertTrue(storage.isHeapPage(capacity + 3));
+        assertEquals(capacity + 10 + 3, storage.getNumPages());
+    }
+
+    @Test
+    public void insertReusesFreeSpace() throws Exception
+    {
+        ArrayList<Long> rids = new ArrayList<Long>();
+        for (int i = 0; i < 200; i++)
+            rids.add(storage.append(new RecordTuple(i, 100)));
+        long numPages = storage.getNumPages();
+
+        // make room in an early page
+        long pageID = RecordID.getPageID(rids.get(10));
+        for (long rid : rids)
+        {
+            if (RecordID.getPageID(rid) == pageID)
+                storage.delete(rid);
+        }
+        long rid = storage.insert(new RecordTuple(5000, 100));
+        assertEquals(pageID, RecordID.getPageID(rid));
+        assertEquals(numPages, storage.getNumPages());
+        assertTuple(storage.get(rid), 5000, 100);
+
+        try
+        {
+            storage.get(rids.get(10));
+            fail("deleted");
+        }
+        catch (DBException e)
+        {
+            assertEquals(DBErrorCode.InvalidInput, e.getErrorCode());
+        }
+    }
+
+    @Test
+    public void updateWithForward() throws Exception
+    {
+        ArrayList<Long> rids = new ArrayList<Long>();
+        for (int i = 0; i < 30; i++)
+            rids.add(storage.append(new RecordTuple(i, 100)));
+
+        long rid = rids.get(0);
+        // in place
+        storage.update(rid, new RecordTuple(100, 50));
+        assertTuple(storage.get(rid), 100, 50);
+
+        // does not fit in the page
+        storage.update(rid, new RecordTuple(101, 600));
+        assertTuple(storage.get(rid), 101, 600);
+        // moved again
+        storage.update(rid, new RecordTuple(102, 900));
+        assertTuple(storage.get(rid), 102, 900);
+        assertTuple(storage.get(rids.get(1)), 1, 100);
+        assertEquals(30, storage.getNumRecords());
+
+        storage.delete(rid);
+        assertEquals(29, storage.getNumRecords());
+        try
+        {
+            storage.read(rid);
+            fail("deleted");
+        }
+        catch (DBException e)
+        {}
+    }
+
+    @Test
+    public void scanMovedRecord() throws Exception
+    {
+        ArrayList<Long> rids = new ArrayList<Long>();
+        for (int i = 0; i < 30; i++)
+            rids.add(storage.append(new RecordTuple(i, 100)));
+        // the record 0 is moved to another page
+        storage.update(rids.get(0), new RecordTuple(100, 600));
+
+        final ArrayList<Long> scanned = new ArrayList<Long>();
+        final ArrayList<Integer> ids = new ArrayList<Integer>();
+        TupleVisitor collector = new TupleVisitor() {
+            public void visit(long recordID, Tuple tuple) throws DBException
+            {
+                scanned.add(recordID);
+                ids.add((Integer) tuple.getValue(0));
+            }
+        };
+        storage.scan(collector);
+        assertEquals(30, scanned.size());
+        // the moved record is visited under its original record ID
+        assertEquals(rids.get(0), scanned.get(ids.indexOf(100)));
+
+        storage.delete(scanned.get(ids.indexOf(100)));
+        assertEquals(29, storage.getNumRecords());
+        scanned.clear();
+        ids.clear();
+        storage.scan(collector);
+        assertEquals(29, scanned.size());
+        assertFalse(ids.contains(100));
+        for (int i = 1; i < 30; i++)
+            assertTuple(storage.get(rids.get(i)), i, 100);
+    }
+
+    @Test
+    public void relocatedSlotIsNotRecordID() throws Exception
+    {
+        long rid = storage.append(new RecordTuple(0, 100));
+        for (int i = 1; i < 8; i++)
+            storage.append(new RecordTuple(i, 100));
+        storage.update(rid, new RecordTuple(0, 600));
+        long moved = storage.append(new RecordTuple(8, 100));
+
+        // the record 0 is in the page before the new record
+        long relocated = RecordID.of(RecordID.getPageID(moved), RecordID.getSlot(moved) - 1);
+        try
+        {
+            storage.delete(relocated);
+            fail("the slot of a relocated record is not a record ID");
+        }
+        catch (DBException e)
+        {
+            assertEquals(DBErrorCode.InvalidInput, e.getErrorCode());
+        }
+        assertTuple(storage.get(rid), 0, 600);
+        assertEquals(9, storage.getNumRecords());
+    }
+
+    @Test
+    public void appendAll() throws Exception
+    {
+        storage.append(new RecordTuple(-1, 10));
+        final int n = 3000;
+        Iterator<Tuple> input = new Iterator<Tuple>() {
+            int count = 0;
+
+            public boolean hasNext()
+            {
+                return count < n;
+            }
+
+            public Tuple next()
+            {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                int id = count++;
+                return new RecordTuple(id, id % 30);
+            }
+
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+        assertEquals(n, storage.appendAll(input));
+        assertEquals(n + 1, storage.getNumRecords());
+
+        // the records are read back from the file through the cache
+        int count = 0;
+        for (long pageID = 0; pageID < storage.getNumPages(); pageID++)
+        {
+            if (!storage.isHeapPage(pageID))
+                continue;
+            for (int slot = 0;; slot++)
+            {
+                Tuple t;
+                try
+                {
+                    t = storage.get(RecordID.of(pageID, slot));
+                }
+                catch (DBException e)
+                {
+                    break;
+                }
+                int id = (Integer) t.getValue(0);
+                if (id >= 0)
+                {
+                    assertEquals(count, id);
+                    count++;
+                }
+            }
+        }
+        assertEquals(n, count);
+
+        // appends continue on the tail
+        long rid = storage.append(new RecordTuple(n, 10));
+        assertEquals(storage.getNumPages() - 1, RecordID.getPageID(rid));
+    }
+
+    @Test
+    public void appendAllFailure() throws Exception
+    {
+        // the tail page has no room for the next tuple
+        storage.append(new RecordTuple(0, 900));
+
+        ArrayList<Tuple> input = new ArrayList<Tuple>();
+        input.add(new RecordTuple(1, 500));
+        input.add(new RecordTuple(2, 5000));
+        try
+        {
+            storage.appendAll(input.iterator());
+            fail("too large");
+        }
+        catch (DBException e)
+        {
+            assertEquals(DBErrorCode.ExceedsTheCapacity, e.getErrorCode());
+        }
+        assertEquals(2, storage.getNumRecords());
+
+        // the input fails in the middle of a new page
+        Iterator<Tuple> brokenInput = new Iterator<Tuple>() {
+            int count = 0;
+
+            public boolean hasNext()
+            {
+                return true;
+            }
+
+            public Tuple next()
+            {
+                if (count == 3)
+                    throw new IllegalStateException("broken input");
+                int id = 3 + count++;
+                return new RecordTuple(id, 600);
+            }
+
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+        try
+        {
+            storage.appendAll(brokenInput);
+            fail("broken input");
+        }
+        catch (IllegalStateException e)
+        {}
+        assertEquals(5, storage.getNumRecords());
+
+        // the counted records are stored, and the storage is still usable
+        storage.append(new RecordTuple(6, 10));
+        final ArrayList<Integer> ids = new ArrayList<Integer>();
+        storage.scan(new TupleVisitor() {
+            public void visit(long recordID, Tuple tuple) throws DBException
+            {
+                ids.add((Integer) tuple.getValue(0));
+            }
+        });
+        // the too large tuple 2 is not stored
+        assertEquals(6, ids.size());
+        for (int id : new int[] { 0, 1, 3, 4, 5, 6 })
+            assertTrue(ids.contains(id));
+    }
+
+    @Test
+    public void tooLargeRecord() throws Exception
+    {
+        try
+        {
+            storage.append(new RecordTuple(0, 2000));
+            fail("too large");
+        }
+        catch (DBException e)
+        {
+            assertEquals(DBErrorCode.ExceedsTheCapacity, e.getErrorCode());
+        }
+    }
+
+    @Test
+    public void freePageBitMap() throws Exception
+    {
+        Buffer buffer = new Buffer(256);
+        FreePageBitMap bitmap = FreePageBitMap.format(buffer, 1);
+        assertEquals(FreePageBitMap.getCapacity(256), bitmap.getCapacity());
+        assertEquals(-1, bitmap.findFirstSet(0));
+        assertTrue(bitmap.set(130, true));
+        assertFalse(bitmap.set(130, true));
+        assertTrue(bitmap.set(7, true));
+        assertEquals(2, bitmap.getNumSet());
+        assertEquals(7, bitmap.findFirstSet(0));
+        assertEquals(130, bitmap.findFirstSet(8));
+        assertEquals(-1, bitmap.findFirstSet(131));
+        bitmap.set(7, false);
+        assertEquals(130, FreePageBitMap.wrap(buffer).findFirstSet(0));
+    }
+
+}
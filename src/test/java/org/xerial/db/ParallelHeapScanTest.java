@@ -0,0 +1,301 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// ParallelHeapScanTest.java
+// Since: Oct 18, 2026 5:31:44 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xerial.db.HeapStorageTest.RecordTuple;
+import org.xerial.db.cache.PageCacheHolder;
+import org.xerial.db.cache.PagePrefetcher;
+import org.xerial.db.storage.MemoryFile;
+
+public class ParallelHeapScanTest
+{
+    class SumVisitor implements TupleVisitor
+    {
+        long sum = 0;
+        long count = 0;
+        HashSet<Long> recordIDs = new HashSet<Long>();
+
+        public void visit(long recordID, Tuple tuple) throws DBException
+        {
+            sum += (Integer) tuple.getValue(0);
+            count++;
+            recordIDs.add(recordID);
+        }
+    }
+
+    ExecutorService executor;
+    HeapStorage storage;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        executor = Executors.newFixedThreadPool(4);
+        storage = HeapStorage.create(new PageCacheHolder(new MemoryFile(), 1024, 64));
+        storage.setTupleFactory(HeapStorageTest.factory);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        executor.shutdown();
+    }
+
+    @Test
+    public void scan() throws Exception
+    {
+        final int n = 5000;
+        ArrayList<Long> rids = new ArrayList<Long>();
+        for (int i = 0; i < n; i++)
+            rids.add(storage.append(new RecordTuple(i, i % 40)));
+        // a moved record is visited once
+        storage.update(rids.get(0), new RecordTuple(0, 900));
+        storage.delete(rids.get(1));
+
+        ArrayList<SumVisitor> visitors = new ArrayList<SumVisitor>();
+        for (int i = 0; i < 4; i++)
+            visitors.add(new SumVisitor());
+        new ParallelHeapScan(storage, executor, 4).scan(visitors);
+
+        long sum = 0;
+        long count = 0;
+        HashSet<Long> recordIDs = new HashSet<Long>();
+        for (SumVisitor v : visitors)
+        {
+            sum += v.sum;
+            count += v.count;
+            recordIDs.addAll(v.recordIDs);
+        }
+        assertEquals(n - 1, count);
+        assertEquals(n - 1, recordIDs.size());
+        assertEquals((long) n * (n - 1) / 2 - 1, sum);
+
+        // sequential scan
+        SumVisitor v = new SumVisitor();
+        storage.scan(v);
+        assertEquals(sum, v.sum);
+    }
+
+    @Test
+    public void scanWithReadAhead() throws Exception
+    {
+        final int n = 5000;
+        for (int i = 0; i < n; i++)
+            storage.append(new RecordTuple(i, i % 40));
+
+        ExecutorService readAheadExecutor = Executors.newFixedThreadPool(2);
+        try
+        {
+            PagePrefetcher prefetcher = new PagePrefetcher(storage.getPageCache(), readAheadExecutor, 4);
+            storage.setPagePrefetcher(prefetcher);
+
+            ArrayList<SumVisitor> visitors = new ArrayList<SumVisitor>();
+            for (int i = 0; i < 4; i++)
+                visitors.add(new SumVisitor());
+            new ParallelHeapScan(storage, executor, 16).scan(visitors);
+            long count = 0;
+            for (SumVisitor v : visitors)
+                count += v.count;
+            assertEquals(n, count);
+
+            SumVisitor v = new SumVisitor();
+            storage.scan(v);
+            assertEquals(n, v.count);
+            assertEquals((long) n * (n - 1) / 2, v.sum);
+            assertTrue(prefetcher.getNumPrefetchRequests() > 0);
+        }
+        finally
+        {
+            readAheadExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void error() throws Exception
+    {
+        for (int i = 0; i < 1000; i++)
+            storage.append(new RecordTuple(i, 10));
+
+        ArrayList<TupleVisitor> visitors = new ArrayList<TupleVisitor>();
+        for (int i = 0; i < 4; i++)
+        {
+            visitors.add(new TupleVisitor() {
+                public void visit(long recordID, Tuple tuple) throws DBException
+                {
+                    if ((Integer) tuple.getValue(0) == 500)
+                        throw new DBException(DBErrorCode.InvalidInput, "abort");
+                }
+            });
+        }
+        try
+        {
+            new ParallelHeapScan(storage, executor).scan(visitors);
+            fail("the visitor error is not reported");
+        }
+        catch (DBException e)
+        {
+            assertEquals(DBErrorCode.InvalidInput, e.getErrorCode());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void rejectedWorkers() throws Exception
+    {
+        for (int i = 0; i < 1000; i++)
+            storage.append(new RecordTuple(i, 10));
+
+        final CountDownLatch visited = new CountDownLatch(1);
+        final CountDownLatch resume = new CountDownLatch(1);
+        final ArrayList<TupleVisitor> visitors = blockingVisitors(4, visited, resume);
+
+        // accepts only two workers, and rejects the third one after a worker starts visiting
+        final Executor boundedExecutor = new Executor() {
+            int numAccepted = 0;
+
+            public void execute(Runnable command)
+            {
+                if (numAccepted >= 2)
+                {
+                    try
+                    {
+                        visited.await();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new RejectedExecutionException("no more worker");
+                }
+                numAccepted++;
+                executor.execute(command);
+            }
+        };
+
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread scanner = new Thread() {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    new ParallelHeapScan(storage, boundedExecutor, 1).scan(visitors);
+                }
+                catch (Throwable e)
+                {
+                    error.set(e);
+                }
+            }
+        };
+        scanner.start();
+
+        // the scan waits for the accepted workers in the visitors
+        scanner.join(200);
+        assertTrue(scanner.isAlive());
+        resume.countDown();
+        scanner.join();
+
+        assertTrue(error.get() instanceof RejectedExecutionException);
+    }
+
+    @Test(timeout = 10000)
+    public void interrupt() throws Exception
+    {
+        for (int i = 0; i < 1000; i++)
+            storage.append(new RecordTuple(i, 10));
+
+        final CountDownLatch visited = new CountDownLatch(1);
+        final CountDownLatch resume = new CountDownLatch(1);
+        final ArrayList<TupleVisitor> visitors = blockingVisitors(4, visited, resume);
+
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final AtomicReference<Boolean> isInterrupted = new AtomicReference<Boolean>();
+        Thread scanner = new Thread() {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    new ParallelHeapScan(storage, executor, 1).scan(visitors);
+                }
+                catch (Throwable e)
+                {
+                    error.set(e);
+                }
+                isInterrupted.set(Thread.currentThread().isInterrupted());
+            }
+        };
+        scanner.start();
+        visited.await();
+        scanner.interrupt();
+
+        // the scan waits for the workers in the visitors
+        scanner.join(200);
+        assertTrue(scanner.isAlive());
+        resume.countDown();
+        scanner.join();
+
+        assertTrue(error.get() instanceof DBException);
+        assertEquals(DBErrorCode.ThreadInterruption, ((DBException) error.get()).getErrorCode());
+        assertTrue(isInterrupted.get());
+    }
+
+    private static ArrayList<TupleVisitor> blockingVisitors(int numVisitors, final CountDownLatch visited,
+            final CountDownLatch resume)
+    {
+        ArrayList<TupleVisitor> visitors = new ArrayList<TupleVisitor>();
+        for (int i = 0; i < numVisitors; i++)
+        {
+            visitors.add(new TupleVisitor() {
+                public void visit(long recordID, Tuple tuple) throws DBException
+                {
+                    visited.countDown();
+                    try
+                    {
+                        resume.await();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        throw new DBException(DBErrorCode.ThreadInterruption, e);
+                    }
+                }
+            });
+        }
+        return visitors;
+    }
+
+}
@@ -0,0 +1,363 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// SortKeyEncoderTest.java
+// Since: Oct 18, 2026 6:52:19 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xerial.db.cache.Buffer;
+import org.xerial.db.cache.BufferReader;
+import org.xerial.db.cache.BufferWriter;
+import org.xerial.db.datatype.DataTypeBase;
+import org.xerial.db.datatype.TypeName;
+import org.xerial.db.heap.TupleOnBuffer;
+
+public class SortKeyEncoderTest
+{
+    static Relation values;
+    static Relation rows;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        // (i:integer, l:long, d:double, s:string, b:boolean)
+        values = new Relation();
+        values.add(new DataTypeBase("i", TypeName.INTEGER));
+        values.add(new DataTypeBase("l", TypeName.LONG));
+        values.add(new DataTypeBase("d", TypeName.DOUBLE));
+        values.add(new DataTypeBase("s", TypeName.STRING));
+        values.add(new DataTypeBase("b", TypeName.BOOLEAN));
+
+        // (name:string, id:integer)
+        rows = new Relation();
+        rows.add(new DataTypeBase("name", TypeName.STRING));
+        rows.add(new DataTypeBase("id", TypeName.INTEGER));
+    }
+
+    static class ValueTuple extends AbstractTuple
+    {
+        final Object[] value;
+
+        ValueTuple(Object... value)
+        {
+            super(values);
+            this.value = value;
+        }
+
+        @Override
+        public Object getValue(int relationIndex)
+        {
+            return value[relationIndex];
+        }
+
+        @Override
+        public void setValue(int relationIndex, Object value)
+        {
+            this.value[relationIndex] = value;
+        }
+
+        public int getByteSize()
+        {
+            throw new UnsupportedOperationException("getByteSize");
+        }
+
+        public int load(BufferReader reader)
+        {
+            throw new UnsupportedOperationException("load");
+        }
+
+        public int save(BufferWriter writer)
+        {
+            throw new UnsupportedOperationException("save");
+        }
+    }
+
+    /**
+     * A (name:string, id:integer) tuple stored in the same layout as {@link TupleOnBuffer}
+     */
+    static class Row extends AbstractTuple
+    {
+        String name;
+        int id;
+
+        Row(String name, int id)
+        {
+            super(rows);
+            this.name = name;
+            this.id = id;
+        }
+
+        @Override
+        public Object getValue(int relationIndex)
+        {
+            return relationIndex == 0 ? name : id;
+        }
+
+        @Override
+        public void setValue(int relationIndex, Object value)
+        {
+            throw new UnsupportedOperationException("setValue");
+        }
+
+        private byte[] nameBytes()
+        {
+            try
+            {
+                return name.getBytes("UTF-8");
+            }
+            catch (UnsupportedEncodingException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        public int getByteSize()
+        {
+            int length = nameBytes().length;
+            return VariableLengthInteger.encodedLength(length) + length + 4;
+        }
+
+        public int load(BufferReader reader)
+        {
+            throw new UnsupportedOperationException("load");
+        }
+
+        public int save(BufferWriter writer)
+        {
+            byte[] bytes = nameBytes();
+            writer.writeVarInt(bytes.length);
+            for (byte b : bytes)
+                writer.writeByte(b);
+            writer.writeInt(id);
+            return getByteSize();
+        }
+    }
+
+    static TupleFactory rowFactory = new TupleFactory() {
+        public Tuple createTupleFromBuffer(BufferReader reader) throws DBException
+        {
+            TupleOnBuffer view = new TupleOnBuffer(rows);
+            view.load(reader);
+            return new Row(view.getString(0), view.getInt(1));
+        }
+    };
+
+    private static int compare(SortKeyEncoder encoder, Tuple t1, Tuple t2)
+    {
+        byte[] k1 = encoder.encode(t1);
+        byte[] k2 = encoder.encode(t2);
+        int cmp = SortKeyEncoder.comparePrefix(k1, k2);
+        return cmp != 0 ? cmp : k1.length - k2.length;
+    }
+
+    private static void assertAscending(SortKeyEncoder encoder, Tuple... tuples)
+    {
+        for (int i = 1; i < tuples.length; i++)
+            assertTrue("tuple " + i, compare(encoder, tuples[i - 1], tuples[i]) < 0);
+    }
+
+    @Test
+    public void numbers()
+    {
+        SortKeyEncoder intKey = new SortKeyEncoder(values, new int[] { 0 });
+        assertAscending(intKey, new ValueTuple(Integer.MIN_VALUE), new ValueTuple(-100), new ValueTuple(-1),
+                new ValueTuple(0), new ValueTuple(1), new ValueTuple(256), new ValueTuple(Integer.MAX_VALUE));
+
+        SortKeyEncoder longKey = new SortKeyEncoder(values, new int[] { 1 });
+        assertAscending(longKey, new ValueTuple(0, Long.MIN_VALUE), new ValueTuple(0, -1L), new ValueTuple(0, 0L),
+                new ValueTuple(0, 1L << 40), new ValueTuple(0, Long.MAX_VALUE));
+
+        SortKeyEncoder doubleKey = new SortKeyEncoder(values, new int[] { 2 });
+        assertAscending(doubleKey, new ValueTuple(0, 0L, Double.NEGATIVE_INFINITY), new ValueTuple(0, 0L, -2.5),
+                new ValueTuple(0, 0L, -1e-300), new ValueTuple(0, 0L, -0.0), new ValueTuple(0, 0L, 0.0),
+                new ValueTuple(0, 0L, 1e-300), new ValueTuple(0, 0L, 3.0), new ValueTuple(0, 0L,
+                        Double.POSITIVE_INFINITY), new ValueTuple(0, 0L, Double.NaN));
+    }
+
+    @Test
+    public void strings()
+    {
+        SortKeyEncoder key = new SortKeyEncoder(values, new int[] { 3, 0 });
+        assertAscending(key, new ValueTuple(9, 0L, 0.0, ""), new ValueTuple(0, 0L, 0.0, "a"), new ValueTuple(1, 0L,
+                0.0, "a"), new ValueTuple(0, 0L, 0.0, "a\u0000"), new ValueTuple(0, 0L, 0.0, "a\u0001"),
+                new ValueTuple(0, 0L, 0.0, "ab"), new ValueTuple(0, 0L, 0.0, "b"), new ValueTuple(0, 0L, 0.0,
+                        "\u3042"));
+        assertEquals(0, compare(key, new ValueTuple(3, 1L, 0.0, "abc"), new ValueTuple(3, 2L, 1.0, "abc")));
+    }
+
+    @Test
+    public void nulls()
+    {
+        SortKeyEncoder nullsFirst = new SortKeyEncoder(values, new int[] { 3 });
+        assertAscending(nullsFirst, new ValueTuple(0, 0L, 0.0, null), new ValueTuple(0, 0L, 0.0, ""),
+                new ValueTuple(0, 0L, 0.0, "a"));
+
+        SortKeyEncoder nullsLast = new SortKeyEncoder(values, new int[] { 3, 4 },
+                SortKeyEncoder.NullOrder.NULLS_LAST, SortKeyEncoder.NO_LIMIT);
+        assertAscending(nullsLast, new ValueTuple(0, 0L, 0.0, "", false), new ValueTuple(0, 0L, 0.0, "", true),
+                new ValueTuple(0, 0L, 0.0, "z", null), new ValueTuple(0, 0L, 0.0, null, false));
+    }
+
+    @Test
+    public void tupleOnBuffer()
+    {
+        SortKeyEncoder key = new SortKeyEncoder(rows, new int[] { 0, 1 });
+        Buffer buffer = new Buffer(256);
+        Row row = new Row("xerial\u3042", -42);
+        row.save(new BufferWriter(buffer, 10));
+
+        TupleOnBuffer view = new TupleOnBuffer(rows, buffer, 10);
+        assertArrayEquals(key.encode(row), key.encode(view));
+    }
+
+    @Test
+    public void keysInMemoryBudget() throws Exception
+    {
+        SortKeyEncoder key = new SortKeyEncoder(rows, new int[] { 1 });
+        Row row = new Row("xerial", 3);
+        NormalizedKeyComparator.KeyedTuple keyed = new NormalizedKeyComparator(key, null).attachKey(row);
+        assertEquals(row.getByteSize() + key.encode(row).length, keyed.getByteSize());
+
+        // the keys take the memory, and the runs become shorter, while the runs store only the tuples
+        ArrayList<Tuple> input = new ArrayList<Tuple>();
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++)
+            input.add(new Row(randomName(random), i));
+        final TupleComparator byID = new TupleComparator() {
+            public int compare(Tuple t1, Tuple t2)
+            {
+                return ((Row) t1).id - ((Row) t2).id;
+            }
+        };
+        int[] numRuns = new int[2];
+        for (int k = 0; k < 2; k++)
+        {
+            ExternalMergeSort sorter = new ExternalMergeSort(rowFactory, 1024, 8, new File("target/sort"));
+            if (k == 1)
+                sorter.setSortKeyEncoder(key);
+            final Iterator<Tuple> it = input.iterator();
+            TupleIterator sorted = sorter.sort(new TupleIterator() {
+                public boolean hasNext()
+                {
+                    return it.hasNext();
+                }
+
+                public Tuple next()
+                {
+                    return it.next();
+                }
+
+                public void remove()
+                {
+                    throw new UnsupportedOperationException();
+                }
+            }, byID);
+            numRuns[k] = sorter.getNumRuns();
+            for (int i = 0; i < input.size(); i++)
+                assertEquals(i, ((Row) sorted.next()).id);
+            assertTrue(!sorted.hasNext());
+            sorter.close();
+        }
+        assertTrue(numRuns[1] > numRuns[0]);
+    }
+
+    private static String randomName(Random random)
+    {
+        StringBuilder name = new StringBuilder();
+        int length = random.nextInt(12);
+        for (int i = 0; i < length; i++)
+            name.append((char) ('a' + random.nextInt(3)));
+        return name.toString();
+    }
+
+    @Test
+    public void externalSort() throws Exception
+    {
+        final TupleComparator byNameAndID = new TupleComparator() {
+            public int compare(Tuple t1, Tuple t2)
+            {
+                Row r1 = (Row) t1;
+                Row r2 = (Row) t2;
+                int cmp = r1.name.compareTo(r2.name);
+                if (cmp != 0)
+                    return cmp;
+                return r1.id < r2.id ? -1 : (r1.id == r2.id ? 0 : 1);
+            }
+        };
+
+        final int numTuples = 50000;
+        Random random = new Random(0);
+        ArrayList<Tuple> input = new ArrayList<Tuple>();
+        for (int i = 0; i < numTuples; i++)
+            input.add(new Row(randomName(random), random.nextInt(100) - 50));
+        ArrayList<Tuple> expected = new ArrayList<Tuple>(input);
+        Collections.sort(expected, byNameAndID);
+
+        File tempDir = new File("target/sort");
+        // the complete keys, and the keys truncated in the middle of the names 
+        for (int maxKeyLength : new int[] { SortKeyEncoder.NO_LIMIT, 6 })
+        {
+            ExternalMergeSort sorter = new ExternalMergeSort(rowFactory, 1024, 8, tempDir);
+            sorter.setSortKeyEncoder(new SortKeyEncoder(rows, new int[] { 0, 1 },
+                    SortKeyEncoder.NullOrder.NULLS_FIRST, maxKeyLength));
+
+            final Iterator<Tuple> it = input.iterator();
+            TupleIterator sorted = sorter.sort(new TupleIterator() {
+                public boolean hasNext()
+                {
+                    return it.hasNext();
+                }
+
+                public Tuple next()
+                {
+                    return it.next();
+                }
+
+                public void remove()
+                {
+                    throw new UnsupportedOperationException();
+                }
+            }, byNameAndID);
+            assertTrue(sorter.getNumRuns() > 1);
+
+            for (Tuple e : expected)
+            {
+                Row row = (Row) sorted.next();
+                assertEquals(0, byNameAndID.compare(e, row));
+            }
+            assertTrue(!sorted.hasNext());
+        }
+    }
+}
@@ -65,6 +65,65 @@ public class VariableLengthIntegerTest extends TestCase
         
     }
     
+    public void testEncodedLength()
+    {
+        int[] boundary = { 0, 128, 16512, 2113664, 270549120 };
+        for(int i=1; i<boundary.length; i++)
+        {
+            assertEquals(i, VariableLengthInteger.encodedLength(boundary[i] - 1));
+            assertEquals(i + 1, VariableLengthInteger.encodedLength(boundary[i]));
+        }
+        assertEquals(VariableLengthInteger.MAX_INT_BYTES, VariableLengthInteger.encodedLength(Integer.MAX_VALUE));
+        assertEquals(VariableLengthInteger.MAX_LONG_BYTES, VariableLengthInteger.encodedLength(Long.MAX_VALUE));
+    }
+    
+    public void testEncodeDecode()
+    {
+        byte[] buf = new byte[20];
+        int[] values = { 0, 1, 127, 128, 143, 16511, 16512, 2113663, 2113664, 270549119, 270549120, Integer.MAX_VALUE };
+        for(int v : values)
+        {
+            int size = VariableLengthInteger.encode(v, buf, 3);
+            assertEquals(VariableLengthInteger.encodedLength(v), size);
+            assertEquals(v, VariableLengthInteger.decode(buf, 3));
+            // compatible with the object representation
+            VariableLengthInteger obj = new VariableLengthInteger(v);
+            assertEquals(size, obj.size());
+            for(int i=0; i<size; i++)
+                assertEquals(obj.getByte()[i], buf[3 + i]);
+        }
+        
+        for(long v = 1; v > 0; v = v * 3 + 1)
+        {
+            int size = VariableLengthInteger.encode(v, buf, 0);
+            assertEquals(VariableLengthInteger.encodedLength(v), size);
+            assertEquals(v, VariableLengthInteger.decodeLong(buf, 0));
+        }
+        VariableLengthInteger.encode(Long.MAX_VALUE, buf, 0);
+        assertEquals(Long.MAX_VALUE, VariableLengthInteger.decodeLong(buf, 0));
+    }
+    
+    public void testRejectInvalidValues()
+    {
+        try
+        {
+            VariableLengthInteger.encodedLength(-1);
+            fail("negative value");
+        }
+        catch(IllegalArgumentException e)
+        {}
+        
+        byte[] buf = new byte[20];
+        VariableLengthInteger.encode(1L << 40, buf, 0);
+        try
+        {
+            VariableLengthInteger.decode(buf, 0);
+            fail("larger than int");
+        }
+        catch(DBError e)
+        {}
+    }
+    
     public void buffer()
     {
         Buffer buffer = new Buffer(1024);
@@ -0,0 +1,151 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// BTreeConcurrencyTest.java
+// Since: Oct 18, 2026 3:12:40 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.xerial.db.btree.BTree;
+import org.xerial.db.cache.PageCacheHolder;
+import org.xerial.db.storage.MemoryFile;
+import org.xerial.util.StopWatch;
+
+/**
+ * Measures the throughput of the B-tree operations from concurrent threads
+ * 
+ * @author leo
+ * 
+ */
+public class BTreeConcurrencyTest
+{
+    private static final int PAGE_SIZE = 4096;
+    private static final int NUM_CACHED_PAGES = 16384;
+    private static final int NUM_KEYS = 1000000;
+    private static final int NUM_OPERATIONS_PER_THREAD = 1000000;
+
+    private static byte[] key(int i)
+    {
+        return String.format("key%010d", i).getBytes();
+    }
+
+    private static abstract class Worker extends Thread
+    {
+        final int id;
+        final int numThreads;
+        final CountDownLatch start;
+        // the first failure of the workers
+        final AtomicReference<Throwable> error;
+        long checksum = 0;
+
+        Worker(int id, int numThreads, CountDownLatch start, AtomicReference<Throwable> error)
+        {
+            this.id = id;
+            this.numThreads = numThreads;
+            this.start = start;
+            this.error = error;
+        }
+
+        abstract long operate(int i, int x) throws Exception;
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                start.await();
+                int x = id + 1;
+                for (int i = 0; i < NUM_OPERATIONS_PER_THREAD; i++)
+                {
+                    // xorshift, to avoid the contention on a shared Random
+                    x ^= x << 13;
+                    x ^= x >>> 17;
+                    x ^= x << 5;
+                    checksum += operate(i, x & 0x7FFFFFFF);
+                }
+            }
+            catch (Throwable e)
+            {
+                error.compareAndSet(null, e);
+            }
+        }
+    }
+
+    private static BTree createTree(int numKeys) throws Exception
+    {
+        BTree tree = BTree.create(new PageCacheHolder(new MemoryFile(), PAGE_SIZE, NUM_CACHED_PAGES));
+        for (int i = 0; i < numKeys; i++)
+            tree.insert(key(i * 2), i);
+        return tree;
+    }
+
+    @Ignore
+    @Test
+    public void operations() throws Exception
+    {
+        System.out.println("method\tthreads\ttime\tMops/s");
+        int maxThreads = Runtime.getRuntime().availableProcessors() * 2;
+        for (int numThreads = 1; numThreads <= maxThreads; numThreads *= 2)
+        {
+            for (String method : new String[] { "insert", "lookup", "mixed" })
+            {
+                final String m = method;
+                // the even keys are in the tree, and the odd keys are inserted
+                final BTree tree = createTree(method.equals("insert") ? 0 : NUM_KEYS);
+                CountDownLatch start = new CountDownLatch(1);
+                AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+                Worker[] worker = new Worker[numThreads];
+                for (int i = 0; i < numThreads; i++)
+                {
+                    worker[i] = new Worker(i, numThreads, start, error) {
+                        @Override
+                        long operate(int i, int x) throws Exception
+                        {
+                            if (m.equals("insert"))
+                                return tree.insert(key(i * numThreads + id), i) ? 1 : 0;
+                            // 10% of the mixed operations insert disjoint keys
+                            if (m.equals("mixed") && i % 10 == 0)
+                                return tree.insert(key((i * numThreads + id) * 2 + 1), i) ? 1 : 0;
+                            return tree.lookup(key(x % NUM_KEYS * 2));
+                        }
+                    };
+                    worker[i].start();
+                }
+
+                StopWatch timer = new StopWatch();
+                timer.reset();
+                start.countDown();
+                for (Worker w : worker)
+                    w.join();
+                double time = timer.getElapsedTime();
+                if (error.get() != null)
+                    throw new AssertionError(error.get());
+                double mops = (double) numThreads * NUM_OPERATIONS_PER_THREAD / time / 1000000;
+                System.out.println(String.format("%s\t%d\t%.3f\t%.2f", method, numThreads, time, mops));
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// ExternalMergeSortPerformanceTest.java
+// Since: Oct 18, 2026 5:26:14 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.benchmark;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.xerial.db.DBException;
+import org.xerial.db.ExternalMergeSort;
+import org.xerial.db.Tuple;
+import org.xerial.db.TupleComparator;
+import org.xerial.db.TupleFactory;
+import org.xerial.db.TupleIterator;
+import org.xerial.db.cache.BufferReader;
+import org.xerial.db.cache.BufferWriter;
+import org.xerial.db.storage.DeflatePageCodec;
+import org.xerial.db.storage.LZPageCodec;
+import org.xerial.db.storage.PageCodec;
+import org.xerial.util.StopWatch;
+
+/**
+ * Measures the sort throughput of {@link ExternalMergeSort} with increasing number of threads, and
+ * with the compression of the runs
+ * 
+ * @author leo
+ * 
+ */
+public class ExternalMergeSortPerformanceTest
+{
+    private static final int NUM_TUPLES = 5000000;
+    private static final int PAGE_SIZE = 8192;
+    private static final int NUM_BUFFER_PAGES = 1024;
+
+    static class LongTuple implements Tuple
+    {
+        long value;
+
+        LongTuple(long value)
+        {
+            this.value = value;
+        }
+
+        public int getByteSize()
+        {
+            return 8;
+        }
+
+        public Object getValue(int columnIndex)
+        {
+            return value;
+        }
+
+        public void setValue(int columnIndex, Object value)
+        {
+            this.value = (Long) value;
+        }
+
+        public int load(BufferReader reader)
+        {
+            value = reader.readLong();
+            return 8;
+        }
+
+        public int save(BufferWriter writer)
+        {
+            writer.writeLong(value);
+            return 8;
+        }
+    }
+
+    static TupleFactory factory = new TupleFactory() {
+        public Tuple createTupleFromBuffer(BufferReader reader) throws DBException
+        {
+            return new LongTuple(reader.readLong());
+        }
+    };
+
+    static TupleComparator comparator = new TupleComparator() {
+        public int compare(Tuple t1, Tuple t2)
+        {
+            long v1 = ((LongTuple) t1).value;
+            long v2 = ((LongTuple) t2).value;
+            return v1 < v2 ? -1 : (v1 == v2 ? 0 : 1);
+        }
+    };
+
+    private static TupleIterator input()
+    {
+        return new TupleIterator() {
+            int count = 0;
+            long x = 88172645463325252L;
+
+            public boolean hasNext()
+            {
+                return count < NUM_TUPLES;
+            }
+
+            public Tuple next()
+            {
+                count++;
+                x ^= x << 13;
+                x ^= x >>> 7;
+                x ^= x << 17;
+                return new LongTuple(x);
+            }
+
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Ignore
+    @Test
+    public void parallelSort() throws Exception
+    {
+        File tempDir = new File("target/sort-bench");
+        int maxThreads = Runtime.getRuntime().availableProcessors() * 2;
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try
+        {
+            System.out.println("threads\truns\tpasses\ttime\tMtuples/s");
+            for (int numThreads = 1; numThreads <= maxThreads; numThreads *= 2)
+            {
+                ExternalMergeSort sorter = new ExternalMergeSort(factory, PAGE_SIZE, NUM_BUFFER_PAGES, tempDir);
+                if (numThreads > 1)
+                    sorter.setParallelism(executor, numThreads);
+
+                StopWatch timer = new StopWatch();
+                timer.reset();
+                long checksum = 0;
+                for (TupleIterator it = sorter.sort(input(), comparator); it.hasNext();)
+                    checksum += ((LongTuple) it.next()).value;
+                double time = timer.getElapsedTime();
+
+                System.out.println(String.format("%d\t%d\t%d\t%.3f\t%.2f\t(%d)", numThreads, sorter.getNumRuns(),
+                        sorter.getNumMergePasses(), time, NUM_TUPLES / time / 1000000, checksum));
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Ignore
+    @Test
+    public void spillCompression() throws Exception
+    {
+        File tempDir = new File("target/sort-bench");
+        PageCodec[] codecs = new PageCodec[] { null, new LZPageCodec(), new DeflatePageCodec() };
+        System.out.println("codec\ttime\tMtuples/s\tMB written\tMB/s written");
+        for (PageCodec codec : codecs)
+        {
+            ExternalMergeSort sorter = new ExternalMergeSort(factory, PAGE_SIZE, NUM_BUFFER_PAGES / 16, tempDir);
+            sorter.setPageCodec(codec);
+
+            StopWatch timer = new StopWatch();
+            timer.reset();
+            long checksum = 0;
+            for (TupleIterator it = sorter.sort(input(), comparator); it.hasNext();)
+                checksum += ((LongTuple) it.next()).value;
+            double time = timer.getElapsedTime();
+
+            double mb = sorter.getNumBytesWritten() / 1024.0 / 1024.0;
+            System.out.println(String.format("%s\t%.3f\t%.2f\t%.1f\t%.1f\t(%d)", codec == null ? "none" : codec
+                    .getClass().getSimpleName(), time, NUM_TUPLES / time / 1000000, mb, mb / time, checksum));
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// PageCacheContentionTest.java
+// Since: Oct 18, 2026 5:02:44 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.xerial.db.cache.Buffer;
+import org.xerial.db.cache.PageCacheHolder;
+import org.xerial.db.cache.PageFrame;
+import org.xerial.db.cache.PageReader;
+import org.xerial.db.storage.MemoryFile;
+import org.xerial.util.StopWatch;
+
+/**
+ * Measures the throughput of the page cache hits from concurrent threads
+ * 
+ * @author leo
+ * 
+ */
+public class PageCacheContentionTest
+{
+    private static final int PAGE_SIZE = 4096;
+    private static final int NUM_PAGES = 1024;
+    private static final int NUM_ACCESSES_PER_THREAD = 2000000;
+
+    private static abstract class Worker extends Thread
+    {
+        final int seed;
+        final CountDownLatch start;
+        // the first failure of the workers
+        final AtomicReference<Throwable> error;
+        long checksum = 0;
+
+        Worker(int seed, CountDownLatch start, AtomicReference<Throwable> error)
+        {
+            this.seed = seed;
+            this.start = start;
+            this.error = error;
+        }
+
+        abstract long access(long pageID) throws Exception;
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                start.await();
+                int x = seed;
+                for (int i = 0; i < NUM_ACCESSES_PER_THREAD; i++)
+                {
+                    // xorshift, to avoid the contention on a shared Random
+                    x ^= x << 13;
+                    x ^= x >>> 17;
+                    x ^= x << 5;
+                    checksum += access((x & 0x7FFFFFFF) % NUM_PAGES);
+                }
+            }
+            catch (Throwable e)
+            {
+                error.compareAndSet(null, e);
+            }
+        }
+    }
+
+    @Ignore
+    @Test
+    public void cacheHits() throws Exception
+    {
+        MemoryFile file = new MemoryFile();
+        Buffer page = new Buffer(PAGE_SIZE);
+        for (int p = 0; p < NUM_PAGES; p++)
+        {
+            page.writeLong(0, p);
+            page.save(file, (long) p * PAGE_SIZE);
+        }
+        final PageCacheHolder cache = new PageCacheHolder(file, PAGE_SIZE, NUM_PAGES);
+        for (int p = 0; p < NUM_PAGES; p++)
+            cache.unpin(cache.pin(p), false);
+
+        final PageReader<Long> reader = new PageReader<Long>() {
+            public Long read(Buffer page)
+            {
+                return page.readLong(0);
+            }
+        };
+
+        System.out.println("method\tthreads\ttime\tMops/s");
+        int maxThreads = Runtime.getRuntime().availableProcessors() * 2;
+        for (int numThreads = 1; numThreads <= maxThreads; numThreads *= 2)
+        {
+            for (String method : new String[] { "pin", "latch", "optimistic" })
+            {
+                final String m = method;
+                CountDownLatch start = new CountDownLatch(1);
+                AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+                Worker[] worker = new Worker[numThreads];
+                for (int i = 0; i < numThreads; i++)
+                {
+                    worker[i] = new Worker(i + 1, start, error) {
+                        @Override
+                        long access(long pageID) throws Exception
+                        {
+                            if (m.equals("optimistic"))
+                                return cache.read(pageID, reader);
+
+                            PageFrame frame = cache.pin(pageID);
+                            try
+                            {
+                                if (m.equals("pin"))
+                                    return frame.getBuffer().readLong(0);
+
+                                frame.latchShared();
+                                try
+                                {
+                                    return frame.getBuffer().readLong(0);
+                                }
+                                finally
+                                {
+                                    frame.unlatchShared();
+                                }
+                            }
+                            finally
+                            {
+                                cache.unpin(frame, false);
+                            }
+                        }
+                    };
+                    worker[i].start();
+                }
+
+                StopWatch timer = new StopWatch();
+                timer.reset();
+                start.countDown();
+                for (Worker w : worker)
+                    w.join();
+                double time = timer.getElapsedTime();
+                if (error.get() != null)
+                    throw new AssertionError(error.get());
+                double mops = (double) numThreads * NUM_ACCESSES_PER_THREAD / time / 1000000;
+                System.out.println(String.format("%s\t%d\t%.3f\t%.2f", method, numThreads, time, mops));
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// BTreePageTest.java
+// Since: Oct 18, 2026 7:05:48 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.btree;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+import org.xerial.db.PageType;
+import org.xerial.db.cache.Buffer;
+
+public class BTreePageTest
+{
+    private static byte[] bytes(String s)
+    {
+        return s.getBytes();
+    }
+
+    private static BTreePage newLeaf()
+    {
+        return BTreePage.format(new Buffer(512), 1, PageType.BTreeLeaf);
+    }
+
+    @Test
+    public void prefixCompression()
+    {
+        BTreePage page = newLeaf();
+        page.insert(0, bytes("http://example.org/b"), 2);
+        assertEquals(20, page.getPrefixLength());
+        page.insert(1, bytes("http://example.org/d"), 4);
+        assertEquals(19, page.getPrefixLength());
+        int usedSpace = page.getUsedSpace();
+
+        // a key between the first and the last shares the prefix
+        page.insert(1, bytes("http://example.org/c"), 3);
+        assertEquals(19, page.getPrefixLength());
+        assertEquals(usedSpace + BTreePage.getEntrySize(1), page.getUsedSpace());
+
+        // a key at the end shortens the prefix
+        page.insert(0, bytes("http://example.com/a"), 1);
+        assertEquals(15, page.getPrefixLength());
+
+        String[] keys = { "http://example.com/a", "http://example.org/b", "http://example.org/c",
+                "http://example.org/d" };
+        assertEquals(keys.length, page.getNumEntries());
+        for (int i = 0; i < keys.length; i++)
+        {
+            assertArrayEquals(bytes(keys[i]), page.getKey(i));
+            assertEquals(i + 1, page.getValue(i));
+            assertEquals(i, page.search(bytes(keys[i])));
+        }
+
+        // the keys not having the prefix
+        assertEquals(-1, page.search(bytes("http")));
+        assertEquals(-1, page.search(bytes("")));
+        assertEquals(-1, page.search(bytes("http://example.a")));
+        assertEquals(-5, page.search(bytes("http://example.z")));
+        assertEquals(-5, page.search(bytes("https")));
+        assertEquals(-2, page.search(bytes("http://example.com/b")));
+        assertTrue(page.compareKey(0, bytes("http")) > 0);
+        assertTrue(page.compareKey(0, bytes("z")) < 0);
+        assertEquals(0, page.compareKey(3, bytes("http://example.org/d")));
+    }
+
+    @Test
+    public void setEntriesWithLongestPrefix()
+    {
+        ArrayList<byte[]> keys = new ArrayList<byte[]>();
+        ArrayList<Long> values = new ArrayList<Long>();
+        for (int i = 0; i < 20; i++)
+        {
+            keys.add(bytes(String.format("/usr/local/lib/%03d", i)));
+            values.add((long) i);
+        }
+
+        BTreePage page = newLeaf();
+        page.insert(0, bytes("zzz"), 0);
+        page.setEntries(keys, values, 10, 20, null);
+        assertEquals(10, page.getNumEntries());
+        assertEquals("/usr/local/lib/01".length(), page.getPrefixLength());
+        assertEquals(BTreePage.getRequiredSpace(keys, 10, 20), page.getUsedSpace());
+        for (int i = 0; i < 10; i++)
+        {
+            assertArrayEquals(keys.get(i + 10), page.getKey(i));
+            assertEquals(i + 10, page.getValue(i));
+        }
+
+        // removed entries leave the prefix
+        for (int i = 0; i < 10; i++)
+            page.remove(0);
+        assertEquals(0, page.getNumEntries());
+        page.insert(0, bytes("abc"), 1);
+        assertEquals(0, page.search(bytes("abc")));
+        assertEquals(3, page.getPrefixLength());
+    }
+
+    @Test
+    public void highKey()
+    {
+        BTreePage page = newLeaf();
+        assertNull(page.getHighKey());
+        assertFalse(page.isBeyondHighKey(bytes("zzz")));
+
+        page.insert(0, bytes("apple"), 1);
+        page.insert(1, bytes("apricot"), 2);
+        int usedSpace = page.getUsedSpace();
+        page.setHighKey(bytes("b"));
+        assertEquals(usedSpace + 1, page.getUsedSpace());
+        assertArrayEquals(bytes("b"), page.getHighKey());
+        assertTrue(page.isBeyondHighKey(bytes("b")));
+        assertTrue(page.isBeyondHighKey(bytes("banana")));
+        assertFalse(page.isBeyondHighKey(bytes("azure")));
+
+        // the entries are kept with the prefix
+        assertEquals(2, page.getNumEntries());
+        assertEquals(1, page.search(bytes("apricot")));
+        assertEquals(2, page.getValue(1));
+        page.insert(2, bytes("avocado"), 3);
+        assertArrayEquals(bytes("avocado"), page.getKey(2));
+
+        page.setHighKey(null);
+        assertNull(page.getHighKey());
+        assertArrayEquals(bytes("apple"), page.getKey(0));
+    }
+
+    @Test
+    public void shortestSeparator()
+    {
+        assertArrayEquals(bytes("abd"), BTreePage.getShortestSeparator(bytes("abcxyz"), bytes("abdefg")));
+        assertArrayEquals(bytes("abc"), BTreePage.getShortestSeparator(bytes("ab"), bytes("abcdef")));
+        assertArrayEquals(bytes("ab"), BTreePage.getShortestSeparator(bytes("a"), bytes("ab")));
+        assertArrayEquals(bytes("b"), BTreePage.getShortestSeparator(bytes(""), bytes("bcd")));
+        assertArrayEquals(new byte[] { (byte) 0x80 }, BTreePage.getShortestSeparator(new byte[] { 0x7F, 0x10 },
+                new byte[] { (byte) 0x80, 0x00 }));
+    }
+
+}
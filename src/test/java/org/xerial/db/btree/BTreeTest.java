@@ -0,0 +1,681 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// BTreeTest.java
+// Since: Oct 18, 2026 5:40:03 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.btree;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xerial.db.DBErrorCode;
+import org.xerial.db.DBError;
+import org.xerial.db.DBException;
+import org.xerial.db.Tuple;
+import org.xerial.db.TupleIterator;
+import org.xerial.db.cache.BufferReader;
+import org.xerial.db.cache.BufferWriter;
+import org.xerial.db.cache.PageCacheHolder;
+import org.xerial.db.cache.PageFrame;
+import org.xerial.db.cache.PagePrefetcher;
+import org.xerial.db.storage.MemoryFile;
+
+public class BTreeTest
+{
+    private MemoryFile file;
+    private BTree tree;
+
+    @Before
+    public void setUp() throws DBException
+    {
+        file = new MemoryFile();
+        tree = BTree.create(new PageCacheHolder(file, 512, 64));
+    }
+
+    /**
+     * (key:int, value:long)
+     */
+    static class EntryTuple implements Tuple
+    {
+        final int key;
+        final long value;
+
+        EntryTuple(int key, long value)
+        {
+            this.key = key;
+            this.value = value;
+        }
+
+        public Object getValue(int columnIndex)
+        {
+            return columnIndex == 0 ? key : value;
+        }
+
+        public void setValue(int columnIndex, Object value)
+        {
+            throw new DBError(DBErrorCode.NotSupported);
+        }
+
+        public int getByteSize()
+        {
+            return 12;
+        }
+
+        public int load(BufferReader reader)
+        {
+            throw new DBError(DBErrorCode.NotSupported);
+        }
+
+        public int save(BufferWriter writer)
+        {
+            writer.writeInt(key);
+            writer.writeLong(value);
+            return getByteSize();
+        }
+    }
+
+    static final BTreeEntryExtractor entryExtractor = new BTreeEntryExtractor() {
+        public byte[] getKey(Tuple tuple)
+        {
+            return key(((EntryTuple) tuple).key);
+        }
+
+        public long getValue(Tuple tuple)
+        {
+            return ((EntryTuple) tuple).value;
+        }
+    };
+
+    static class EntryIterator implements TupleIterator
+    {
+        private final Iterator<Integer> keys;
+
+        EntryIterator(Iterable<Integer> keys)
+        {
+            this.keys = keys.iterator();
+        }
+
+        public boolean hasNext()
+        {
+            return keys.hasNext();
+        }
+
+        public Tuple next()
+        {
+            int key = keys.next();
+            return new EntryTuple(key, key * 10L);
+        }
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException("remove");
+        }
+    }
+
+    private static ArrayList<Integer> numbers(int begin, int end, int step)
+    {
+        ArrayList<Integer> numbers = new ArrayList<Integer>();
+        for (int i = begin; i < end; i += step)
+            numbers.add(i);
+        return numbers;
+    }
+
+    static byte[] key(int i)
+    {
+        return String.format("key%08d", i).getBytes();
+    }
+
+    private static ArrayList<Integer> shuffledNumbers(int n, long seed)
+    {
+        ArrayList<Integer> numbers = new ArrayList<Integer>();
+        for (int i = 0; i < n; i++)
+            numbers.add(i);
+        Collections.shuffle(numbers, new Random(seed));
+        return numbers;
+    }
+
+    @Test
+    public void insertAndLookup() throws DBException
+    {
+        final int n = 5000;
+        for (int i : shuffledNumbers(n, 0))
+            assertTrue(tree.insert(key(i), i * 10L));
+
+        assertEquals(n, tree.getNumEntries());
+        assertTrue("height: " + tree.getHeight(), tree.getHeight() >= 3);
+        for (int i = 0; i < n; i++)
+            assertEquals(i * 10L, tree.lookup(key(i)));
+        assertEquals(BTree.NOT_FOUND, tree.lookup(key(n)));
+        assertEquals(BTree.NOT_FOUND, tree.lookup(new byte[0]));
+
+        // the keys are unique
+        assertFalse(tree.insert(key(3), 0));
+        assertEquals(30L, tree.lookup(key(3)));
+        assertEquals(n, tree.getNumEntries());
+    }
+
+    @Test
+    public void unsignedKeyOrder() throws DBException
+    {
+        byte[][] keys = { {}, { 0 }, { 0, 0 }, { 1 }, { 0x7F }, { (byte) 0x80 }, { (byte) 0xFF }, { (byte) 0xFF, 0 } };
+        for (int i = keys.length - 1; i >= 0; i--)
+            tree.insert(keys[i], i);
+
+        BTreeCursor cursor = tree.scan(null, null);
+        for (int i = 0; i < keys.length; i++)
+        {
+            assertTrue(cursor.next());
+            assertArrayEquals(keys[i], cursor.getKey());
+            assertEquals(i, cursor.getValue());
+        }
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void rangeScan() throws DBException
+    {
+        final int n = 3000;
+        for (int i : shuffledNumbers(n, 1))
+            tree.insert(key(i * 2), i);
+
+        // [key(1001), key(2001)) contains the even numbers 1002, ..., 2000
+        BTreeCursor cursor = tree.scan(key(1001), key(2001));
+        int count = 0;
+        while (cursor.next())
+        {
+            assertArrayEquals(key(1002 + count * 2), cursor.getKey());
+            assertEquals(501 + count, cursor.getValue());
+            count++;
+        }
+        assertEquals(500, count);
+
+        cursor = tree.scan(key(n * 2 - 2), null);
+        assertTrue(cursor.next());
+        assertEquals(n - 1, cursor.getValue());
+        assertFalse(cursor.next());
+
+        cursor = tree.scan(null, key(0));
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void scanWhileModifying() throws DBException
+    {
+        final int n = 2000;
+        for (int i = 0; i < n; i++)
+            tree.insert(key(i * 2), i * 2);
+
+        BTreeCursor cursor = tree.scan(null, null);
+        int expected = 0;
+        while (cursor.next())
+        {
+            assertEquals(expected, cursor.getValue());
+            // the inserted odd keys come after the cursor
+            if (expected % 2 == 0)
+                tree.insert(key(expected + 1), expected + 1);
+            tree.delete(key(expected));
+            expected += 1;
+        }
+        assertEquals(n * 2, expected);
+        assertEquals(0, tree.getNumEntries());
+    }
+
+    @Test
+    public void deleteAll() throws DBException
+    {
+        final int n = 5000;
+        for (int i : shuffledNumbers(n, 2))
+            tree.insert(key(i), i);
+        long numPages = tree.getNumPages();
+
+        ArrayList<Integer> order = shuffledNumbers(n, 3);
+        for (int k = 0; k < n; k++)
+        {
+            int i = order.get(k);
+            assertTrue(tree.delete(key(i)));
+            assertFalse(tree.delete(key(i)));
+            assertEquals(BTree.NOT_FOUND, tree.lookup(key(i)));
+            if (k % 500 == 0)
+            {
+                // the remaining keys are still found
+                for (int j = k + 1; j < n; j++)
+                    assertEquals((int) order.get(j), tree.lookup(key(order.get(j))));
+            }
+        }
+        assertEquals(0, tree.getNumEntries());
+        assertEquals(1, tree.getHeight());
+        assertFalse(tree.scan(null, null).next());
+
+        // the freed pages are reused
+        for (int i : shuffledNumbers(n, 4))
+            tree.insert(key(i), i);
+        assertEquals(numPages, tree.getNumPages(), numPages / 10);
+    }
+
+    @Test
+    public void randomOperations() throws DBException
+    {
+        TreeMap<Integer, Long> expected = new TreeMap<Integer, Long>();
+        Random random = new Random(5);
+        for (int k = 0; k < 30000; k++)
+        {
+            int i = random.nextInt(3000);
+            if (random.nextInt(3) == 0)
+                assertEquals(expected.remove(i) != null, tree.delete(key(i)));
+            else
+            {
+                long value = random.nextLong();
+                boolean isNew = !expected.containsKey(i);
+                assertEquals(isNew, tree.insert(key(i), value));
+                if (isNew)
+                    expected.put(i, value);
+            }
+        }
+
+        assertEquals(expected.size(), tree.getNumEntries());
+        BTreeCursor cursor = tree.scan(null, null);
+        for (Integer i : expected.keySet())
+        {
+            assertTrue(cursor.next());
+            assertArrayEquals(key(i), cursor.getKey());
+            assertEquals(expected.get(i).longValue(), cursor.getValue());
+        }
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void concurrentModifications() throws Exception
+    {
+        final int numWriters = 8;
+        final int n = 20000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean isRunning = new AtomicBoolean(true);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+        // each writer inserts the numbers i with i % numWriters == w, then deletes the multiples of 3 
+        Thread[] writer = new Thread[numWriters];
+        for (int w = 0; w < numWriters; w++)
+        {
+            final int writerID = w;
+            writer[w] = new Thread() {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        for (int i : shuffledNumbers(n, writerID))
+                        {
+                            if (i % numWriters != writerID)
+                                continue;
+                            assertTrue(tree.insert(key(i), i));
+                            assertEquals(i, tree.lookup(key(i)));
+                        }
+                        for (int i = writerID; i < n; i += numWriters)
+                        {
+                            if (i % 3 == 0)
+                                assertTrue(tree.delete(key(i)));
+                            else
+                                assertEquals(i, tree.lookup(key(i)));
+                        }
+                    }
+                    catch (Throwable e)
+                    {
+                        error.compareAndSet(null, e);
+                    }
+                }
+            };
+            writer[w].start();
+        }
+
+        // the scans see the keys in the ascending order during the modifications
+        Thread scanner = new Thread() {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    start.await();
+                    while (isRunning.get())
+                    {
+                        BTreeCursor cursor = tree.scan(null, null);
+                        byte[] previous = null;
+                        while (cursor.next())
+                        {
+                            if (previous != null)
+                                assertTrue(BTreePage.compareKeys(previous, cursor.getKey()) < 0);
+                            previous = cursor.getKey();
+                        }
+                    }
+                }
+                catch (Throwable e)
+                {
+                    error.compareAndSet(null, e);
+                }
+            }
+        };
+        scanner.start();
+
+        start.countDown();
+        for (Thread t : writer)
+            t.join();
+        isRunning.set(false);
+        scanner.join();
+        if (error.get() != null)
+            throw new AssertionError(error.get());
+
+        BTreeCursor cursor = tree.scan(null, null);
+        for (int i = 0; i < n; i++)
+        {
+            if (i % 3 == 0)
+            {
+                assertEquals(BTree.NOT_FOUND, tree.lookup(key(i)));
+                continue;
+            }
+            assertTrue(cursor.next());
+            assertArrayEquals(key(i), cursor.getKey());
+            assertEquals(i, cursor.getValue());
+        }
+        assertFalse(cursor.next());
+        assertEquals(n - (n + 2) / 3, tree.getNumEntries());
+    }
+
+    /**
+     * Opens a cursor when a modified page is released the next time
+     */
+    static class CursorOpeningPageCache extends PageCacheHolder
+    {
+        BTree tree;
+        boolean isArmed = false;
+        BTreeCursor cursor = null;
+
+        CursorOpeningPageCache(int pageSize, int numFrames)
+        {
+            super(new MemoryFile(), pageSize, numFrames);
+        }
+
+        @Override
+        public void unpin(PageFrame frame, boolean isDirty)
+        {
+            super.unpin(frame, isDirty);
+            if (!isDirty || !isArmed)
+                return;
+            isArmed = false;
+            try
+            {
+                cursor = tree.scan(null, null);
+            }
+            catch (DBException e)
+            {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    @Test
+    public void scanWhileRebalancing() throws DBException
+    {
+        final int n = 1000;
+        CursorOpeningPageCache pageCache = new CursorOpeningPageCache(512, 64);
+        // the full leaves are redistributed rather than merged
+        pageCache.tree = BTree.bulkLoad(pageCache, new EntryIterator(numbers(0, n, 1)), entryExtractor, 1.0);
+
+        // the cursor copies the leftmost leaf after the deletion, and before the rebalancing 
+        for (int i = 1; i < 200; i++)
+        {
+            pageCache.isArmed = true;
+            assertTrue(pageCache.tree.delete(key(i)));
+            BTreeCursor cursor = pageCache.cursor;
+            assertTrue(cursor.next());
+            assertEquals(0, cursor.getValue());
+            for (int j = i + 1; j < n; j++)
+            {
+                assertTrue(cursor.next());
+                assertArrayEquals(key(j), cursor.getKey());
+            }
+            assertFalse(cursor.next());
+        }
+    }
+
+    @Test
+    public void variableLengthKeys() throws DBException
+    {
+        Random random = new Random(6);
+        TreeMap<String, Integer> expected = new TreeMap<String, Integer>();
+        for (int i = 0; i < 3000; i++)
+        {
+            StringBuilder s = new StringBuilder();
+            int length = random.nextInt(tree.getMaxKeyLength() + 1);
+            for (int j = 0; j < length; j++)
+                s.append((char) ('a' + random.nextInt(3)));
+            String k = s.toString();
+            if (expected.containsKey(k))
+                continue;
+            expected.put(k, i);
+            tree.insert(k.getBytes(), i);
+        }
+        for (String k : expected.keySet())
+        {
+            if (k.length() % 2 == 0)
+                assertTrue(tree.delete(k.getBytes()));
+        }
+
+        BTreeCursor cursor = tree.scan(null, null);
+        for (String k : expected.keySet())
+        {
+            if (k.length() % 2 == 0)
+                continue;
+            assertTrue(cursor.next());
+            assertEquals(k, new String(cursor.getKey()));
+            assertEquals(expected.get(k).longValue(), cursor.getValue());
+        }
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void tooLongKey() throws DBException
+    {
+        try
+        {
+            tree.insert(new byte[tree.getMaxKeyLength() + 1], 0);
+            fail("no error");
+        }
+        catch (DBException e)
+        {
+            assertEquals(DBErrorCode.ExceedsTheCapacity, e.getErrorCode());
+        }
+    }
+
+    @Test
+    public void reopen() throws DBException
+    {
+        final int n = 2000;
+        for (int i = 0; i < n; i++)
+            tree.insert(key(i), i);
+        tree.flush();
+
+        BTree reopened = BTree.open(new PageCacheHolder(file, 512, 16));
+        assertEquals(n, reopened.getNumEntries());
+        assertEquals(tree.getHeight(), reopened.getHeight());
+        for (int i = 0; i < n; i++)
+            assertEquals(i, reopened.lookup(key(i)));
+
+        try
+        {
+            BTree.open(new PageCacheHolder(file, 1024, 16));
+            fail("no error");
+        }
+        catch (DBException e)
+        {
+            assertEquals(DBErrorCode.InvalidDataFormat, e.getErrorCode());
+        }
+    }
+
+    @Test
+    public void bulkLoad() throws DBException
+    {
+        final int n = 20000;
+        MemoryFile bulkFile = new MemoryFile();
+        BTree bulkTree = BTree.bulkLoad(new PageCacheHolder(bulkFile, 512, 16), new EntryIterator(numbers(0, n * 2, 2)),
+                entryExtractor);
+        assertEquals(n, bulkTree.getNumEntries());
+
+        for (int i = 0; i < n; i++)
+            tree.insert(key(i * 2), i * 20L);
+        assertTrue("bulk loaded pages: " + bulkTree.getNumPages() + ", inserted pages: " + tree.getNumPages(),
+                bulkTree.getNumPages() < tree.getNumPages());
+
+        for (int i = 0; i < n * 2; i++)
+            assertEquals(i % 2 == 0 ? i * 10L : BTree.NOT_FOUND, bulkTree.lookup(key(i)));
+        BTreeCursor cursor = bulkTree.scan(null, null);
+        for (int i = 0; i < n; i++)
+        {
+            assertTrue(cursor.next());
+            assertArrayEquals(key(i * 2), cursor.getKey());
+        }
+        assertFalse(cursor.next());
+
+        // the loaded tree can be modified and reopened
+        for (int i = 1; i < n * 2; i += 2)
+            assertTrue(bulkTree.insert(key(i), i * 10L));
+        for (int i = 0; i < n * 2; i += 4)
+            assertTrue(bulkTree.delete(key(i)));
+        bulkTree.flush();
+        BTree reopened = BTree.open(new PageCacheHolder(bulkFile, 512, 16));
+        assertEquals(n * 2 - n / 2, reopened.getNumEntries());
+        for (int i = 0; i < n * 2; i++)
+            assertEquals(i % 4 == 0 ? BTree.NOT_FOUND : i * 10L, reopened.lookup(key(i)));
+    }
+
+    @Test
+    public void scanWithReadAhead() throws DBException
+    {
+        final int n = 20000;
+        PageCacheHolder cache = new PageCacheHolder(new MemoryFile(), 512, 64);
+        BTree bulkTree = BTree.bulkLoad(cache, new EntryIterator(numbers(0, n, 1)), entryExtractor);
+        // run the read-ahead in the scanning thread
+        PagePrefetcher prefetcher = new PagePrefetcher(cache, new Executor() {
+            public void execute(Runnable command)
+            {
+                command.run();
+            }
+        }, 8);
+        bulkTree.setPagePrefetcher(prefetcher);
+
+        BTreeCursor cursor = bulkTree.scan(null, null);
+        for (int i = 0; i < n; i++)
+        {
+            assertTrue(cursor.next());
+            assertArrayEquals(key(i), cursor.getKey());
+        }
+        assertFalse(cursor.next());
+        assertTrue(prefetcher.getNumPrefetchedPages() > 0);
+    }
+
+    @Test
+    public void bulkLoadFillFactor() throws DBException
+    {
+        final int n = 10000;
+        BTree full = BTree.bulkLoad(new PageCacheHolder(new MemoryFile(), 512, 16), new EntryIterator(numbers(0, n, 1)),
+                entryExtractor, 1.0);
+        BTree half = BTree.bulkLoad(new PageCacheHolder(new MemoryFile(), 512, 16), new EntryIterator(numbers(0, n, 1)),
+                entryExtractor, 0.5);
+        assertTrue(full.getNumPages() * 1.8 < half.getNumPages());
+        for (int i = 0; i < n; i++)
+        {
+            assertEquals(i * 10L, full.lookup(key(i)));
+            assertEquals(i * 10L, half.lookup(key(i)));
+        }
+    }
+
+    @Test
+    public void bulkLoadEmptyInput() throws DBException
+    {
+        BTree empty = BTree.bulkLoad(new PageCacheHolder(new MemoryFile(), 512, 16), new EntryIterator(
+                new ArrayList<Integer>()), entryExtractor);
+        assertEquals(0, empty.getNumEntries());
+        assertEquals(1, empty.getHeight());
+        assertFalse(empty.scan(null, null).next());
+        assertTrue(empty.insert(key(1), 1));
+        assertEquals(1, empty.lookup(key(1)));
+    }
+
+    @Test
+    public void bulkLoadUnsortedInput() throws DBException
+    {
+        ArrayList<Integer> keys = numbers(0, 100, 1);
+        keys.add(50);
+        try
+        {
+            BTree.bulkLoad(new PageCacheHolder(new MemoryFile(), 512, 16), new EntryIterator(keys), entryExtractor);
+            fail("no error");
+        }
+        catch (DBException e)
+        {
+            assertEquals(DBErrorCode.InvalidInput, e.getErrorCode());
+        }
+    }
+
+    @Test
+    public void compressedKeys() throws DBException
+    {
+        final int n = 5000;
+        final String prefix = "http://www.xerial.org/storage/btree/resources/";
+        for (int i : shuffledNumbers(n, 7))
+            assertTrue(tree.insert((prefix + i).getBytes(), i));
+
+        // the pages hold more entries than the uncompressed keys fit in
+        int uncompressedSize = 0;
+        for (int i = 0; i < n; i++)
+            uncompressedSize += BTreePage.getEntrySize((prefix + i).length());
+        int numLeavesWithoutCompression = uncompressedSize / (tree.getPageSize() - BTreePageHeader.HEADER_SIZE);
+        assertTrue("pages: " + tree.getNumPages(), tree.getNumPages() < numLeavesWithoutCompression);
+
+        for (int i = 0; i < n; i++)
+            assertEquals(i, tree.lookup((prefix + i).getBytes()));
+        assertEquals(BTree.NOT_FOUND, tree.lookup(prefix.getBytes()));
+        for (int i = 0; i < n; i += 2)
+            assertTrue(tree.delete((prefix + i).getBytes()));
+        BTreeCursor cursor = tree.scan((prefix + "1").getBytes(), (prefix + "2").getBytes());
+        int count = 0;
+        while (cursor.next())
+        {
+            assertTrue(new String(cursor.getKey()).startsWith(prefix + "1"));
+            assertEquals(1, cursor.getValue() % 2);
+            count++;
+        }
+        // the odd numbers of 1, 1x, 1xx and 1xxx
+        assertEquals(1 + 5 + 50 + 500, count);
+    }
+
+}
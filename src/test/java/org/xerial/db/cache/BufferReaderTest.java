@@ -72,4 +72,21 @@ public class BufferReaderTest
         assertEquals(false, reader.readBoolean());
     }
 
+    @Test
+    public void testReadVarInt()
+    {
+        writer.writeVarInt(127);
+        writer.writeVarInt(128);
+        writer.writeInt(5);
+        writer.writeVarLong(1L << 40);
+        writer.writeVarInt(Integer.MAX_VALUE);
+        assertEquals(1 + 2 + 4 + 6 + 5, writer.getCursorPosition());
+        
+        assertEquals(127, reader.readVarInt());
+        assertEquals(128, reader.readVarInt());
+        assertEquals(5, reader.readInt());
+        assertEquals(1L << 40, reader.readVarLong());
+        assertEquals(Integer.MAX_VALUE, reader.readVarInt());
+    }
+
 }
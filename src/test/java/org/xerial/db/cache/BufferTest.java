@@ -138,4 +138,63 @@ public class BufferTest
     }
 
 
+    @Test
+    public void bigEndianLayout()
+    {
+        buffer.writeInt(0, 0x01020304);
+        buffer.writeLong(4, 0x05060708090A0B0CL);
+        byte[] b = buffer.getBytes();
+        for (int i = 0; i < 12; i++)
+            assertEquals(i + 1, b[i]);
+    }
+
+    @Test
+    public void bulkPutAndGet()
+    {
+        byte[] data = "hello world!".getBytes();
+        buffer.put(10, data, 6, 5);
+        byte[] readBuf = new byte[5];
+        buffer.get(10, readBuf, 0, 5);
+        assertEquals("world", new String(readBuf));
+
+        buffer.fill((byte) 7);
+        assertEquals(0x0707070707070707L, buffer.readLong(1016));
+    }
+
+    @Test
+    public void directBuffer() throws DBException
+    {
+        Buffer direct = Buffer.allocateDirect(1024);
+        assertTrue(direct.isDirect());
+        assertFalse(direct.hasArray());
+        try
+        {
+            direct.getBytes();
+            fail("off-heap buffer has no array");
+        }
+        catch (UnsupportedOperationException e)
+        {
+            // OK
+        }
+
+        direct.writeInt(0, 3044);
+        direct.writeLong(4, 1034134434L);
+        direct.writeByte(1023, 0x7F);
+        direct.set(12, 2, true);
+        assertEquals(3044, direct.readInt(0));
+        assertEquals(1034134434L, direct.readLong(4));
+        assertTrue(direct.isSet(12, 2));
+
+        DBFile file = new MemoryFile();
+        direct.save(file, 1024);
+        buffer.load(file, 1024);
+        assertEquals(3044, buffer.readInt(0));
+        assertEquals((byte) 0x7F, buffer.readByte(1023));
+
+        direct.fill((byte) 0);
+        assertEquals(0, direct.readInt(0));
+        direct.load(file, 1024);
+        assertEquals(1034134434L, direct.readLong(4));
+    }
+
 }
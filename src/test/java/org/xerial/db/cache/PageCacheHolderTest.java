@@ -0,0 +1,358 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// PageCacheHolderTest.java
+// Since: Oct 18, 2026 2:20:13 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xerial.db.DBErrorCode;
+import org.xerial.db.DBException;
+import org.xerial.db.storage.DBFile;
+import org.xerial.db.storage.MemoryFile;
+
+public class PageCacheHolderTest
+{
+    private static final int PAGE_SIZE = 256;
+    private DBFile file;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        file = new MemoryFile();
+        // prepare 16 pages, each of which has its page ID at the head
+        Buffer page = new Buffer(PAGE_SIZE);
+        for (int p = 0; p < 16; p++)
+        {
+            page.writeLong(0, p);
+            page.save(file, (long) p * PAGE_SIZE);
+        }
+    }
+
+    @Test
+    public void pin() throws DBException
+    {
+        PageCacheHolder cache = new PageCacheHolder(file, PAGE_SIZE, 4);
+        PageFrame frame = cache.pin(3);
+        assertEquals(3L, frame.getBuffer().readLong(0));
+        assertEquals(1, frame.getPinCount());
+
+        PageFrame frame2 = cache.pin(3);
+        assertSame(frame, frame2);
+        assertEquals(2, frame.getPinCount());
+        cache.unpin(frame, false);
+        cache.unpin(frame2, false);
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void evictAndWriteBack() throws DBException
+    {
+        PageCacheHolder cache = new PageCacheHolder(file, PAGE_SIZE, 4);
+        PageFrame frame = cache.pin(0);
+        frame.getBuffer().writeInt(8, 1234);
+        cache.unpin(frame, true);
+
+        // read other pages to evict the page 0
+        for (int p = 1; p < 16; p++)
+        {
+            PageFrame f = cache.pin(p);
+            assertEquals((long) p, f.getBuffer().readLong(0));
+            cache.unpin(f, false);
+        }
+
+        Buffer page = new Buffer(PAGE_SIZE);
+        page.load(file, 0);
+        assertEquals(1234, page.readInt(8));
+
+        PageFrame reloaded = cache.pin(0);
+        assertEquals(1234, reloaded.getBuffer().readInt(8));
+        cache.unpin(reloaded, false);
+    }
+
+    @Test
+    public void pinnedPagesAreNotEvicted() throws DBException
+    {
+        PageCacheHolder cache = new PageCacheHolder(file, PAGE_SIZE, 2, new LRUKReplacementPolicy());
+        PageFrame f0 = cache.pin(0);
+        PageFrame f1 = cache.pin(1);
+        try
+        {
+            cache.pin(2);
+            fail("all frames are pinned");
+        }
+        catch (DBException e)
+        {
+            assertEquals(DBErrorCode.NoFreePageFrame, e.getErrorCode());
+        }
+
+        cache.unpin(f1, false);
+        PageFrame f2 = cache.pin(2);
+        assertSame(f1, f2);
+        assertEquals(0L, f0.getBuffer().readLong(0));
+        assertEquals(2L, f2.getBuffer().readLong(0));
+    }
+
+    @Test
+    public void pinNew() throws DBException
+    {
+        PageCacheHolder cache = new PageCacheHolder(file, PAGE_SIZE, 2);
+        PageFrame frame = cache.pinNew(20);
+        assertEquals(0L, frame.getBuffer().readLong(0));
+        frame.getBuffer().writeLong(0, 20);
+        cache.unpin(frame, true);
+        cache.flushAll();
+
+        Buffer page = new Buffer(PAGE_SIZE);
+        page.load(file, 20L * PAGE_SIZE);
+        assertEquals(20L, page.readLong(0));
+    }
+
+    @Test
+    public void bulkReadRingKeepsHotPages() throws DBException
+    {
+        PageCacheHolder cache = new PageCacheHolder(file, PAGE_SIZE, 8);
+        for (int p = 0; p < 4; p++)
+            cache.unpin(cache.pin(p), false);
+
+        BulkReadRing ring = cache.createBulkReadRing(2);
+        for (int p = 4; p < 16; p++)
+        {
+            PageFrame f = cache.pin(p, ring);
+            assertEquals((long) p, f.getBuffer().readLong(0));
+            cache.unpin(f, false);
+        }
+
+        long missCount = cache.getMissCount();
+        for (int p = 0; p < 4; p++)
+            cache.unpin(cache.pin(p), false);
+        assertEquals(missCount, cache.getMissCount());
+    }
+
+    @Test
+    public void pinnedScanPageIsNotPromoted() throws DBException
+    {
+        Buffer page = new Buffer(PAGE_SIZE);
+        for (int p = 16; p < 64; p++)
+        {
+            page.writeLong(0, p);
+            page.save(file, (long) p * PAGE_SIZE);
+        }
+
+        PageCacheHolder cache = new PageCacheHolder(file, PAGE_SIZE, 8, new TwoQueueReplacementPolicy(0.25, 0.5));
+        // pages 0 and 1 are read again after their eviction, and become hot
+        for (int p = 0; p < 10; p++)
+            cache.unpin(cache.pin(p), false);
+        for (int p = 0; p < 2; p++)
+            cache.unpin(cache.pin(p), false);
+
+        // a scan keeps a page pinned while the cache passes over it for victims
+        PageFrame scanPage = cache.pin(20);
+        for (int p = 21; p < 40; p++)
+            cache.unpin(cache.pin(p), false);
+        cache.unpin(scanPage, false);
+        for (int p = 40; p < 64; p++)
+            cache.unpin(cache.pin(p), false);
+
+        long missCount = cache.getMissCount();
+        for (int p = 0; p < 2; p++)
+            cache.unpin(cache.pin(p), false);
+        assertEquals(missCount, cache.getMissCount());
+
+        // the scan page has not been promoted to the hot pages
+        cache.unpin(cache.pin(20), false);
+        assertEquals(missCount + 1, cache.getMissCount());
+    }
+
+    @Test
+    public void concurrentPins() throws Exception
+    {
+        final PageCacheHolder cache = new PageCacheHolder(file, PAGE_SIZE, 6);
+        final AtomicInteger numErrors = new AtomicInteger(0);
+        Thread[] worker = new Thread[8];
+        for (int i = 0; i < worker.length; i++)
+        {
+            final int seed = i;
+            worker[i] = new Thread() {
+                @Override
+                public void run()
+                {
+                    Random r = new Random(seed);
+                    try
+                    {
+                        for (int n = 0; n < 5000; n++)
+                        {
+                            long pageID = r.nextInt(16);
+                            PageFrame frame = cache.pin(pageID);
+                            frame.latchShared();
+                            long value = frame.getBuffer().readLong(0);
+                            frame.unlatchShared();
+                            cache.unpin(frame, false);
+                            if (value != pageID)
+                                numErrors.incrementAndGet();
+                        }
+                    }
+                    catch (DBException e)
+                    {
+                        // all frames can be pinned by the workers at a moment
+                        if (e.getErrorCode() != DBErrorCode.NoFreePageFrame)
+                            numErrors.incrementAndGet();
+                    }
+                }
+            };
+            worker[i].start();
+        }
+        for (Thread t : worker)
+            t.join();
+
+        assertEquals(0, numErrors.get());
+        for (int p = 0; p < 16; p++)
+        {
+            PageFrame frame = cache.pin(p);
+            assertEquals((long) p, frame.getBuffer().readLong(0));
+            assertEquals(1, frame.getPinCount());
+            cache.unpin(frame, false);
+        }
+    }
+
+    @Test
+    public void optimisticRead() throws DBException
+    {
+        PageCacheHolder cache = new PageCacheHolder(file, PAGE_SIZE, 4);
+        PageReader<Long> reader = new PageReader<Long>() {
+            public Long read(Buffer page)
+            {
+                return page.readLong(0);
+            }
+        };
+
+        // the first read falls back to pinning
+        assertEquals(5L, cache.read(5, reader).longValue());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(5L, cache.read(5, reader).longValue());
+        assertEquals(1, cache.getMissCount());
+
+        PageFrame frame = cache.pin(5);
+        long version = frame.getVersion();
+        frame.latchExclusive();
+        frame.getBuffer().writeLong(0, 55);
+        frame.unlatchExclusive();
+        cache.unpin(frame, true);
+        assertFalse(frame.validate(version));
+        assertTrue(frame.validate(frame.getVersion()));
+        assertEquals(55L, cache.read(5, reader).longValue());
+    }
+
+    @Test
+    public void optimisticReadRetriesOnError() throws DBException
+    {
+        PageCacheHolder cache = new PageCacheHolder(file, PAGE_SIZE, 4);
+        final AtomicInteger numReads = new AtomicInteger(0);
+        PageReader<Long> reader = new PageReader<Long>() {
+            public Long read(Buffer page)
+            {
+                // the first read sees a torn page image
+                if (numReads.incrementAndGet() == 1)
+                    throw new OutOfMemoryError("a broken length");
+                return page.readLong(0);
+            }
+        };
+        assertEquals(5L, cache.read(5, new PageReader<Long>() {
+            public Long read(Buffer page)
+            {
+                return page.readLong(0);
+            }
+        }).longValue());
+
+        // the page is being modified, and the error of the read is discarded
+        PageFrame frame = cache.pin(5);
+        frame.latchExclusive();
+        try
+        {
+            assertEquals(5L, cache.read(5, reader).longValue());
+        }
+        finally
+        {
+            frame.unlatchExclusive();
+            cache.unpin(frame, false);
+        }
+        assertTrue(numReads.get() > 1);
+    }
+
+    @Test
+    public void optimisticReadDuringPageReplacement() throws Exception
+    {
+        final PageCacheHolder cache = new PageCacheHolder(file, PAGE_SIZE, 2);
+        final PageReader<Long> reader = new PageReader<Long>() {
+            public Long read(Buffer page)
+            {
+                return page.readLong(0);
+            }
+        };
+        final AtomicInteger numErrors = new AtomicInteger(0);
+        Thread[] worker = new Thread[8];
+        for (int i = 0; i < worker.length; i++)
+        {
+            final int seed = i;
+            worker[i] = new Thread() {
+                @Override
+                public void run()
+                {
+                    Random r = new Random(seed);
+                    try
+                    {
+                        for (int n = 0; n < 100000; n++)
+                        {
+                            long pageID = r.nextInt(3);
+                            // a frame mapped to the page but not loaded yet must not be read
+                            if (cache.read(pageID, reader).longValue() != pageID)
+                                numErrors.incrementAndGet();
+                        }
+                    }
+                    catch (DBException e)
+                    {
+                        if (e.getErrorCode() != DBErrorCode.NoFreePageFrame)
+                            numErrors.incrementAndGet();
+                    }
+                }
+            };
+            worker[i].start();
+        }
+        for (Thread t : worker)
+            t.join();
+
+        assertEquals(0, numErrors.get());
+    }
+
+}
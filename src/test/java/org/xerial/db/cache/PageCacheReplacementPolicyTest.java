@@ -0,0 +1,175 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// PageCacheReplacementPolicyTest.java
+// Since: Oct 18, 2026 2:34:40 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PageCacheReplacementPolicyTest
+{
+    private void accessAll(PageCacheReplacementPolicy policy, int... frames)
+    {
+        for (int f : frames)
+        {
+            policy.recordAccess(f, f);
+            policy.setEvictable(f, true);
+        }
+    }
+
+    @Test
+    public void clock()
+    {
+        PageCacheReplacementPolicy policy = new ClockReplacementPolicy();
+        policy.init(4);
+        accessAll(policy, 0, 1, 2, 3);
+        policy.setEvictable(0, false);
+
+        // all reference bits are set; the first sweep clears them 
+        assertEquals(1, policy.evict());
+        policy.recordAccess(2, 2);
+        assertEquals(3, policy.evict());
+        assertEquals(2, policy.evict());
+        assertEquals(-1, policy.evict());
+    }
+
+    @Test
+    public void lruK()
+    {
+        PageCacheReplacementPolicy policy = new LRUKReplacementPolicy(2);
+        policy.init(4);
+        accessAll(policy, 0, 1, 2, 3);
+        // frames 0 and 2 are accessed twice
+        policy.recordAccess(2, 2);
+        policy.recordAccess(0, 0);
+
+        // frames with less than K accesses go first, in LRU order
+        assertEquals(1, policy.evict());
+        assertEquals(3, policy.evict());
+        // then the frame with the older 2nd recent access 
+        assertEquals(0, policy.evict());
+        assertEquals(2, policy.evict());
+        assertEquals(-1, policy.evict());
+    }
+
+    @Test
+    public void nonEvictableFrames()
+    {
+        PageCacheReplacementPolicy policy = new LRUKReplacementPolicy();
+        policy.init(2);
+        policy.recordAccess(0, 10);
+        policy.recordAccess(1, 11);
+        assertEquals(-1, policy.evict());
+        policy.setEvictable(1, true);
+        assertEquals(1, policy.evict());
+    }
+
+    @Test
+    public void twoQueue()
+    {
+        PageCacheReplacementPolicy policy = new TwoQueueReplacementPolicy(0.25, 0.5);
+        policy.init(8);
+        // pages 100 and 101 are read, evicted, and read again: they are promoted to Am 
+        policy.recordAccess(0, 100);
+        policy.recordAccess(1, 101);
+        policy.setEvictable(0, true);
+        policy.setEvictable(1, true);
+        assertEquals(0, policy.evict());
+        assertEquals(1, policy.evict());
+        policy.recordAccess(0, 100);
+        policy.recordAccess(1, 101);
+        policy.setEvictable(0, true);
+        policy.setEvictable(1, true);
+
+        // a scan reads pages only once
+        for (int f = 2; f < 8; f++)
+        {
+            policy.recordAccess(f, 200 + f);
+            policy.setEvictable(f, true);
+        }
+        for (int page = 300; page < 400; page++)
+        {
+            int victim = policy.evict();
+            assertTrue("hot page is evicted", victim >= 2);
+            policy.recordAccess(victim, page);
+            policy.setEvictable(victim, true);
+        }
+    }
+
+    @Test
+    public void twoQueueReinstatesWithoutPromotion()
+    {
+        PageCacheReplacementPolicy policy = new TwoQueueReplacementPolicy(0.25, 0.5);
+        policy.init(8);
+        // page 103 is read again after its eviction, and frame 3 is in Am
+        accessAll(policy, 3);
+        assertEquals(3, policy.evict());
+        accessAll(policy, 3);
+        // frames 0, 1 and 2 exceed the size of A1in
+        accessAll(policy, 0, 1, 2);
+
+        // the victim is pinned and put back. It must stay in A1in
+        assertEquals(0, policy.evict());
+        policy.reinstate(0, 0);
+        policy.setEvictable(0, true);
+        // if frame 0 were promoted to Am, A1in would be within its size, and frame 3 would be chosen
+        assertEquals(0, policy.evict());
+    }
+
+    @Test
+    public void twoQueueReinstatesInPlace()
+    {
+        PageCacheReplacementPolicy policy = new TwoQueueReplacementPolicy(0.25, 0.5);
+        policy.init(4);
+        accessAll(policy, 0, 1, 2, 3);
+
+        // the two victims are pinned, and put back in the reverse order
+        assertEquals(0, policy.evict());
+        assertEquals(1, policy.evict());
+        policy.reinstate(1, 1);
+        policy.setEvictable(1, true);
+        policy.reinstate(0, 0);
+        policy.setEvictable(0, true);
+        for (int f = 0; f < 4; f++)
+            assertEquals(f, policy.evict());
+    }
+
+    @Test
+    public void lruKReinstatesWithHistory()
+    {
+        PageCacheReplacementPolicy policy = new LRUKReplacementPolicy(2);
+        policy.init(2);
+        accessAll(policy, 0, 1);
+        policy.recordAccess(0, 0);
+
+        assertEquals(1, policy.evict());
+        policy.reinstate(1, 1);
+        policy.setEvictable(1, true);
+        // the reinstated frame still has a single access
+        assertEquals(1, policy.evict());
+        assertEquals(0, policy.evict());
+    }
+}
@@ -0,0 +1,181 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// PagePrefetcherTest.java
+// Since: Oct 18, 2026 6:44:19 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xerial.db.DBException;
+import org.xerial.db.storage.MemoryFile;
+
+public class PagePrefetcherTest
+{
+    private static final int PAGE_SIZE = 256;
+    private static final int NUM_PAGES = 64;
+
+    class CountingFile extends MemoryFile
+    {
+        AtomicInteger readCount = new AtomicInteger(0);
+
+        @Override
+        public void readAt(long fileBytePos, byte[] buffer, int offset, int byteSize) throws DBException
+        {
+            readCount.incrementAndGet();
+            super.readAt(fileBytePos, buffer, offset, byteSize);
+        }
+    }
+
+    /**
+     * runs the read-ahead in the caller thread
+     */
+    class DirectExecutor implements Executor
+    {
+        public void execute(Runnable command)
+        {
+            command.run();
+        }
+    }
+
+    private CountingFile file;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        file = new CountingFile();
+        Buffer page = new Buffer(PAGE_SIZE);
+        for (int p = 0; p < NUM_PAGES; p++)
+        {
+            page.writeLong(0, p);
+            page.save(file, (long) p * PAGE_SIZE);
+        }
+    }
+
+    private void scan(PrefetchScan scan, PageCacheHolder cache, long begin, long end) throws DBException
+    {
+        for (long p = begin; p < end; p++)
+        {
+            PageFrame frame = scan.pin(p);
+            assertEquals(p, frame.getBuffer().readLong(0));
+            cache.unpin(frame, false);
+        }
+    }
+
+    @Test
+    public void sequentialScan() throws DBException
+    {
+        PageCacheHolder cache = new PageCacheHolder(file, PAGE_SIZE, 32);
+        PagePrefetcher prefetcher = new PagePrefetcher(cache, new DirectExecutor(), 8);
+        scan(prefetcher.openScan(NUM_PAGES), cache, 0, NUM_PAGES);
+
+        // pages 0 and 1 are read by the scan, then 8 pages are read at once
+        assertEquals(2 + (NUM_PAGES - 2 + 7) / 8, file.readCount.get());
+        assertEquals(NUM_PAGES - 2, prefetcher.getNumPrefetchedPages());
+        assertEquals(NUM_PAGES - 2, cache.getHitCount());
+    }
+
+    @Test
+    public void randomAccess() throws DBException
+    {
+        PageCacheHolder cache = new PageCacheHolder(file, PAGE_SIZE, 32);
+        PagePrefetcher prefetcher = new PagePrefetcher(cache, new DirectExecutor(), 8);
+        PrefetchScan scan = prefetcher.openScan(NUM_PAGES);
+        for (long p : new long[] { 5, 3, 40, 12, 13, 30, 2 })
+        {
+            PageFrame frame = scan.pin(p);
+            assertEquals(p, frame.getBuffer().readLong(0));
+            cache.unpin(frame, false);
+        }
+        // only 12, 13 is sequential
+        assertEquals(1, prefetcher.getNumPrefetchRequests());
+        assertEquals(8, prefetcher.getNumPrefetchedPages());
+    }
+
+    @Test
+    public void skipCachedPages() throws DBException
+    {
+        PageCacheHolder cache = new PageCacheHolder(file, PAGE_SIZE, 32);
+        cache.unpin(cache.pin(4), false);
+        file.readCount.set(0);
+
+        // pages 2-3 and 5-9 are read
+        assertEquals(7, cache.prefetch(2, 8));
+        assertEquals(2, file.readCount.get());
+        for (long p = 2; p < 10; p++)
+        {
+            PageFrame frame = cache.pin(p);
+            assertEquals(p, frame.getBuffer().readLong(0));
+            cache.unpin(frame, false);
+        }
+        assertEquals(2, file.readCount.get());
+    }
+
+    @Test
+    public void prefetchThroughRing() throws DBException
+    {
+        PageCacheHolder cache = new PageCacheHolder(file, PAGE_SIZE, 32);
+        for (long p = 0; p < 16; p++)
+            cache.unpin(cache.pin(p), false);
+
+        PagePrefetcher prefetcher = new PagePrefetcher(cache, new DirectExecutor(), 8);
+        BulkReadRing ring = cache.createBulkReadRing(prefetcher.getRingSize(4));
+        assertEquals(16, ring.size());
+        scan(prefetcher.openScan(NUM_PAGES, ring), cache, 16, NUM_PAGES);
+        assertEquals(NUM_PAGES - 18, prefetcher.getNumPrefetchedPages());
+
+        // neither the scan nor its read-ahead has evicted the pages out of the ring
+        file.readCount.set(0);
+        for (long p = 0; p < 16; p++)
+            cache.unpin(cache.pin(p), false);
+        assertEquals(0, file.readCount.get());
+    }
+
+    @Test
+    public void asyncPrefetch() throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try
+        {
+            PageCacheHolder cache = new PageCacheHolder(file, PAGE_SIZE, 16);
+            PagePrefetcher prefetcher = new PagePrefetcher(cache, executor, 4);
+            for (int i = 0; i < 3; i++)
+                scan(prefetcher.openScan(NUM_PAGES), cache, 0, NUM_PAGES);
+            assertTrue(prefetcher.getNumPrefetchRequests() > 0);
+        }
+        finally
+        {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+}
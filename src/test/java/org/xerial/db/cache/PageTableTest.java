@@ -0,0 +1,101 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// PageTableTest.java
+// Since: Oct 18, 2026 4:51:18 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PageTableTest
+{
+    @Test
+    public void putAndRemove()
+    {
+        PageTable table = new PageTable(4, 2);
+        PageFrame[] frame = new PageFrame[100];
+        for (int i = 0; i < frame.length; i++)
+            frame[i] = new PageFrame(i, 8);
+
+        // exceeds the initial capacity of the stripes
+        for (int p = 0; p < 100; p++)
+            assertNull(table.putIfAbsent(p * 3L, frame[p]));
+        assertEquals(100, table.size());
+        assertSame(frame[5], table.putIfAbsent(15L, frame[6]));
+
+        for (int p = 0; p < 100; p += 2)
+            assertTrue(table.remove(p * 3L, frame[p]));
+        assertFalse(table.remove(3L, frame[0]));
+        assertEquals(50, table.size());
+
+        for (int p = 0; p < 100; p++)
+        {
+            if (p % 2 == 0)
+                assertNull(table.get(p * 3L));
+            else
+                assertSame(frame[p], table.get(p * 3L));
+        }
+    }
+
+    @Test
+    public void randomOperations()
+    {
+        PageTable table = new PageTable(16, 4);
+        HashMap<Long, PageFrame> expected = new HashMap<Long, PageFrame>();
+        PageFrame[] frame = new PageFrame[64];
+        for (int i = 0; i < frame.length; i++)
+            frame[i] = new PageFrame(i, 8);
+
+        Random r = new Random(0);
+        for (int i = 0; i < 10000; i++)
+        {
+            long pageID = r.nextInt(256);
+            if (r.nextBoolean())
+            {
+                PageFrame f = frame[r.nextInt(frame.length)];
+                PageFrame prev = table.putIfAbsent(pageID, f);
+                assertSame(expected.get(pageID), prev);
+                if (prev == null)
+                    expected.put(pageID, f);
+            }
+            else
+            {
+                PageFrame f = expected.get(pageID);
+                assertEquals(f != null, table.remove(pageID, f));
+                expected.remove(pageID);
+            }
+        }
+        assertEquals(expected.size(), table.size());
+        for (long p = 0; p < 256; p++)
+            assertSame(expected.get(p), table.get(p));
+    }
+
+}
@@ -0,0 +1,189 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// PageWriterTest.java
+// Since: Oct 18, 2026 5:58:37 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xerial.db.DBException;
+import org.xerial.db.storage.MemoryFile;
+
+public class PageWriterTest
+{
+    private static final int PAGE_SIZE = 256;
+
+    class CountingFile extends MemoryFile
+    {
+        AtomicInteger writeCount = new AtomicInteger(0);
+        AtomicInteger syncCount = new AtomicInteger(0);
+
+        @Override
+        public void writeAt(long fileBytePos, byte[] buffer, int offset, int byteSize) throws DBException
+        {
+            writeCount.incrementAndGet();
+            super.writeAt(fileBytePos, buffer, offset, byteSize);
+        }
+
+        @Override
+        public void sync() throws DBException
+        {
+            syncCount.incrementAndGet();
+            super.sync();
+        }
+    }
+
+    private CountingFile file;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        file = new CountingFile();
+        Buffer page = new Buffer(PAGE_SIZE);
+        for (int p = 0; p < 16; p++)
+        {
+            page.writeLong(0, p);
+            page.save(file, (long) p * PAGE_SIZE);
+        }
+        file.writeCount.set(0);
+    }
+
+    private void modify(PageCacheHolder cache, long pageID, int value) throws DBException
+    {
+        PageFrame frame = cache.pin(pageID);
+        frame.latchExclusive();
+        frame.getBuffer().writeInt(8, value);
+        frame.unlatchExclusive();
+        cache.unpin(frame, true);
+    }
+
+    private int readFromFile(long pageID) throws DBException
+    {
+        Buffer page = new Buffer(PAGE_SIZE);
+        page.load(file, pageID * PAGE_SIZE);
+        return page.readInt(8);
+    }
+
+    @Test
+    public void coalesceAdjacentPages() throws DBException
+    {
+        PageCacheHolder cache = new PageCacheHolder(file, PAGE_SIZE, 16);
+        // pages 2-9 are adjacent
+        for (long p : new long[] { 9, 3, 2, 7, 4, 8, 5, 6, 12, 14 })
+            modify(cache, p, (int) p * 10);
+        assertEquals(10, cache.getNumDirtyFrames());
+
+        cache.flushAll();
+        assertEquals(3, file.writeCount.get());
+        assertEquals(0, cache.getNumDirtyFrames());
+        for (long p : new long[] { 2, 3, 4, 5, 6, 7, 8, 9, 12, 14 })
+            assertEquals((int) p * 10, readFromFile(p));
+        assertEquals(0, readFromFile(10));
+    }
+
+    @Test
+    public void backgroundWrite() throws Exception
+    {
+        PageCacheHolder cache = new PageCacheHolder(file, PAGE_SIZE, 8);
+        PageWriter writer = new PageWriter(cache, 10, 60 * 1000, 4);
+        writer.start();
+        try
+        {
+            for (int p = 0; p < 6; p++)
+                modify(cache, p, p + 100);
+
+            for (int i = 0; i < 500 && cache.getNumDirtyFrames() > 0; i++)
+                Thread.sleep(10);
+            assertEquals(0, cache.getNumDirtyFrames());
+            // pages 0-3 and 4-5, at least
+            assertTrue(writer.getNumWrittenPages() >= 6);
+            for (int p = 0; p < 6; p++)
+                assertEquals(p + 100, readFromFile(p));
+        }
+        finally
+        {
+            writer.shutdown();
+        }
+        assertNull(writer.getLastError());
+        assertEquals(1, writer.getCheckpointCount());
+        assertEquals(1, file.syncCount.get());
+    }
+
+    @Test
+    public void periodicCheckpoint() throws Exception
+    {
+        PageCacheHolder cache = new PageCacheHolder(file, PAGE_SIZE, 8);
+        PageWriter writer = new PageWriter(cache, 10, 20, 4);
+        writer.start();
+        try
+        {
+            // pinned pages are written only by the checkpoints
+            PageFrame frame = cache.pin(3);
+            frame.getBuffer().writeInt(8, 33);
+            cache.unpin(cache.pin(3), true);
+
+            for (int i = 0; i < 500 && readFromFile(3) != 33; i++)
+                Thread.sleep(10);
+            assertEquals(33, readFromFile(3));
+            assertTrue(writer.getCheckpointCount() > 0);
+            cache.unpin(frame, false);
+        }
+        finally
+        {
+            writer.shutdown();
+        }
+    }
+
+    @Test
+    public void evictionPassesOverDirtyFrames() throws DBException
+    {
+        PageCacheHolder cache = new PageCacheHolder(file, PAGE_SIZE, 4);
+        PageWriter writer = new PageWriter(cache);
+        cache.setPageWriter(writer);
+
+        modify(cache, 0, 1);
+        for (int p = 1; p < 4; p++)
+            cache.unpin(cache.pin(p), false);
+
+        PageFrame frame = cache.pin(4);
+        cache.unpin(frame, false);
+        assertEquals(0, file.writeCount.get());
+        assertEquals(1, cache.getNumDirtyFrames());
+
+        // falls back to the dirty frames when no clean frame is left
+        for (int p = 1; p < 5; p++)
+            modify(cache, p, 1);
+        assertEquals(4, cache.getNumDirtyFrames());
+        file.writeCount.set(0);
+        frame = cache.pin(5);
+        cache.unpin(frame, false);
+        assertEquals(1, file.writeCount.get());
+    }
+
+}
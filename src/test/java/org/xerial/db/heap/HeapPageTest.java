@@ -26,12 +26,18 @@ package org.xerial.db.heap;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
-import org.xerial.db.AbstractTuple;
-import org.xerial.db.Relation;
+import org.xerial.db.DBErrorCode;
+import org.xerial.db.DBException;
 import org.xerial.db.Tuple;
+import org.xerial.db.TupleComparator;
+import org.xerial.db.TupleFactory;
+import org.xerial.db.cache.Buffer;
 import org.xerial.db.cache.BufferReader;
 import org.xerial.db.cache.BufferWriter;
 
@@ -39,52 +45,88 @@ public class HeapPageTest
 {
     HeapPage heapPage;
 
-    class SampleTuple extends AbstractTuple
+    /**
+     * (id:int, name:string) 
+     */
+    static class SampleTuple implements Tuple
     {
+        int id;
+        String name;
 
-        public SampleTuple(Relation relation)
+        public SampleTuple(int id, String name)
         {
-            super(relation);
-            // TODO Auto-generated constructor stub
+            this.id = id;
+            this.name = name;
         }
 
-        @Override
-        public Object getValue(int relationIndex)
+        public Object getValue(int columnIndex)
         {
-            // TODO Auto-generated method stub
-            return null;
+            return columnIndex == 0 ? (Object) id : name;
         }
 
-        @Override
-        public void setValue(int relationIndex, Object value)
+        public void setValue(int columnIndex, Object value)
         {
-        // TODO Auto-generated method stub
-
+            if(columnIndex == 0)
+                id = (Integer) value;
+            else
+                name = (String) value;
         }
 
         public int getByteSize()
         {
-            // TODO Auto-generated method stub
-            return 0;
+            return 8 + name.length();
         }
 
         public int load(BufferReader reader)
         {
-            // TODO Auto-generated method stub
-            return 0;
+            id = reader.readInt();
+            int length = reader.readInt();
+            StringBuilder b = new StringBuilder();
+            for(int i=0; i<length; i++)
+                b.append((char) reader.readByte());
+            name = b.toString();
+            return 8 + length;
         }
 
         public int save(BufferWriter writer)
         {
-            // TODO Auto-generated method stub
-            return 0;
+            writer.writeInt(id);
+            writer.writeInt(name.length());
+            for(int i=0; i<name.length(); i++)
+                writer.writeByte((byte) name.charAt(i));
+            return getByteSize();
         }
     }
 
+    static TupleFactory factory = new TupleFactory() {
+        public Tuple createTupleFromBuffer(BufferReader reader) throws DBException
+        {
+            SampleTuple t = new SampleTuple(0, "");
+            t.load(reader);
+            return t;
+        }
+    };
+
+    static byte[] record(int size, int seed)
+    {
+        byte[] b = new byte[size];
+        for(int i=0; i<size; i++)
+            b[i] = (byte) (seed + i);
+        return b;
+    }
+
+    static byte[] read(HeapPage page, int slot)
+    {
+        byte[] b = new byte[page.getRecordLength(slot)];
+        page.readRecord(slot, b, 0);
+        return b;
+    }
+
     @Before
     public void setUp() throws Exception
     {
         heapPage = new HeapPage(1024);
+        heapPage.setTupleFactory(factory);
     }
 
     @After
@@ -95,31 +137,204 @@ public class HeapPageTest
     public void testGetHeaderSize()
     {
         assertTrue(heapPage.getHeaderSize() < 1024);
+        assertEquals(1024 - heapPage.getHeaderSize() - HeapPage.SLOT_SIZE, heapPage.getFreeSpaceSize());
+    }
+
+    @Test
+    public void testAppend() throws DBException
+    {
+        int n = 0;
+        try
+        {
+            while(true)
+            {
+                assertEquals(n, heapPage.append(new SampleTuple(n, "tuple" + n)));
+                n++;
+            }
+        }
+        catch(DBException e)
+        {
+            assertEquals(DBErrorCode.PageIsFull, e.getErrorCode());
+        }
+        assertTrue(n > 10);
+        assertEquals(n, heapPage.getNumRecords());
+
+        int count = 0;
+        for(Tuple t : heapPage)
+        {
+            assertEquals(count, t.getValue(0));
+            assertEquals("tuple" + count, t.getValue(1));
+            count++;
+        }
+        assertEquals(n, count);
+        assertEquals("tuple3", heapPage.getTuple(3).getValue(1));
+    }
+
+    @Test
+    public void deleteAndReuseSlots() throws DBException
+    {
+        for(int i=0; i<5; i++)
+            heapPage.insert(record(20, i), 0, 20);
+        int free = heapPage.getFreeSpaceSize();
+
+        heapPage.delete(1);
+        heapPage.delete(4);
+        assertFalse(heapPage.isUsed(1));
+        // the trailing tombstone is removed from the slot directory
+        assertEquals(4, heapPage.getNumSlots());
+        assertEquals(3, heapPage.getNumRecords());
+        assertTrue(heapPage.getFreeSpaceSize() > free);
+
+        // the freed slot is reused, and the other slots keep their records
+        assertEquals(1, heapPage.insert(record(30, 100), 0, 30));
+        assertArrayEquals(record(30, 100), read(heapPage, 1));
+        assertArrayEquals(record(20, 3), read(heapPage, 3));
+        assertEquals(4, heapPage.insert(record(20, 4), 0, 20));
+    }
+
+    @Test
+    public void compactOnDemand() throws DBException
+    {
+        int n = 0;
+        try
+        {
+            while(true)
+            {
+                heapPage.insert(record(50, n), 0, 50);
+                n++;
+            }
+        }
+        catch(DBException e)
+        {
+            assertEquals(DBErrorCode.PageIsFull, e.getErrorCode());
+        }
+
+        // free the holes in the middle of the page
+        heapPage.delete(0);
+        heapPage.delete(2);
+        assertTrue(heapPage.getFreeSpaceSize() >= 100);
+        int slot = heapPage.insert(record(90, 7), 0, 90);
+        assertArrayEquals(record(90, 7), read(heapPage, slot));
+        for(int i=3; i<n; i++)
+            assertArrayEquals(record(50, i), read(heapPage, i));
+    }
+
+    @Test
+    public void update() throws DBException
+    {
+        for(int i=0; i<3; i++)
+            heapPage.insert(record(40, i), 0, 40);
+
+        // shrink in place
+        int offset = heapPage.getRecordOffset(1);
+        assertTrue(heapPage.update(1, record(10, 50), 0, 10));
+        assertEquals(offset, heapPage.getRecordOffset(1));
+        assertArrayEquals(record(10, 50), read(heapPage, 1));
 
+        // grow within the page
+        assertTrue(heapPage.update(0, record(100, 60), 0, 100));
+        assertArrayEquals(record(100, 60), read(heapPage, 0));
+        assertArrayEquals(record(10, 50), read(heapPage, 1));
+        assertArrayEquals(record(40, 2), read(heapPage, 2));
+
+        // no space in this page
+        assertFalse(heapPage.update(2, record(2000, 0), 0, 2000));
+        assertArrayEquals(record(40, 2), read(heapPage, 2));
     }
 
     @Test
-    public void testAppend()
+    public void forward() throws DBException
     {
-        
+        heapPage.append(new SampleTuple(0, "a"));
+        heapPage.append(new SampleTuple(1, "b"));
+        heapPage.append(new SampleTuple(2, "c"));
+
+        long rid = RecordID.of(10, 3);
+        heapPage.setForward(1, rid);
+        assertTrue(heapPage.isForwarded(1));
+        assertFalse(heapPage.isForwarded(0));
+        assertEquals(rid, heapPage.getForward(1));
+        assertEquals(10, RecordID.getPageID(heapPage.getForward(1)));
+        assertEquals(3, RecordID.getSlot(heapPage.getForward(1)));
+        try
+        {
+            heapPage.getRecordLength(1);
+            fail("forwarded slot has no record");
+        }
+        catch(IllegalStateException e)
+        {}
+
+        // the forwarding pointer is skipped in the scan
+        ArrayList<Object> ids = new ArrayList<Object>();
+        for(Tuple t : heapPage)
+            ids.add(t.getValue(0));
+        assertEquals(2, ids.size());
+        assertEquals(0, ids.get(0));
+        assertEquals(2, ids.get(1));
+
+        heapPage.compact();
+        assertEquals(rid, heapPage.getForward(1));
     }
 
     @Test
-    public void testSortTuples()
+    public void testSortTuples() throws DBException
     {
-        //heapPage.sortTuples(comparator)
+        int[] input = { 5, 3, 9, 1, 7 };
+        for(int id : input)
+            heapPage.append(new SampleTuple(id, "t" + id));
+        heapPage.delete(2);
+
+        heapPage.sortTuples(new TupleComparator() {
+            public int compare(Tuple t1, Tuple t2)
+            {
+                return ((Integer) t1.getValue(0)).compareTo((Integer) t2.getValue(0));
+            }
+        });
+        assertEquals(4, heapPage.getNumSlots());
+        int[] expected = { 1, 3, 5, 7 };
+        Iterator<Tuple> it = heapPage.iterator();
+        for(int id : expected)
+            assertEquals(id, it.next().getValue(0));
+        assertFalse(it.hasNext());
     }
 
     @Test
-    public void testLoadFrom()
+    public void testLoadFrom() throws DBException
     {
-        //fail("Not yet implemented");
+        Buffer buffer = new Buffer(1024);
+        HeapPage page = new HeapPage(buffer, 3);
+        page.append(new SampleTuple(1, "hello"));
+        page.append(new SampleTuple(2, "world"));
+
+        // the loaded page works directly on the buffer
+        HeapPage loaded = HeapPage.wrap(buffer, factory);
+        assertEquals(3, loaded.getPageID());
+        assertEquals(2, loaded.getNumRecords());
+        assertEquals("world", loaded.getTuple(1).getValue(1));
+        assertSame(buffer, loaded.getBuffer());
+
+        try
+        {
+            heapPage.loadFrom(new Buffer(1024), factory);
+            fail("not a heap page");
+        }
+        catch(DBException e)
+        {
+            assertEquals(DBErrorCode.InvalidPageHeader, e.getErrorCode());
+        }
     }
 
     @Test
-    public void testSaveTo()
+    public void testSaveTo() throws DBException
     {
-        //fail("Not yet implemented");
+        heapPage.append(new SampleTuple(1, "hello"));
+        Buffer buffer = new Buffer(1024);
+        heapPage.saveTo(buffer);
+
+        HeapPage loaded = new HeapPage(1024);
+        loaded.loadFrom(buffer, factory);
+        assertEquals(1, loaded.getNumRecords());
+        assertEquals("hello", loaded.getTuple(0).getValue(1));
     }
 
 }
@@ -0,0 +1,200 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// SelectionScanTest.java
+// Since: Oct 18, 2026 6:40:19 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.heap;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xerial.db.DBException;
+import org.xerial.db.HeapStorage;
+import org.xerial.db.Relation;
+import org.xerial.db.Tuple;
+import org.xerial.db.TupleVisitor;
+import org.xerial.db.cache.Buffer;
+import org.xerial.db.cache.BufferWriter;
+import org.xerial.db.cache.PageCacheHolder;
+import org.xerial.db.datatype.DataTypeBase;
+import org.xerial.db.datatype.TypeName;
+import org.xerial.db.heap.ColumnPredicate.Operator;
+import org.xerial.db.storage.MemoryFile;
+
+public class SelectionScanTest
+{
+    class Collector implements TupleVisitor
+    {
+        ArrayList<Object[]> rows = new ArrayList<Object[]>();
+
+        public void visit(long recordID, Tuple tuple) throws DBException
+        {
+            ProjectedTuple t = (ProjectedTuple) tuple;
+            Object[] row = new Object[t.getNumColumns()];
+            for (int i = 0; i < row.length; i++)
+                row[i] = t.getValue(i);
+            rows.add(row);
+        }
+    }
+
+    Relation relation;
+    HeapPage page;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        relation = new Relation();
+        relation.add(new DataTypeBase("id", TypeName.INTEGER));
+        relation.add(new DataTypeBase("name", TypeName.STRING));
+        relation.add(new DataTypeBase("score", TypeName.DOUBLE));
+        relation.add(new DataTypeBase("memo", TypeName.BLOB));
+        relation.add(new DataTypeBase("flag", TypeName.BOOLEAN));
+        relation.add(new DataTypeBase("time", TypeName.DATETIME));
+
+        page = new HeapPage(4096);
+        for (int i = 0; i < 30; i++)
+        {
+            byte[] record = TupleOnBufferTest.encode(i, "name" + (i % 3), i * 0.5, new byte[i % 5], i % 2 == 0, i);
+            page.insert(record, 0, record.length);
+        }
+    }
+
+    @Test
+    public void selectAndProject() throws Exception
+    {
+        SelectionScan scan = new SelectionScan(relation, new int[] { 5, 0 }, new ColumnPredicate(relation, 1,
+                Operator.EQ, "name1"), new ColumnPredicate(relation, 2, Operator.GE, 5.0));
+        Collector c = new Collector();
+        scan.scan(page, 1, c);
+
+        // id = 10, 13, ..., 28
+        assertEquals(7, c.rows.size());
+        for (int i = 0; i < c.rows.size(); i++)
+        {
+            int id = 10 + i * 3;
+            assertEquals(new java.util.Date(id), c.rows.get(i)[0]);
+            assertEquals(id, c.rows.get(i)[1]);
+        }
+    }
+
+    @Test
+    public void operators() throws Exception
+    {
+        assertEquals(10, count(new ColumnPredicate(relation, 0, Operator.LT, 10)));
+        assertEquals(11, count(new ColumnPredicate(relation, 0, Operator.LE, 10)));
+        assertEquals(19, count(new ColumnPredicate(relation, 0, Operator.GT, 10)));
+        assertEquals(29, count(new ColumnPredicate(relation, 0, Operator.NE, 10)));
+        assertEquals(15, count(new ColumnPredicate(relation, 4, Operator.EQ, true)));
+        assertEquals(20, count(new ColumnPredicate(relation, 1, Operator.GT, "name0")));
+        assertEquals(10, count(new ColumnPredicate(relation, 1, Operator.LT, "name1")));
+        assertEquals(0, count(new ColumnPredicate(relation, 1, Operator.EQ, "name")));
+        assertEquals(6, count(new ColumnPredicate(relation, 3, Operator.EQ, new byte[4])));
+        assertEquals(30, count());
+
+        try
+        {
+            new ColumnPredicate(relation, 0, Operator.EQ, "10");
+            fail("type mismatch");
+        }
+        catch (IllegalArgumentException e)
+        {}
+    }
+
+    int count(ColumnPredicate... predicates) throws DBException
+    {
+        Collector c = new Collector();
+        new SelectionScan(relation, new int[] { 0 }, predicates).scan(page, 1, c);
+        return c.rows.size();
+    }
+
+    @Test
+    public void projectedImage() throws Exception
+    {
+        SelectionScan scan = new SelectionScan(relation, new int[] { 1, 0 }, new ColumnPredicate(relation, 0,
+                Operator.EQ, 7));
+        final Buffer out = new Buffer(256);
+        final int[] size = new int[1];
+        scan.scan(page, 1, new TupleVisitor() {
+            public void visit(long recordID, Tuple tuple) throws DBException
+            {
+                assertEquals(RecordID.of(1, 7), recordID);
+                size[0] = tuple.save(new BufferWriter(out));
+                assertEquals(size[0], tuple.getByteSize());
+            }
+        });
+
+        Relation projected = new Relation();
+        projected.add(new DataTypeBase("name", TypeName.STRING));
+        projected.add(new DataTypeBase("id", TypeName.INTEGER));
+        TupleOnBuffer t = new TupleOnBuffer(projected, out, 0);
+        assertEquals("name1", t.getString(0));
+        assertEquals(7, t.getInt(1));
+        assertEquals(size[0], t.getByteSize());
+    }
+
+    @Test
+    public void heapStorageScan() throws Exception
+    {
+        HeapStorage storage = HeapStorage.create(new PageCacheHolder(new MemoryFile(), 1024, 16));
+        for (int i = 0; i < 300; i++)
+        {
+            byte[] record = TupleOnBufferTest.encode(i, "name" + (i % 3), i * 0.5, new byte[i % 5], i % 2 == 0, i);
+            storage.append(new TupleOnBuffer(relation, new Buffer(record), 0));
+        }
+
+        Collector c = new Collector();
+        storage.scan(new SelectionScan(relation, new int[] { 0 }, new ColumnPredicate(relation, 0, Operator.GE, 290)),
+                c);
+        assertEquals(10, c.rows.size());
+        assertEquals(290, c.rows.get(0)[0]);
+    }
+
+    @Test
+    public void heapStorageScanOfMovedRecord() throws Exception
+    {
+        HeapStorage storage = HeapStorage.create(new PageCacheHolder(new MemoryFile(), 1024, 16));
+        ArrayList<Long> rids = new ArrayList<Long>();
+        for (int i = 0; i < 30; i++)
+        {
+            byte[] record = TupleOnBufferTest.encode(i, "name", i * 0.5, new byte[10], true, i);
+            rids.add(storage.append(new TupleOnBuffer(relation, new Buffer(record), 0)));
+        }
+        // the record 3 does not fit in its page any more
+        byte[] record = TupleOnBufferTest.encode(3, "name", 1.5, new byte[600], true, 3);
+        storage.update(rids.get(3), new TupleOnBuffer(relation, new Buffer(record), 0));
+
+        final ArrayList<Long> scanned = new ArrayList<Long>();
+        storage.scan(new SelectionScan(relation, new int[] { 0 }, new ColumnPredicate(relation, 0, Operator.LE, 3)),
+                new TupleVisitor() {
+                    public void visit(long recordID, Tuple tuple) throws DBException
+                    {
+                        scanned.add(recordID);
+                    }
+                });
+        assertEquals(4, scanned.size());
+        assertTrue(scanned.containsAll(rids.subList(0, 4)));
+    }
+
+}
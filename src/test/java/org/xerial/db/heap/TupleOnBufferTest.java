@@ -0,0 +1,178 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// TupleOnBufferTest.java
+// Since: Oct 18, 2026 3:40:12 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.heap;
+
+import static org.junit.Assert.*;
+
+import java.util.Date;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xerial.db.Relation;
+import org.xerial.db.Tuple;
+import org.xerial.db.cache.Buffer;
+import org.xerial.db.cache.BufferReader;
+import org.xerial.db.cache.BufferWriter;
+import org.xerial.db.datatype.DataTypeBase;
+import org.xerial.db.datatype.TypeName;
+
+public class TupleOnBufferTest
+{
+    Relation relation;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        // (id:integer, name:string, score:double, memo:blob, flag:boolean, time:datetime)
+        relation = new Relation();
+        relation.add(new DataTypeBase("id", TypeName.INTEGER));
+        relation.add(new DataTypeBase("name", TypeName.STRING));
+        relation.add(new DataTypeBase("score", TypeName.DOUBLE));
+        relation.add(new DataTypeBase("memo", TypeName.BLOB));
+        relation.add(new DataTypeBase("flag", TypeName.BOOLEAN));
+        relation.add(new DataTypeBase("time", TypeName.DATETIME));
+    }
+
+    static void writeBytes(BufferWriter writer, byte[] value)
+    {
+        writer.writeVarInt(value.length);
+        for (byte b : value)
+            writer.writeByte(b);
+    }
+
+    static byte[] encode(int id, String name, double score, byte[] memo, boolean flag, long time) throws Exception
+    {
+        Buffer buffer = new Buffer(1024);
+        BufferWriter writer = new BufferWriter(buffer);
+        writer.writeInt(id);
+        writeBytes(writer, name.getBytes("UTF-8"));
+        writer.writeLong(Double.doubleToLongBits(score));
+        writeBytes(writer, memo);
+        writer.writeBoolean(flag);
+        writer.writeLong(time);
+
+        byte[] record = new byte[writer.getCursorPosition()];
+        buffer.get(0, record, 0, record.length);
+        return record;
+    }
+
+    @Test
+    public void layout()
+    {
+        TupleLayout layout = new TupleLayout(relation);
+        assertEquals(6, layout.getNumColumns());
+        // id and name have fixed offsets
+        assertEquals(2, layout.getNumFixedOffsets());
+        assertEquals(0, layout.getFixedOffset(0));
+        assertEquals(4, layout.getFixedOffset(1));
+        assertEquals(TupleLayout.VARIABLE_LENGTH, layout.getFixedOffset(2));
+
+        Relation fixed = new Relation();
+        fixed.add(new DataTypeBase("a", TypeName.LONG));
+        fixed.add(new DataTypeBase("b", TypeName.INTEGER));
+        TupleLayout fixedLayout = new TupleLayout(fixed);
+        assertEquals(3, fixedLayout.getNumFixedOffsets());
+        assertEquals(12, fixedLayout.getFixedOffset(2));
+    }
+
+    @Test
+    public void decodeColumns() throws Exception
+    {
+        byte[] memo = new byte[200];
+        for (int i = 0; i < memo.length; i++)
+            memo[i] = (byte) i;
+        byte[] record = encode(10, "\u3042bc", 1.5, memo, true, 123456789L);
+        Buffer buffer = new Buffer(1024);
+        buffer.put(100, record, 0, record.length);
+
+        TupleOnBuffer tuple = new TupleOnBuffer(relation, buffer, 100);
+        // random access to the column after the variable-length columns
+        assertEquals(123456789L, tuple.getLong(5));
+        assertEquals(new Date(123456789L), tuple.getValue(5));
+        assertEquals(10, tuple.getInt(0));
+        assertEquals("\u3042bc", tuple.getString(1));
+        assertEquals(1.5, tuple.getDouble(2), 0.0);
+        assertArrayEquals(memo, tuple.getBytes(3));
+        assertEquals(200, tuple.getLength(3));
+        assertTrue(tuple.getBoolean(4));
+        assertEquals(record.length, tuple.getByteSize());
+
+        try
+        {
+            tuple.getInt(1);
+            fail("name is not an integer");
+        }
+        catch (IllegalArgumentException e)
+        {}
+
+        // in-place update of a fixed-size column
+        tuple.setValue(2, 3.0);
+        assertEquals(3.0, tuple.getDouble(2), 0.0);
+        assertEquals(123456789L, tuple.getLong(5));
+
+        // copy to another buffer
+        Buffer copy = new Buffer(1024);
+        assertEquals(record.length, tuple.save(new BufferWriter(copy, 8)));
+        TupleOnBuffer copied = new TupleOnBuffer(relation);
+        BufferReader reader = new BufferReader(copy, 8);
+        copied.load(reader);
+        assertEquals(8 + record.length, reader.getCursorPosition());
+        assertEquals("\u3042bc", copied.getString(1));
+        assertEquals(3.0, copied.getDouble(2), 0.0);
+    }
+
+    @Test
+    public void scanWithReusedView() throws Exception
+    {
+        HeapPage page = new HeapPage(4096);
+        for (int i = 0; i < 20; i++)
+        {
+            byte[] record = encode(i, "name" + i, i * 0.5, new byte[i], i % 2 == 0, i);
+            page.insert(record, 0, record.length);
+        }
+        page.delete(3);
+
+        TupleOnBuffer view = new TupleOnBuffer(relation);
+        int count = 0;
+        long sum = 0;
+        for (TupleOnBuffer t : page.scan(view))
+        {
+            assertSame(view, t);
+            assertEquals(t.getInt(0), t.getLong(5));
+            assertEquals(t.getInt(0), t.getLength(3));
+            sum += t.getInt(0);
+            count++;
+        }
+        assertEquals(19, count);
+        assertEquals(190 - 3, sum);
+
+        // the tuples created by the factory are views on the page
+        page.setTupleFactory(TupleOnBuffer.newFactory(relation));
+        Tuple t = page.getTuple(5);
+        assertEquals("name5", t.getValue(1));
+        assertEquals(2.5, t.getValue(2));
+    }
+
+}
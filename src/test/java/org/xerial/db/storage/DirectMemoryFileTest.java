@@ -0,0 +1,108 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// DirectMemoryFileTest.java
+// Since: Oct 18, 2026 12:31:47 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.storage;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.junit.Test;
+import org.xerial.db.DBException;
+
+public class DirectMemoryFileTest
+{
+
+    @Test
+    public void writeAcrossChunks() throws DBException
+    {
+        DirectMemoryFile file = new DirectMemoryFile(1024);
+        String m = "hello world!";
+        byte[] buf = m.getBytes();
+        final int offset = 1020; // crosses the chunk boundary
+        file.seek(offset);
+        file.write(buf, 0, buf.length);
+
+        file.seek(offset);
+        byte[] readBuf = new byte[1024];
+        file.read(readBuf, 0, m.length());
+        assertEquals(m, new String(readBuf, 0, m.length()));
+        assertEquals(2, file.getNumChunks());
+        assertEquals(offset + buf.length, file.length());
+        file.close();
+    }
+
+    @Test
+    public void sparseChunks() throws DBException
+    {
+        DirectMemoryFile file = new DirectMemoryFile(1024);
+        byte[] buf = "hello world!".getBytes();
+        file.writeAt(1024L * 1024 * 1024, buf, 0, buf.length);
+        assertEquals(1, file.getNumChunks());
+
+        // reading unwritten region returns zeros without allocation
+        byte[] readBuf = new byte[4096];
+        readBuf[0] = 1;
+        file.readAt(4096, readBuf, 0, readBuf.length);
+        for (byte b : readBuf)
+            assertEquals(0, b);
+        assertEquals(1, file.getNumChunks());
+
+        file.readAt(1024L * 1024 * 1024, readBuf, 0, buf.length);
+        assertEquals("hello world!", new String(readBuf, 0, buf.length));
+        file.close();
+    }
+
+    @Test
+    public void loadFromFile() throws Exception
+    {
+        File tmp = new File("target/directmemoryfile.bin");
+        tmp.getParentFile().mkdirs();
+        byte[] data = new byte[5000];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) (i * 7);
+        FileOutputStream out = new FileOutputStream(tmp);
+        out.write(data);
+        out.close();
+
+        DirectMemoryFile file = new DirectMemoryFile(1024);
+        file.loadFromFile(tmp.getPath());
+        assertEquals(data.length, file.length());
+        byte[] readBuf = new byte[data.length];
+        file.readAt(0, readBuf, 0, readBuf.length);
+        for (int i = 0; i < data.length; i++)
+            assertEquals(data[i], readBuf[i]);
+
+        // loading binary data into the heap variant
+        MemoryFile memoryFile = new MemoryFile();
+        memoryFile.loadFromFile(tmp.getPath());
+        memoryFile.readAt(0, readBuf, 0, readBuf.length);
+        for (int i = 0; i < data.length; i++)
+            assertEquals(data[i], readBuf[i]);
+
+        tmp.delete();
+    }
+
+}
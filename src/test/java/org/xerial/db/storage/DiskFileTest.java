@@ -27,7 +27,11 @@ package org.xerial.db.storage;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import org.junit.After;
 import org.junit.Before;
@@ -41,7 +45,10 @@ public class DiskFileTest
     public void setUp() throws Exception {}
 
     @After
-    public void tearDown() throws Exception {}
+    public void tearDown() throws Exception {
+        for (String path : new String[] { "target/diskfile.db", "diskfile.db", "target/diskfile-readat.db" })
+            new File(path).delete();
+    }
 
     @Test
     public void write() throws DBException, FileNotFoundException {
@@ -100,4 +107,52 @@ public class DiskFileTest
 
     }
 
+    @Test
+    public void concurrentReadAt() throws Exception {
+        final int pageSize = 4096;
+        final int numPages = 64;
+        final DiskFile file = new DiskFile("target/diskfile-readat.db", "rw");
+        try {
+            byte[] page = new byte[pageSize];
+            for (int p = 0; p < numPages; p++) {
+                for (int i = 0; i < pageSize; i++)
+                    page[i] = (byte) (p + i);
+                file.writeAt((long) p * pageSize, page, 0, pageSize);
+            }
+
+            final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+            Thread[] reader = new Thread[4];
+            for (int t = 0; t < reader.length; t++) {
+                final int threadID = t;
+                reader[t] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            byte[] buf = new byte[pageSize];
+                            for (int k = 0; k < 100; k++) {
+                                int p = (threadID * 31 + k * 7) % numPages;
+                                file.readAt((long) p * pageSize, buf, 0, pageSize);
+                                for (int i = 0; i < pageSize; i++) {
+                                    if (buf[i] != (byte) (p + i))
+                                        throw new IllegalStateException("unexpected data at page " + p);
+                                }
+                            }
+                        }
+                        catch (Throwable e) {
+                            errors.add(e);
+                        }
+                    }
+                };
+                reader[t].start();
+            }
+            for (Thread t : reader)
+                t.join();
+
+            assertEquals(0, errors.size());
+        }
+        finally {
+            file.close();
+        }
+    }
+
 }
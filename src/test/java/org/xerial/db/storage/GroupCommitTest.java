@@ -0,0 +1,140 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// GroupCommitTest.java
+// Since: Oct 18, 2026 11:48:30 AM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class GroupCommitTest
+{
+    private static final String SYNC_FILE = "target/diskfile-sync.db";
+    private static final String STRICT_FILE = "target/diskfile-strict.db";
+
+    @After
+    public void tearDown() throws Exception
+    {
+        new File(SYNC_FILE).delete();
+        new File(STRICT_FILE).delete();
+    }
+
+    class SlowGroupCommit extends GroupCommit
+    {
+        @Override
+        protected void flush() throws IOException
+        {
+            try
+            {
+                Thread.sleep(50);
+            }
+            catch (InterruptedException e)
+            {
+                throw new IOException(e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void coalesceSyncs() throws Exception
+    {
+        final int numCommitters = 16;
+        final GroupCommit groupCommit = new SlowGroupCommit();
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger numCompleted = new AtomicInteger(0);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+        Thread[] committer = new Thread[numCommitters];
+        for (int i = 0; i < numCommitters; i++)
+        {
+            committer[i] = new Thread() {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        groupCommit.sync();
+                        numCompleted.incrementAndGet();
+                    }
+                    catch (Throwable e)
+                    {
+                        error.compareAndSet(null, e);
+                    }
+                }
+            };
+            committer[i].start();
+        }
+        start.countDown();
+        for (Thread t : committer)
+            t.join();
+        if (error.get() != null)
+            throw new AssertionError(error.get());
+
+        assertEquals(numCommitters, numCompleted.get());
+        assertTrue("flush count: " + groupCommit.getFlushCount(), groupCommit.getFlushCount() < numCommitters);
+    }
+
+    @Test
+    public void diskFileSync() throws Exception
+    {
+        DiskFile file = new DiskFile(SYNC_FILE);
+        try
+        {
+            byte[] buf = "hello world!".getBytes();
+            file.writeAt(0, buf, 0, buf.length);
+            file.sync();
+            assertEquals(1, file.getSyncCount());
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+    @Test
+    public void strictModeDoesNotFlushOnSync() throws Exception
+    {
+        DiskFile file = new DiskFile(STRICT_FILE, DiskFile.Durability.STRICT);
+        try
+        {
+            byte[] buf = "hello world!".getBytes();
+            file.writeAt(0, buf, 0, buf.length);
+            file.sync();
+            assertEquals(0, file.getSyncCount());
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+}
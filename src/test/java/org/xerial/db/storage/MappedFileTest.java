@@ -0,0 +1,152 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// MappedFileTest.java
+// Since: Oct 18, 2026 10:40:12 AM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xerial.db.DBException;
+
+public class MappedFileTest
+{
+    private File dbFile;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        dbFile = new File("target/mappedfile.db");
+        dbFile.getParentFile().mkdirs();
+        dbFile.delete();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        dbFile.delete();
+    }
+
+    @Test
+    public void write() throws DBException
+    {
+        MappedFile file = new MappedFile(dbFile.getPath());
+        try
+        {
+            String m = "hello world!";
+            byte[] buf = m.getBytes();
+            file.write(buf, 0, buf.length);
+
+            file.seek(0);
+            byte[] readBuf = new byte[1024];
+            file.read(readBuf, 0, m.length());
+            assertEquals(m, new String(readBuf, 0, m.length()));
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+    @Test
+    public void writeAcrossSegments() throws DBException
+    {
+        MappedFile file = new MappedFile(dbFile.getPath(), 1024);
+        try
+        {
+            String m = "hello world!";
+            byte[] buf = m.getBytes();
+            final int offset = 3070; // crosses the segment boundary, and extends the mapping
+            file.seek(offset);
+            file.write(buf, 0, buf.length);
+            assertEquals(offset + buf.length, file.length());
+
+            file.seek(offset);
+            byte[] readBuf = new byte[1024];
+            file.read(readBuf, 0, m.length());
+            assertEquals(m, new String(readBuf, 0, m.length()));
+        }
+        finally
+        {
+            file.close();
+        }
+        assertEquals(3070 + 12, dbFile.length());
+    }
+
+    @Test
+    public void reopen() throws DBException
+    {
+        byte[] page = new byte[4096];
+        for (int i = 0; i < page.length; i++)
+            page[i] = (byte) i;
+
+        MappedFile file = new MappedFile(dbFile.getPath(), 1024);
+        file.seek(4096);
+        file.write(page, 0, page.length);
+        file.force();
+        file.close();
+
+        MappedFile file2 = new MappedFile(dbFile.getPath(), 1024);
+        try
+        {
+            assertEquals(8192, file2.length());
+            byte[] readBuf = new byte[4096];
+            file2.seek(4096);
+            file2.read(readBuf, 0, readBuf.length);
+            for (int i = 0; i < readBuf.length; i++)
+                assertEquals(page[i], readBuf[i]);
+        }
+        finally
+        {
+            file2.close();
+        }
+    }
+
+    @Test
+    public void readBeyondEOF() throws DBException
+    {
+        MappedFile file = new MappedFile(dbFile.getPath(), 1024);
+        try
+        {
+            byte[] buf = new byte[10];
+            file.write(buf, 0, buf.length);
+            file.seek(5);
+            file.read(buf, 0, 10);
+            fail("must not read beyond the end of file");
+        }
+        catch (DBException e)
+        {
+            // OK
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+}
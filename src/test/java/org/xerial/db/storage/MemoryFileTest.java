@@ -114,5 +114,21 @@ public class MemoryFileTest {
 		
 	}
 
+	@Test
+	public void readAtDoesNotMoveCursor() throws DBException
+	{
+		MemoryFile file = new MemoryFile();
+		byte[] buf = "hello world!".getBytes();
+		file.writeAt(2000, buf, 0, buf.length);
+		file.write(buf, 0, 5);
+
+		byte[] readBuf = new byte[buf.length];
+		file.readAt(2000, readBuf, 0, readBuf.length);
+		assertEquals("hello world!", new String(readBuf));
+
+		file.seek(0);
+		file.read(readBuf, 0, 5);
+		assertEquals("hello", new String(readBuf, 0, 5));
+	}
 
 }
@@ -0,0 +1,228 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2007 Taro L. Saito
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// XerialJ
+//
+// PageCodecTest.java
+// Since: Oct 18, 2026 7:56:27 PM
+//
+// $URL$
+// $Author$
+//--------------------------------------
+package org.xerial.db.storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+
+import org.junit.Test;
+import org.xerial.db.DBErrorCode;
+import org.xerial.db.DBException;
+
+public class PageCodecTest
+{
+    private static final int PAGE_SIZE = 8192;
+
+    private static PageCodec[] codecs = new PageCodec[] { new LZPageCodec(), new DeflatePageCodec() };
+
+    /**
+     * Compresses and decompresses the data at non-zero offsets
+     * 
+     * @return the compressed length
+     */
+    private static int roundTrip(PageCodec codec, byte[] data) throws DBException
+    {
+        byte[] compressed = new byte[3 + codec.maxCompressedLength(data.length)];
+        int compressedLength = codec.compress(data, 0, data.length, compressed, 3);
+        assertTrue(compressedLength <= codec.maxCompressedLength(data.length));
+
+        byte[] decompressed = new byte[data.length + 5];
+        codec.decompress(compressed, 3, compressedLength, decompressed, 5, data.length);
+        byte[] result = new byte[data.length];
+        System.arraycopy(decompressed, 5, result, 0, data.length);
+        assertArrayEquals(data, result);
+        return compressedLength;
+    }
+
+    /**
+     * A page image of records followed by the zero-filled free space
+     */
+    private static byte[] pageImage(Random random)
+    {
+        byte[] page = new byte[PAGE_SIZE];
+        int pos = 0;
+        for (int id = 0; pos < PAGE_SIZE / 2; id++)
+        {
+            byte[] record = String.format("%08d\tuser%d\tTokyo\t%d", id, random.nextInt(100), random.nextInt())
+                    .getBytes();
+            System.arraycopy(record, 0, page, pos, record.length);
+            pos += record.length;
+        }
+        return page;
+    }
+
+    @Test
+    public void roundTrip() throws Exception
+    {
+        Random random = new Random(0);
+        byte[] randomBytes = new byte[PAGE_SIZE];
+        random.nextBytes(randomBytes);
+        byte[] page = pageImage(random);
+
+        for (PageCodec codec : codecs)
+        {
+            roundTrip(codec, new byte[0]);
+            roundTrip(codec, new byte[] { 1, 2, 3 });
+            roundTrip(codec, "abcabcabcabcabcabcabcabc".getBytes());
+            roundTrip(codec, randomBytes);
+
+            // a run of the same byte is encoded in a few bytes
+            assertTrue(roundTrip(codec, new byte[PAGE_SIZE]) < 100);
+            assertTrue(roundTrip(codec, page) < PAGE_SIZE / 2);
+
+            for (int length = 1; length < 300; length += 7)
+            {
+                byte[] data = new byte[length];
+                for (int i = 0; i < length; i++)
+                    data[i] = (byte) random.nextInt(3);
+                roundTrip(codec, data);
+            }
+        }
+    }
+
+    @Test
+    public void brokenData() throws Exception
+    {
+        byte[] page = pageImage(new Random(0));
+        for (PageCodec codec : codecs)
+        {
+            byte[] compressed = new byte[codec.maxCompressedLength(PAGE_SIZE)];
+            int compressedLength = codec.compress(page, 0, PAGE_SIZE, compressed, 0);
+            byte[] decompressed = new byte[PAGE_SIZE];
+            try
+            {
+                codec.decompress(compressed, 0, compressedLength / 2, decompressed, 0, PAGE_SIZE);
+                fail("the truncated data is decompressed");
+            }
+            catch (DBException e)
+            {
+                assertTrue(e.getErrorCode() == DBErrorCode.InvalidDataFormat);
+            }
+        }
+    }
+
+    @Test
+    public void reusedState() throws Exception
+    {
+        Random random = new Random(1);
+        byte[] page = pageImage(random);
+        byte[] randomBytes = new byte[PAGE_SIZE];
+        random.nextBytes(randomBytes);
+
+        PageCodec[] newCodecs = new PageCodec[] { new LZPageCodec(), new DeflatePageCodec() };
+        for (int c = 0; c < codecs.length; c++)
+        {
+            PageCodec codec = codecs[c];
+            byte[] expected = new byte[codec.maxCompressedLength(PAGE_SIZE)];
+            int expectedLength = newCodecs[c].compress(page, 0, PAGE_SIZE, expected, 0);
+
+            // the state left by the other pages and the broken data does not affect the page
+            roundTrip(codec, randomBytes);
+            byte[] compressed = new byte[codec.maxCompressedLength(PAGE_SIZE)];
+            int compressedLength = codec.compress(page, 0, PAGE_SIZE, compressed, 0);
+            try
+            {
+                codec.decompress(compressed, 0, compressedLength / 2, new byte[PAGE_SIZE], 0, PAGE_SIZE);
+                fail("the truncated data is decompressed");
+            }
+            catch (DBException e)
+            {
+                assertTrue(e.getErrorCode() == DBErrorCode.InvalidDataFormat);
+            }
+            for (int i = 0; i < 3; i++)
+                assertEquals(expectedLength, roundTrip(codec, page));
+            assertEquals(expectedLength, codec.compress(page, 0, PAGE_SIZE, compressed, 0));
+            for (int i = 0; i < expectedLength; i++)
+                assertEquals(expected[i], compressed[i]);
+        }
+    }
+
+    @Test
+    public void deflateLevels() throws Exception
+    {
+        byte[] page = pageImage(new Random(2));
+        PageCodec stored = new DeflatePageCodec(0);
+        PageCodec fastest = new DeflatePageCodec(Deflater.BEST_SPEED);
+        PageCodec smallest = new DeflatePageCodec(Deflater.BEST_COMPRESSION);
+
+        // the codecs of the different levels share the state of the thread
+        for (int i = 0; i < 3; i++)
+        {
+            assertTrue(roundTrip(stored, page) > PAGE_SIZE);
+            int fastLength = roundTrip(fastest, page);
+            assertTrue(fastLength < PAGE_SIZE / 2);
+            assertTrue(roundTrip(smallest, page) <= fastLength);
+        }
+
+        try
+        {
+            new DeflatePageCodec(10);
+            fail("invalid level");
+        }
+        catch (IllegalArgumentException e)
+        {}
+    }
+
+    @Test
+    public void concurrentCalls() throws Exception
+    {
+        for (final PageCodec codec : codecs)
+        {
+            final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++)
+            {
+                final long seed = t;
+                threads[t] = new Thread() {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            Random random = new Random(seed);
+                            for (int i = 0; i < 200; i++)
+                                roundTrip(codec, pageImage(random));
+                        }
+                        catch (Throwable e)
+                        {
+                            error.compareAndSet(null, e);
+                        }
+                    }
+                };
+                threads[t].start();
+            }
+            for (Thread t : threads)
+                t.join();
+            if (error.get() != null)
+                throw new AssertionError(error.get());
+        }
+    }
+}